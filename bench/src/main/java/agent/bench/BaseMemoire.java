@@ -0,0 +1,570 @@
+package agent.bench;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cette classe est une base de données en mémoire, accessible par JDBC avec une URL jdbc:memoire:, qui remplace MySQL
+ * pour les mesures de performance, sans serveur ni réseau. Elle ne fait pas partie de l'agent : ses résultats ne
+ * respectent pas les conditions des requêtes, et elle n'est enregistrée que par l'environnement des mesures
+ * ({@link Environnement}). Elle connaît les tables personnes et
+ * produits de src/db.sql et retourne, pour chaque requête SELECT, les colonnes demandées de la première table de la
+ * requête sur un nombre fixe de tuples générés de façon déterministe ; la condition et ses paramètres sont ignorés.
+ * Une clause LIMIT (et OFFSET) finale, avec des valeurs ou des paramètres, est appliquée, de même que les limites
+ * setMaxRows et setQueryTimeout des instructions. Les écritures sont acceptées et ignorées.
+ * <p>
+ * L'URL accepte les paramètres lignes (100), le nombre de tuples retournés par requête, et latence (0), le délai en
+ * millisecondes ajouté à chaque exécution, séparés par des points-virgules : jdbc:memoire:lignes=1000;latence=2.
+ */
+final class BaseMemoire implements Driver {
+    /**
+     * Le préfixe des URL acceptées par cette base.
+     */
+    public static final String PREFIXE = "jdbc:memoire:";
+
+    private static final Pattern SELECT = Pattern.compile("(?is)^\\s*SELECT\\s+(.+?)\\s+FROM\\s+([`\\w.]+)");
+    private static final Pattern LIMIT = Pattern.compile("(?i)\\sLIMIT\\s+(\\?|\\d+)(?:\\s+OFFSET\\s+(\\?|\\d+))?\\s*$");
+    private static final String[] NOMS = {"Doe", "Martin", "Bernard", "Dubois", "Durand", "Lefebvre", "Moreau"};
+    private static final String[] PRENOMS = {"John", "Jane", "Marie", "Pierre", "Sophie", "Luc"};
+    private static final Map<String, Colonne[]> TABLES = new HashMap<>();
+
+    static {
+        TABLES.put("personnes", new Colonne[]{
+                new Colonne("id", Types.INTEGER, "INT"), new Colonne("nom", Types.VARCHAR, "VARCHAR"),
+                new Colonne("prenom", Types.VARCHAR, "VARCHAR"), new Colonne("age", Types.INTEGER, "INT")});
+        TABLES.put("produits", new Colonne[]{
+                new Colonne("id", Types.INTEGER, "INT"), new Colonne("nom", Types.VARCHAR, "VARCHAR"),
+                new Colonne("description", Types.VARCHAR, "VARCHAR"), new Colonne("prix", Types.DECIMAL, "DECIMAL")});
+    }
+
+    private static volatile boolean enregistree;
+
+    /**
+     * Enregistre la base auprès du DriverManager, si ce n'est pas déjà fait.
+     */
+    public static synchronized void enregistrer() {
+        if (!enregistree) {
+            try {
+                DriverManager.registerDriver(new BaseMemoire());
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+            enregistree = true;
+        }
+    }
+
+    /**
+     * Retourne un ResultSet contenant toutes les colonnes d'une table sur le nombre de tuples donné, sans passer par
+     * une connexion.
+     *
+     * @param table  le nom de la table, personnes ou produits
+     * @param lignes le nombre de tuples
+     * @return le ResultSet
+     * @throws SQLException si la table est inconnue
+     */
+    public static ResultSet generer(String table, int lignes) throws SQLException {
+        return new Resultat(table, colonnes(table), lignes, 0).proxy();
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        int lignes = 100;
+        long latence = 0;
+        for (String parametre : url.substring(PREFIXE.length()).split(";")) {
+            int egal = parametre.indexOf('=');
+            if (egal < 0) {
+                continue;
+            }
+            String nom = parametre.substring(0, egal).trim();
+            String valeur = parametre.substring(egal + 1).trim();
+            try {
+                if (nom.equals("lignes")) {
+                    lignes = Integer.parseInt(valeur);
+                } else if (nom.equals("latence")) {
+                    latence = Long.parseLong(valeur);
+                }
+            } catch (NumberFormatException e) {
+                throw new SQLException("Paramètre invalide dans l'URL : " + parametre, e);
+            }
+        }
+        return new Connexion(lignes, latence).proxy();
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith(PREFIXE);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    private static Colonne[] colonnes(String table) throws SQLException {
+        Colonne[] colonnes = TABLES.get(table.toLowerCase(Locale.ROOT));
+        if (colonnes == null) {
+            throw new SQLException("Table inconnue : " + table);
+        }
+        return colonnes;
+    }
+
+    /**
+     * Retourne la valeur d'une colonne pour le tuple de rang donné (à partir de 1). Quelques valeurs sont NULL pour
+     * que ce cas soit aussi mesuré.
+     */
+    private static Object valeur(String table, String colonne, int rang) {
+        switch (colonne) {
+            case "id":
+                return rang;
+            case "nom":
+                return table.equals("produits") ? "Produit " + rang : NOMS[rang % NOMS.length];
+            case "prenom":
+                return rang % 5 == 0 ? null : PRENOMS[rang % PRENOMS.length];
+            case "age":
+                return 18 + (rang * 37) % 60;
+            case "description":
+                return rang % 3 == 0 ? "Un produit haut de gamme" : "Un produit d'entrée de gamme";
+            default:
+                return BigDecimal.valueOf((rang * 1999L) % 100000, 2);
+        }
+    }
+
+    /**
+     * Traite les appels reçus par un objet JDBC ; les méthodes d'Object sont traitées ici pour toutes les classes.
+     */
+    private abstract static class Objet implements InvocationHandler {
+        private final Class<?> type;
+        private boolean ferme;
+
+        Objet(Class<?> type) {
+            this.type = type;
+        }
+
+        <T> T proxy() {
+            @SuppressWarnings("unchecked")
+            T proxy = (T) Proxy.newProxyInstance(BaseMemoire.class.getClassLoader(), new Class<?>[]{type}, this);
+            return proxy;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+                case "close":
+                    ferme = true;
+                    return null;
+                case "isClosed":
+                    return ferme;
+                case "isWrapperFor":
+                    return ((Class<?>) args[0]).isInstance(proxy);
+                case "unwrap":
+                    return ((Class<?>) args[0]).cast(proxy);
+                default:
+                    return traiter(proxy, method, args);
+            }
+        }
+
+        abstract Object traiter(Object proxy, Method method, Object[] args) throws Exception;
+
+        static Object nonPrisEnCharge(Method method) throws SQLFeatureNotSupportedException {
+            if (method.getReturnType() == void.class) {
+                return null;
+            }
+            throw new SQLFeatureNotSupportedException(method.getName() + " n'est pas pris en charge par la base en mémoire");
+        }
+    }
+
+    private static final class Connexion extends Objet {
+        private final int lignes;
+        private final long latence;
+        private String catalogue = "";
+        private boolean autoCommit = true;
+
+        Connexion(int lignes, long latence) {
+            super(Connection.class);
+            this.lignes = lignes;
+            this.latence = latence;
+        }
+
+        @Override
+        Object traiter(Object proxy, Method method, Object[] args) throws Exception {
+            switch (method.getName()) {
+                case "isValid":
+                    return true;
+                case "getCatalog":
+                    return catalogue;
+                case "setCatalog":
+                    catalogue = (String) args[0];
+                    return null;
+                case "getAutoCommit":
+                    return autoCommit;
+                case "setAutoCommit":
+                    autoCommit = (Boolean) args[0];
+                    return null;
+                case "createStatement":
+                    return new Instruction(Statement.class, null, this).proxy();
+                case "prepareStatement":
+                    return new Instruction(PreparedStatement.class, (String) args[0], this).proxy();
+                case "getWarnings":
+                    return null;
+                default:
+                    return nonPrisEnCharge(method);
+            }
+        }
+    }
+
+    private static final class Instruction extends Objet {
+        private final String sql;
+        private final Connexion connexion;
+        private int maxLignes;
+        private int timeoutSecondes;
+        private final Map<Integer, Object> parametres = new HashMap<>();
+        private final List<String> lot = new ArrayList<>();
+
+        Instruction(Class<? extends Statement> type, String sql, Connexion connexion) {
+            super(type);
+            this.sql = sql;
+            this.connexion = connexion;
+        }
+
+        @Override
+        Object traiter(Object proxy, Method method, Object[] args) throws Exception {
+            String nom = method.getName();
+            if (nom.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer
+                    && !nom.equals("setFetchDirection")) {
+                // setObject, setInt, setString... : seuls ceux de LIMIT et OFFSET sont utilisés.
+                parametres.put((Integer) args[0], args[1]);
+                return null;
+            }
+            switch (nom) {
+                case "executeQuery":
+                    return executer(args == null ? sql : (String) args[0]);
+                case "execute":
+                case "executeUpdate":
+                    attendre();
+                    return nom.equals("execute") ? (Object) false : (Object) 0;
+                case "addBatch":
+                    lot.add(args == null ? sql : (String) args[0]);
+                    return null;
+                case "executeBatch":
+                    attendre();
+                    int[] resultats = new int[lot.size()];
+                    lot.clear();
+                    Arrays.fill(resultats, 1);
+                    return resultats;
+                case "clearBatch":
+                    lot.clear();
+                    return null;
+                case "clearParameters":
+                    parametres.clear();
+                    return null;
+                case "setQueryTimeout":
+                    timeoutSecondes = (Integer) args[0];
+                    return null;
+                case "getQueryTimeout":
+                    return timeoutSecondes;
+                case "setMaxRows":
+                    maxLignes = (Integer) args[0];
+                    return null;
+                case "getMaxRows":
+                    return maxLignes;
+                case "getConnection":
+                    return null;
+                case "getUpdateCount":
+                    return -1;
+                case "getWarnings":
+                    return null;
+                default:
+                    return nonPrisEnCharge(method);
+            }
+        }
+
+        private ResultSet executer(String requete) throws SQLException {
+            Matcher matcher = SELECT.matcher(requete);
+            if (!matcher.find()) {
+                throw new SQLException("Seules les requêtes SELECT retournent des tuples : " + requete);
+            }
+            String table = sansGuillemets(matcher.group(2));
+            Colonne[] toutes = colonnes(table);
+            List<Colonne> demandees = new ArrayList<>();
+            for (String champ : matcher.group(1).split(",")) {
+                String colonne = sansGuillemets(champ.trim());
+                if (colonne.equals("*")) {
+                    demandees.addAll(List.of(toutes));
+                    continue;
+                }
+                Colonne trouvee = null;
+                for (Colonne candidate : toutes) {
+                    if (candidate.nom.equalsIgnoreCase(colonne)) {
+                        trouvee = candidate;
+                    }
+                }
+                if (trouvee == null) {
+                    throw new SQLException("Colonne inconnue : " + champ.trim());
+                }
+                demandees.add(trouvee);
+            }
+            long decalage = 0;
+            long lignes = connexion.lignes;
+            Matcher limite = LIMIT.matcher(requete);
+            if (limite.find()) {
+                int position = (int) requete.substring(0, limite.start()).chars().filter(c -> c == '?').count();
+                lignes = entier(limite.group(1), position + 1);
+                if (limite.group(2) != null) {
+                    decalage = entier(limite.group(2), position + 2);
+                }
+                lignes = Math.max(0, Math.min(lignes, connexion.lignes - decalage));
+            }
+            attendre();
+            if (maxLignes > 0) {
+                lignes = Math.min(maxLignes, lignes);
+            }
+            return new Resultat(table, demandees.toArray(new Colonne[0]), (int) lignes, (int) decalage).proxy();
+        }
+
+        /**
+         * Retourne la valeur d'un nombre de la clause LIMIT, écrit dans la requête ou passé en paramètre.
+         */
+        private long entier(String valeur, int parametre) throws SQLException {
+            if (!valeur.equals("?")) {
+                return Long.parseLong(valeur);
+            }
+            Object lie = parametres.get(parametre);
+            if (!(lie instanceof Number)) {
+                throw new SQLException("Le paramètre " + parametre + " de LIMIT ou OFFSET n'est pas un nombre : " + lie);
+            }
+            return ((Number) lie).longValue();
+        }
+
+        /**
+         * Ajoute la latence de la base, ou attend le délai maximal de l'instruction puis lève une SQLTimeoutException
+         * si la latence le dépasse.
+         */
+        private void attendre() throws SQLException {
+            boolean depasse = timeoutSecondes > 0 && connexion.latence > timeoutSecondes * 1000L;
+            long attente = depasse ? timeoutSecondes * 1000L : connexion.latence;
+            if (attente > 0) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(attente);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Exécution interrompue", e);
+                }
+            }
+            if (depasse) {
+                throw new SQLTimeoutException("L'exécution a dépassé le délai de " + timeoutSecondes + " s");
+            }
+        }
+
+        /**
+         * Retourne le dernier composant d'un nom éventuellement qualifié et cité : `personnes`.`nom` donne nom.
+         */
+        private static String sansGuillemets(String nom) {
+            String sans = nom.replace("`", "");
+            return sans.substring(sans.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static final class Resultat extends Objet {
+        private final String table;
+        private final Colonne[] colonnes;
+        private final int lignes;
+        private final int decalage;
+        private int rang;
+        private boolean nul;
+
+        Resultat(String table, Colonne[] colonnes, int lignes, int decalage) {
+            super(ResultSet.class);
+            this.table = table.toLowerCase(Locale.ROOT);
+            this.colonnes = colonnes;
+            this.lignes = lignes;
+            this.decalage = decalage;
+        }
+
+        @Override
+        Object traiter(Object proxy, Method method, Object[] args) throws Exception {
+            String nom = method.getName();
+            switch (nom) {
+                case "next":
+                    return ++rang <= lignes;
+                case "wasNull":
+                    return nul;
+                case "getMetaData":
+                    return new MetaDonnees(table, colonnes).proxy();
+                case "findColumn":
+                    return position((String) args[0]);
+                case "getRow":
+                    return rang <= lignes ? rang : 0;
+                case "getWarnings":
+                    return null;
+                case "setFetchSize":
+                    return null;
+                default:
+                    if (nom.startsWith("get") && args != null && args.length >= 1) {
+                        int position = args[0] instanceof Integer ? (Integer) args[0] : position((String) args[0]);
+                        return lire(method, args, position);
+                    }
+                    return nonPrisEnCharge(method);
+            }
+        }
+
+        private int position(String label) throws SQLException {
+            for (int i = 0; i < colonnes.length; i++) {
+                if (colonnes[i].nom.equalsIgnoreCase(label)) {
+                    return i + 1;
+                }
+            }
+            throw new SQLException("Colonne inconnue : " + label);
+        }
+
+        private Object lire(Method method, Object[] args, int position) throws SQLException {
+            if (rang < 1 || rang > lignes) {
+                throw new SQLException("Aucun tuple courant");
+            }
+            if (position < 1 || position > colonnes.length) {
+                throw new SQLException("Colonne invalide : " + position);
+            }
+            Object valeur = valeur(table, colonnes[position - 1].nom, decalage + rang);
+            nul = valeur == null;
+            Class<?> type = method.getReturnType();
+            if (method.getName().equals("getObject") && args.length == 2 && args[1] instanceof Class) {
+                type = (Class<?>) args[1];
+                if (valeur == null || type.isInstance(valeur)) {
+                    return valeur;
+                }
+            }
+            if (type == Object.class) {
+                return valeur;
+            }
+            if (type == String.class) {
+                return valeur == null ? null : valeur.toString();
+            }
+            if (type == BigDecimal.class) {
+                return valeur == null || valeur instanceof BigDecimal ? valeur : new BigDecimal(valeur.toString());
+            }
+            if (valeur == null) {
+                return type == boolean.class ? false : type.isPrimitive() ? (Object) 0 : null;
+            }
+            if (!(valeur instanceof Number)) {
+                throw new SQLException("La valeur " + valeur + " n'est pas un nombre");
+            }
+            Number nombre = (Number) valeur;
+            if (type == int.class || type == Integer.class) {
+                return nombre.intValue();
+            } else if (type == long.class || type == Long.class) {
+                return nombre.longValue();
+            } else if (type == double.class || type == Double.class) {
+                return nombre.doubleValue();
+            } else if (type == float.class || type == Float.class) {
+                return nombre.floatValue();
+            } else if (type == short.class || type == Short.class) {
+                return nombre.shortValue();
+            } else if (type == byte.class || type == Byte.class) {
+                return nombre.byteValue();
+            } else if (type == boolean.class || type == Boolean.class) {
+                return nombre.intValue() != 0;
+            }
+            throw new SQLFeatureNotSupportedException(method.getName() + " n'est pas pris en charge par la base en mémoire");
+        }
+    }
+
+    private static final class MetaDonnees extends Objet {
+        private final String table;
+        private final Colonne[] colonnes;
+
+        MetaDonnees(String table, Colonne[] colonnes) {
+            super(ResultSetMetaData.class);
+            this.table = table;
+            this.colonnes = colonnes;
+        }
+
+        @Override
+        Object traiter(Object proxy, Method method, Object[] args) throws Exception {
+            if (method.getName().equals("getColumnCount")) {
+                return colonnes.length;
+            }
+            Colonne colonne = colonnes[(Integer) args[0] - 1];
+            switch (method.getName()) {
+                case "getColumnLabel":
+                case "getColumnName":
+                    return colonne.nom;
+                case "getColumnType":
+                    return colonne.type;
+                case "getColumnTypeName":
+                    return colonne.nomType;
+                case "getTableName":
+                    return table;
+                case "getCatalogName":
+                case "getSchemaName":
+                    return "";
+                case "getPrecision":
+                    return colonne.type == Types.DECIMAL ? 10 : colonne.type == Types.INTEGER ? 11 : 255;
+                case "getScale":
+                    return colonne.type == Types.DECIMAL ? 2 : 0;
+                case "isSigned":
+                    return colonne.type != Types.VARCHAR;
+                case "isNullable":
+                    return colonne.nom.equals("id") ? ResultSetMetaData.columnNoNulls : ResultSetMetaData.columnNullable;
+                case "getColumnClassName":
+                    return colonne.type == Types.DECIMAL ? BigDecimal.class.getName()
+                            : colonne.type == Types.INTEGER ? Integer.class.getName() : String.class.getName();
+                default:
+                    return nonPrisEnCharge(method);
+            }
+        }
+    }
+
+    private static final class Colonne {
+        private final String nom;
+        private final int type;
+        private final String nomType;
+
+        Colonne(String nom, int type, String nomType) {
+            this.nom = nom;
+            this.type = type;
+            this.nomType = nomType;
+        }
+    }
+}
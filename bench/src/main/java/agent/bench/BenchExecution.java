@@ -0,0 +1,44 @@
+package agent.bench;
+
+import agent.Agent;
+import agent.AlgorithmeSignature;
+import agent.OutilsXML;
+import agent.RequeteCompilee;
+import agent.RequeteSelect;
+import org.openjdk.jmh.annotations.*;
+import org.w3c.dom.Document;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mesure l'exécution d'une requête compilée par l'agent destinataire sur la base en mémoire : emprunt d'une connexion
+ * du pool, réutilisation de l'instruction préparée, lecture des tuples et construction du document RESULTAT.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class BenchExecution {
+    @Param({"10", "1000", "100000"})
+    public int tuples;
+
+    private Agent agent;
+    private RequeteCompilee requete;
+
+    @Setup(Level.Trial)
+    public void preparer() throws Exception {
+        agent = new Agent("bench1", "db_bench", Environnement.preparer(tuples), AlgorithmeSignature.ECDSA_SHA256);
+        String select = "<SELECT><CHAMPS><CHAMP>*</CHAMP></CHAMPS><TABLES><TABLE>personnes</TABLE></TABLES>"
+                + "<CONDITION>age &gt; 30</CONDITION></SELECT>";
+        requete = RequeteSelect.analyser(OutilsXML.analyser(select.getBytes(StandardCharsets.UTF_8))
+                .getDocumentElement()).compiler();
+    }
+
+    @Benchmark
+    public Document executer() throws Exception {
+        return agent.executerRequete(requete);
+    }
+}
@@ -0,0 +1,55 @@
+package agent.bench;
+
+import agent.OutilsXML;
+import agent.RequeteCompilee;
+import agent.RequeteSelect;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mesure l'extraction de la requête SQL d'un document SELECT : analyse XML, construction de l'arbre typé et
+ * compilation en requête paramétrée.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BenchExtraction {
+    @Param({"simple", "condition", "jointure"})
+    public String requete;
+
+    private byte[] document;
+
+    @Setup(Level.Trial)
+    public void preparer() {
+        Environnement.preparer(10);
+        String select;
+        switch (requete) {
+            case "simple":
+                select = "<SELECT><CHAMPS><CHAMP>*</CHAMP></CHAMPS><TABLES><TABLE>personnes</TABLE></TABLES>"
+                        + "<CONDITION>nom LIKE 'doe'</CONDITION></SELECT>";
+                break;
+            case "condition":
+                select = "<SELECT><CHAMPS><CHAMP>nom</CHAMP><CHAMP>prenom</CHAMP></CHAMPS>"
+                        + "<TABLES><TABLE>personnes</TABLE></TABLES><CONDITION>age &gt; 30 AND (nom LIKE 'D%' OR "
+                        + "prenom IN ('Jane', 'John', 'Marie')) AND age BETWEEN 18 AND 65 AND prenom IS NOT NULL"
+                        + "</CONDITION></SELECT>";
+                break;
+            default:
+                select = "<SELECT><CHAMPS><CHAMP>personnes.nom</CHAMP><CHAMP>produits.prix</CHAMP></CHAMPS>"
+                        + "<TABLES><TABLE>personnes</TABLE><TABLE>produits</TABLE></TABLES>"
+                        + "<JOINTURE GAUCHE=\"personnes.id\" DROITE=\"produits.id\"/>"
+                        + "<CONDITION>personnes.age &gt; 30</CONDITION></SELECT>";
+        }
+        document = select.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public RequeteCompilee extraire() throws Exception {
+        return RequeteSelect.analyser(OutilsXML.analyser(document).getDocumentElement()).compiler();
+    }
+}
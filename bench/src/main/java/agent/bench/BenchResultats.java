@@ -0,0 +1,67 @@
+package agent.bench;
+
+import agent.Agent;
+import agent.Compression;
+import agent.EncodageCompact;
+import agent.OutilsXML;
+import org.openjdk.jmh.annotations.*;
+import org.w3c.dom.Document;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mesure la sérialisation des résultats lus sur la base en mémoire (arbre DOM ou codage compact), puis
+ * leur analyse et leur affichage par l'agent émetteur, selon le nombre de tuples.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class BenchResultats {
+    @Param({"10", "1000", "100000", "1000000"})
+    public int tuples;
+
+    private byte[] xml;
+    private Document document;
+    private Document compact;
+
+    @Setup(Level.Trial)
+    public void preparer() throws Exception {
+        Environnement.preparer(tuples);
+        xml = OutilsXML.serialiser(Agent.resultSetToDocument(BaseMemoire.generer("personnes", tuples)));
+        document = OutilsXML.analyser(xml);
+        compact = OutilsXML.nouveauDocument();
+        compact.appendChild(EncodageCompact.encoder(BaseMemoire.generer("personnes", tuples), compact,
+                Compression.DEFLATE));
+    }
+
+    @Benchmark
+    public byte[] serialiserDom() throws Exception {
+        return OutilsXML.serialiser(Agent.resultSetToDocument(BaseMemoire.generer("personnes", tuples)));
+    }
+
+    @Benchmark
+    public byte[] serialiserCompact() throws Exception {
+        Document resultat = OutilsXML.nouveauDocument();
+        resultat.appendChild(EncodageCompact.encoder(BaseMemoire.generer("personnes", tuples), resultat,
+                Compression.DEFLATE));
+        return OutilsXML.serialiser(resultat);
+    }
+
+    @Benchmark
+    public Document analyser() throws Exception {
+        return OutilsXML.analyser(xml);
+    }
+
+    @Benchmark
+    public String afficher() {
+        return Agent.afficherResultats(document);
+    }
+
+    @Benchmark
+    public String afficherCompact() {
+        return Agent.afficherResultats(compact);
+    }
+}
@@ -0,0 +1,67 @@
+package agent.bench;
+
+import agent.Agent;
+import agent.MagasinCles;
+import agent.OutilsXML;
+import org.openjdk.jmh.annotations.*;
+import org.w3c.dom.Document;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mesure la signature et la vérification d'un document RESULTAT, selon son nombre de tuples et le type de clé.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class BenchSignature {
+    @Param({"10", "1000", "100000", "1000000"})
+    public int tuples;
+
+    @Param({"RSA_SHA256", "ECDSA_SHA256"})
+    public String algorithme;
+
+    private Agent signataire;
+    private Agent verificateur;
+    private Document modele;
+    private Document aSigner;
+    private Document signe;
+    private byte[] octets;
+
+    @Setup(Level.Trial)
+    public void preparer() throws Exception {
+        MagasinCles magasin = Environnement.preparer(tuples);
+        signataire = new Agent("bench1", "db_bench", magasin, Environnement.algorithme(algorithme));
+        verificateur = new Agent("bench2", "db_bench", magasin, Environnement.algorithme(algorithme));
+        verificateur.exchangeKeys(signataire);
+        modele = Agent.resultSetToDocument(BaseMemoire.generer("personnes", tuples));
+        Document document = (Document) modele.cloneNode(true);
+        signataire.signerDocument(document);
+        octets = OutilsXML.serialiser(document);
+        signe = OutilsXML.analyser(octets);
+    }
+
+    @Setup(Level.Invocation)
+    public void copier() {
+        aSigner = (Document) modele.cloneNode(true);
+    }
+
+    @Benchmark
+    public Document signer() throws Exception {
+        signataire.signerDocument(aSigner);
+        return aSigner;
+    }
+
+    @Benchmark
+    public boolean verifier() {
+        return verificateur.verifierSignature(signe);
+    }
+
+    @Benchmark
+    public boolean verifierFlux() {
+        return verificateur.verifierSignature(octets);
+    }
+}
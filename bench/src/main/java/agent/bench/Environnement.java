@@ -0,0 +1,66 @@
+package agent.bench;
+
+import agent.AlgorithmeSignature;
+import agent.Configuration;
+import agent.MagasinCles;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Cette classe prépare l'environnement d'une mesure : la base en mémoire, enregistrée auprès du DriverManager, un
+ * fichier de configuration temporaire qui y dirige les agents, sans cache ni archivage, et un dossier temporaire pour
+ * leurs magasins de clés, protégés par un mot de passe aléatoire. Elle doit être appelée avant toute utilisation de la
+ * configuration ; JMH lançant une JVM par combinaison de paramètres, chaque mesure a donc sa propre configuration.
+ */
+final class Environnement {
+    private static Path dossier;
+    private static String motDePasse;
+
+    private Environnement() {
+    }
+
+    /**
+     * Prépare l'environnement, si ce n'est pas déjà fait dans cette JVM.
+     *
+     * @param lignes le nombre de tuples retournés par chaque requête exécutée sur la base en mémoire
+     * @return le magasin de clés temporaire
+     */
+    static synchronized MagasinCles preparer(int lignes) {
+        try {
+            if (dossier == null) {
+                BaseMemoire.enregistrer();
+                dossier = Files.createTempDirectory("distributedxmldb-bench");
+                byte[] aleatoire = new byte[18];
+                new SecureRandom().nextBytes(aleatoire);
+                motDePasse = Base64.getUrlEncoder().encodeToString(aleatoire);
+                String config = "db=jdbc:memoire:lignes=" + lignes + "\n"
+                        + "cacheActif=false\n"
+                        + "archivage=false\n"
+                        + "magasinCles=" + dossier.resolve("keys").toString().replace('\\', '/') + "\n"
+                        + "motDePasseMagasin=" + motDePasse + "\n";
+                Path fichier = dossier.resolve("config.ini");
+                Files.write(fichier, config.getBytes(StandardCharsets.ISO_8859_1));
+                System.setProperty(Configuration.PROPRIETE_FICHIER, fichier.toString());
+            }
+            return new MagasinCles(dossier.resolve("keys"), motDePasse.toCharArray());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Retourne l'algorithme de signature de nom donné.
+     *
+     * @param nom le nom de l'algorithme
+     * @return l'algorithme
+     */
+    static AlgorithmeSignature algorithme(String nom) {
+        return AlgorithmeSignature.valueOf(nom);
+    }
+}
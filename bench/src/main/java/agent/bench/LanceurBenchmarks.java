@@ -0,0 +1,37 @@
+package agent.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Lance les mesures JMH avec les options de la ligne de commande (par exemple -p tuples=10,1000 BenchSignature). Sauf
+ * indication contraire, les résultats sont écrits au format JSON dans resultats-jmh.json et le profileur gc est activé,
+ * pour suivre le débit et le taux d'allocation (gc.alloc.rate.norm) de chaque étape.
+ */
+public final class LanceurBenchmarks {
+    private LanceurBenchmarks() {
+    }
+
+    /**
+     * @param args les options JMH
+     * @throws Exception si les options sont invalides ou si une mesure échoue
+     */
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions ligne = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(ligne);
+        if (!ligne.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!ligne.getResult().hasValue()) {
+            options.result("resultats-jmh.json");
+        }
+        if (ligne.getProfilers().isEmpty()) {
+            options.addProfiler(GCProfiler.class);
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,46 @@
+package agent;
+
+import org.w3c.dom.Document;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+
+/**
+ * Deux agents partagés par les tests, dont les clés sont générées dans le magasin de la configuration de test lors du
+ * premier lancement, et qui se font mutuellement confiance.
+ */
+final class AgentsDeTest {
+    static final Agent EMETTEUR = new Agent("emetteur-test", "db_relationnelle_1");
+    static final Agent DESTINATAIRE = new Agent("destinataire-test", "db_relationnelle_1");
+
+    static {
+        EMETTEUR.exchangeKeys(DESTINATAIRE);
+        DESTINATAIRE.exchangeKeys(EMETTEUR);
+    }
+
+    private AgentsDeTest() {
+    }
+
+    static Document document(String xml) throws Exception {
+        return OutilsXML.analyser(xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Ouvre une session de l'émetteur vers le destinataire, comme le fait l'émetteur en mode session.
+     *
+     * @return la session, côté émetteur
+     */
+    static Session ouvrirSession() throws Exception {
+        byte[] nonce = Session.aleatoire(32);
+        KeyPair ephemere = Session.genererEphemere();
+        Document demande = Session.demande(nonce, ephemere);
+        EMETTEUR.signerDocument(demande);
+        ReponseRequete reponse = DESTINATAIRE.traiterRequete(
+                new Requete(1, OutilsXML.serialiser(demande), Session.SESSION));
+        Document document = OutilsXML.analyser(reponse.getResultatSigne());
+        if (!EMETTEUR.verifierSignature(document)) {
+            throw new AssertionError("Réponse d'ouverture de session mal signée");
+        }
+        return Session.ouvrir(document, nonce, ephemere);
+    }
+}
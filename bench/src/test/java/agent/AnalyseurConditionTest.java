@@ -0,0 +1,109 @@
+package agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AnalyseurConditionTest {
+    /**
+     * Analyse une condition, et vérifie le SQL paramétré et les paramètres obtenus.
+     */
+    private static void verifier(String condition, String sql, Object... parametres) {
+        StringBuilder compile = new StringBuilder();
+        List<Object> valeurs = new ArrayList<>();
+        AnalyseurCondition.analyser(condition).compiler(compile, valeurs);
+        assertEquals(sql, compile.toString());
+        assertEquals(List.of(parametres), valeurs);
+    }
+
+    /**
+     * Vérifie qu'une condition est refusée, pour la raison attendue.
+     */
+    private static void refuser(String condition, String raison) {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> AnalyseurCondition.analyser(condition), condition);
+        assertTrue(e.getMessage().contains(raison), e.getMessage());
+    }
+
+    @Test
+    void lesComparaisonsSontParametrees() {
+        verifier("nom LIKE 'doe'", "`nom` LIKE ?", "doe");
+        verifier("age > 30 AND nom = 'Doe'", "(`age` > ? AND `nom` = ?)", 30L, "Doe");
+        verifier("poids != -2.50", "`poids` <> ?", new BigDecimal("-2.50"));
+        verifier("age<=+7", "`age` <= ?", 7L);
+        verifier("actif = true OR supprime = FALSE", "(`actif` = ? OR `supprime` = ?)", true, false);
+        verifier("nom = 'l''ami ; -- /* */'", "`nom` = ?", "l'ami ; -- /* */");
+    }
+
+    @Test
+    void lesAutresPredicatsSontReconnus() {
+        verifier("nom not like 'D%'", "`nom` NOT LIKE ?", "D%");
+        verifier("age BETWEEN 18 AND 65", "`age` BETWEEN ? AND ?", 18L, 65L);
+        verifier("age NOT BETWEEN 1 AND 2 AND nom IS NULL", "(`age` NOT BETWEEN ? AND ? AND `nom` IS NULL)", 1L, 2L);
+        verifier("ville IN ('Paris', 'Lyon')", "`ville` IN (?, ?)", "Paris", "Lyon");
+        verifier("id NOT IN (1)", "`id` NOT IN (?)", 1L);
+        verifier("nom IS NOT NULL", "`nom` IS NOT NULL");
+    }
+
+    @Test
+    void uneColonnePeutEtreCompareeAUneAutre() {
+        verifier("personnes.id = adresses.personne_id", "`personnes`.`id` = `adresses`.`personne_id`");
+        Set<String> colonnes = new TreeSet<>();
+        AnalyseurCondition.analyser("a = b OR NOT c IN (1, 2)").colonnes(colonnes);
+        assertEquals(Set.of("a", "b", "c"), colonnes);
+    }
+
+    @Test
+    void lesPrioritesEtLesParenthesesSontRespectees() {
+        verifier("a = 1 OR b = 2 AND c = 3", "(`a` = ? OR (`b` = ? AND `c` = ?))", 1L, 2L, 3L);
+        verifier("(a = 1 OR b = 2) AND NOT c = 3", "((`a` = ? OR `b` = ?) AND NOT (`c` = ?))", 1L, 2L, 3L);
+        verifier("NOT NOT a = 1", "NOT (NOT (`a` = ?))", 1L);
+
+        String imbriquee = "(".repeat(64) + "a = 1" + ")".repeat(64);
+        verifier(imbriquee, "`a` = ?", 1L);
+        refuser("(" + imbriquee + ")", "condition trop imbriquée");
+
+        verifier("NOT ".repeat(64) + "a = 1", "NOT (".repeat(64) + "`a` = ?" + ")".repeat(64), 1L);
+        refuser("NOT ".repeat(65) + "a = 1", "condition trop imbriquée");
+        refuser("NOT ".repeat(50_000) + "a = 1", "condition trop imbriquée");
+        refuser("NOT (".repeat(40) + "a = 1" + ")".repeat(40), "condition trop imbriquée");
+    }
+
+    @Test
+    void lesSousRequetesEtLesCommentairesSontRefuses() {
+        refuser("nom = 'Doe' ; DROP TABLE personnes", "fin de la condition attendue");
+        refuser("nom = 'Doe' -- commentaire", "fin de la condition attendue");
+        refuser("nom = 'Doe' /* commentaire */", "fin de la condition attendue");
+        refuser("id IN (SELECT id FROM personnes)", "valeur littérale attendue");
+        refuser("nom = (SELECT nom FROM personnes)", "valeur littérale attendue");
+        refuser("nom = 'a\\' OR 1 = 1 -- '", "caractère d'échappement refusé");
+        refuser("`nom` = 1", "nom de colonne attendu");
+    }
+
+    @Test
+    void lesErreursDeSyntaxeSontRefusees() {
+        refuser("", "nom de colonne attendu");
+        refuser("= 1", "nom de colonne attendu");
+        refuser("age", "opérateur de comparaison attendu");
+        refuser("age =", "valeur attendue");
+        refuser("nom = 'Doe", "chaîne non terminée");
+        refuser("age = 1.2.3", "nombre invalide 1.2.3");
+        refuser("age = -", "nombre invalide -");
+        refuser("nom IS 'Doe'", "NULL attendu");
+        refuser("nom NOT = 'Doe'", "LIKE, IN ou BETWEEN attendu");
+        refuser("age BETWEEN 1 10", "AND attendu");
+        refuser("id IN (1, 2", "\")\" attendu");
+        refuser("id IN 1", "\"(\" attendu");
+        refuser("(a = 1", "\")\" attendu");
+        refuser("a = 1 AND", "nom de colonne attendu");
+        refuser("a.b.c = 1", "Identifiant invalide");
+    }
+}
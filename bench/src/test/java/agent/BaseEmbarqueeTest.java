@@ -0,0 +1,138 @@
+package agent;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.w3c.dom.Document;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLSyntaxErrorException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static agent.AgentsDeTest.DESTINATAIRE;
+import static agent.AgentsDeTest.EMETTEUR;
+import static agent.AgentsDeTest.document;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BaseEmbarqueeTest {
+    /**
+     * Envoie une requête signée de l'émetteur au destinataire de test, dont la base est la base embarquée remplie par
+     * src/db.sql (voir la configuration de test), et retourne la réponse mise en forme.
+     */
+    private static String interroger(String champs, String condition) throws Exception {
+        Document requete = document("<SELECT><CHAMPS>" + champs + "</CHAMPS><TABLES><TABLE>personnes</TABLE></TABLES>"
+                + "<CONDITION>" + condition + "</CONDITION></SELECT>");
+        EMETTEUR.signerDocument(requete);
+        ReponseRequete reponse = DESTINATAIRE.traiterRequete(
+                new Requete(1, OutilsXML.serialiser(requete), "embarquee.xml"));
+        return EMETTEUR.lireReponse(reponse.getResultatSigne());
+    }
+
+    @Test
+    void lesAgentsObtiennentLesTuplesQuiVerifientLaCondition() throws Exception {
+        String deux = "<CHAMP>nom</CHAMP><CHAMP>prenom</CHAMP>";
+        assertEquals("Tuple 1: Doe John \nTuple 2: Smith Bob \n", interroger(deux, "age &gt; 29"));
+        assertEquals("Tuple 1: 1 Doe John 30 \nTuple 2: 2 Doe Jane 28 \n",
+                interroger("<CHAMP>*</CHAMP>", "nom LIKE 'doe'"));
+        assertEquals("Tuple 1: Doe Jane \nTuple 2: Smith Bob \nTuple 3: Smith Alice \n",
+                interroger(deux, "prenom IN ('jane', 'Alice') OR age NOT BETWEEN 26 AND 34"));
+        assertEquals("", interroger(deux, "NOT (nom = 'Doe' OR age &lt;&gt; 30)"));
+    }
+
+    @Test
+    void lesTuplesGeneresSontFiltresEtPagines() throws Exception {
+        BaseEmbarquee.enregistrer();
+        try (Connection connexion = DriverManager.getConnection(
+                "jdbc:embarquee:script=../src/db.sql;personnes=2000;graine=7")) {
+            connexion.setCatalog("db_relationnelle_1");
+            PreparedStatement instruction = connexion.prepareStatement("SELECT `id`, `nom`, `age` FROM `personnes`"
+                    + " WHERE (`age` BETWEEN ? AND ? AND NOT (`nom` LIKE ?)) LIMIT ? OFFSET ?");
+            instruction.setObject(1, 30L);
+            instruction.setObject(2, 40L);
+            instruction.setObject(3, "%D%");
+            instruction.setObject(4, 50L);
+            instruction.setObject(5, 5L);
+            List<String> obtenus = new ArrayList<>();
+            try (ResultSet rs = instruction.executeQuery()) {
+                assertEquals("personnes", rs.getMetaData().getTableName(2));
+                while (rs.next()) {
+                    obtenus.add(rs.getLong(1) + " " + rs.getString("nom") + " " + rs.getInt(3));
+                }
+            }
+            List<String> attendus = LongStream.rangeClosed(1, 2000)
+                    .mapToObj(id -> GenerateurTuples.Table.PERSONNES.tuple(id, 7))
+                    .filter(t -> (Integer) t[3] >= 30 && (Integer) t[3] <= 40
+                            && !((String) t[1]).toLowerCase().contains("d"))
+                    .skip(5).limit(50)
+                    .map(t -> t[0] + " " + t[1] + " " + t[3])
+                    .collect(Collectors.toList());
+            assertEquals(50, attendus.size());
+            assertEquals(attendus, obtenus);
+        }
+    }
+
+    @Test
+    void lesNullsLesAccentsEtLesJointuresSuiventMySQL(@TempDir Path dossier) throws Exception {
+        Path script = dossier.resolve("essai.sql");
+        Files.writeString(script, "CREATE DATABASE essai;\nUSE essai;\n"
+                + "CREATE TABLE t (id INT NOT NULL AUTO_INCREMENT, x INT, nom VARCHAR(20), PRIMARY KEY (id));\n"
+                + "CREATE TABLE u (id INT NOT NULL, v DECIMAL(5, 2) NOT NULL);\n"
+                + "-- Un tuple par cas : valeur, NULL, accent\n"
+                + "INSERT INTO t (x, nom) VALUES (1, 'Élodie'), (NULL, 'eve'), (3, NULL);\n"
+                + "INSERT INTO u VALUES (1, 1.5), (3, 2.25);\n", StandardCharsets.UTF_8);
+        BaseEmbarquee.enregistrer();
+        try (Connection connexion = DriverManager.getConnection("jdbc:embarquee:script=" + script)) {
+            connexion.setCatalog("essai");
+            assertEquals(List.of("3"), ids(connexion, "SELECT `id` FROM `t` WHERE `x` <> ?", 1L));
+            assertEquals(List.of(), ids(connexion, "SELECT `id` FROM `t` WHERE NOT (`x` IN (?, NULL))", 1L));
+            assertEquals(List.of("1"), ids(connexion, "SELECT `id` FROM `t` WHERE `nom` = ?", "ELODIE"));
+            assertEquals(List.of("1", "2"), ids(connexion, "SELECT `id` FROM `t` WHERE (`x` IS NULL OR `nom` LIKE ?)",
+                    "e%"));
+            assertEquals(List.of("3"), ids(connexion, "SELECT `id` FROM `t` WHERE `x` > ?", "2abc"));
+
+            PreparedStatement jointure = connexion.prepareStatement(
+                    "SELECT `t`.`id`, `u`.`v` FROM `t`, `u` WHERE `t`.`id` = `u`.`id` AND `u`.`v` > ?");
+            jointure.setObject(1, 2L);
+            try (ResultSet rs = jointure.executeQuery()) {
+                assertEquals("t", rs.getMetaData().getTableName(1));
+                assertEquals("u", rs.getMetaData().getTableName(2));
+                assertTrue(rs.next());
+                assertEquals(3, rs.getInt(1));
+                assertEquals("2.25", rs.getBigDecimal(2).toPlainString());
+                assertFalse(rs.next());
+            }
+
+            SQLException inconnue = assertThrows(SQLSyntaxErrorException.class,
+                    () -> connexion.prepareStatement("SELECT `t`.`id` FROM `t`, `u` WHERE `w` = 1"));
+            assertEquals("42S22", inconnue.getSQLState());
+            assertThrows(SQLSyntaxErrorException.class, () -> connexion.prepareStatement("SELECT `id` FROM `t`, `u`"));
+            assertThrows(SQLFeatureNotSupportedException.class,
+                    () -> connexion.createStatement().executeUpdate("DELETE FROM t"));
+        }
+    }
+
+    private static List<String> ids(Connection connexion, String sql, Object parametre) throws SQLException {
+        PreparedStatement instruction = connexion.prepareStatement(sql);
+        instruction.setObject(1, parametre);
+        List<String> ids = new ArrayList<>();
+        try (ResultSet rs = instruction.executeQuery()) {
+            while (rs.next()) {
+                ids.add(rs.getString(1));
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,78 @@
+package agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class ClientNIOTest {
+    /**
+     * Un serveur qui accepte une connexion, lit une trame de requête et y répond par trois tranches puis la réponse.
+     */
+    private static Thread repondreEnTranches(ServerSocket serveur) {
+        Thread thread = new Thread(() -> {
+            try (Socket socket = serveur.accept()) {
+                DataInputStream entree = new DataInputStream(socket.getInputStream());
+                byte[] requete = new byte[entree.readInt()];
+                entree.readFully(requete);
+                long id = ByteBuffer.wrap(requete, 1, 8).getLong();
+                OutputStream sortie = socket.getOutputStream();
+                for (String tranche : new String[]{"1", "2", "3"}) {
+                    ecrire(sortie, new Trame(Trame.TRANCHE, id, "r.xml", octets(tranche)));
+                }
+                ecrire(sortie, new Trame(Trame.REPONSE, id, "r.xml", octets("fin")));
+                entree.read();
+            } catch (Exception e) {
+                // La connexion est fermée par le client à la fin du test.
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void ecrire(OutputStream sortie, Trame trame) throws Exception {
+        ByteBuffer tampon = trame.encoder();
+        sortie.write(tampon.array(), 0, tampon.limit());
+        sortie.flush();
+    }
+
+    private static byte[] octets(String texte) {
+        return texte.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void lesTranchesSontTransmisesDansLOrdreHorsDuThreadDuClient() throws Exception {
+        List<String> recus = Collections.synchronizedList(new ArrayList<>());
+        List<String> threads = Collections.synchronizedList(new ArrayList<>());
+        try (ServerSocket serveur = new ServerSocket(0)) {
+            repondreEnTranches(serveur);
+            try (ClientNIO client = new ClientNIO(new InetSocketAddress("localhost", serveur.getLocalPort()))) {
+                client.envoyerEnTranches(octets("<SELECT/>"), "r.xml", document -> {
+                    // Un destinataire lent ne doit ni bloquer le thread du client ni être doublé par la suite.
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    recus.add(new String(document, StandardCharsets.UTF_8));
+                    threads.add(Thread.currentThread().getName());
+                }).get(10, TimeUnit.SECONDS);
+            }
+        }
+        assertEquals(List.of("1", "2", "3", "fin"), recus);
+        assertFalse(threads.contains("client-nio"), threads.toString());
+    }
+}
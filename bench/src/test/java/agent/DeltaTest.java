@@ -0,0 +1,156 @@
+package agent;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SignatureException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DeltaTest {
+    private static final String REQUETE = "SELECT nom FROM personnes";
+
+    private static Element element(String xml) throws Exception {
+        return OutilsXML.analyser(xml.getBytes(StandardCharsets.UTF_8)).getDocumentElement();
+    }
+
+    /**
+     * Construit un résultat au codage XML, chaque tuple étant donné sous la forme "valeur,valeur" (NULL pour une
+     * valeur NULL), et l'importe dans le document donné.
+     */
+    private static Element resultat(Document document, String... tuples) throws Exception {
+        StringBuilder xml = new StringBuilder("<RESULTAT><TUPLES>");
+        for (String tuple : tuples) {
+            xml.append("<TUPLE>");
+            for (String valeur : tuple.split(",")) {
+                xml.append("NULL".equals(valeur) ? "<CHAMP NULL=\"true\"/>" : "<CHAMP>" + valeur + "</CHAMP>");
+            }
+            xml.append("</TUPLE>");
+        }
+        xml.append("</TUPLES></RESULTAT>");
+        return (Element) document.importNode(element(xml.toString()), true);
+    }
+
+    private static Element reponse(Long depuis, String... tuples) throws Exception {
+        return reponse("<SELECT DELTA=\"id\"/>", depuis, tuples);
+    }
+
+    private static Element reponse(String select, Long depuis, String... tuples) throws Exception {
+        Document document = OutilsXML.nouveauDocument();
+        Delta.repondre(element(select), document, resultat(document, tuples), depuis);
+        return document.getDocumentElement();
+    }
+
+    @Test
+    void suiviRenvoieLeResultatEntierSansAcquittementConnu() {
+        Delta.Suivi suivi = new Delta.Suivi(10);
+        assertNull(suivi.depuis("a", REQUETE, null));
+        assertNull(suivi.depuis("a", REQUETE, 5L));
+        suivi.envoye("a", REQUETE, null, 5L);
+        assertNull(suivi.depuis("a", REQUETE, 4L), "valeur jamais envoyée");
+        assertNull(suivi.depuis("b", REQUETE, 5L), "autre émetteur");
+        assertNull(suivi.depuis("a", "SELECT prix FROM produits", 5L), "autre requête");
+    }
+
+    @Test
+    void suiviAccepteLaDerniereValeurEnvoyeeOuLaPrecedente() {
+        Delta.Suivi suivi = new Delta.Suivi(10);
+        suivi.envoye("a", REQUETE, null, 5L);
+        assertEquals(5L, suivi.depuis("a", REQUETE, 5L));
+        suivi.envoye("a", REQUETE, 5L, 9L);
+        assertEquals(9L, suivi.depuis("a", REQUETE, 9L));
+        // Le delta 5..9 a été perdu : l'émetteur acquitte encore 5.
+        assertEquals(5L, suivi.depuis("a", REQUETE, 5L));
+        assertNull(suivi.depuis("a", REQUETE, 7L));
+    }
+
+    @Test
+    void suiviOublieUnResultatEntierVide() {
+        Delta.Suivi suivi = new Delta.Suivi(10);
+        suivi.envoye("a", REQUETE, null, 5L);
+        suivi.envoye("a", REQUETE, null, null);
+        assertNull(suivi.depuis("a", REQUETE, 5L));
+    }
+
+    @Test
+    void suiviOublieLesCouplesLesMoinsRecemmentUtilises() {
+        Delta.Suivi suivi = new Delta.Suivi(2);
+        suivi.envoye("a", REQUETE, null, 1L);
+        suivi.envoye("b", REQUETE, null, 2L);
+        assertEquals(1L, suivi.depuis("a", REQUETE, 1L));
+        suivi.envoye("c", REQUETE, null, 3L);
+        assertNull(suivi.depuis("b", REQUETE, 2L));
+        assertEquals(1L, suivi.depuis("a", REQUETE, 1L));
+        assertEquals(3L, suivi.depuis("c", REQUETE, 3L));
+    }
+
+    @Test
+    void repondreRetientLaPlusGrandeValeur() throws Exception {
+        Element delta = reponse(null, "Doe,3", "Martin,7", "Durand,5");
+        assertEquals("7", delta.getAttribute("JUSQUA"));
+        assertEquals("true", delta.getAttribute("COMPLET"));
+        assertFalse(delta.hasAttribute("DEPUIS"));
+
+        delta = reponse(7L);
+        assertEquals("7", delta.getAttribute("JUSQUA"));
+        assertEquals("7", delta.getAttribute("DEPUIS"));
+        assertEquals("false", delta.getAttribute("COMPLET"));
+    }
+
+    @Test
+    void repondreRefuseUneColonneDeltaNullOuNonEntiere() throws Exception {
+        for (String tuple : new String[]{"Doe,NULL", "Doe,3.5", "Doe,abc"}) {
+            Document document = OutilsXML.nouveauDocument();
+            Element resultat = resultat(document, "Martin,1", tuple);
+            assertThrows(IllegalArgumentException.class,
+                    () -> Delta.repondre(element("<SELECT DELTA=\"id\"/>"), document, resultat, null));
+            assertNull(document.getDocumentElement(), "le document doit rester vide pour la réponse d'erreur");
+        }
+    }
+
+    @Test
+    void copieAppliqueLesDeltasSuccessifs() throws Exception {
+        Delta.Copie copie = new Delta.Copie();
+        assertEquals("Tuple 1: Doe \nTuple 2: Martin \n", copie.appliquer(reponse(null, "Doe,1", "Martin,2")));
+        Element select = element("<SELECT DELTA=\"id\"/>");
+        copie.acquitter(select);
+        assertEquals("2", select.getAttribute("ACQUITTE"));
+
+        assertEquals("Tuple 1: Doe \nTuple 2: Martin \nTuple 3: Bernard \n",
+                copie.appliquer(reponse(2L, "Bernard,3")));
+        copie.acquitter(select);
+        assertEquals("3", select.getAttribute("ACQUITTE"));
+    }
+
+    @Test
+    void copieRemplaceUnTupleModifie() throws Exception {
+        String select = "<SELECT DELTA=\"version\" CLE=\"id\"/>";
+        Delta.Copie copie = new Delta.Copie();
+        copie.appliquer(reponse(select, null, "Doe,1,1", "Martin,2,2"));
+        // Le tuple d'identifiant 1 est modifié sous une nouvelle version : il est remplacé et non ajouté.
+        assertEquals("Tuple 1: Dupont \nTuple 2: Martin \n", copie.appliquer(reponse(select, 2L, "Dupont,3,1")));
+    }
+
+    @Test
+    void copieRefuseUnDeltaQuiNePartPasDeLaValeurAcquittee() throws Exception {
+        Delta.Copie copie = new Delta.Copie();
+        assertThrows(SignatureException.class, () -> copie.appliquer(reponse(2L, "Doe,3")));
+        copie.appliquer(reponse(null, "Doe,1", "Martin,2"));
+        assertThrows(SignatureException.class, () -> copie.appliquer(reponse(1L, "Doe,3")));
+        // Un résultat entier remplace la copie, quelle que soit la valeur acquittée.
+        assertEquals("Tuple 1: Durand \n", copie.appliquer(reponse(null, "Durand,4")));
+    }
+
+    @Test
+    void acquitteRefuseUneValeurNonEntiere() throws Exception {
+        assertNull(Delta.acquitte(element("<SELECT DELTA=\"id\"/>")));
+        assertEquals(12L, Delta.acquitte(element("<SELECT DELTA=\"id\" ACQUITTE=\"12\"/>")));
+        Element select = element("<SELECT DELTA=\"id\" ACQUITTE=\"douze\"/>");
+        assertThrows(IllegalArgumentException.class, () -> Delta.acquitte(select));
+    }
+}
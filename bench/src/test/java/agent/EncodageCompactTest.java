@@ -0,0 +1,184 @@
+package agent;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EncodageCompactTest {
+    private static final String[] NOMS = {"actif", "age", "compteur", "poids", "taille", "prix", "naissance", "nom",
+            "modification"};
+    private static final int[] TYPES = {Types.BOOLEAN, Types.INTEGER, Types.BIGINT, Types.REAL, Types.DOUBLE,
+            Types.DECIMAL, Types.DATE, Types.VARCHAR, Types.TIMESTAMP};
+    private static final Object[][] LIGNES = {
+            {true, 42, Long.MIN_VALUE, 1.5f, Math.PI, new BigDecimal("12.50"), Date.valueOf("1990-05-17"), "Doe",
+                    Timestamp.valueOf("2024-01-02 03:04:05")},
+            {null, null, null, null, null, null, null, null, null},
+            {false, -1, Long.MAX_VALUE, -0f, Double.NaN, new BigDecimal("123456789012345678901234.5"),
+                    Date.valueOf("1970-01-01"), "é😀 <&> \"", Timestamp.valueOf("1999-12-31 23:59:59")},
+            {true, 0, 7L, Float.MAX_VALUE, -1e-300, new BigDecimal("1E+3"), Date.valueOf("2100-02-28"), "",
+                    Timestamp.valueOf("2000-01-01 00:00:00")},
+            {false, Integer.MIN_VALUE, -7L, Float.MIN_VALUE, 0d, new BigDecimal("-0.000001"),
+                    Date.valueOf("1900-01-01"), "Martin", null},
+    };
+
+    /**
+     * Les valeurs attendues au décodage, selon le codage de chaque colonne.
+     */
+    private static Object[] attendu(Object[] ligne) {
+        Object[] valeurs = new Object[ligne.length];
+        for (int i = 0; i < ligne.length; i++) {
+            Object valeur = ligne[i];
+            if (valeur instanceof Integer) {
+                valeur = ((Integer) valeur).longValue();
+            } else if (valeur instanceof Date) {
+                valeur = ((Date) valeur).toLocalDate();
+            } else if (valeur instanceof Timestamp) {
+                valeur = valeur.toString();
+            }
+            valeurs[i] = valeur;
+        }
+        return valeurs;
+    }
+
+    private static ResultSet resultSet() {
+        return ResultatsDeTest.resultSet(NOMS, TYPES, LIGNES);
+    }
+
+    private static List<Object[]> decoder(Element resultat) {
+        List<Object[]> lignes = new ArrayList<>();
+        EncodageCompact.decoder(resultat, ligne -> lignes.add(ligne.clone()));
+        return lignes;
+    }
+
+    private static void verifier(Object[][] attendues, List<Object[]> lignes) {
+        assertEquals(attendues.length, lignes.size());
+        for (int i = 0; i < attendues.length; i++) {
+            assertArrayEquals(attendu(attendues[i]), lignes.get(i));
+        }
+    }
+
+    @Test
+    void lesValeursSontRetrouveesAvecChaqueCompression() throws Exception {
+        for (Compression compression : Compression.values()) {
+            Document document = OutilsXML.nouveauDocument();
+            Element resultat = EncodageCompact.encoder(resultSet(), document, compression);
+            assertTrue(EncodageCompact.estCompact(resultat));
+            assertEquals(compression.name(), resultat.getAttributeNS(null, EncodageCompact.COMPRESSION));
+            List<EncodageCompact.Colonne> colonnes = EncodageCompact.colonnes(resultat);
+            assertEquals(NOMS.length, colonnes.size());
+            assertEquals("modification", colonnes.get(8).getNom());
+            assertEquals("TIMESTAMP", colonnes.get(8).getType());
+            assertEquals(EncodageCompact.Codage.DECIMAL, colonnes.get(5).getCodage());
+            verifier(LIGNES, decoder(resultat));
+        }
+    }
+
+    @Test
+    void unResultatVideNeContientAucunTuple() throws Exception {
+        Element resultat = EncodageCompact.encoder(ResultatsDeTest.resultSet(NOMS, TYPES), OutilsXML.nouveauDocument(),
+                Compression.DEFLATE);
+        assertEquals(NOMS.length, EncodageCompact.colonnes(resultat).size());
+        assertTrue(decoder(resultat).isEmpty());
+    }
+
+    @Test
+    void plusieursLotsFormentUnSeulResultat() throws Exception {
+        ResultSet rs = resultSet();
+        List<EncodageCompact.Colonne> colonnes = EncodageCompact.Colonne.depuis(rs.getMetaData(), false);
+        List<LotColonnes> lots = new ArrayList<>();
+        LotColonnes lot = new LotColonnes(colonnes, 2);
+        while (lot.remplir(rs)) {
+            lots.add(lot);
+            lot = new LotColonnes(colonnes, 2);
+        }
+        assertEquals(3, lots.size());
+        verifier(LIGNES, decoder(EncodageCompact.encoder(colonnes, lots, OutilsXML.nouveauDocument(),
+                Compression.GZIP)));
+    }
+
+    @Test
+    void unLotCopieGardeLesValeursDesColonnesChoisies() throws Exception {
+        ResultSet rs = resultSet();
+        List<EncodageCompact.Colonne> colonnes = EncodageCompact.Colonne.depuis(rs.getMetaData(), false);
+        LotColonnes source = new LotColonnes(colonnes, LotColonnes.CAPACITE);
+        source.remplir(rs);
+        int[] positions = {7, 5, 1};
+        LotColonnes copie = new LotColonnes(List.of(colonnes.get(7), colonnes.get(5), colonnes.get(1)), 2);
+        List<LotColonnes> lots = new ArrayList<>();
+        for (int ligne = 0; ligne < source.getTaille(); ligne++) {
+            if (copie.estPlein()) {
+                lots.add(copie);
+                copie = new LotColonnes(copie.getColonnes(), 2);
+            }
+            copie.copier(source, ligne, positions, 0);
+            copie.terminerTuple();
+        }
+        lots.add(copie);
+        Object[][] attendues = new Object[LIGNES.length][];
+        for (int i = 0; i < LIGNES.length; i++) {
+            attendues[i] = new Object[]{LIGNES[i][7], LIGNES[i][5], LIGNES[i][1]};
+        }
+        verifier(attendues, decoder(EncodageCompact.encoder(lots.get(0).getColonnes(), lots,
+                OutilsXML.nouveauDocument(), Compression.AUCUNE)));
+        assertEquals("é😀 <&> \"", lots.get(1).texte(0, 0));
+        assertEquals("123456789012345678901234.5", lots.get(1).texte(0, 1));
+        assertEquals("1E+3", lots.get(1).texte(1, 1));
+    }
+
+    @Test
+    void unEnTeteAbsentOuInvalideEstRefuse() throws Exception {
+        Element resultat = EncodageCompact.encoder(resultSet(), OutilsXML.nouveauDocument(), Compression.DEFLATE);
+        Element colonne = (Element) resultat.getElementsByTagName("COLONNE").item(0);
+        colonne.setAttributeNS(null, "CODAGE", "ENTIER_SIGNE");
+        assertThrows(IllegalArgumentException.class, () -> EncodageCompact.colonnes(resultat));
+
+        resultat.removeChild(resultat.getElementsByTagName("COLONNES").item(0));
+        assertThrows(IllegalArgumentException.class, () -> EncodageCompact.colonnes(resultat));
+        assertThrows(IllegalArgumentException.class, () -> EncodageCompact.decoder(resultat, ligne -> {
+        }));
+    }
+
+    @Test
+    void uneCompressionInconnueEstRefusee() throws Exception {
+        Element resultat = EncodageCompact.encoder(resultSet(), OutilsXML.nouveauDocument(), Compression.DEFLATE);
+        resultat.setAttributeNS(null, EncodageCompact.COMPRESSION, "BZIP2");
+        assertThrows(IllegalArgumentException.class, () -> EncodageCompact.decoder(resultat, ligne -> {
+        }));
+    }
+
+    @Test
+    void desDonneesTronqueesOuMalEncodeesSontRefusees() throws Exception {
+        for (Compression compression : Compression.values()) {
+            Element resultat = EncodageCompact.encoder(resultSet(), OutilsXML.nouveauDocument(), compression);
+            Element donnees = (Element) resultat.getElementsByTagName("DONNEES").item(0);
+            String texte = donnees.getTextContent().trim();
+            donnees.setTextContent(texte.substring(0, (texte.length() / 2) & ~3));
+            assertThrows(IllegalArgumentException.class, () -> decoder(resultat), compression.name());
+
+            donnees.setTextContent("!!!!" + texte);
+            assertThrows(IllegalArgumentException.class, () -> decoder(resultat), compression.name());
+        }
+    }
+
+    @Test
+    void lesDatesSontDesNumerosDeJour() throws Exception {
+        Element resultat = EncodageCompact.encoder(ResultatsDeTest.resultSet(new String[]{"jour"},
+                new int[]{Types.DATE}, new Object[]{Date.valueOf("1969-12-31")}), OutilsXML.nouveauDocument(),
+                Compression.AUCUNE);
+        assertEquals(LocalDate.of(1969, 12, 31), decoder(resultat).get(0)[0]);
+    }
+}
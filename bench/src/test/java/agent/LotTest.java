@@ -0,0 +1,82 @@
+package agent;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.crypto.dsig.XMLSignature;
+import java.util.List;
+
+import static agent.AgentsDeTest.DESTINATAIRE;
+import static agent.AgentsDeTest.EMETTEUR;
+import static agent.AgentsDeTest.document;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LotTest {
+    /**
+     * Plus que les 30 références par signature qu'accepte la validation sécurisée du JDK.
+     */
+    private static final int REQUETES = 45;
+
+    private static Document lot(int requetes) throws Exception {
+        StringBuilder xml = new StringBuilder("<LOT>");
+        for (int i = 0; i < requetes; i++) {
+            xml.append("<SELECT><CHAMPS><CHAMP>nom</CHAMP></CHAMPS><TABLES><TABLE>personnes</TABLE></TABLES>")
+                    .append("<CONDITION>id = ").append(i).append("</CONDITION></SELECT>");
+        }
+        return document(xml.append("</LOT>").toString());
+    }
+
+    @Test
+    void unGrandLotEstSigneParUneSeuleReference() throws Exception {
+        Document lot = lot(REQUETES);
+        EMETTEUR.signerDocument(lot);
+        assertEquals(1, lot.getElementsByTagNameNS(XMLSignature.XMLNS, "Reference").getLength());
+        List<Element> elements = Lot.elements(lot.getDocumentElement());
+        assertEquals(REQUETES, elements.size());
+        assertEquals("r1", elements.get(0).getAttribute(Lot.ID));
+        assertEquals("r" + REQUETES, elements.get(REQUETES - 1).getAttribute(Lot.ID));
+        assertTrue(DESTINATAIRE.verifierSignature(lot));
+    }
+
+    @Test
+    void unGrandLotSigneDansUneSessionEstVerifie() throws Exception {
+        Session session = AgentsDeTest.ouvrirSession();
+        Document lot = lot(REQUETES);
+        EMETTEUR.signerDocument(lot, session);
+        assertTrue(DESTINATAIRE.verifierSignature(lot));
+    }
+
+    @Test
+    void unLotModifieEstRefuse() throws Exception {
+        Document lot = lot(REQUETES);
+        EMETTEUR.signerDocument(lot);
+        Lot.elements(lot.getDocumentElement()).get(REQUETES - 1).getElementsByTagName("CONDITION").item(0)
+                .setTextContent("1 = 1");
+        assertFalse(DESTINATAIRE.verifierSignature(lot));
+    }
+
+    @Test
+    void unLotAuquelOnRetireOuAjouteUneRequeteEstRefuse() throws Exception {
+        Document lot = lot(REQUETES);
+        EMETTEUR.signerDocument(lot);
+        Element racine = lot.getDocumentElement();
+        Element premier = Lot.elements(racine).get(0);
+        racine.removeChild(premier);
+        assertFalse(DESTINATAIRE.verifierSignature(lot));
+
+        racine.insertBefore(premier, racine.getFirstChild());
+        assertTrue(DESTINATAIRE.verifierSignature(lot));
+        racine.insertBefore(premier.cloneNode(true), racine.getFirstChild());
+        assertFalse(DESTINATAIRE.verifierSignature(lot));
+    }
+
+    @Test
+    void unLotNePeutPasContenirDeuxFoisLeMemeIdentifiant() throws Exception {
+        Document lot = document("<LOT><SELECT ID=\"a\"/><SELECT ID=\"a\"/></LOT>");
+        assertThrows(IllegalArgumentException.class, () -> EMETTEUR.signerDocument(lot));
+    }
+}
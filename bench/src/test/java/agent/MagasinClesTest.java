@@ -0,0 +1,45 @@
+package agent;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+
+import static agent.AgentsDeTest.DESTINATAIRE;
+import static agent.AgentsDeTest.EMETTEUR;
+import static agent.AgentsDeTest.document;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MagasinClesTest {
+    private static final String SELECT = "<SELECT><CHAMPS><CHAMP>nom</CHAMP></CHAMPS></SELECT>";
+
+    @Test
+    void uneCleGenereeEstRelueMaisNEstPasDeConfiance() throws Exception {
+        Path dossier = Files.createTempDirectory("magasin-tests");
+        MagasinCles magasin = new MagasinCles(dossier, "mot-de-passe".toCharArray());
+        KeyPair generee = magasin.chargerOuCreer("agent", AlgorithmeSignature.ECDSA_SHA256);
+        KeyPair relue = new MagasinCles(dossier, "mot-de-passe".toCharArray())
+                .chargerOuCreer("agent", AlgorithmeSignature.ECDSA_SHA256);
+        assertArrayEquals(generee.getPublic().getEncoded(), relue.getPublic().getEncoded());
+        assertNull(magasin.clePublique("agent"));
+        assertFalse(Files.exists(dossier.resolve("confiance.p12")));
+    }
+
+    @Test
+    void uneSignatureDUnAgentInconnuEstRefusee() throws Exception {
+        Agent tiers = new Agent("tiers-test", "db_relationnelle_1");
+        Document document = document(SELECT);
+        tiers.signerDocument(document);
+        assertFalse(DESTINATAIRE.verifierSignature(document));
+        assertFalse(DESTINATAIRE.verifierSignature(OutilsXML.serialiser(document)));
+
+        Document signe = document(SELECT);
+        EMETTEUR.signerDocument(signe);
+        assertTrue(DESTINATAIRE.verifierSignature(signe));
+    }
+}
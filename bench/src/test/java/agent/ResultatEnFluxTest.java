@@ -0,0 +1,92 @@
+package agent;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.Types;
+
+import static agent.AgentsDeTest.DESTINATAIRE;
+import static agent.AgentsDeTest.EMETTEUR;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResultatEnFluxTest {
+    private static final String AFFICHAGE = "Tuple 1: Doe & <Fils> 1 \nTuple 2: Müller\t\"\r NULL \n"
+            + "Tuple 3: NULL 3 \n";
+
+    private static ResultSet tuples() {
+        return ResultatsDeTest.resultSet(new String[]{"nom", "id"}, new int[]{Types.VARCHAR, Types.INTEGER},
+                new Object[]{"Doe & <Fils>", 1}, new Object[]{"Müller\t\"\r", null}, new Object[]{null, 3});
+    }
+
+    /**
+     * Écrit les tuples de test en lots de deux, et retourne le résultat signé.
+     */
+    private static byte[] ecrire(Agent agent, Session session) throws Exception {
+        ResultSet rs = tuples();
+        ResultatEnFlux resultat = agent.resultatEnFlux(session);
+        LotColonnes lot = new LotColonnes(EncodageCompact.Colonne.depuis(rs.getMetaData(), false), 2);
+        while (lot.remplir(rs)) {
+            resultat.recevoir(lot);
+        }
+        return resultat.signer();
+    }
+
+    @Test
+    void leResultatEcritEnFluxEstCeluiDuDocument() throws Exception {
+        byte[] octets = ecrire(DESTINATAIRE, null);
+        assertEquals(AFFICHAGE, EMETTEUR.lireReponse(octets));
+        assertTrue(EMETTEUR.verifierSignature(OutilsXML.analyser(octets)), "vérification DOM");
+
+        // Le document construit en mémoire est relu pour être comparé à un document analysé de la même façon.
+        Document document = OutilsXML.nouveauDocument();
+        document.appendChild(Agent.resultSetToElement(tuples(), document));
+        Document attendu = OutilsXML.analyser(OutilsXML.serialiser(document));
+        Document obtenu = OutilsXML.analyser(octets);
+        obtenu.getDocumentElement().removeChild(obtenu.getElementsByTagName("Signature").item(0));
+        attendu.normalizeDocument();
+        obtenu.normalizeDocument();
+        assertTrue(attendu.getDocumentElement().isEqualNode(obtenu.getDocumentElement()));
+    }
+
+    @Test
+    void leResultatEcritEnFluxSeSigneDansUneSession() throws Exception {
+        Session session = AgentsDeTest.ouvrirSession();
+        Agent.Signataire signataire = DESTINATAIRE.verifierSignataire(ecrire(EMETTEUR, session));
+        assertNotNull(signataire);
+        assertEquals(session.getId(), signataire.getSession().getId());
+        assertNotNull(DESTINATAIRE.verifierSignataire(OutilsXML.analyser(ecrire(EMETTEUR, session))),
+                "vérification DOM");
+    }
+
+    @Test
+    void unResultatDePlusieursBlocsEstRassembleEnEntier() throws Exception {
+        Object[][] lignes = new Object[20_000][];
+        for (int i = 0; i < lignes.length; i++) {
+            lignes[i] = new Object[]{"personne-" + i, i};
+        }
+        ResultSet rs = ResultatsDeTest.resultSet(new String[]{"nom", "id"}, new int[]{Types.VARCHAR, Types.INTEGER},
+                lignes);
+        ResultatEnFlux resultat = DESTINATAIRE.resultatEnFlux(null);
+        LotColonnes lot = new LotColonnes(EncodageCompact.Colonne.depuis(rs.getMetaData(), false), LotColonnes.CAPACITE);
+        while (lot.remplir(rs)) {
+            resultat.recevoir(lot);
+        }
+        byte[] octets = resultat.signer();
+        assertTrue(octets.length > 4 * 64 * 1024);
+        assertTrue(EMETTEUR.verifierSignature(octets));
+        assertEquals(lignes.length, OutilsXML.analyser(octets).getElementsByTagName("TUPLE").getLength());
+    }
+
+    @Test
+    void unResultatEcritEnFluxModifieEstRefuse() throws Exception {
+        String texte = new String(ecrire(DESTINATAIRE, null), StandardCharsets.UTF_8);
+        byte[] modifie = texte.replace("Doe", "Roe").getBytes(StandardCharsets.UTF_8);
+        assertFalse(EMETTEUR.verifierSignature(modifie));
+        assertFalse(EMETTEUR.verifierSignature(OutilsXML.analyser(modifie)));
+    }
+}
@@ -0,0 +1,90 @@
+package agent;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.JDBCType;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+
+/**
+ * Des ResultSet en mémoire pour les tests, qui répondent aux seuls accesseurs utilisés par les sérialiseurs des
+ * résultats, sans base de données.
+ */
+final class ResultatsDeTest {
+    private ResultatsDeTest() {
+    }
+
+    /**
+     * Retourne un ResultSet qui parcourt les tuples donnés.
+     *
+     * @param noms   les noms des colonnes
+     * @param types  les types JDBC des colonnes (voir {@link Types})
+     * @param lignes les valeurs des tuples, null pour une valeur NULL
+     * @return le ResultSet
+     */
+    static ResultSet resultSet(String[] noms, int[] types, Object[]... lignes) {
+        ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(ResultatsDeTest.class.getClassLoader(),
+                new Class<?>[]{ResultSetMetaData.class}, (proxy, methode, args) -> {
+                    int colonne = args != null && args.length == 1 ? (Integer) args[0] - 1 : -1;
+                    switch (methode.getName()) {
+                        case "getColumnCount":
+                            return noms.length;
+                        case "getColumnLabel":
+                        case "getColumnName":
+                            return noms[colonne];
+                        case "getTableName":
+                            return "";
+                        case "getColumnType":
+                            return types[colonne];
+                        case "getColumnTypeName":
+                            return JDBCType.valueOf(types[colonne]).getName();
+                        case "getPrecision":
+                            return types[colonne] == Types.BIT ? 1 : 0;
+                        case "isSigned":
+                            return true;
+                        default:
+                            throw new UnsupportedOperationException(methode.getName());
+                    }
+                });
+        int[] position = {-1};
+        boolean[] nul = {false};
+        return (ResultSet) Proxy.newProxyInstance(ResultatsDeTest.class.getClassLoader(),
+                new Class<?>[]{ResultSet.class}, (proxy, methode, args) -> {
+                    switch (methode.getName()) {
+                        case "next":
+                            return ++position[0] < lignes.length;
+                        case "getMetaData":
+                            return metaData;
+                        case "wasNull":
+                            return nul[0];
+                        case "close":
+                            return null;
+                        default:
+                            break;
+                    }
+                    Object valeur = lignes[position[0]][(Integer) args[0] - 1];
+                    nul[0] = valeur == null;
+                    switch (methode.getName()) {
+                        case "getBoolean":
+                            return valeur != null && (Boolean) valeur;
+                        case "getLong":
+                            return valeur == null ? 0L : ((Number) valeur).longValue();
+                        case "getFloat":
+                            return valeur == null ? 0f : ((Number) valeur).floatValue();
+                        case "getDouble":
+                            return valeur == null ? 0d : ((Number) valeur).doubleValue();
+                        case "getBigDecimal":
+                            return valeur == null ? null : new BigDecimal(valeur.toString());
+                        case "getDate":
+                            return valeur;
+                        case "getString":
+                            return valeur == null ? null : valeur.toString();
+                        case "getObject":
+                            return valeur;
+                        default:
+                            throw new UnsupportedOperationException(methode.getName());
+                    }
+                });
+    }
+}
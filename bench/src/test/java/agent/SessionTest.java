@@ -0,0 +1,119 @@
+package agent;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+import java.security.KeyPair;
+import java.security.SignatureException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests de l'ouverture des sessions et de leur fenêtre de rejeu ; la configuration de test fixe sessionFenetre à 8.
+ */
+class SessionTest {
+    private static final int FENETRE = 8;
+
+    private final byte[] nonce = Session.aleatoire(32);
+    private final KeyPair ephemere;
+    private final Document demande;
+
+    SessionTest() throws Exception {
+        ephemere = Session.genererEphemere();
+        demande = Session.demande(nonce, ephemere);
+    }
+
+    private static Session destinataire(Document demande, Document reponse) throws Exception {
+        return Session.accepter(demande, reponse, "emetteur");
+    }
+
+    @Test
+    void lesDeuxAgentsDeriventLesMemesClesDansChaqueSens() throws Exception {
+        Document reponse = OutilsXML.nouveauDocument();
+        Session destinataire = destinataire(demande, reponse);
+        Session emetteur = Session.ouvrir(reponse, nonce, ephemere);
+        assertEquals(destinataire.getId(), emetteur.getId());
+        assertEquals("emetteur", destinataire.getPair());
+        assertArrayEquals(emetteur.getCleEnvoi().getEncoded(), destinataire.getCleReception().getEncoded());
+        assertArrayEquals(destinataire.getCleEnvoi().getEncoded(), emetteur.getCleReception().getEncoded());
+        assertFalse(java.util.Arrays.equals(emetteur.getCleEnvoi().getEncoded(),
+                emetteur.getCleReception().getEncoded()), "une clé par sens");
+    }
+
+    @Test
+    void ouvrirRefuseUneReponseQuiNeRepondPasALaDemande() throws Exception {
+        Document reponse = OutilsXML.nouveauDocument();
+        destinataire(demande, reponse);
+        assertThrows(SignatureException.class, () -> Session.ouvrir(reponse, Session.aleatoire(32), ephemere));
+        assertThrows(SignatureException.class, () -> Session.ouvrir(reponse, nonce, Session.genererEphemere()));
+        assertThrows(SignatureException.class, () -> Session.ouvrir(demande, nonce, ephemere));
+    }
+
+    @Test
+    void accepterRefuseUnNumeroRejoueOuNul() throws Exception {
+        Session session = destinataire(demande, OutilsXML.nouveauDocument());
+        assertFalse(session.accepter(0));
+        assertFalse(session.accepter(-1));
+        assertTrue(session.accepter(1));
+        assertFalse(session.accepter(1));
+        assertTrue(session.accepter(2));
+        assertFalse(session.accepter(1));
+        assertFalse(session.accepter(2));
+    }
+
+    @Test
+    void accepterAccepteLeDesordreDansLaFenetre() throws Exception {
+        Session session = destinataire(demande, OutilsXML.nouveauDocument());
+        assertTrue(session.accepter(5));
+        assertTrue(session.accepter(3));
+        assertTrue(session.accepter(4));
+        assertFalse(session.accepter(3));
+        assertTrue(session.accepter(FENETRE + 4));
+        // 4 est maintenant hors de la fenêtre des 8 derniers numéros, 5 y est encore mais a déjà été reçu.
+        assertFalse(session.accepter(4));
+        assertFalse(session.accepter(5));
+        assertTrue(session.accepter(6));
+    }
+
+    @Test
+    void accepterOublieLaFenetreApresUnSaut() throws Exception {
+        Session session = destinataire(demande, OutilsXML.nouveauDocument());
+        assertTrue(session.accepter(1));
+        assertTrue(session.accepter(2));
+        assertTrue(session.accepter(100));
+        assertFalse(session.accepter(100));
+        assertFalse(session.accepter(100 - FENETRE));
+        assertTrue(session.accepter(100 - FENETRE + 1));
+        assertTrue(session.accepter(99));
+    }
+
+    @Test
+    void uneSessionExpireApresSaDuree() throws Exception {
+        Document reponse = OutilsXML.nouveauDocument();
+        destinataire(demande, reponse);
+        Session session = Session.ouvrir(reponse, nonce, ephemere);
+        assertFalse(session.estExpiree());
+        assertFalse(session.doitEtreRenouvelee());
+
+        reponse.getDocumentElement().setAttributeNS(null, "DUREE", "0");
+        Session expiree = Session.ouvrir(reponse, nonce, ephemere);
+        assertTrue(expiree.estExpiree());
+        assertTrue(expiree.doitEtreRenouvelee());
+
+        reponse.getDocumentElement().setAttributeNS(null, "DUREE", "bientôt");
+        assertThrows(SignatureException.class, () -> Session.ouvrir(reponse, nonce, ephemere));
+    }
+
+    @Test
+    void lesNumerosDeSequenceCommencentA1() throws Exception {
+        Document reponse = OutilsXML.nouveauDocument();
+        destinataire(demande, reponse);
+        Session session = Session.ouvrir(reponse, nonce, ephemere);
+        assertEquals(1, session.prochaineSequence());
+        assertEquals(2, session.prochaineSequence());
+    }
+}
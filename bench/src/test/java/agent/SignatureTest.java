@@ -0,0 +1,124 @@
+package agent;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+import java.security.SignatureException;
+import java.sql.SQLException;
+
+import static agent.AgentsDeTest.DESTINATAIRE;
+import static agent.AgentsDeTest.EMETTEUR;
+import static agent.AgentsDeTest.document;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SignatureTest {
+    private static final String SELECT = "<SELECT><CHAMPS><CHAMP>nom</CHAMP></CHAMPS>"
+            + "<TABLES><TABLE>personnes</TABLE></TABLES></SELECT>";
+
+    @Test
+    void leSignataireEstLAgentNommeParLaSignature() throws Exception {
+        Document document = document(SELECT);
+        EMETTEUR.signerDocument(document);
+        Agent.Signataire signataire = DESTINATAIRE.verifierSignataire(document);
+        assertNotNull(signataire);
+        assertEquals("emetteur-test", signataire.getAgent());
+        assertNull(signataire.getSession());
+    }
+
+    @Test
+    void laSessionEstCelleDeLaSignature() throws Exception {
+        Session session = AgentsDeTest.ouvrirSession();
+        Document document = document(SELECT);
+        EMETTEUR.signerDocument(document, session);
+        Agent.Signataire signataire = DESTINATAIRE.verifierSignataire(document);
+        assertNotNull(signataire);
+        assertEquals(session.getId(), signataire.getSession().getId());
+        assertEquals("emetteur-test", signataire.getAgent());
+        assertNull(DESTINATAIRE.verifierSignataire(document), "document rejoué");
+    }
+
+    @Test
+    void unDocumentSigneAvecUnePaireDeClesNeDesignePasDeSession() throws Exception {
+        Session session = AgentsDeTest.ouvrirSession();
+        Document document = document(SELECT);
+        document.getDocumentElement().setAttributeNS(null, Session.SESSION, session.getId());
+        document.getDocumentElement().setAttributeNS(null, Session.SEQUENCE, "1");
+        EMETTEUR.signerDocument(document);
+        assertNull(DESTINATAIRE.verifierSignataire(document));
+        assertThrows(SignatureException.class, () -> DESTINATAIRE.traiterRequete(
+                new Requete(2, OutilsXML.serialiser(document), "usurpation.xml")));
+    }
+
+    @Test
+    void unDocumentDeSessionNeDesignePasUneAutreSession() throws Exception {
+        Session session = AgentsDeTest.ouvrirSession();
+        Session autre = AgentsDeTest.ouvrirSession();
+        Document document = document(SELECT);
+        EMETTEUR.signerDocument(document, session);
+        // L'attribut SESSION est couvert par la signature : le modifier invalide le document.
+        document.getDocumentElement().setAttributeNS(null, Session.SESSION, autre.getId());
+        assertNull(DESTINATAIRE.verifierSignataire(document));
+    }
+
+    @Test
+    void unDocumentModifieEstRefuse() throws Exception {
+        Document document = document(SELECT);
+        EMETTEUR.signerDocument(document);
+        document.getElementsByTagName("CHAMP").item(0).setTextContent("age");
+        assertFalse(DESTINATAIRE.verifierSignature(document));
+    }
+
+    @Test
+    void uneDemandeDeSessionSigneeDansUneSessionEstRefusee() throws Exception {
+        Session session = AgentsDeTest.ouvrirSession();
+        Document demande = Session.demande(Session.aleatoire(32), Session.genererEphemere());
+        EMETTEUR.signerDocument(demande, session);
+        assertThrows(SignatureException.class, () -> DESTINATAIRE.traiterRequete(
+                new Requete(3, OutilsXML.serialiser(demande), Session.SESSION)));
+    }
+
+    @Test
+    void uneDemandeDeSessionRejoueeEstRefusee() throws Exception {
+        Document demande = Session.demande(Session.aleatoire(32), Session.genererEphemere());
+        EMETTEUR.signerDocument(demande);
+        byte[] octets = OutilsXML.serialiser(demande);
+        DESTINATAIRE.traiterRequete(new Requete(5, octets, Session.SESSION));
+        SignatureException erreur = assertThrows(SignatureException.class,
+                () -> DESTINATAIRE.traiterRequete(new Requete(6, octets, Session.SESSION)));
+        assertTrue(erreur.getMessage().contains("rejouée"), erreur.getMessage());
+    }
+
+    @Test
+    void lesSessionsLesPlusAnciennesDUnEmetteurSontOubliees() throws Exception {
+        // La configuration de test fixe sessionsParPairMax à 4.
+        Session ancienne = AgentsDeTest.ouvrirSession();
+        Session recente = null;
+        for (int i = 0; i < 4; i++) {
+            recente = AgentsDeTest.ouvrirSession();
+        }
+        Document document = document(SELECT);
+        EMETTEUR.signerDocument(document, ancienne);
+        assertNull(DESTINATAIRE.verifierSignataire(document));
+        Document autre = document(SELECT);
+        EMETTEUR.signerDocument(autre, recente);
+        assertNotNull(DESTINATAIRE.verifierSignataire(autre));
+    }
+
+    @Test
+    void uneRequeteRefuseeRecoitUneErreurSignee() throws Exception {
+        Document document = document("<SELECT><CHAMPS><CHAMP>nom</CHAMP></CHAMPS>"
+                + "<TABLES><TABLE>personnes</TABLE></TABLES><CONDITION>nom = 'Doe' ; DROP TABLE personnes"
+                + "</CONDITION></SELECT>");
+        EMETTEUR.signerDocument(document);
+        ReponseRequete reponse = DESTINATAIRE.traiterRequete(
+                new Requete(4, OutilsXML.serialiser(document), "refusee.xml"));
+        SQLException erreur = assertThrows(SQLException.class,
+                () -> EMETTEUR.lireReponse(reponse.getResultatSigne()));
+        assertTrue(erreur.getMessage().contains("fin de la condition attendue"), erreur.getMessage());
+    }
+}
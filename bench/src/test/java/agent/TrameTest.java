@@ -0,0 +1,29 @@
+package agent;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TrameTest {
+    @Test
+    void uneTrameEncodeeEstDecodeeALIdentique() throws Exception {
+        String nom = "é".repeat(0xFFFF / 2);
+        byte[] contenu = "<SELECT/>".getBytes(StandardCharsets.UTF_8);
+        Trame trame = Trame.decoder(new Trame(Trame.REQUETE, 7, nom, contenu).encoder(), Integer.MAX_VALUE);
+        assertEquals(Trame.REQUETE, trame.type);
+        assertEquals(7, trame.id);
+        assertEquals(nom, trame.nom);
+        assertArrayEquals(contenu, trame.contenu);
+    }
+
+    @Test
+    void unNomTropLongEstRefuse() {
+        // 32768 caractères de deux octets : le nom dépasse la longueur que peut annoncer l'entête.
+        String nom = "é".repeat(0x8000);
+        assertThrows(IllegalArgumentException.class, () -> new Trame(Trame.REQUETE, 1, nom, new byte[0]));
+    }
+}
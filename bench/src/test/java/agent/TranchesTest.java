@@ -0,0 +1,120 @@
+package agent;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SignatureException;
+import java.sql.ResultSet;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import static agent.AgentsDeTest.DESTINATAIRE;
+import static agent.AgentsDeTest.EMETTEUR;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TranchesTest {
+    private static final byte[] REQUETE = "<SELECT TRANCHES=\"2\"/>".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Émet cinq tuples en tranches de deux, et retourne les trois tranches suivies du document FIN signé.
+     */
+    private static List<byte[]> emettre(byte[] requete) throws Exception {
+        ResultSet rs = ResultatsDeTest.resultSet(new String[]{"nom"}, new int[]{Types.VARCHAR},
+                new Object[]{"Doe"}, new Object[]{"Martin"}, new Object[]{"Durand"}, new Object[]{null},
+                new Object[]{"Bernard"});
+        List<byte[]> documents = new ArrayList<>();
+        Tranches.Emetteur emetteur = new Tranches.Emetteur(requete, null, documents::add);
+        LotColonnes lot = new LotColonnes(EncodageCompact.Colonne.depuis(rs.getMetaData(), false), 2);
+        while (lot.remplir(rs)) {
+            emetteur.recevoir(lot);
+        }
+        Document fin = emetteur.fin();
+        DESTINATAIRE.signerDocument(fin);
+        documents.add(OutilsXML.serialiser(fin));
+        return documents;
+    }
+
+    private static Tranches.Lecteur lire(List<byte[]> documents, StringBuilder affichage) {
+        Tranches.Lecteur lecteur = new Tranches.Lecteur(EMETTEUR, REQUETE, affichage::append, null);
+        documents.forEach(lecteur);
+        return lecteur;
+    }
+
+    /**
+     * Vérifie que la lecture des documents est refusée, avec le message attendu.
+     */
+    private static void refuser(List<byte[]> documents, String message) {
+        Tranches.Lecteur lecteur = lire(documents, new StringBuilder());
+        assertEquals(message, assertThrows(SignatureException.class, lecteur::terminer).getMessage());
+    }
+
+    private static byte[] remplacer(byte[] document, String avant, String apres) {
+        String texte = new String(document, StandardCharsets.UTF_8);
+        return texte.replace(avant, apres).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void lesTranchesSontAfficheesPuisConfirmeesParLeDocumentFin() throws Exception {
+        List<byte[]> documents = emettre(REQUETE);
+        assertEquals(4, documents.size());
+        StringBuilder affichage = new StringBuilder();
+        Tranches.Lecteur lecteur = lire(documents, affichage);
+        assertDoesNotThrow(lecteur::terminer);
+        assertEquals("Tuple 1: Doe \nTuple 2: Martin \nTuple 3: Durand \nTuple 4: NULL \nTuple 5: Bernard \n",
+                affichage.toString());
+    }
+
+    @Test
+    void uneTrancheManquanteEstRefusee() throws Exception {
+        List<byte[]> documents = emettre(REQUETE);
+        documents.remove(1);
+        refuser(documents, "Tranche 3 reçue au lieu de la tranche 2");
+
+        List<byte[]> sansDerniere = emettre(REQUETE);
+        sansDerniere.remove(2);
+        refuser(sansDerniere, "Les tranches reçues ne correspondent pas à la réponse signée !");
+    }
+
+    @Test
+    void desTranchesInverseesSontRefusees() throws Exception {
+        List<byte[]> documents = emettre(REQUETE);
+        documents.add(0, documents.remove(1));
+        refuser(documents, "Tranche 2 reçue au lieu de la tranche 1");
+    }
+
+    @Test
+    void uneTrancheModifieeEstRefusee() throws Exception {
+        List<byte[]> documents = emettre(REQUETE);
+        documents.set(1, remplacer(documents.get(1), "Durand", "Dupont"));
+        refuser(documents, "Les tranches reçues ne correspondent pas à la réponse signée !");
+    }
+
+    @Test
+    void lesTranchesDUneAutreRequeteSontRefusees() throws Exception {
+        List<byte[]> documents = emettre("<SELECT TRANCHES=\"3\"/>".getBytes(StandardCharsets.UTF_8));
+        refuser(documents, "Les tranches reçues ne correspondent pas à la réponse signée !");
+    }
+
+    @Test
+    void unDocumentFinModifieOuAbsentEstRefuse() throws Exception {
+        List<byte[]> documents = emettre(REQUETE);
+        int derniere = documents.size() - 1;
+        documents.set(derniere, remplacer(documents.get(derniere), "TUPLES=\"5\"", "TUPLES=\"4\""));
+        refuser(documents, "La signature de la réponse est incorrecte !");
+
+        List<byte[]> sansFin = emettre(REQUETE);
+        sansFin.remove(sansFin.size() - 1);
+        refuser(sansFin, "La réponse ne contient pas de document final signé");
+    }
+
+    @Test
+    void unDocumentApresLaFinEstRefuse() throws Exception {
+        List<byte[]> documents = emettre(REQUETE);
+        documents.add(documents.get(0));
+        refuser(documents, "Document reçu après la fin de la réponse");
+    }
+}
@@ -0,0 +1,166 @@
+package agent;
+
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.crypto.KeySelector;
+import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import javax.xml.crypto.dsig.dom.DOMValidateContext;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.security.SignatureException;
+
+import static agent.AgentsDeTest.DESTINATAIRE;
+import static agent.AgentsDeTest.EMETTEUR;
+import static agent.AgentsDeTest.document;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compare la vérification en flux avec le validateur DOM de l'API de signature XML. La signature est produite sur le
+ * document analysé, puis insérée dans le texte d'origine à la fin de l'élément racine : le texte vérifié garde ainsi
+ * ce que l'analyse DOM ne conserve pas (sections CDATA, blancs hors de la racine, forme des entités...).
+ */
+class VerificateurFluxTest {
+    /**
+     * Signe un document donné sous forme de texte et retourne ce texte, signature comprise.
+     */
+    private static String signer(String xml, String racine) throws Exception {
+        Document document = document(xml);
+        EMETTEUR.signerDocument(document);
+        String signe = new String(OutilsXML.serialiser(document), StandardCharsets.UTF_8);
+        int debut = signe.lastIndexOf("<", signe.indexOf("Signature xmlns"));
+        int fin = signe.lastIndexOf("</" + racine + ">");
+        int position = xml.lastIndexOf("</" + racine + ">");
+        return xml.substring(0, position) + signe.substring(debut, fin) + xml.substring(position);
+    }
+
+    private static VerificateurFlux.Verdict flux(String xml, Key cle) throws Exception {
+        return VerificateurFlux.verifier(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)),
+                (nom, hmac) -> cle);
+    }
+
+    private static boolean dom(String xml, Key cle) throws Exception {
+        Document document = document(xml);
+        Element signature = (Element) document.getElementsByTagNameNS(XMLSignature.XMLNS, "Signature").item(0);
+        DOMValidateContext contexte = new DOMValidateContext(KeySelector.singletonKeySelector(cle), signature);
+        return XMLSignatureFactory.getInstance("DOM").unmarshalXMLSignature(contexte).validate(contexte);
+    }
+
+    /**
+     * Vérifie que le document est accepté par les deux validateurs, et qu'une modification de son contenu est refusée
+     * par les deux.
+     */
+    private static void comparer(String xml, String racine, String avant, String apres) throws Exception {
+        String signe = signer(xml, racine);
+        Key cle = EMETTEUR.getPublicKey();
+        assertTrue(dom(signe, cle), "validateur DOM");
+        assertEquals(VerificateurFlux.Verdict.VALIDE, flux(signe, cle));
+
+        String modifie = signe.replace(avant, apres);
+        assertFalse(modifie.equals(signe), "la modification doit porter sur le document");
+        assertFalse(dom(modifie, cle), "validateur DOM, document modifié");
+        assertEquals(VerificateurFlux.Verdict.INVALIDE, flux(modifie, cle));
+    }
+
+    @Test
+    void espacesDeNoms() throws Exception {
+        comparer("<r:RESULTAT xmlns:r=\"urn:r\" xmlns=\"urn:defaut\" xmlns:inutile=\"urn:inutile\">"
+                + "<TUPLES r:a=\"1\" b=\"2\"><TUPLE xmlns=\"\">Doe</TUPLE>"
+                + "<r:TUPLE xmlns:r=\"urn:r\" xmlns:s=\"urn:s\" s:c=\"3\">Martin</r:TUPLE></TUPLES></r:RESULTAT>",
+                "r:RESULTAT", "Martin", "Durand");
+    }
+
+    @Test
+    void echappements() throws Exception {
+        comparer("<RESULTAT a=\"x&#9;y&#10;&quot;&lt;&amp;&gt;'\" b='\"'>1 &lt; 2 &amp;&amp; 3 &gt; 0 \"'&#13;"
+                + " &#233;t&#xE9; &#x1F600;</RESULTAT>", "RESULTAT", "&#9;y", "&#9;z");
+    }
+
+    @Test
+    void sectionsCDATA() throws Exception {
+        comparer("<RESULTAT><TUPLE><![CDATA[<CHAMP> & ]]>suite<![CDATA[]]]]><![CDATA[>]]></TUPLE></RESULTAT>",
+                "RESULTAT", "suite", "autre");
+    }
+
+    @Test
+    void instructionsDeTraitement() throws Exception {
+        comparer("<?avant données?><!-- commentaire --><RESULTAT><?dedans x=\"1\"?><TUPLE/><?vide?></RESULTAT>"
+                + "<?apres?><!-- fin -->", "RESULTAT", "x=\"1\"", "x=\"2\"");
+    }
+
+    @Test
+    void blancsHorsDeLaRacine() throws Exception {
+        comparer("\n\n  <!-- début -->\n<RESULTAT>\n  <TUPLE>\r\n\tDoe </TUPLE>\n</RESULTAT>\n\n<?fin?>\n  ",
+                "RESULTAT", "\tDoe ", "\tDoe  ");
+    }
+
+    @Test
+    void condenseModifie() throws Exception {
+        String signe = signer("<RESULTAT><TUPLE>Doe</TUPLE></RESULTAT>", "RESULTAT");
+        int debut = signe.indexOf("DigestValue>") + "DigestValue>".length();
+        char premier = signe.charAt(debut);
+        String modifie = signe.substring(0, debut) + (premier == 'A' ? 'B' : 'A') + signe.substring(debut + 1);
+        Key cle = EMETTEUR.getPublicKey();
+        assertFalse(dom(modifie, cle));
+        assertEquals(VerificateurFlux.Verdict.INVALIDE, flux(modifie, cle));
+    }
+
+    @Test
+    void valeurDeSignatureModifiee() throws Exception {
+        String signe = signer("<RESULTAT><TUPLE>Doe</TUPLE></RESULTAT>", "RESULTAT");
+        int debut = signe.indexOf("SignatureValue>") + "SignatureValue>".length() + 10;
+        char caractere = signe.charAt(debut);
+        String modifie = signe.substring(0, debut) + (caractere == 'A' ? 'B' : 'A') + signe.substring(debut + 1);
+        Key cle = EMETTEUR.getPublicKey();
+        assertFalse(dom(modifie, cle));
+        assertEquals(VerificateurFlux.Verdict.INVALIDE, flux(modifie, cle));
+    }
+
+    @Test
+    void uneSignatureDeSessionEstVerifieeEnFlux() throws Exception {
+        Session session = AgentsDeTest.ouvrirSession();
+        Document document = document("<SELECT><CHAMPS><CHAMP>nom</CHAMP></CHAMPS></SELECT>");
+        EMETTEUR.signerDocument(document, session);
+        byte[] octets = OutilsXML.serialiser(document);
+        String xml = new String(octets, StandardCharsets.UTF_8);
+        assertTrue(dom(xml, session.getCleEnvoi()));
+        assertEquals(VerificateurFlux.Verdict.VALIDE, flux(xml, session.getCleEnvoi()));
+
+        Agent.Signataire signataire = DESTINATAIRE.verifierSignataire(octets);
+        assertNotNull(signataire);
+        assertEquals(session.getId(), signataire.getSession().getId());
+        SignatureException rejoue = assertThrows(SignatureException.class,
+                () -> DESTINATAIRE.verifierSignataire(octets));
+        assertTrue(rejoue.getMessage().contains("rejoué"), rejoue.getMessage());
+    }
+
+    @Test
+    void uneSignatureAPlusieursReferencesNEstPasPriseEnCharge() throws Exception {
+        String signe = signer("<RESULTAT><TUPLE>Doe</TUPLE></RESULTAT>", "RESULTAT");
+        int fin = signe.indexOf("</Reference>") + "</Reference>".length();
+        int debut = signe.lastIndexOf("<Reference", fin);
+        String doublee = signe.substring(0, fin) + signe.substring(debut, fin) + signe.substring(fin);
+        assertEquals(VerificateurFlux.Verdict.NON_PRIS_EN_CHARGE, flux(doublee, EMETTEUR.getPublicKey()));
+    }
+
+    @Test
+    void unDocumentSansSignatureOuMalFormeEstRefuse() throws Exception {
+        byte[] sansSignature = "<RESULTAT><TUPLE>Doe</TUPLE></RESULTAT>".getBytes(StandardCharsets.UTF_8);
+        assertEquals(VerificateurFlux.Verdict.INVALIDE, flux("<RESULTAT><TUPLE>Doe</TUPLE></RESULTAT>",
+                EMETTEUR.getPublicKey()));
+        assertNull(DESTINATAIRE.verifierSignataire(sansSignature));
+        assertFalse(DESTINATAIRE.verifierSignature(sansSignature));
+
+        byte[] malForme = "<RESULTAT><TUPLE>Doe</RESULTAT>".getBytes(StandardCharsets.UTF_8);
+        assertThrows(SignatureException.class, () -> DESTINATAIRE.verifierSignataire(malForme));
+        assertFalse(DESTINATAIRE.verifierSignature(malForme));
+    }
+}
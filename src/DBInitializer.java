@@ -1,24 +1,48 @@
+import agent.GenerateurTuples.Table;
+
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Cette classe permet d'initialiser une base de données en exécutant un script SQL.
+ * <p>
+ * Elle peut aussi remplir les tables personnes et produits avec un grand nombre de tuples générés de façon
+ * déterministe par {@link Table} : le tuple d'identifiant i ne dépend que de la graine et de i, si bien que deux
+ * chargements avec les mêmes paramètres donnent les mêmes tables, quel que soit le nombre de threads, et les mêmes
+ * que la base embarquée des agents (voir agent.BaseEmbarquee). Les tuples sont insérés par lots JDBC (réécrits en
+ * INSERT multi-lignes par le pilote MySQL grâce à rewriteBatchedStatements), validés par transactions de plusieurs
+ * lots, et plusieurs threads chargent chacun une plage contiguë d'identifiants sur leur propre connexion, ouverte une
+ * seule fois avec son instruction d'insertion.
+ * <p>
+ * Paramètres lus dans config.ini : chargementLot (1000), le nombre de tuples par lot, chargementTransaction (50000),
+ * le nombre de tuples par transaction, chargementThreads (4), le nombre de connexions qui chargent en parallèle, et
+ * chargementGraine (42), la graine du générateur.
  */
 public class DBInitializer {
 
     /**
      * Méthode principale qui lit les informations de connexion à la base de données depuis un fichier de configuration,
      * établit la connexion et exécute le script SQL donné pour créer les tables.
+     * Si deux nombres sont donnés, les tuples d'exemple du script sont ensuite remplacés par ce nombre de personnes et
+     * de produits générés.
      *
-     * @param args les arguments de ligne de commande (non utilisés ici)
+     * @param args rien, ou le nombre de personnes et le nombre de produits à générer
      * @throws Exception si une erreur survient lors de la lecture du fichier de configuration, de la connexion à
-     *                   la base de données ou de l'exécution du script SQL
+     *                   la base de données, de l'exécution du script SQL ou du chargement des tuples générés
      */
     public static void main(String[] args) throws Exception {
 
@@ -38,6 +62,20 @@ public class DBInitializer {
                 executeScript(stmt, scriptFilePath);
                 System.out.println("Création des tables terminées !");
             }
+
+            if (args.length >= 2) {
+                Properties connectionProps = new Properties();
+                connectionProps.setProperty("user", dbUser != null ? dbUser : "");
+                connectionProps.setProperty("password", dbPass != null ? dbPass : "");
+                connectionProps.setProperty("rewriteBatchedStatements", "true");
+                Loader loader = new Loader(db, connectionProps,
+                        Integer.parseInt(props.getProperty("chargementLot", "1000")),
+                        Integer.parseInt(props.getProperty("chargementTransaction", "50000")),
+                        Integer.parseInt(props.getProperty("chargementThreads", "4")),
+                        Long.parseLong(props.getProperty("chargementGraine", "42")));
+                loader.load(Table.PERSONNES, Long.parseLong(args[0]));
+                loader.load(Table.PRODUITS, Long.parseLong(args[1]));
+            }
         }
     }
 
@@ -65,4 +103,118 @@ public class DBInitializer {
             }
         }
     }
+
+    /**
+     * Retourne l'instruction d'insertion des colonnes générées d'une table.
+     */
+    private static String insertSql(Table table) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table.getBase()).append('.').append(table.getNom())
+                .append(" (").append(String.join(", ", table.getColonnes())).append(") VALUES (?");
+        for (int i = 1; i < table.getColonnes().size(); i++) {
+            sql.append(", ?");
+        }
+        return sql.append(')').toString();
+    }
+
+    /**
+     * Charge les tuples générés d'une table, par plages d'identifiants réparties entre plusieurs threads.
+     */
+    private static final class Loader {
+        private final String url;
+        private final Properties connectionProps;
+        private final int batchSize;
+        private final int transactionSize;
+        private final int threads;
+        private final long seed;
+
+        Loader(String url, Properties connectionProps, int batchSize, int transactionSize, int threads, long seed) {
+            if (batchSize <= 0 || transactionSize <= 0 || threads <= 0) {
+                throw new IllegalArgumentException("Les tailles de lot, de transaction et le nombre de threads doivent"
+                        + " être positifs");
+            }
+            this.url = url;
+            this.connectionProps = connectionProps;
+            this.batchSize = batchSize;
+            this.transactionSize = transactionSize;
+            this.threads = threads;
+            this.seed = seed;
+        }
+
+        /**
+         * Vide la table, puis y insère les tuples d'identifiants 1 à rows.
+         */
+        void load(Table table, long rows) throws SQLException, InterruptedException {
+            long start = System.nanoTime();
+            try (Connection conn = DriverManager.getConnection(url, connectionProps);
+                 Statement stmt = conn.createStatement()) {
+                stmt.execute("TRUNCATE TABLE " + table.getBase() + "." + table.getNom());
+            }
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<Void>> ranges = new ArrayList<>();
+                long perThread = (rows + threads - 1) / threads;
+                for (long first = 1; first <= rows; first += perThread) {
+                    long from = first;
+                    long to = Math.min(rows, first + perThread - 1);
+                    ranges.add(executor.submit(() -> {
+                        loadRange(table, from, to);
+                        return null;
+                    }));
+                }
+                for (Future<Void> range : ranges) {
+                    range.get();
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof SQLException) {
+                    throw (SQLException) e.getCause();
+                }
+                throw new IllegalStateException("Le chargement de " + table.getNom() + " a échoué", e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.println(String.format(Locale.ROOT, "Chargement de %s : %d tuples en %.2f s (%.0f/s)",
+                    table.getNom(), rows, seconds, rows / seconds));
+        }
+
+        /**
+         * Insère les tuples d'identifiants from à to sur une seule connexion et avec une seule instruction préparée,
+         * par lots de batchSize tuples, en validant la transaction tous les transactionSize tuples.
+         */
+        private void loadRange(Table table, long from, long to) throws SQLException {
+            try (Connection conn = DriverManager.getConnection(url, connectionProps)) {
+                conn.setAutoCommit(false);
+                try (PreparedStatement insert = conn.prepareStatement(insertSql(table))) {
+                    int pending = 0;
+                    int uncommitted = 0;
+                    for (long id = from; id <= to; id++) {
+                        Object[] values = table.tuple(id, seed);
+                        for (int i = 0; i < values.length; i++) {
+                            insert.setObject(i + 1, values[i]);
+                        }
+                        insert.addBatch();
+                        if (++pending == batchSize) {
+                            insert.executeBatch();
+                            pending = 0;
+                        }
+                        if (++uncommitted == transactionSize) {
+                            if (pending > 0) {
+                                insert.executeBatch();
+                                pending = 0;
+                            }
+                            conn.commit();
+                            uncommitted = 0;
+                        }
+                    }
+                    if (pending > 0) {
+                        insert.executeBatch();
+                    }
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+                }
+            }
+        }
+    }
 }
@@ -4,98 +4,179 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
 
+import javax.xml.crypto.AlgorithmMethod;
+import javax.xml.crypto.KeySelector;
+import javax.xml.crypto.KeySelectorException;
+import javax.xml.crypto.KeySelectorResult;
+import javax.xml.crypto.MarshalException;
+import javax.xml.crypto.XMLCryptoContext;
+import javax.xml.crypto.XMLStructure;
 import javax.xml.crypto.dsig.*;
 import javax.xml.crypto.dsig.dom.DOMSignContext;
 import javax.xml.crypto.dsig.dom.DOMValidateContext;
 import javax.xml.crypto.dsig.keyinfo.KeyInfo;
 import javax.xml.crypto.dsig.keyinfo.KeyInfoFactory;
+import javax.xml.crypto.dsig.keyinfo.KeyName;
 import javax.xml.crypto.dsig.keyinfo.KeyValue;
 import javax.xml.crypto.dsig.spec.C14NMethodParameterSpec;
 import javax.xml.crypto.dsig.spec.TransformParameterSpec;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
+import javax.xml.stream.XMLStreamException;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 import java.io.*;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.Key;
 import java.security.KeyPair;
-import java.security.KeyPairGenerator;
-import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
+import java.security.SignatureException;
 import java.sql.*;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Properties;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 
 /**
  * La classe Agent représente un agent de communication qui peut être soit un émetteur, soit un destinataire.
- * Chaque agent possède une paire de clés RSA (publique/privée) pour la signature/le chiffrement des messages.
- * Les agents peuvent échanger leur clé publique afin de pouvoir communiquer de manière sécurisée.
- * Chaque agent est exécuté dans un thread distinct et peut interagir avec un objet partagé de type SharedState.
+ * Chaque agent possède une paire de clés (publique/privée), chargée depuis le {@link MagasinCles} local, pour la
+ * signature des messages avec l'{@link AlgorithmeSignature} configuré.
+ * Les agents peuvent échanger leur clé publique afin de pouvoir communiquer de manière sécurisée ; un agent peut aussi
+ * vérifier les documents de tout agent présent dans le magasin de confiance, désigné par le KeyName de la signature.
+ * Un agent émetteur envoie ses requêtes par un {@link Canal} au {@link MoteurRecepteur} de l'agent destinataire, dans
+ * le même processus ou à travers le réseau ; le moteur les fait traiter par l'agent destinataire sur plusieurs threads,
+ * les méthodes de traitement d'un agent peuvent donc être appelées de manière concurrente.
+ * En mode session (paramètre session de config.ini), l'émetteur ouvre une {@link Session} avec chaque destinataire en
+ * signant un seul échange avec sa paire de clés, puis les requêtes et les résultats sont signés en HMAC-SHA256 avec
+ * les clés de la session.
  */
-public class Agent extends Thread {
+public class Agent {
     /**
-     * La paire de clés RSA (publique/privée) de l'agent pour la signature/le chiffrement des messages.
+     * L'identifiant de l'agent, qui désigne ses clés dans le magasin de clés et le magasin de confiance.
+     */
+    private final String identifiant;
+    /**
+     * La paire de clés (publique/privée) de l'agent pour la signature des messages.
      */
     private final KeyPair keyPair;
+    /**
+     * L'algorithme utilisé pour signer les documents XML.
+     */
+    private final AlgorithmeSignature algorithme;
+    /**
+     * Le magasin contenant les clés de l'agent et les certificats des agents de confiance.
+     */
+    private final MagasinCles magasinCles;
     /**
      * La base de données de l'agent.
      */
     private final String database;
     /**
-     * La clé publique de l'autre agent avec qui cet agent communique.
+     * Le cache des résultats signés par cet agent, ou null si le cache est désactivé.
      */
-    private PublicKey otherAgentPublicKey;
+    private final CacheResultats cacheResultats;
     /**
-     * L'objet SharedState qui est partagé entre tous les threads.
+     * Le routeur qui envoie chaque requête vers les bases de données contenant ses tables.
      */
-    public final SharedState sharedState;
+    private final RouteurRequetes routeur;
     /**
-     * Indique si l'agent est un émetteur ou un destinataire.
+     * L'identifiant et la clé publique de l'autre agent avec qui cet agent communique, ou null.
      */
-    public final boolean sender;
+    private volatile Map.Entry<String, PublicKey> otherAgent;
     /**
-     * Le fichier à envoyer.
+     * Les sessions ouvertes avec cet agent ou par cet agent, par identifiant, qui servent à vérifier les documents reçus.
      */
-    public final String fileToSend;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    /**
+     * Côté destinataire : les demandes d'ouverture de session déjà acceptées, pour refuser celles qui sont rejouées.
+     */
+    private final Session.Demandes demandesSession = new Session.Demandes();
+    /**
+     * La session courante de cet agent émetteur avec chaque destinataire.
+     */
+    private final Map<Canal, Session> sessionsOuvertes = new ConcurrentHashMap<>();
+    /**
+     * Côté destinataire : les valeurs envoyées en réponse aux requêtes incrémentales, par émetteur et par requête.
+     */
+    private final Delta.Suivi suiviDeltas;
+    /**
+     * Côté émetteur : les copies locales des résultats des requêtes incrémentales, par destinataire et par nom de
+     * document.
+     */
+    private final Map<Canal, Map<String, Delta.Copie>> copiesDeltas = new ConcurrentHashMap<>();
+
+    /**
+     * Constructeur de la classe agent.Agent. Les clés de l'agent sont lues depuis le magasin de clés configuré,
+     * et ne sont générées que lors du tout premier démarrage de l'agent.
+     *
+     * @param identifiant l'identifiant de l'agent
+     * @param database    le nom de la base de données de l'agent
+     */
+    public Agent(String identifiant, String database) {
+        this(identifiant, database, MagasinCles.depuisConfiguration(), AlgorithmeSignature.depuisConfiguration());
+    }
 
     /**
      * Constructeur de la classe agent.Agent.
      *
-     * @param sharedState l'objet agent.SharedState partagé entre tous les threads
-     * @param sender      true si l'agent est un émetteur, false sinon
+     * @param identifiant l'identifiant de l'agent
      * @param database    le nom de la base de données de l'agent
+     * @param magasinCles le magasin contenant les clés de l'agent et les certificats de confiance
+     * @param algorithme  l'algorithme de signature de l'agent
      */
-    public Agent(SharedState sharedState, boolean sender, String database, String fileToSend) {
-        this.sharedState = sharedState;
+    public Agent(String identifiant, String database, MagasinCles magasinCles, AlgorithmeSignature algorithme) {
+        this.identifiant = identifiant;
         this.database = database;
-        this.sender = sender;
-        this.fileToSend = fileToSend;
-        // Générer une paire de clés RSA pour cet agent
-        KeyPairGenerator keyPairGenerator;
+        this.magasinCles = magasinCles;
+        this.algorithme = algorithme;
+        this.cacheResultats = CacheResultats.depuisConfiguration();
+        this.routeur = new RouteurRequetes(CatalogueTables.depuisConfiguration(), database);
+        this.suiviDeltas = Delta.Suivi.depuisConfiguration();
         try {
-            keyPairGenerator = KeyPairGenerator.getInstance("RSA");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
+            // Vérifier dès le démarrage que l'algorithme est pris en charge par l'API de signature XML du JDK.
+            XMLSignatureFactory.getInstance("DOM").newSignatureMethod(algorithme.getUri(), null);
+            keyPair = magasinCles.chargerOuCreer(identifiant, algorithme);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Impossible de charger les clés " + algorithme + " de l'agent " + identifiant, e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-        keyPairGenerator.initialize(2048);
-        keyPair = keyPairGenerator.generateKeyPair();
     }
 
     /**
-     * Permet à deux agents d'échanger leur clé publique respective.
+     * Permet à deux agents d'échanger leur clé publique respective : les documents signés par l'autre agent, désigné
+     * par son identifiant, sont ensuite acceptés sans qu'il soit dans le magasin de confiance.
      *
      * @param otherAgent l'autre agent avec qui échanger la clé publique
      */
     public void exchangeKeys(Agent otherAgent) {
-        // Récupérer la clé publique de l'autre agent et l'enregistrer localement
-        this.otherAgentPublicKey = otherAgent.getPublicKey();
+        // Récupérer la clé publique de l'autre agent et l'enregistrer localement, avec son identifiant
+        this.otherAgent = Map.entry(otherAgent.getIdentifiant(), otherAgent.getPublicKey());
+    }
+
+    /**
+     * Désigne l'agent de confiance avec qui cet agent communique, sans échange de clé en mémoire : sa clé publique est
+     * lue dans le magasin de confiance.
+     *
+     * @param identifiantPair l'identifiant de l'autre agent
+     * @throws GeneralSecurityException si l'agent n'est pas dans le magasin de confiance
+     * @throws IOException              si le magasin de confiance ne peut pas être lu
+     */
+    public void faireConfiance(String identifiantPair) throws GeneralSecurityException, IOException {
+        PublicKey cle = magasinCles.clePublique(identifiantPair);
+        if (cle == null) {
+            throw new GeneralSecurityException("L'agent " + identifiantPair + " n'est pas dans le magasin de confiance");
+        }
+        this.otherAgent = Map.entry(identifiantPair, cle);
     }
 
     /**
@@ -108,61 +189,479 @@ public class Agent extends Thread {
     }
 
     /**
-     * La méthode run() est exécutée lorsqu'un thread est lancé.
-     * Elle permet de gérer les actions à effectuer par le thread en fonction de sa nature, soit "sender" soit "receiver".
-     * Si le thread est de type "sender", il attend que sa clé publique soit échangée, signe le document XML à envoyer,
-     * le transmet au thread "receiver", attend que le résultat signé lui, soit retourné, puis vérifie la signature
-     * du document XML reçu.
-     * Si le thread est de type "receiver", il attend que la clé publique de l'expéditeur soit échangée,
-     * attend que le thread "sender" soit prêt, vérifie la signature du document XML reçu,
-     * extrait la requête SQL contenue dans le document XML, l'exécute, signe le document XML contenant le résultat
-     * et le transmet au thread "sender".
+     * @return le cache des résultats signés par cet agent, ou null si le cache est désactivé
+     */
+    public CacheResultats getCacheResultats() {
+        return cacheResultats;
+    }
+
+    /**
+     * @return l'identifiant de l'agent
+     */
+    public String getIdentifiant() {
+        return identifiant;
+    }
+
+    /**
+     * Côté émetteur : signe le document XML ./requests/&lt;fichier&gt;, l'envoie au destinataire par le canal donné,
+     * puis vérifie la signature du résultat reçu et le met en forme.
+     * Le document n'est analysé qu'une seule fois de chaque côté et circule en mémoire ; il n'est écrit sur le disque
+     * (dans ./requests/signed/ et ./requests/results/) que si l'archivage est activé.
+     *
+     * @param fichier      le nom du fichier de requête, relatif au dossier ./requests/
+     * @param destinataire le canal vers le destinataire qui traite la requête
+     * @return un futur complété avec les résultats mis en forme, ou en erreur si une étape échoue
+     * @throws Exception si une erreur survient lors de la lecture ou de la signature de la requête
+     */
+    public CompletableFuture<String> envoyerRequete(String fichier, Canal destinataire) throws Exception {
+        return envoyerEtVerifier(lireRequete(fichier), fichier, destinataire, Runnable::run);
+    }
+
+    /**
+     * Côté émetteur : comme {@link #envoyerRequete(String, Canal)}, pour un document de requête déjà chargé, en
+     * vérifiant et mettant en forme le résultat sur l'exécuteur donné plutôt que sur le thread qui le reçoit.
+     * Plusieurs requêtes peuvent ainsi être en cours à la fois, et leurs résultats vérifiés en parallèle dans l'ordre
+     * de leur arrivée.
+     *
+     * @param document     le document de requête, signé sur place
+     * @param nom          le nom du document, utilisé pour les messages et l'archivage
+     * @param destinataire le canal vers le destinataire qui traite la requête
+     * @param verification l'exécuteur qui vérifie et met en forme le résultat
+     * @return un futur complété avec les résultats mis en forme, ou en erreur si une étape échoue
+     * @throws Exception si une erreur survient lors de la signature de la requête
+     */
+    public CompletableFuture<String> envoyerEtVerifier(Document document, String nom, Canal destinataire,
+                                                       Executor verification) throws Exception {
+        Delta.Copie copie = copie(document, nom, destinataire);
+        return destinataire.envoyer(signerRequete(document, nom, destinataire), nom).thenApplyAsync(reponse -> {
+            try {
+                return lireReponse(reponse, copie);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, verification);
+    }
+
+    /**
+     * Côté émetteur : comme {@link #envoyerRequete(String, Canal)}, mais en acceptant un résultat en tranches si la
+     * requête en demande un (attribut TRANCHES) : chaque tranche est mise en forme et transmise à affichage dès son
+     * arrivée, sans attendre la fin du résultat. L'enchaînement des tranches n'est vérifié qu'à la réception du
+     * document final signé ; si le futur est complété en erreur, les tranches déjà affichées ne sont pas fiables.
+     * Une réponse en un seul document est vérifiée puis transmise d'un bloc à affichage.
+     *
+     * @param fichier      le nom du fichier de requête, relatif au dossier ./requests/
+     * @param destinataire le canal vers le destinataire qui traite la requête
+     * @param affichage    le destinataire des résultats mis en forme, appelé depuis un seul thread à la fois
+     * @return un futur complété une fois la réponse entière reçue et vérifiée, ou en erreur si une étape échoue
+     * @throws Exception si une erreur survient lors de la lecture ou de la signature de la requête
+     */
+    public CompletableFuture<Void> envoyerRequete(String fichier, Canal destinataire, Consumer<String> affichage)
+            throws Exception {
+        return envoyerRequete(lireRequete(fichier), fichier, destinataire, affichage);
+    }
+
+    /**
+     * Côté émetteur : comme {@link #envoyerRequete(String, Canal, Consumer)}, pour un document de requête déjà chargé,
+     * par exemple construit en mémoire.
+     *
+     * @param document     le document de requête, signé sur place
+     * @param nom          le nom du document, utilisé pour les messages et l'archivage
+     * @param destinataire le canal vers le destinataire qui traite la requête
+     * @param affichage    le destinataire des résultats mis en forme, appelé depuis un seul thread à la fois
+     * @return un futur complété une fois la réponse entière reçue et vérifiée, ou en erreur si une étape échoue
+     * @throws Exception si une erreur survient lors de la signature de la requête
+     */
+    public CompletableFuture<Void> envoyerRequete(Document document, String nom, Canal destinataire,
+                                                  Consumer<String> affichage) throws Exception {
+        Delta.Copie copie = copie(document, nom, destinataire);
+        byte[] contenu = signerRequete(document, nom, destinataire);
+        Tranches.Lecteur lecteur = new Tranches.Lecteur(this, contenu, affichage, copie);
+        return destinataire.envoyerEnTranches(contenu, nom, lecteur).thenRun(() -> {
+            try {
+                lecteur.terminer();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    private static Document lireRequete(String fichier) throws Exception {
+        long debut = Metriques.debut();
+        Document document = OutilsXML.analyser(Paths.get("./requests/" + fichier));
+        Metriques.fin(Etape.ANALYSE, debut);
+        return document;
+    }
+
+    /**
+     * Retourne la copie locale du résultat d'une requête incrémentale (voir {@link Delta}) envoyée au destinataire sous
+     * ce nom, et renseigne dans la requête la valeur jusqu'à laquelle elle est à jour ; null si la requête n'est pas
+     * incrémentale.
+     */
+    private Delta.Copie copie(Document document, String nom, Canal destinataire) {
+        Element racine = document.getDocumentElement();
+        if (!"SELECT".equals(racine.getNodeName()) || !Delta.estDelta(racine)) {
+            return null;
+        }
+        Delta.Copie copie = copiesDeltas.computeIfAbsent(destinataire, d -> new ConcurrentHashMap<>())
+                .computeIfAbsent(nom, n -> new Delta.Copie());
+        copie.acquitter(racine);
+        return copie;
+    }
+
+    /**
+     * Signe un document de requête, avec la session ouverte vers le destinataire en mode session, et retourne ses
+     * octets, archivés dans ./requests/signed/ si l'archivage est activé.
      */
-    @Override
-    public void run() {
+    private byte[] signerRequete(Document document, String nom, Canal destinataire) throws Exception {
+        Session session = Configuration.get().getBooleen("session", false) ? session(destinataire) : null;
+        byte[] contenu = signer(document, session);
+        if (archivageActive()) {
+            Files.write(Paths.get("./requests/signed/" + nom), contenu);
+        }
+        return contenu;
+    }
 
+    /**
+     * Retourne la session courante avec un destinataire, et en ouvre une nouvelle s'il n'y en a pas encore ou si elle
+     * doit être renouvelée. L'ancienne session reste valide jusqu'à son expiration pour les réponses en cours.
+     */
+    private synchronized Session session(Canal destinataire) throws Exception {
+        Session session = sessionsOuvertes.get(destinataire);
+        if (session == null || session.doitEtreRenouvelee()) {
+            session = ouvrirSession(destinataire);
+            sessionsOuvertes.put(destinataire, session);
+        }
+        return session;
+    }
+
+    /**
+     * Côté émetteur : ouvre une session avec un destinataire. La demande et la réponse sont signées avec les paires de
+     * clés des deux agents ; chacune porte une clé publique éphémère, dont les deux agents dérivent les clés HMAC de la
+     * session (voir {@link Session}).
+     *
+     * @param destinataire le canal vers le destinataire
+     * @return la session ouverte
+     * @throws SignatureException si la signature de la réponse est incorrecte ou ne répond pas à la demande
+     * @throws Exception          si l'échange échoue
+     */
+    private Session ouvrirSession(Canal destinataire) throws Exception {
+        byte[] nonce = Session.aleatoire(32);
+        KeyPair ephemere = Session.genererEphemere();
+        byte[] demande = signer(Session.demande(nonce, ephemere), null);
+        byte[] octets = destinataire.envoyer(demande, Session.SESSION).get();
+        Signataire signataire = verifierSignataire(octets);
+        if (signataire == null || signataire.getSession() != null) {
+            throw new SignatureException("La signature de l'ouverture de session est incorrecte !");
+        }
+        Document reponse = OutilsXML.analyser(octets);
+        Session session = Session.ouvrir(reponse, nonce, ephemere);
+        enregistrer(session);
+        return session;
+    }
+
+    /**
+     * Enregistre une session ouverte, et oublie les sessions expirées. Côté destinataire, un même émetteur a au plus
+     * sessionsParPairMax sessions : les plus anciennes sont oubliées au profit de la nouvelle.
+     */
+    private synchronized void enregistrer(Session session) {
+        sessions.values().removeIf(Session::estExpiree);
+        String pair = session.getPair();
+        if (pair != null) {
+            int max = Math.max(1, Configuration.get().getEntier("sessionsParPairMax", 8));
+            List<Session> duPair = new ArrayList<>();
+            for (Session ouverte : sessions.values()) {
+                if (pair.equals(ouverte.getPair())) {
+                    duPair.add(ouverte);
+                }
+            }
+            duPair.sort(Comparator.comparingLong(Session::getCreation));
+            for (int i = 0; i <= duPair.size() - max; i++) {
+                sessions.remove(duPair.get(i).getId());
+            }
+        }
+        sessions.put(session.getId(), session);
+    }
+
+    /**
+     * Côté émetteur : vérifie la signature d'un document de résultat reçu et le met en forme.
+     *
+     * @param resultatSigne les octets du document XML de résultat signé
+     * @return les résultats mis en forme
+     * @throws SignatureException si la signature du résultat est incorrecte
+     * @throws SQLException       si le résultat signé est une erreur du destinataire (limite atteinte, base saturée...)
+     * @throws Exception          si le document ne peut pas être analysé
+     */
+    public String lireReponse(byte[] resultatSigne) throws Exception {
+        return lireReponse(resultatSigne, null);
+    }
+
+    /**
+     * Côté émetteur : comme {@link #lireReponse(byte[])}, en appliquant une réponse incrémentale (document DELTA) à la
+     * copie locale du résultat, qui est alors mise en forme en entier.
+     *
+     * @param resultatSigne les octets du document XML de résultat signé
+     * @param copie         la copie locale du résultat d'une requête incrémentale, ou null
+     * @return les résultats mis en forme
+     * @throws SignatureException si la signature du résultat est incorrecte, ou si la réponse incrémentale ne part pas
+     *                            de la valeur acquittée par la copie
+     * @throws SQLException       si le résultat signé est une erreur du destinataire (limite atteinte, base saturée...)
+     * @throws Exception          si le document ne peut pas être analysé
+     */
+    String lireReponse(byte[] resultatSigne, Delta.Copie copie) throws Exception {
+        if (verifierSignataire(resultatSigne) == null) {
+            throw new SignatureException("La signature de la réponse est incorrecte !");
+        }
+        long debut = Metriques.debut();
+        Document document = OutilsXML.analyser(resultatSigne);
+        Metriques.fin(Etape.ANALYSE, debut);
+        Element racine = document.getDocumentElement();
+        Element erreur = "RESULTAT".equals(racine.getNodeName()) ? RequeteSelect.enfant(racine, "ERREUR") : null;
+        if (erreur != null) {
+            String etat = erreur.getAttributeNS(null, "ETAT");
+            throw new SQLException(erreur.getTextContent(), etat.isEmpty() ? null : etat);
+        }
+        if (Delta.estReponse(racine) && copie == null) {
+            throw new IllegalArgumentException("Réponse incrémentale reçue pour une requête qui n'en demande pas");
+        }
+        debut = Metriques.debut();
+        String affichage = Delta.estReponse(racine) ? copie.appliquer(racine) : afficherResultats(document);
+        Metriques.fin(Etape.AFFICHAGE, debut);
+        return affichage;
+    }
+
+    /**
+     * Côté destinataire : vérifie la signature du document XML reçu, extrait la requête SQL qu'il contient,
+     * l'exécute, puis signe le document XML contenant le résultat.
+     * Si le document est un lot (élément racine LOT), sa signature est vérifiée une seule fois, chacune de ses
+     * requêtes est exécutée, et les résultats sont retournés dans un seul lot RESULTATS signé.
+     * Le résultat signé d'une requête simple est conservé dans le cache de l'agent : la même requête sur la même base
+     * est ensuite servie sans accès à la base de données ni nouvelle signature.
+     * La signature du document reçu est vérifiée sur ses octets, qui ne sont analysés qu'ensuite, une seule fois. Le
+     * résultat d'une requête simple est écrit et signé au fil de la lecture des tuples, sans construire de document
+     * XML, sauf s'il est au codage compact, s'il doit être archivé ou s'il est mis en cache dans une session : il est
+     * alors construit puis signé en mémoire.
+     * Si l'archivage est activé, le résultat est aussi enregistré dans ./requests/results/ sous un nom dérivé de
+     * l'identifiant de la requête, afin que plusieurs requêtes portant sur le même fichier ne s'écrasent pas.
+     * Si la requête demande un résultat en tranches et que l'émetteur les accepte, les tranches sont transmises au
+     * fil de l'exécution (voir {@link Tranches}) et la réponse contient le document final signé ; un tel résultat
+     * n'est ni mis en cache ni archivé.
+     * Une demande d'ouverture de session reçoit la réponse signée qui ouvre la session, sauf si elle a déjà été
+     * acceptée (demande rejouée) ; une requête signée dans une session reçoit un résultat signé dans la même session. Le cache conserve alors le résultat non signé, qui est
+     * signé à chaque envoi.
+     * Si une requête est refusée (requête invalide, base saturée, délai dépassé, limite de tuples atteinte...), la
+     * réponse est un résultat signé contenant un élément ERREUR, avec l'état SQL de l'erreur dans son attribut ETAT ; il n'est
+     * pas mis en cache.
+     * Une requête incrémentale (attribut DELTA, voir {@link Delta}) reçoit un document DELTA signé qui ne contient que
+     * les tuples postérieurs à la valeur acquittée par l'émetteur ; elle n'est ni mise en cache ni archivée.
+     *
+     * @param requete la requête à traiter
+     * @return la réponse, qui contient le document de résultat signé
+     * @throws SignatureException si la signature du document reçu est incorrecte, ou si une demande d'ouverture de
+     *                            session est rejouée
+     * @throws Exception          si une autre étape du traitement échoue
+     */
+    public ReponseRequete traiterRequete(Requete requete) throws Exception {
+        Metriques.compter(Metriques.Compteur.REQUETES, 1);
+        Metriques.compter(Metriques.Compteur.OCTETS_REQUETES, requete.getContenu().length);
+        Signataire signataire = verifierSignataire(requete.getContenu());
+        if (signataire == null) {
+            throw new SignatureException("La signature du document " + requete.getNom() + " est incorrecte !");
+        }
+        long debut = Metriques.debut();
+        Document document = OutilsXML.analyser(requete.getContenu());
+        Metriques.fin(Etape.ANALYSE, debut);
+        Session session = signataire.getSession();
+        if (Session.estDemande(document)) {
+            if (session != null) {
+                throw new SignatureException("Une demande d'ouverture de session doit être signée avec une paire "
+                        + "de clés");
+            }
+            demandesSession.retenir(document, signataire.getAgent());
+            Document reponse = OutilsXML.nouveauDocument();
+            Session ouverte = Session.accepter(document, reponse, signataire.getAgent());
+            byte[] reponseSignee = signer(reponse, null);
+            enregistrer(ouverte);
+            return new ReponseRequete(requete.getId(), reponseSignee);
+        }
+        boolean lot = Lot.estLot(document);
+        if (!lot && Delta.estDelta(document.getDocumentElement())) {
+            return new ReponseRequete(requete.getId(), executerDelta(document, signataire));
+        }
+        debut = Metriques.debut();
+        RouteurRequetes.Plan plan = null;
+        IllegalArgumentException refus = null;
         try {
-            if (sender) {
-                // Le thread "sender" attends que sa clé publique soit échangé.
-                sharedState.waitForKeyExchanged();
-                System.out.println("L'envoyeur a récupéré la publique du récepteur !\n");
-                // Puis le signe et l'envoie.
-                signerDocumentXML("./requests/" + fileToSend, "./requests/signed/" + fileToSend);
-                System.out.println("Document XML chargé et signé par l'envoyeur !\n");
-                sharedState.setReady();
-                sharedState.waitForResultSigned();
-                System.out.println("L'envoyeur a reçu le document de réponse XML signé !\n");
-                if (verifierSignatureDocumentXML("./requests/results/signed/" + fileToSend)) {
-                    System.out.println("La signature de la réponse est correcte !");
-                } else {
-                    System.out.println("La signature de la réponse est incorrecte !");
-                    System.out.println("FIN DU PROGRAMME !");
+            plan = lot ? null : routeur.planifier(RequeteSelect.analyser(document.getDocumentElement()));
+        } catch (IllegalArgumentException e) {
+            refus = e;
+        }
+        Metriques.fin(Etape.EXTRACTION, debut);
+        if (plan != null && plan.getTranche() > 0 && requete.getTranches() != null) {
+            return new ReponseRequete(requete.getId(), executerEnTranches(plan, requete, session));
+        }
+        String cle = plan != null && cacheResultats != null
+                ? CacheResultats.cle(plan.getBase(), session != null ? plan.enTexte() + " | SESSION" : plan.enTexte())
+                : null;
+        String nom = requete.getId() + "-" + requete.getNom();
+        boolean archivage = archivageActive();
+        byte[] enCache = cle != null ? cacheResultats.lire(cle) : null;
+        byte[] resultatSigne;
+        if (enCache == null) {
+            // Sans archivage du document non signé ni mise en cache d'un résultat de session, le résultat d'une
+            // requête simple au codage habituel est écrit et signé au fil de la lecture des tuples.
+            boolean enFlux = plan != null && plan.getCompression() == null && !archivage
+                    && (cle == null || session == null);
+            Document resultat = null;
+            byte[] signeEnFlux = null;
+            try {
+                if (refus != null) {
+                    throw refus;
                 }
-            } else {
-                // L'autre thread attend que sa clé publique soit échangée.
-                sharedState.waitForKeyExchanged();
-                System.out.println("Le récepteur a récupéré la publique de l'envoyeur !\n");
-                // L'autre thread attend que le thread "sender" soit prêt.
-                sharedState.waitForReady();
-                System.out.println("Le récepteur a reçu le document XML signé !\n");
-                if (verifierSignatureDocumentXML("./requests/signed/" + fileToSend)) {
-                    System.out.println("La signature du document envoyé est correcte !\n");
-                    String requete = extraireRequeteXML("./requests/signed/" + fileToSend);
-                    System.out.println("Requête : \"" + requete + "\" extraite du document XML signé !\n");
-                    executerRequeteSQL(requete);
-                    System.out.println("Requête SQL exécutée avec succès !\n");
-                    signerDocumentXML("./requests/results/" + fileToSend, "./requests/results/signed/" + fileToSend);
-                    System.out.println("Résultats enregistrés dans un fichier XML, et fichier signé !\n");
-                    System.out.println("Voici les résultats :\n" + afficherResultatsXML("./requests/results/" + fileToSend));
-                    sharedState.setResultSigned();
+                if (lot) {
+                    resultat = executerLot(document);
+                } else if (enFlux) {
+                    signeEnFlux = executerEnFlux(plan, session);
                 } else {
-                    System.out.println("La signature est incorrecte !\n");
-                    System.out.println("FIN DU PROGRAMME !");
+                    resultat = executerRequete(plan);
                 }
+            } catch (SQLException | IllegalArgumentException e) {
+                Metriques.compter(Metriques.Compteur.ERREURS, 1);
+                resultat = OutilsXML.nouveauDocument();
+                resultat.appendChild(erreur(resultat, e));
+                cle = null;
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            if (archivage) {
+                OutilsXML.ecrire(resultat, Paths.get("./requests/results/" + nom));
+            }
+            if (cle != null && session != null) {
+                debut = Metriques.debut();
+                byte[] nonSigne = OutilsXML.serialiser(resultat);
+                Metriques.fin(Etape.SERIALISATION, debut);
+                cacheResultats.ecrire(cle, extraireTables(document.getDocumentElement()), nonSigne);
+            }
+            resultatSigne = signeEnFlux != null ? signeEnFlux : signer(resultat, session);
+            if (cle != null && session == null) {
+                cacheResultats.ecrire(cle, extraireTables(document.getDocumentElement()), resultatSigne);
+            }
+        } else if (session != null) {
+            debut = Metriques.debut();
+            Document resultat = OutilsXML.analyser(enCache);
+            Metriques.fin(Etape.ANALYSE, debut);
+            resultatSigne = signer(resultat, session);
+        } else {
+            resultatSigne = enCache;
         }
+        if (archivage) {
+            Files.write(Paths.get("./requests/results/signed/" + nom), resultatSigne);
+        }
+        Metriques.compter(Metriques.Compteur.OCTETS_RESULTATS, resultatSigne.length);
+        return new ReponseRequete(requete.getId(), resultatSigne);
+    }
+
+    /**
+     * Exécute le plan d'une requête en transmettant son résultat par tranches, puis signe le document FIN.
+     *
+     * @param plan    le plan de la requête, qui demande un résultat en tranches
+     * @param requete la requête, qui porte le destinataire des tranches
+     * @param session la session de la requête, ou null si elle a été signée avec la paire de clés de l'émetteur
+     * @return les octets du document FIN signé
+     */
+    private byte[] executerEnTranches(RouteurRequetes.Plan plan, Requete requete, Session session) throws Exception {
+        Tranches.Emetteur emetteur = new Tranches.Emetteur(requete.getContenu(), plan.getCompression(),
+                requete.getTranches());
+        Document fin;
+        try {
+            routeur.executerEnTranches(plan, plan.getTranche(), Long.MAX_VALUE, emetteur);
+            fin = emetteur.fin();
+        } catch (SQLException | IllegalArgumentException e) {
+            Metriques.compter(Metriques.Compteur.ERREURS, 1);
+            fin = OutilsXML.nouveauDocument();
+            fin.appendChild(erreur(fin, e));
+        }
+        byte[] finSignee = signer(fin, session);
+        Metriques.compter(Metriques.Compteur.OCTETS_RESULTATS, finSignee.length);
+        return finSignee;
+    }
+
+    /**
+     * Exécute une requête incrémentale à partir de la valeur acquittée par l'émetteur, si le destinataire la lui a
+     * envoyée, sinon en entier, puis signe le document DELTA (voir {@link Delta}).
+     *
+     * @param document   la requête, dont la signature a déjà été vérifiée
+     * @param signataire l'émetteur de la requête, dont la réponse est signée dans la même session s'il en a une
+     * @return les octets du document DELTA signé, ou d'un résultat d'erreur signé
+     */
+    private byte[] executerDelta(Document document, Signataire signataire) throws Exception {
+        Element select = document.getDocumentElement();
+        String emetteur = signataire.getAgent();
+        Session session = signataire.getSession();
+        long debut = Metriques.debut();
+        RequeteSelect requete = RequeteSelect.analyser(select);
+        RouteurRequetes.Plan complet = routeur.planifier(Delta.requete(select, requete, null));
+        String texte = complet.enTexte();
+        Long depuis = suiviDeltas.depuis(emetteur, texte, Delta.acquitte(select));
+        RouteurRequetes.Plan plan = depuis == null ? complet : routeur.planifier(Delta.requete(select, requete, depuis));
+        Metriques.fin(Etape.EXTRACTION, debut);
+        Document reponse = OutilsXML.nouveauDocument();
+        try {
+            Element resultat = routeur.executer(plan, reponse);
+            suiviDeltas.envoye(emetteur, texte, depuis, Delta.repondre(select, reponse, resultat, depuis));
+        } catch (SQLException | IllegalArgumentException e) {
+            // repondre refuse une colonne DELTA NULL ou non entière avant d'ajouter quoi que ce soit au document.
+            Metriques.compter(Metriques.Compteur.ERREURS, 1);
+            reponse.appendChild(erreur(reponse, e));
+        }
+        byte[] reponseSignee = signer(reponse, session);
+        Metriques.compter(Metriques.Compteur.OCTETS_RESULTATS, reponseSignee.length);
+        return reponseSignee;
+    }
+
+    /**
+     * Exécute chacune des requêtes d'un lot et regroupe les résultats dans un document RESULTATS, où chaque élément
+     * RESULTAT porte l'identifiant de la requête correspondante. Une requête en erreur produit un élément RESULTAT
+     * contenant un élément ERREUR, sans empêcher l'exécution des autres.
+     *
+     * @param lot le document LOT, dont la signature a déjà été vérifiée
+     * @return le document RESULTATS
+     */
+    private Document executerLot(Document lot) {
+        Document resultats = OutilsXML.nouveauDocument();
+        Element racine = resultats.createElement(Lot.RESULTATS);
+        resultats.appendChild(racine);
+        for (Element select : Lot.elements(lot.getDocumentElement())) {
+            Element resultat;
+            try {
+                if (Delta.estDelta(select)) {
+                    throw new IllegalArgumentException("Une requête DELTA ne peut pas faire partie d'un lot");
+                }
+                resultat = routeur.executer(routeur.planifier(RequeteSelect.analyser(select)), resultats);
+            } catch (SQLException | IllegalArgumentException e) {
+                Metriques.compter(Metriques.Compteur.ERREURS, 1);
+                resultat = erreur(resultats, e);
+            }
+            resultat.setAttributeNS(null, Lot.ID, select.getAttributeNS(null, Lot.ID));
+            racine.appendChild(resultat);
+        }
+        return resultats;
+    }
+
+    /**
+     * Construit un élément RESULTAT qui contient un élément ERREUR portant le message de l'erreur, et son état SQL
+     * (attribut ETAT) s'il s'agit d'une erreur SQL qui en a un.
+     */
+    private static Element erreur(Document document, Exception e) {
+        Element resultat = document.createElement("RESULTAT");
+        Element erreur = document.createElement("ERREUR");
+        if (e instanceof SQLException && ((SQLException) e).getSQLState() != null) {
+            erreur.setAttributeNS(null, "ETAT", ((SQLException) e).getSQLState());
+        }
+        erreur.setTextContent(e.getMessage());
+        resultat.appendChild(erreur);
+        return resultat;
+    }
+
+    private static boolean archivageActive() {
+        return Configuration.get().getBooleen("archivage", false);
     }
 
 
@@ -174,73 +673,266 @@ public class Agent extends Thread {
      * @throws Exception si une erreur survient lors de la lecture ou du parsing du fichier XML
      */
     public static Document chargerDocumentXML(String filePath) throws Exception {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        return builder.parse(new File(filePath));
+        return OutilsXML.analyser(Paths.get(filePath));
     }
 
     /**
-     * Signe le document XML donné en utilisant la paire de clés RSA associée à cet Agent.
+     * Signe un document XML déjà chargé en y ajoutant une signature enveloppée, en utilisant la paire de clés et
+     * l'algorithme associés à cet Agent. Le KeyInfo de la signature porte l'identifiant de l'agent (KeyName).
+     * La signature couvre le document entier par une seule référence enveloppée, y compris pour un lot (LOT ou
+     * RESULTATS), dont les éléments reçoivent au préalable un identifiant (voir {@link Lot}).
      *
-     * @param inputFilePath  le chemin d'accès au fichier XML à signer
-     * @param outputFilePath le chemin d'accès au fichier XML dans lequel enregistrer le document XML signé
+     * @param xmlDocument le document XML à signer, modifié sur place
      * @throws Exception si une erreur survient lors de la signature du document
      */
-    private void signerDocumentXML(String inputFilePath, String outputFilePath) throws Exception {
-        Document xmlDocument = chargerDocumentXML(inputFilePath);
-        DOMSignContext signContext = new DOMSignContext(keyPair.getPrivate(), xmlDocument.getDocumentElement());
+    public void signerDocument(Document xmlDocument) throws Exception {
+        long debut = Metriques.debut();
         XMLSignatureFactory sigFactory = XMLSignatureFactory.getInstance("DOM");
-        Reference ref = sigFactory.newReference("", sigFactory.newDigestMethod(DigestMethod.SHA256, null), Collections.singletonList(sigFactory.newTransform(Transform.ENVELOPED, (TransformParameterSpec) null)), null, null);
-        SignedInfo signedInfo = sigFactory.newSignedInfo(sigFactory.newCanonicalizationMethod(CanonicalizationMethod.INCLUSIVE, (C14NMethodParameterSpec) null), sigFactory.newSignatureMethod("http://www.w3.org/2001/04/xmldsig-more#rsa-sha256", null), Collections.singletonList(ref));
+        if (Lot.estLot(xmlDocument)) {
+            Lot.identifier(Lot.elements(xmlDocument.getDocumentElement()));
+        }
         KeyInfoFactory keyInfoFactory = sigFactory.getKeyInfoFactory();
-        KeyValue keyValue = keyInfoFactory.newKeyValue(keyPair.getPublic());
-        KeyInfo keyInfo = keyInfoFactory.newKeyInfo(Collections.singletonList(keyValue));
+        List<XMLStructure> contenuKeyInfo = new ArrayList<>(2);
+        contenuKeyInfo.add(keyInfoFactory.newKeyName(identifiant));
+        if (algorithme != AlgorithmeSignature.ED25519) {
+            KeyValue keyValue = keyInfoFactory.newKeyValue(keyPair.getPublic());
+            contenuKeyInfo.add(keyValue);
+        }
+        signer(xmlDocument, sigFactory, sigFactory.newSignatureMethod(algorithme.getUri(), null),
+                Collections.singletonList(referenceEnveloppee(sigFactory)), keyInfoFactory.newKeyInfo(contenuKeyInfo),
+                keyPair.getPrivate());
+        Metriques.fin(Etape.SIGNATURE, debut);
+    }
+
+    /**
+     * Signe un document XML déjà chargé dans une session : l'élément racine reçoit l'identifiant de la session et le
+     * prochain numéro de séquence, puis le document entier (même un lot) est signé en HMAC-SHA256 avec la clé d'envoi
+     * de la session. Le KeyName de la signature désigne la session.
+     *
+     * @param xmlDocument le document XML à signer, modifié sur place
+     * @param session     la session, ou null pour signer avec la paire de clés de l'agent
+     * @throws Exception si une erreur survient lors de la signature du document
+     */
+    void signerDocument(Document xmlDocument, Session session) throws Exception {
+        if (session == null) {
+            signerDocument(xmlDocument);
+            return;
+        }
+        long debut = Metriques.debut();
+        Element racine = xmlDocument.getDocumentElement();
+        if (Lot.estLot(xmlDocument)) {
+            Lot.identifier(Lot.elements(racine));
+        }
+        racine.setAttributeNS(null, Session.SESSION, session.getId());
+        racine.setAttributeNS(null, Session.SEQUENCE, Long.toString(session.prochaineSequence()));
+        XMLSignatureFactory sigFactory = XMLSignatureFactory.getInstance("DOM");
+        KeyInfoFactory keyInfoFactory = sigFactory.getKeyInfoFactory();
+        signer(xmlDocument, sigFactory, sigFactory.newSignatureMethod(SignatureMethod.HMAC_SHA256, null),
+                Collections.singletonList(referenceEnveloppee(sigFactory)),
+                keyInfoFactory.newKeyInfo(Collections.singletonList(keyInfoFactory.newKeyName(Session.PREFIXE + session.getId()))),
+                session.getCleEnvoi());
+        Metriques.fin(Etape.SIGNATURE, debut);
+    }
+
+    /**
+     * Signe un document, avec la session donnée ou à défaut la paire de clés de l'agent, puis le sérialise.
+     */
+    private byte[] signer(Document document, Session session) throws Exception {
+        signerDocument(document, session);
+        long debut = Metriques.debut();
+        byte[] octets = OutilsXML.serialiser(document);
+        Metriques.fin(Etape.SERIALISATION, debut);
+        return octets;
+    }
+
+    private static Reference referenceEnveloppee(XMLSignatureFactory sigFactory) throws GeneralSecurityException {
+        return sigFactory.newReference("", sigFactory.newDigestMethod(DigestMethod.SHA256, null), Collections.singletonList(sigFactory.newTransform(Transform.ENVELOPED, (TransformParameterSpec) null)), null, null);
+    }
+
+    private static void signer(Document xmlDocument, XMLSignatureFactory sigFactory, SignatureMethod methode,
+                               List<Reference> refs, KeyInfo keyInfo, Key cle) throws Exception {
+        DOMSignContext signContext = new DOMSignContext(cle, xmlDocument.getDocumentElement());
+        SignedInfo signedInfo = sigFactory.newSignedInfo(sigFactory.newCanonicalizationMethod(CanonicalizationMethod.INCLUSIVE, (C14NMethodParameterSpec) null), methode, refs);
         XMLSignature signature = sigFactory.newXMLSignature(signedInfo, keyInfo);
         signature.sign(signContext);
-        TransformerFactory transformerFactory = TransformerFactory.newInstance();
-        Transformer transformer = transformerFactory.newTransformer();
-        DOMSource source = new DOMSource(xmlDocument);
-        StreamResult result = new StreamResult(new File(outputFilePath));
-        transformer.transform(source, result);
     }
 
     /**
-     * Vérifie la signature d'un document XML donné.
+     * Vérifie la signature d'un document XML déjà chargé (avec prise en compte des espaces de noms).
+     * La clé de vérification est celle de l'autre agent ou de l'agent de confiance désigné par le KeyName de la
+     * signature, et un agent inconnu est refusé ; la clé éventuellement incluse dans le document (KeyValue) n'est
+     * jamais utilisée.
+     * La signature doit couvrir le document entier (une seule référence enveloppée), y compris celle d'un lot.
+     * L'élément racine d'un document signé dans une session doit désigner la même session, et son numéro de séquence
+     * ne doit pas avoir déjà été reçu : un document rejoué est refusé.
      *
-     * @param inputPath le chemin d'accès au fichier XML à vérifier
+     * @param doc le document XML à vérifier
      * @return true si la signature est valide, false sinon
      */
-    public boolean verifierSignatureDocumentXML(String inputPath) {
+    public boolean verifierSignature(Document doc) {
+        return verifierSignataire(doc) != null;
+    }
+
+    /**
+     * Vérifie la signature d'un document reçu, comme {@link #verifierSignature(Document)}, en un seul passage sur ses
+     * octets (voir {@link VerificateurFlux}), sans construire d'arbre DOM quand la forme de la signature le permet.
+     *
+     * @param octets le document reçu
+     * @return true si la signature est valide, false sinon
+     */
+    public boolean verifierSignature(byte[] octets) {
         try {
-            // Charger le document XML
-            String xml = Files.readString(Paths.get(inputPath));
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            dbf.setNamespaceAware(true);
-            DocumentBuilder db = dbf.newDocumentBuilder();
-            Document doc = db.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
-
-            // Extraire la signature du document
-            NodeList signatures = doc.getElementsByTagNameNS(XMLSignature.XMLNS, "Signature");
-            if (signatures.getLength() == 0) {
-                System.err.println("Le document ne contient pas de signature");
-                return false;
+            return verifierSignataire(octets) != null;
+        } catch (SignatureException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Vérifie la signature d'un document XML déjà chargé, comme {@link #verifierSignature(Document)}, et retourne son
+     * signataire. La session d'un document est uniquement celle qui a servi à vérifier sa signature : un document
+     * signé avec une paire de clés qui désigne une session (attribut SESSION ou SEQUENCE) est refusé.
+     *
+     * @param doc le document XML à vérifier
+     * @return le signataire du document, ou null si la signature est incorrecte
+     */
+    Signataire verifierSignataire(Document doc) {
+        long debut = Metriques.debut();
+        Signataire signataire;
+        try {
+            signataire = validerSignature(doc);
+        } catch (GeneralSecurityException | MarshalException | XMLSignatureException e) {
+            signataire = null;
+        }
+        Metriques.fin(Etape.VERIFICATION, debut);
+        if (signataire == null) {
+            Metriques.compter(Metriques.Compteur.SIGNATURES_INVALIDES, 1);
+        }
+        return signataire;
+    }
+
+    /**
+     * Vérifie la signature d'un document reçu, comme {@link #verifierSignataire(Document)}, en un seul passage sur ses
+     * octets (voir {@link VerificateurFlux}) plutôt que sur l'arbre DOM : le document n'est pas chargé, et l'appelant
+     * ne l'analyse qu'une fois sa signature vérifiée. Seule une signature d'une forme que la vérification en flux ne
+     * prend pas en charge est vérifiée sur le document chargé.
+     *
+     * @param octets les octets reçus
+     * @return le signataire du document, ou null si la signature est incorrecte ou absente
+     * @throws SignatureException si la signature ne peut pas être vérifiée (document mal formé, agent qui n'est pas de
+     *                            confiance, session inconnue), ou si le document est rejoué ou hors de sa session
+     */
+    Signataire verifierSignataire(byte[] octets) throws SignatureException {
+        long debut = Metriques.debut();
+        Signataire signataire = null;
+        try {
+            String[] nom = new String[1];
+            Map<String, String> racine = new HashMap<>();
+            VerificateurFlux.Verdict verdict = VerificateurFlux.verifier(new ByteArrayInputStream(octets),
+                    (cle, hmac) -> {
+                        nom[0] = cle;
+                        return cleDeVerification(cle, hmac);
+                    }, racine);
+            if (verdict == VerificateurFlux.Verdict.NON_PRIS_EN_CHARGE) {
+                signataire = validerSignature(OutilsXML.analyser(octets));
+            } else if (verdict == VerificateurFlux.Verdict.VALIDE) {
+                signataire = signataire(nom[0], racine);
+            }
+            return signataire;
+        } catch (SignatureException e) {
+            throw e;
+        } catch (XMLStreamException | SAXException | IOException | GeneralSecurityException | MarshalException
+                 | XMLSignatureException e) {
+            throw new SignatureException("Signature impossible à vérifier : " + e.getMessage(), e);
+        } finally {
+            Metriques.fin(Etape.VERIFICATION, debut);
+            if (signataire == null) {
+                Metriques.compter(Metriques.Compteur.SIGNATURES_INVALIDES, 1);
             }
+        }
+    }
 
-            // Charger la clé publique du destinataire
-            PublicKey cle = otherAgentPublicKey;
+    /**
+     * Valide la signature d'un document chargé avec le validateur DOM.
+     *
+     * @return le signataire du document, ou null si la signature est incorrecte, absente ou ne couvre pas le document
+     * @throws SignatureException si l'élément racine ne désigne pas la session de la signature
+     */
+    private Signataire validerSignature(Document doc)
+            throws GeneralSecurityException, MarshalException, XMLSignatureException {
+        NodeList signatures = doc.getElementsByTagNameNS(XMLSignature.XMLNS, "Signature");
+        if (signatures.getLength() == 0) {
+            return null;
+        }
 
-            // Créer un validateur de signature
-            DOMValidateContext valContext = new DOMValidateContext(cle, signatures.item(0));
+        // Créer un validateur de signature, qui choisit la clé publique de l'expéditeur
+        DOMValidateContext valContext = new DOMValidateContext(new SelecteurCle(), signatures.item(0));
+        XMLSignatureFactory factory = XMLSignatureFactory.getInstance("DOM");
+        XMLSignature signature = factory.unmarshalXMLSignature(valContext);
+        if (!couvreLeDocument(signature) || !signature.validate(valContext)) {
+            return null;
+        }
+        Element racine = doc.getDocumentElement();
+        Map<String, String> attributs = new HashMap<>();
+        for (String attribut : new String[]{Session.SESSION, Session.SEQUENCE}) {
+            if (racine.hasAttributeNS(null, attribut)) {
+                attributs.put(attribut, racine.getAttributeNS(null, attribut));
+            }
+        }
+        return signataire(nomDeCle(signature.getKeyInfo()), attributs);
+    }
 
-            // Valider la signature
-            XMLSignatureFactory factory = XMLSignatureFactory.getInstance("DOM");
-            XMLSignature signature = factory.unmarshalXMLSignature(valContext);
+    /**
+     * Retourne le signataire d'un document dont la signature, de KeyName nom, vient d'être vérifiée : un document signé
+     * dans une session doit porter l'identifiant de cette session et un numéro de séquence encore jamais reçu, un
+     * document signé avec une paire de clés ne doit désigner aucune session.
+     *
+     * @param nom    le KeyName de la signature, ou null
+     * @param racine les attributs sans espace de noms de l'élément racine du document
+     * @throws SignatureException si l'élément racine ne désigne pas la session de la signature
+     */
+    private Signataire signataire(String nom, Map<String, String> racine) throws SignatureException {
+        if (nom != null && nom.startsWith(Session.PREFIXE)) {
+            Session session = sessions.get(nom.substring(Session.PREFIXE.length()));
+            long sequence;
+            try {
+                sequence = Long.parseLong(racine.getOrDefault(Session.SEQUENCE, ""));
+            } catch (NumberFormatException e) {
+                sequence = 0;
+            }
+            if (session == null || !session.getId().equals(racine.get(Session.SESSION))
+                    || !session.accepter(sequence)) {
+                throw new SignatureException("Document rejoué ou hors de la session "
+                        + nom.substring(Session.PREFIXE.length()));
+            }
+            return new Signataire(session.getPair(), session);
+        }
+        if (racine.containsKey(Session.SESSION) || racine.containsKey(Session.SEQUENCE)) {
+            throw new SignatureException("Un document signé avec une paire de clés ne doit pas désigner de session");
+        }
+        return new Signataire(nom != null ? nom : "", null);
+    }
 
-            return signature.validate(valContext);
-        } catch (Exception ex) {
-            ex.printStackTrace();
-            return false;
+    /**
+     * Indique si une signature a pour seule référence le document entier (URI ""), avec la seule transformation
+     * enveloped-signature, comme celles produites par {@link #signerDocument(Document, Session)}.
+     */
+    private static boolean couvreLeDocument(XMLSignature signature) {
+        List<?> references = signature.getSignedInfo().getReferences();
+        Reference reference = references.size() == 1 ? (Reference) references.get(0) : null;
+        return reference != null && "".equals(reference.getURI()) && reference.getTransforms().size() == 1
+                && Transform.ENVELOPED.equals(reference.getTransforms().get(0).getAlgorithm());
+    }
+
+    private static String nomDeCle(KeyInfo keyInfo) {
+        if (keyInfo != null) {
+            for (Object contenu : keyInfo.getContent()) {
+                if (contenu instanceof KeyName) {
+                    return ((KeyName) contenu).getName();
+                }
+            }
         }
+        return null;
     }
 
     /**
@@ -251,28 +943,7 @@ public class Agent extends Thread {
      */
     public String extraireRequeteXML(String inputPath) {
         try {
-            String xml = Files.readString(Paths.get(inputPath));
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-            ByteArrayInputStream input = new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
-            Document doc = dBuilder.parse(input);
-            doc.getDocumentElement().normalize();
-            NodeList champsNodes = doc.getElementsByTagName("CHAMP");
-            NodeList tablesNodes = doc.getElementsByTagName("TABLE");
-            Node conditionNode = doc.getElementsByTagName("CONDITION").item(0);
-            StringBuilder sql = new StringBuilder();
-            sql.append("SELECT ");
-            for (int i = 0; i < champsNodes.getLength(); i++) {
-                sql.append(champsNodes.item(i).getTextContent()).append(i == champsNodes.getLength() - 1 ? " " : ", ");
-            }
-            sql.append("FROM ");
-            for (int i = 0; i < tablesNodes.getLength(); i++) {
-                sql.append(tablesNodes.item(i).getTextContent()).append(i == tablesNodes.getLength() - 1 ? " " : ", ");
-            }
-            if (conditionNode != null) {
-                sql.append("WHERE ").append(conditionNode.getTextContent());
-            }
-            return sql.toString();
+            return extraireRequete(chargerDocumentXML(inputPath));
         } catch (Exception e) {
             e.printStackTrace();
             return null;
@@ -280,36 +951,115 @@ public class Agent extends Thread {
     }
 
     /**
-     * Exécute une requête SQL donnée et enregistre le résultat dans un fichier XML.
+     * Extrait la requête SQL d'un document XML déjà chargé.
      *
-     * @param sql la requête SQL à exécuter
+     * @param doc le document XML contenant la requête
+     * @return la requête SQL extraite du document XML
      */
-    public void executerRequeteSQL(String sql) {
-        String configFilePath = "src/config.ini";
-
-        try (FileReader reader = new FileReader(configFilePath)) {
-            Properties props = new Properties();
-            props.load(reader);
+    public String extraireRequete(Document doc) {
+        return extraireRequete(doc.getDocumentElement());
+    }
 
-            String db = props.getProperty("db");
-            String dbUser = props.getProperty("dbUser");
-            String dbPass = props.getProperty("dbPass");
+    /**
+     * Extrait la requête SQL d'un élément SELECT, par exemple l'un des éléments d'un lot.
+     * La requête est analysée en une {@link RequeteSelect} typée, et le texte retourné est sa forme canonique, avec
+     * des identifiants cités et des valeurs littérales échappées.
+     *
+     * @param doc l'élément SELECT contenant la requête
+     * @return la requête SQL extraite de l'élément
+     * @throws IllegalArgumentException si l'élément ne décrit pas une requête acceptée
+     */
+    public String extraireRequete(Element doc) {
+        return RequeteSelect.analyser(doc).compiler().enTexte();
+    }
 
-            try (Connection conn = DriverManager.getConnection(db, dbUser, dbPass)) {
-                Statement stmt = conn.createStatement();
-                stmt.execute("USE " + this.database);
-                ResultSet rs = stmt.executeQuery(sql);
-                resultSetToXML(rs, "./requests/results/" + fileToSend);
-            } catch (SQLException | ParserConfigurationException | TransformerException e) {
-                throw new RuntimeException(e);
-            }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    /**
+     * Retourne les noms des tables lues par une requête, c'est-à-dire le contenu de ses éléments TABLE.
+     *
+     * @param select l'élément SELECT contenant la requête
+     * @return les noms des tables
+     */
+    public static List<String> extraireTables(Element select) {
+        NodeList tablesNodes = select.getElementsByTagName("TABLE");
+        List<String> tables = new ArrayList<>(tablesNodes.getLength());
+        for (int i = 0; i < tablesNodes.getLength(); i++) {
+            tables.add(tablesNodes.item(i).getTextContent().trim());
         }
+        return tables;
+    }
+
+    /**
+     * Exécute le plan d'une requête et retourne son résultat signé, écrit au fil de la lecture des tuples sans
+     * construire de document XML (voir {@link ResultatEnFlux}) : seuls ses octets sont gardés en mémoire. Le résultat
+     * est limité à resultatTuplesMax tuples, comme celui de {@link #executerRequete(RouteurRequetes.Plan)}.
+     *
+     * @param plan    le plan de la requête à exécuter, au codage XML habituel
+     * @param session la session dans laquelle signer le résultat, ou null pour le signer avec la paire de clés
+     * @return les octets du document RESULTAT signé
+     * @throws SQLException             si une erreur SQL survient ou si le résultat dépasse la limite de tuples
+     * @throws GeneralSecurityException si la signature échoue
+     */
+    private byte[] executerEnFlux(RouteurRequetes.Plan plan, Session session)
+            throws SQLException, GeneralSecurityException {
+        ResultatEnFlux resultat = resultatEnFlux(session);
+        routeur.executerEnTranches(plan, LotColonnes.CAPACITE, Limites.tuplesMax(), resultat);
+        return resultat.signer();
+    }
+
+    /**
+     * Commence un résultat écrit et signé au fil de la lecture des tuples, dans la session donnée ou à défaut avec la
+     * paire de clés de l'agent.
+     */
+    ResultatEnFlux resultatEnFlux(Session session) {
+        return session != null ? ResultatEnFlux.dansSession(session)
+                : ResultatEnFlux.avecPaireDeCles(identifiant, algorithme, keyPair.getPrivate());
+    }
+
+    /**
+     * Exécute le plan d'une requête, sur une ou plusieurs bases de données, et retourne le résultat sous la forme
+     * d'un document XML en mémoire.
+     *
+     * @param plan le plan de la requête à exécuter
+     * @return le document XML RESULTAT contenant les tuples retournés
+     * @throws SQLException si une erreur SQL survient
+     */
+    public Document executerRequete(RouteurRequetes.Plan plan) throws SQLException {
+        Document document = OutilsXML.nouveauDocument();
+        document.appendChild(routeur.executer(plan, document));
+        return document;
+    }
+
+    /**
+     * Exécute une requête compilée sur la base de données de l'agent et retourne le résultat sous la forme d'un
+     * document XML en mémoire.
+     *
+     * @param requete la requête compilée à exécuter
+     * @return le document XML RESULTAT contenant les tuples retournés
+     * @throws SQLException si une erreur SQL survient
+     */
+    public Document executerRequete(RequeteCompilee requete) throws SQLException {
+        Document document = OutilsXML.nouveauDocument();
+        document.appendChild(executerRequete(requete, document));
+        return document;
+    }
+
+    /**
+     * Exécute une requête compilée et retourne le résultat sous la forme d'un élément RESULTAT créé dans le document
+     * donné, sans l'y insérer. L'instruction préparée correspondant à la forme de la requête est réutilisée si elle
+     * existe déjà sur la connexion empruntée.
+     *
+     * @param requete  la requête compilée à exécuter
+     * @param document le document dans lequel créer l'élément
+     * @return l'élément RESULTAT contenant les tuples retournés
+     * @throws SQLException si une erreur SQL survient
+     */
+    public Element executerRequete(RequeteCompilee requete, Document document) throws SQLException {
+        return RouteurRequetes.executer(this.database, requete, document, null);
     }
 
     /**
      * Convertit un ResultSet en fichier XML.
+     * Une valeur SQL NULL est représentée par un élément CHAMP vide portant l'attribut NULL="true".
      *
      * @param resultSet le ResultSet à convertir
      * @param filename  le nom du fichier XML à créer
@@ -319,36 +1069,90 @@ public class Agent extends Thread {
      * @throws FileNotFoundException        si le fichier n'est pas trouvé
      */
     public void resultSetToXML(ResultSet resultSet, String filename) throws SQLException, ParserConfigurationException, TransformerException, FileNotFoundException {
-        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        Document document = resultSetToDocument(resultSet);
+        try (OutputStream out = new FileOutputStream(filename)) {
+            OutilsXML.ecrire(document, out);
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Convertit un ResultSet en document XML RESULTAT/TUPLES/TUPLE/CHAMP en mémoire.
+     * Une valeur SQL NULL est représentée par un élément CHAMP vide portant l'attribut NULL="true".
+     *
+     * @param resultSet le ResultSet à convertir
+     * @return le document XML créé
+     * @throws SQLException si une erreur SQL survient
+     */
+    public static Document resultSetToDocument(ResultSet resultSet) throws SQLException {
+        Document document = OutilsXML.nouveauDocument();
+        document.appendChild(resultSetToElement(resultSet, document));
+        return document;
+    }
+
+    /**
+     * Convertit un ResultSet en élément RESULTAT/TUPLES/TUPLE/CHAMP créé dans le document donné, sans l'y insérer.
+     *
+     * @param resultSet le ResultSet à convertir
+     * @param document  le document dans lequel créer l'élément
+     * @return l'élément RESULTAT créé
+     * @throws SQLException si une erreur SQL survient
+     */
+    public static Element resultSetToElement(ResultSet resultSet, Document document) throws SQLException {
+        return resultSetToElement(resultSet, document, Long.MAX_VALUE);
+    }
+
+    /**
+     * Comme {@link #resultSetToElement(ResultSet, Document)}, en refusant un résultat de plus de tuplesMax tuples.
+     *
+     * @throws SQLException si le résultat dépasse tuplesMax tuples (voir {@link Limites})
+     */
+    static Element resultSetToElement(ResultSet resultSet, Document document, long tuplesMax) throws SQLException {
         Element resultat = document.createElement("RESULTAT");
-        document.appendChild(resultat);
 
         Element tuples = document.createElement("TUPLES");
         resultat.appendChild(tuples);
 
-        ResultSetMetaData metaData = resultSet.getMetaData();
-        int columnCount = metaData.getColumnCount();
+        LotColonnes lot = new LotColonnes(EncodageCompact.Colonne.depuis(resultSet.getMetaData(), false),
+                LotColonnes.CAPACITE);
+        long nombre = 0;
+        while (lot.remplir(resultSet)) {
+            nombre += lot.getTaille();
+            Limites.verifier(nombre, tuplesMax);
+            ajouterTuples(tuples, lot);
+        }
+        Metriques.compter(Metriques.Compteur.TUPLES, nombre);
+        return resultat;
+    }
 
-        while (resultSet.next()) {
+    /**
+     * Ajoute les tuples d'un lot à un élément TUPLES, un élément TUPLE/CHAMP par tuple.
+     *
+     * @param tuples l'élément TUPLES
+     * @param lot    les tuples
+     */
+    static void ajouterTuples(Element tuples, LotColonnes lot) {
+        Document document = tuples.getOwnerDocument();
+        int columnCount = lot.getColonnes().size();
+        for (int ligne = 0; ligne < lot.getTaille(); ligne++) {
             Element tuple = document.createElement("TUPLE");
             tuples.appendChild(tuple);
 
-            for (int i = 1; i <= columnCount; i++) {
-                Object value = resultSet.getObject(i);
-
+            for (int i = 0; i < columnCount; i++) {
                 Element champ = document.createElement("CHAMP");
-                champ.appendChild(document.createTextNode(value.toString()));
+                if (lot.estNul(ligne, i)) {
+                    champ.setAttribute("NULL", "true");
+                } else {
+                    champ.appendChild(document.createTextNode(lot.texte(ligne, i)));
+                }
                 tuple.appendChild(champ);
             }
         }
-
-        Transformer transformer = TransformerFactory.newInstance().newTransformer();
-        DOMSource source = new DOMSource(document);
-        StreamResult result = new StreamResult(new FileOutputStream(filename));
-        transformer.transform(source, result);
     }
 
-
     /**
      * Affiche les résultats d'un fichier XML contenant des tuples et des champs.
      *
@@ -357,14 +1161,64 @@ public class Agent extends Thread {
      * @throws Exception Si une erreur se produit lors de l'analyse du fichier XML.
      */
     public static String afficherResultatsXML(String filename) throws Exception {
+        return afficherResultats(chargerDocumentXML(filename));
+    }
 
+    /**
+     * Affiche les résultats d'un document XML déjà chargé contenant des tuples et des champs.
+     *
+     * @param doc Le document XML.
+     * @return Une chaîne de caractères représentant les résultats.
+     */
+    public static String afficherResultats(Document doc) {
+        Element racine = doc.getDocumentElement();
+        if (!Lot.RESULTATS.equals(racine.getNodeName())) {
+            return afficherResultats(racine);
+        }
         StringBuilder res = new StringBuilder(1024);
+        for (Element resultat : Lot.elements(racine)) {
+            res.append("Résultat ").append(resultat.getAttributeNS(null, Lot.ID)).append(" :\n");
+            Node erreur = resultat.getElementsByTagName("ERREUR").item(0);
+            res.append(erreur != null ? "Erreur : " + erreur.getTextContent() + "\n" : afficherResultats(resultat));
+        }
+        return res.toString();
+    }
 
-        File inputFile = new File(filename);
-        DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-        Document doc = dBuilder.parse(inputFile);
-        doc.getDocumentElement().normalize();
+    /**
+     * Affiche les tuples d'un élément RESULTAT, au codage XML habituel ou au codage compact.
+     *
+     * @param doc L'élément RESULTAT.
+     * @return Une chaîne de caractères représentant les résultats.
+     */
+    public static String afficherResultats(Element doc) {
+        StringBuilder res = new StringBuilder(1024);
+        afficherResultats(doc, 0, res);
+        return res.toString();
+    }
+
+    /**
+     * Ajoute les tuples d'un élément RESULTAT à une chaîne en cours de construction, numérotés à la suite de ceux
+     * déjà affichés, par exemple ceux des tranches précédentes d'un même résultat.
+     *
+     * @param doc     L'élément RESULTAT.
+     * @param dejaLus Le nombre de tuples déjà affichés.
+     * @param res     La chaîne à compléter.
+     * @return Le nombre de tuples de l'élément.
+     */
+    static long afficherResultats(Element doc, long dejaLus, StringBuilder res) {
+        if (EncodageCompact.estCompact(doc)) {
+            long[] numero = {dejaLus};
+            EncodageCompact.decoder(doc, ligne -> {
+                res.append("Tuple ").append(++numero[0]).append(": ");
+                for (Object valeur : ligne) {
+                    res.append(valeur == null ? "NULL" : valeur).append(" ");
+                }
+                res.append("\n");
+            });
+            return numero[0] - dejaLus;
+        }
+
+        doc.normalize();
 
         NodeList nodeList = doc.getElementsByTagName("TUPLE");
 
@@ -375,16 +1229,99 @@ public class Agent extends Thread {
                 Element element = (Element) node;
 
                 NodeList champs = element.getElementsByTagName("CHAMP");
-                res.append("Tuple ").append(temp + 1).append(": ");
+                res.append("Tuple ").append(dejaLus + temp + 1).append(": ");
                 for (int i = 0; i < champs.getLength(); i++) {
-                    String champ = champs.item(i).getTextContent();
-                    res.append(champ).append(" ");
+                    Element champ = (Element) champs.item(i);
+                    res.append(champ.hasAttribute("NULL") ? "NULL" : champ.getTextContent()).append(" ");
                 }
                 res.append("\n");
             }
         }
-        return res.toString();
+        return nodeList.getLength();
     }
 
+    /**
+     * Le signataire d'un document dont la signature a été vérifiée : l'agent nommé par le KeyName d'une signature faite
+     * avec sa paire de clés, ou la session nommée par celui d'une signature de session.
+     */
+    static final class Signataire {
+        private final String agent;
+        private final Session session;
 
-}
\ No newline at end of file
+        Signataire(String agent, Session session) {
+            this.agent = agent;
+            this.session = session;
+        }
+
+        /**
+         * @return l'identifiant de l'agent signataire ; pour une signature de session, celui de l'agent qui l'a ouverte
+         * côté destinataire, null côté émetteur
+         */
+        String getAgent() {
+            return agent;
+        }
+
+        /**
+         * @return la session de la signature, ou null si le document a été signé avec une paire de clés
+         */
+        Session getSession() {
+            return session;
+        }
+    }
+
+    /**
+     * Le KeySelector du validateur DOM, qui choisit la clé nommée dans le KeyInfo (voir
+     * {@link #cleDeVerification(String, boolean)}).
+     */
+    private final class SelecteurCle extends KeySelector {
+        @Override
+        public KeySelectorResult select(KeyInfo keyInfo, Purpose purpose, AlgorithmMethod method, XMLCryptoContext context) throws KeySelectorException {
+            Key cle;
+            try {
+                cle = cleDeVerification(nomDeCle(keyInfo), SignatureMethod.HMAC_SHA256.equals(method.getAlgorithm()));
+            } catch (GeneralSecurityException | IOException e) {
+                throw new KeySelectorException(e);
+            }
+            return () -> cle;
+        }
+    }
+
+    /**
+     * Sélectionne la clé de vérification d'une signature, pour le validateur DOM comme pour la vérification en flux :
+     * la clé de réception de la session nommée, sinon la clé publique de l'autre agent s'il est nommé (ou si la
+     * signature ne nomme aucune clé), sinon celle de l'agent de confiance nommé. Un nom inconnu est refusé.
+     *
+     * @param nom  le KeyName de la signature, ou null
+     * @param hmac true pour une signature HMAC-SHA256
+     * @return la clé de vérification
+     * @throws GeneralSecurityException si la session est inconnue ou expirée, si l'algorithme ne convient pas à la clé
+     *                                  (HMAC-SHA256 pour une session, jamais ailleurs), ou si l'agent nommé n'est
+     *                                  pas de confiance
+     * @throws IOException              si le magasin de confiance ne peut pas être lu
+     */
+    private Key cleDeVerification(String nom, boolean hmac) throws GeneralSecurityException, IOException {
+        if (nom != null && nom.startsWith(Session.PREFIXE)) {
+            Session session = sessions.get(nom.substring(Session.PREFIXE.length()));
+            if (session == null || session.estExpiree()) {
+                throw new GeneralSecurityException("Session inconnue ou expirée : " + nom);
+            }
+            if (!hmac) {
+                throw new GeneralSecurityException("Une signature de session doit être en HMAC-SHA256");
+            }
+            return session.getCleReception();
+        }
+        if (hmac) {
+            throw new GeneralSecurityException("Signature HMAC hors d'une session");
+        }
+        Map.Entry<String, PublicKey> pair = otherAgent;
+        if (pair != null && (nom == null || nom.equals(pair.getKey()))) {
+            return pair.getValue();
+        }
+        PublicKey cle = nom != null ? magasinCles.clePublique(nom) : null;
+        if (cle == null) {
+            throw new GeneralSecurityException(nom == null ? "Aucune clé de confiance pour vérifier cette signature"
+                    : "L'agent " + nom + " n'est pas dans le magasin de confiance");
+        }
+        return cle;
+    }
+}
@@ -0,0 +1,98 @@
+package agent;
+
+import javax.xml.crypto.dsig.SignatureMethod;
+
+/**
+ * Cette énumération représente les algorithmes de signature XML utilisables par les agents, avec le type de clé
+ * correspondant. Les signatures ECDSA et Ed25519 sont beaucoup moins coûteuses à produire qu'une signature RSA-2048.
+ */
+public enum AlgorithmeSignature {
+    /**
+     * RSA 2048 bits avec SHA-256, l'algorithme historique des agents.
+     */
+    RSA_SHA256(SignatureMethod.RSA_SHA256, "RSA", "SHA256withRSA", "SHA256withRSA", new String[]{"-keyalg", "RSA", "-keysize", "2048"}),
+    /**
+     * ECDSA sur la courbe P-256 avec SHA-256.
+     */
+    ECDSA_SHA256(SignatureMethod.ECDSA_SHA256, "EC", "SHA256withECDSA", "SHA256withECDSAinP1363Format", new String[]{"-keyalg", "EC", "-groupname", "secp256r1"}),
+    /**
+     * EdDSA sur la courbe 25519. Sa prise en charge par l'API de signature XML nécessite un JDK 21 ou plus récent.
+     */
+    ED25519("http://www.w3.org/2021/04/xmldsig-more#eddsa-ed25519", "Ed25519", "Ed25519", "Ed25519", new String[]{"-keyalg", "Ed25519"});
+
+    private final String uri;
+    private final String typeCle;
+    private final String algorithmeCertificat;
+    private final String algorithmeValeur;
+    private final String[] optionsKeytool;
+
+    AlgorithmeSignature(String uri, String typeCle, String algorithmeCertificat, String algorithmeValeur,
+                        String[] optionsKeytool) {
+        this.uri = uri;
+        this.typeCle = typeCle;
+        this.algorithmeCertificat = algorithmeCertificat;
+        this.algorithmeValeur = algorithmeValeur;
+        this.optionsKeytool = optionsKeytool;
+    }
+
+    /**
+     * @return l'URI de l'algorithme dans l'élément SignatureMethod d'une signature XML
+     */
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * @return le type de clé attendu, tel que retourné par {@link java.security.Key#getAlgorithm()}
+     */
+    public String getTypeCle() {
+        return typeCle;
+    }
+
+    /**
+     * @return le nom de l'algorithme utilisé pour le certificat auto-signé de l'agent
+     */
+    public String getAlgorithmeCertificat() {
+        return algorithmeCertificat;
+    }
+
+    /**
+     * @return le nom de l'algorithme de {@link java.security.Signature} qui vérifie directement le contenu d'un élément
+     * SignatureValue (pour ECDSA, les deux entiers r et s sont concaténés, et non codés en DER)
+     */
+    public String getAlgorithmeValeur() {
+        return algorithmeValeur;
+    }
+
+    /**
+     * Retourne l'algorithme désigné par l'URI de l'élément SignatureMethod d'une signature XML.
+     *
+     * @param uri l'URI de l'algorithme
+     * @return l'algorithme, ou null s'il n'est pas utilisé par les agents
+     */
+    public static AlgorithmeSignature depuisUri(String uri) {
+        for (AlgorithmeSignature algorithme : values()) {
+            if (algorithme.uri.equals(uri)) {
+                return algorithme;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return les options de keytool qui génèrent une paire de clés de ce type
+     */
+    String[] getOptionsKeytool() {
+        return optionsKeytool.clone();
+    }
+
+    /**
+     * Retourne l'algorithme de signature choisi dans config.ini (propriété algorithmeSignature, ECDSA_SHA256 par
+     * défaut).
+     *
+     * @return l'algorithme de signature configuré
+     */
+    public static AlgorithmeSignature depuisConfiguration() {
+        return valueOf(Configuration.get().getPropriete("algorithmeSignature", ECDSA_SHA256.name()).trim());
+    }
+}
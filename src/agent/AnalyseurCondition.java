@@ -0,0 +1,251 @@
+package agent;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Cette classe analyse le texte d'un élément CONDITION, par exemple "nom LIKE 'doe'" ou "age &gt; 30 AND nom = 'Doe'",
+ * en un {@link Predicat} typé. Seul un sous-ensemble de SQL est accepté : des comparaisons entre une colonne et une
+ * valeur littérale (nombre, chaîne entre apostrophes, TRUE, FALSE) ou une autre colonne, LIKE, IN, BETWEEN,
+ * IS [NOT] NULL, combinées par AND, OR, NOT et des parenthèses. Tout autre texte, en particulier une sous-requête ou
+ * un commentaire, est refusé.
+ */
+final class AnalyseurCondition {
+    private static final int PROFONDEUR_MAX = 64;
+
+    private final String texte;
+    private int position = 0;
+    private int profondeur = 0;
+
+    private AnalyseurCondition(String texte) {
+        this.texte = texte;
+    }
+
+    /**
+     * Analyse le texte d'une condition.
+     *
+     * @param texte le texte de l'élément CONDITION
+     * @return la condition typée
+     * @throws IllegalArgumentException si le texte n'est pas une condition acceptée
+     */
+    static Predicat analyser(String texte) {
+        AnalyseurCondition analyseur = new AnalyseurCondition(texte);
+        Predicat predicat = analyseur.disjonction();
+        analyseur.blancs();
+        if (analyseur.position < texte.length()) {
+            throw analyseur.erreur("fin de la condition attendue");
+        }
+        return predicat;
+    }
+
+    private Predicat disjonction() {
+        List<Predicat> termes = new ArrayList<>();
+        termes.add(conjonction());
+        while (motCle("OR")) {
+            termes.add(conjonction());
+        }
+        return termes.size() == 1 ? termes.get(0) : new Predicat.Combinaison(false, termes);
+    }
+
+    private Predicat conjonction() {
+        List<Predicat> termes = new ArrayList<>();
+        termes.add(negation());
+        while (motCle("AND")) {
+            termes.add(negation());
+        }
+        return termes.size() == 1 ? termes.get(0) : new Predicat.Combinaison(true, termes);
+    }
+
+    private Predicat negation() {
+        if (motCle("NOT")) {
+            imbriquer();
+            Predicat predicat = new Predicat.Negation(negation());
+            profondeur--;
+            return predicat;
+        }
+        if (symbole("(")) {
+            imbriquer();
+            Predicat predicat = disjonction();
+            attendre(")");
+            profondeur--;
+            return predicat;
+        }
+        return comparaison();
+    }
+
+    /**
+     * Compte un niveau d'imbrication de plus, parenthèse ou NOT, pour que l'analyse récursive reste bornée.
+     */
+    private void imbriquer() {
+        if (++profondeur > PROFONDEUR_MAX) {
+            throw erreur("condition trop imbriquée");
+        }
+    }
+
+    private Predicat comparaison() {
+        String colonne = identifiant();
+        if (motCle("IS")) {
+            boolean negation = motCle("NOT");
+            if (!motCle("NULL")) {
+                throw erreur("NULL attendu");
+            }
+            return new Predicat.EstNul(colonne, negation);
+        }
+        boolean negation = motCle("NOT");
+        if (motCle("LIKE")) {
+            return new Predicat.Comparaison(colonne, negation ? "NOT LIKE" : "LIKE", valeur(), null);
+        }
+        if (motCle("IN")) {
+            attendre("(");
+            List<Object> valeurs = new ArrayList<>();
+            do {
+                valeurs.add(valeur());
+            } while (symbole(","));
+            attendre(")");
+            return new Predicat.Dans(colonne, negation, valeurs);
+        }
+        if (motCle("BETWEEN")) {
+            Object minimum = valeur();
+            if (!motCle("AND")) {
+                throw erreur("AND attendu");
+            }
+            return new Predicat.Entre(colonne, negation, minimum, valeur());
+        }
+        if (negation) {
+            throw erreur("LIKE, IN ou BETWEEN attendu");
+        }
+        String operateur = operateur();
+        blancs();
+        if (position < texte.length() && estDebutIdentifiant(texte.charAt(position)) && !motCleSuivant()) {
+            return new Predicat.Comparaison(colonne, operateur, null, identifiant());
+        }
+        return new Predicat.Comparaison(colonne, operateur, valeur(), null);
+    }
+
+    private String operateur() {
+        for (String operateur : new String[]{"<>", "!=", "<=", ">=", "=", "<", ">"}) {
+            if (symbole(operateur)) {
+                return operateur.equals("!=") ? "<>" : operateur;
+            }
+        }
+        throw erreur("opérateur de comparaison attendu");
+    }
+
+    private Object valeur() {
+        blancs();
+        if (position >= texte.length()) {
+            throw erreur("valeur attendue");
+        }
+        char c = texte.charAt(position);
+        if (c == '\'') {
+            StringBuilder chaine = new StringBuilder();
+            position++;
+            while (true) {
+                if (position >= texte.length()) {
+                    throw erreur("chaîne non terminée");
+                }
+                char d = texte.charAt(position++);
+                if (d == '\'') {
+                    if (position < texte.length() && texte.charAt(position) == '\'') {
+                        chaine.append('\'');
+                        position++;
+                    } else {
+                        return chaine.toString();
+                    }
+                } else if (d == '\\') {
+                    throw erreur("caractère d'échappement refusé dans une chaîne");
+                } else {
+                    chaine.append(d);
+                }
+            }
+        }
+        if (c == '-' || c == '+' || Character.isDigit(c)) {
+            int debut = position++;
+            while (position < texte.length() && (Character.isDigit(texte.charAt(position)) || texte.charAt(position) == '.')) {
+                position++;
+            }
+            String nombre = texte.substring(debut, position);
+            try {
+                return nombre.indexOf('.') < 0 ? (Object) Long.parseLong(nombre) : new BigDecimal(nombre);
+            } catch (NumberFormatException e) {
+                throw erreur("nombre invalide " + nombre);
+            }
+        }
+        if (motCle("TRUE")) {
+            return Boolean.TRUE;
+        }
+        if (motCle("FALSE")) {
+            return Boolean.FALSE;
+        }
+        throw erreur("valeur littérale attendue");
+    }
+
+    private String identifiant() {
+        blancs();
+        int debut = position;
+        while (position < texte.length() && (estDebutIdentifiant(texte.charAt(position))
+                || Character.isDigit(texte.charAt(position)) || texte.charAt(position) == '.')) {
+            position++;
+        }
+        if (debut == position) {
+            throw erreur("nom de colonne attendu");
+        }
+        return Identifiants.valider(texte.substring(debut, position), true);
+    }
+
+    private static boolean estDebutIdentifiant(char c) {
+        return c == '_' || (c < 128 && Character.isLetter(c));
+    }
+
+    /**
+     * Indique si le prochain mot est un mot-clé qui ne peut pas être un nom de colonne.
+     */
+    private boolean motCleSuivant() {
+        int debut = position;
+        for (String mot : new String[]{"TRUE", "FALSE", "NULL"}) {
+            if (motCle(mot)) {
+                position = debut;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean motCle(String mot) {
+        blancs();
+        int fin = position + mot.length();
+        if (fin <= texte.length() && texte.substring(position, fin).toUpperCase(Locale.ROOT).equals(mot)
+                && (fin == texte.length() || !(estDebutIdentifiant(texte.charAt(fin)) || Character.isDigit(texte.charAt(fin))))) {
+            position = fin;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean symbole(String symbole) {
+        blancs();
+        if (texte.startsWith(symbole, position)) {
+            position += symbole.length();
+            return true;
+        }
+        return false;
+    }
+
+    private void attendre(String symbole) {
+        if (!symbole(symbole)) {
+            throw erreur("\"" + symbole + "\" attendu");
+        }
+    }
+
+    private void blancs() {
+        while (position < texte.length() && Character.isWhitespace(texte.charAt(position))) {
+            position++;
+        }
+    }
+
+    private IllegalArgumentException erreur(String message) {
+        return new IllegalArgumentException("Condition invalide à la position " + position + " (" + message + ") : " + texte.trim());
+    }
+}
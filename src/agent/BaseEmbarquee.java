@@ -0,0 +1,1735 @@
+package agent;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLSyntaxErrorException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Cette classe est une base de données embarquée, accessible par JDBC avec une URL jdbc:embarquee:, qui permet de faire
+ * tourner les agents (et le mode "charge") sans serveur MySQL. Ses bases et ses tables sont créées en exécutant un
+ * script SQL, src/db.sql par défaut, dont elle comprend les instructions CREATE DATABASE, DROP DATABASE, USE,
+ * CREATE TABLE, DROP TABLE, TRUNCATE et INSERT ; les tables personnes et produits peuvent ensuite être remplies par
+ * {@link GenerateurTuples}, comme le fait DBInitializer pour MySQL.
+ * <p>
+ * Les requêtes sont réellement évaluées : elle comprend les SELECT produits par {@link RequeteSelect#compiler()}
+ * (colonnes éventuellement qualifiées ou *, une ou plusieurs tables de la base sélectionnée, condition faite de
+ * comparaisons, LIKE, IN, BETWEEN, IS NULL, AND, OR et NOT, puis LIMIT et OFFSET), avec les règles de MySQL : logique
+ * à trois valeurs pour NULL, chaînes comparées sans tenir compte de la casse ni des accents, et chaîne convertie en
+ * nombre lorsqu'elle est comparée à un nombre. Les tables sont parcourues en entier, sans index, et une jointure est un
+ * produit des tables filtré par la condition : cette base sert à essayer et à mesurer l'agent, pas un moteur SQL.
+ * Les limites setMaxRows et setQueryTimeout des instructions sont respectées. Les tables ne changent plus après leur
+ * chargement : les écritures sont refusées.
+ * <p>
+ * L'URL accepte, séparés par des points-virgules, les paramètres script (src/db.sql), le chemin du script, personnes
+ * et produits, le nombre de tuples générés qui remplacent ceux du script dans chacune de ces tables, et graine (42),
+ * la graine du générateur : jdbc:embarquee:personnes=100000;produits=10000. Toutes les connexions d'une même URL
+ * partagent les mêmes tables, chargées lors de la première connexion.
+ */
+public final class BaseEmbarquee implements Driver {
+    /**
+     * Le préfixe des URL acceptées par cette base.
+     */
+    public static final String PREFIXE = "jdbc:embarquee:";
+
+    /**
+     * Le nombre de combinaisons de tuples examinées entre deux vérifications du délai d'une requête.
+     */
+    private static final int VERIFICATION_DELAI = 4096;
+    private static final Pattern NOMBRE = Pattern.compile("^\\s*[+-]?(\\d+\\.?\\d*|\\.\\d+)([eE][+-]?\\d+)?");
+    private static final Pattern DIACRITIQUES = Pattern.compile("\\p{M}+");
+    private static final Map<String, Donnees> DONNEES = new HashMap<>();
+
+    private static volatile boolean enregistree;
+
+    /**
+     * Enregistre la base auprès du DriverManager, si ce n'est pas déjà fait.
+     */
+    public static synchronized void enregistrer() {
+        if (!enregistree) {
+            try {
+                DriverManager.registerDriver(new BaseEmbarquee());
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+            enregistree = true;
+        }
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        Connexion connexion = new Connexion(donnees(url));
+        connexion.jdbc = connexion.proxy();
+        return connexion.jdbc;
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url != null && url.startsWith(PREFIXE);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    /**
+     * Retourne les tables d'une URL, en les chargeant lors du premier appel.
+     */
+    private static synchronized Donnees donnees(String url) throws SQLException {
+        Donnees donnees = DONNEES.get(url);
+        if (donnees == null) {
+            donnees = charger(url);
+            DONNEES.put(url, donnees);
+        }
+        return donnees;
+    }
+
+    private static Donnees charger(String url) throws SQLException {
+        Path script = Paths.get("src", "db.sql");
+        long graine = 42;
+        Map<GenerateurTuples.Table, Long> generes = new EnumMap<>(GenerateurTuples.Table.class);
+        for (String parametre : url.substring(PREFIXE.length()).split(";")) {
+            if (parametre.isBlank()) {
+                continue;
+            }
+            int egal = parametre.indexOf('=');
+            if (egal < 0) {
+                throw new SQLException("Paramètre invalide dans l'URL : " + parametre);
+            }
+            String nom = parametre.substring(0, egal).trim();
+            String valeur = parametre.substring(egal + 1).trim();
+            try {
+                if (nom.equals("script")) {
+                    script = Paths.get(valeur);
+                } else if (nom.equals("graine")) {
+                    graine = Long.parseLong(valeur);
+                } else {
+                    GenerateurTuples.Table table = null;
+                    for (GenerateurTuples.Table candidate : GenerateurTuples.Table.values()) {
+                        if (candidate.getNom().equals(nom)) {
+                            table = candidate;
+                        }
+                    }
+                    if (table == null) {
+                        throw new SQLException("Paramètre inconnu dans l'URL : " + nom);
+                    }
+                    generes.put(table, Long.parseLong(valeur));
+                }
+            } catch (NumberFormatException e) {
+                throw new SQLException("Paramètre invalide dans l'URL : " + parametre, e);
+            }
+        }
+        String texte;
+        try {
+            texte = Files.readString(script, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new SQLException("Le script " + script.toAbsolutePath() + " ne peut pas être lu", e);
+        }
+        Donnees donnees = new Donnees();
+        donnees.executerScript(texte);
+        for (Map.Entry<GenerateurTuples.Table, Long> table : generes.entrySet()) {
+            donnees.generer(table.getKey(), table.getValue(), graine);
+        }
+        return donnees;
+    }
+
+    /**
+     * Retourne une chaîne sous la forme où elle est comparée : en minuscules et sans accents, comme avec la collation
+     * utf8mb4_0900_ai_ci de MySQL.
+     */
+    private static String plier(String texte) {
+        for (int i = 0; i < texte.length(); i++) {
+            if (texte.charAt(i) >= 128) {
+                String decompose = Normalizer.normalize(texte, Normalizer.Form.NFD);
+                return DIACRITIQUES.matcher(decompose).replaceAll("").toLowerCase(Locale.ROOT);
+            }
+        }
+        return texte.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Retourne la valeur d'une chaîne, d'un booléen ou d'un nombre sous forme de nombre ; comme avec MySQL, une chaîne
+     * vaut son préfixe numérique, ou 0 si elle n'en a pas.
+     */
+    private static BigDecimal nombre(Object valeur) {
+        if (valeur instanceof BigDecimal) {
+            return (BigDecimal) valeur;
+        }
+        if (valeur instanceof Long || valeur instanceof Integer || valeur instanceof Short || valeur instanceof Byte) {
+            return BigDecimal.valueOf(((Number) valeur).longValue());
+        }
+        if (valeur instanceof Number) {
+            return BigDecimal.valueOf(((Number) valeur).doubleValue());
+        }
+        if (valeur instanceof Boolean) {
+            return (Boolean) valeur ? BigDecimal.ONE : BigDecimal.ZERO;
+        }
+        Matcher prefixe = NOMBRE.matcher(valeur.toString());
+        return prefixe.find() ? new BigDecimal(prefixe.group().trim()) : BigDecimal.ZERO;
+    }
+
+    /**
+     * Retourne une valeur sous forme de chaîne, comme MySQL la convertit.
+     */
+    private static String texte(Object valeur) {
+        if (valeur instanceof BigDecimal) {
+            return ((BigDecimal) valeur).toPlainString();
+        }
+        if (valeur instanceof Boolean) {
+            return (Boolean) valeur ? "1" : "0";
+        }
+        return valeur.toString();
+    }
+
+    /**
+     * Compare deux valeurs comme MySQL : deux chaînes sans tenir compte de la casse ni des accents, et sinon comme des
+     * nombres.
+     *
+     * @return le signe de la comparaison, ou null si l'une des valeurs est NULL
+     */
+    private static Integer comparer(Object a, Object b) {
+        if (a == null || b == null) {
+            return null;
+        }
+        if (a instanceof Long && b instanceof Long) {
+            return Long.compare((Long) a, (Long) b);
+        }
+        if (a instanceof String && b instanceof String) {
+            return plier((String) a).compareTo(plier((String) b));
+        }
+        return nombre(a).compareTo(nombre(b));
+    }
+
+    private static Boolean et(Boolean a, Boolean b) {
+        if (Boolean.FALSE.equals(a) || Boolean.FALSE.equals(b)) {
+            return Boolean.FALSE;
+        }
+        return a == null || b == null ? null : Boolean.TRUE;
+    }
+
+    private static Boolean ou(Boolean a, Boolean b) {
+        if (Boolean.TRUE.equals(a) || Boolean.TRUE.equals(b)) {
+            return Boolean.TRUE;
+        }
+        return a == null || b == null ? null : Boolean.FALSE;
+    }
+
+    private static Condition nier(Condition condition) {
+        return (tuples, parametres) -> {
+            Boolean valeur = condition.evaluer(tuples, parametres);
+            return valeur == null ? null : !valeur;
+        };
+    }
+
+    /**
+     * La valeur d'un opérande d'une condition : une colonne du tuple courant de l'une des tables, un paramètre ou une
+     * valeur littérale.
+     */
+    @FunctionalInterface
+    private interface Operande {
+        Object valeur(Object[][] tuples, Object[] parametres);
+    }
+
+    /**
+     * Une condition évaluée sur une combinaison de tuples, un par table de la requête.
+     */
+    @FunctionalInterface
+    private interface Condition {
+        /**
+         * @return TRUE ou FALSE, ou null si la condition est inconnue (l'un de ses opérandes est NULL)
+         */
+        Boolean evaluer(Object[][] tuples, Object[] parametres);
+    }
+
+    /**
+     * Une condition LIKE, dont le motif est traduit en expression régulière, gardée tant que le motif ne change pas.
+     */
+    private static final class Like implements Condition {
+        private final Operande valeur;
+        private final Operande motif;
+        private String dernierMotif;
+        private Pattern expression;
+
+        Like(Operande valeur, Operande motif) {
+            this.valeur = valeur;
+            this.motif = motif;
+        }
+
+        @Override
+        public Boolean evaluer(Object[][] tuples, Object[] parametres) {
+            Object texte = valeur.valeur(tuples, parametres);
+            Object modele = motif.valeur(tuples, parametres);
+            if (texte == null || modele == null) {
+                return null;
+            }
+            String chaine = texte(modele);
+            if (!chaine.equals(dernierMotif)) {
+                expression = traduire(plier(chaine));
+                dernierMotif = chaine;
+            }
+            return expression.matcher(plier(texte(texte))).matches();
+        }
+
+        /**
+         * Traduit un motif LIKE : % désigne une suite quelconque de caractères, _ un seul caractère, et \ protège le
+         * caractère qui le suit.
+         */
+        private static Pattern traduire(String motif) {
+            StringBuilder expression = new StringBuilder(motif.length() + 8);
+            StringBuilder litteral = new StringBuilder();
+            for (int i = 0; i < motif.length(); i++) {
+                char c = motif.charAt(i);
+                if (c == '\\' && i + 1 < motif.length()) {
+                    litteral.append(motif.charAt(++i));
+                } else if (c == '%' || c == '_') {
+                    if (litteral.length() > 0) {
+                        expression.append(Pattern.quote(litteral.toString()));
+                        litteral.setLength(0);
+                    }
+                    expression.append(c == '%' ? ".*" : ".");
+                } else {
+                    litteral.append(c);
+                }
+            }
+            if (litteral.length() > 0) {
+                expression.append(Pattern.quote(litteral.toString()));
+            }
+            return Pattern.compile(expression.toString(), Pattern.DOTALL);
+        }
+    }
+
+    /**
+     * Les bases de données d'une URL et leurs tables.
+     */
+    private static final class Donnees {
+        private final Map<String, Map<String, Table>> bases = new HashMap<>();
+
+        Map<String, Table> base(String nom) throws SQLException {
+            if (nom == null) {
+                throw new SQLException("Aucune base de données sélectionnée", "3D000");
+            }
+            Map<String, Table> tables = bases.get(nom.toLowerCase(Locale.ROOT));
+            if (tables == null) {
+                throw new SQLSyntaxErrorException("Base de données inconnue : " + nom, "42000");
+            }
+            return tables;
+        }
+
+        Table table(String base, String nom) throws SQLException {
+            Table table = base(base).get(nom.toLowerCase(Locale.ROOT));
+            if (table == null) {
+                throw new SQLSyntaxErrorException("La table " + base + "." + nom + " n'existe pas", "42S02");
+            }
+            return table;
+        }
+
+        /**
+         * Exécute les instructions d'un script, séparées par des points-virgules.
+         */
+        void executerScript(String script) throws SQLException {
+            Lexeur lexeur = new Lexeur(script);
+            String courante = null;
+            while (!lexeur.termine()) {
+                if (lexeur.symbole(";")) {
+                    continue;
+                }
+                courante = executer(lexeur, courante);
+                if (!lexeur.termine()) {
+                    lexeur.attendreSymbole(";");
+                }
+            }
+        }
+
+        /**
+         * Remplace les tuples d'une table par des tuples générés, d'identifiants 1 à nombre.
+         */
+        void generer(GenerateurTuples.Table generee, long nombre, long graine) throws SQLException {
+            Table table = table(generee.getBase(), generee.getNom());
+            int[] positions = new int[generee.getColonnes().size()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = table.position(generee.getColonnes().get(i), true);
+            }
+            table.vider();
+            table.tuples.ensureCapacity(Math.toIntExact(nombre));
+            for (long id = 1; id <= nombre; id++) {
+                table.inserer(positions, generee.tuple(id, graine));
+            }
+        }
+
+        /**
+         * Exécute une instruction du script.
+         *
+         * @return la base sélectionnée après l'instruction
+         */
+        private String executer(Lexeur lexeur, String courante) throws SQLException {
+            if (lexeur.motCle("USE")) {
+                String base = lexeur.identifiant();
+                base(base);
+                return base;
+            }
+            if (lexeur.motCle("CREATE")) {
+                if (lexeur.motCle("DATABASE") || lexeur.motCle("SCHEMA")) {
+                    boolean siAbsente = siExiste(lexeur, true);
+                    String base = lexeur.identifiant();
+                    if (bases.containsKey(base.toLowerCase(Locale.ROOT)) && !siAbsente) {
+                        throw new SQLException("La base de données " + base + " existe déjà", "HY000");
+                    }
+                    bases.putIfAbsent(base.toLowerCase(Locale.ROOT), new HashMap<>());
+                    lexeur.ignorerJusquA(";");
+                    return courante;
+                }
+                lexeur.attendreMotCle("TABLE");
+                boolean siAbsente = siExiste(lexeur, true);
+                String[] nom = nomQualifie(lexeur, courante);
+                Map<String, Table> tables = base(nom[0]);
+                Table table = creerTable(lexeur, nom[0], nom[1]);
+                if (tables.containsKey(table.cle()) && !siAbsente) {
+                    throw new SQLException("La table " + nom[0] + "." + nom[1] + " existe déjà", "42S01");
+                }
+                tables.putIfAbsent(table.cle(), table);
+                return courante;
+            }
+            if (lexeur.motCle("DROP")) {
+                if (lexeur.motCle("DATABASE") || lexeur.motCle("SCHEMA")) {
+                    boolean siPresente = siExiste(lexeur, false);
+                    String base = lexeur.identifiant();
+                    if (bases.remove(base.toLowerCase(Locale.ROOT)) == null && !siPresente) {
+                        base(base);
+                    }
+                    return base.equalsIgnoreCase(courante) ? null : courante;
+                }
+                lexeur.attendreMotCle("TABLE");
+                boolean siPresente = siExiste(lexeur, false);
+                String[] nom = nomQualifie(lexeur, courante);
+                if (base(nom[0]).remove(nom[1].toLowerCase(Locale.ROOT)) == null && !siPresente) {
+                    table(nom[0], nom[1]);
+                }
+                return courante;
+            }
+            if (lexeur.motCle("TRUNCATE")) {
+                lexeur.motCle("TABLE");
+                String[] nom = nomQualifie(lexeur, courante);
+                table(nom[0], nom[1]).vider();
+                return courante;
+            }
+            if (lexeur.motCle("INSERT")) {
+                lexeur.motCle("INTO");
+                String[] nom = nomQualifie(lexeur, courante);
+                inserer(lexeur, table(nom[0], nom[1]));
+                return courante;
+            }
+            throw lexeur.erreur("instruction non prise en charge par la base embarquée");
+        }
+
+        /**
+         * Lit une clause IF NOT EXISTS (ou IF EXISTS si absente vaut false).
+         *
+         * @return true si la clause est présente
+         */
+        private static boolean siExiste(Lexeur lexeur, boolean absente) throws SQLException {
+            if (!lexeur.motCle("IF")) {
+                return false;
+            }
+            if (absente) {
+                lexeur.attendreMotCle("NOT");
+            }
+            lexeur.attendreMotCle("EXISTS");
+            return true;
+        }
+
+        /**
+         * Lit un nom de table, éventuellement qualifié par sa base.
+         *
+         * @return la base et le nom de la table
+         */
+        private static String[] nomQualifie(Lexeur lexeur, String courante) throws SQLException {
+            String nom = lexeur.identifiant();
+            if (lexeur.symbole(".")) {
+                return new String[]{nom, lexeur.identifiant()};
+            }
+            if (courante == null) {
+                throw new SQLException("Aucune base de données sélectionnée", "3D000");
+            }
+            return new String[]{courante, nom};
+        }
+
+        private static Table creerTable(Lexeur lexeur, String base, String nom) throws SQLException {
+            lexeur.attendreSymbole("(");
+            List<Colonne> colonnes = new ArrayList<>();
+            do {
+                if (lexeur.motCle("PRIMARY") || lexeur.motCle("KEY") || lexeur.motCle("INDEX")
+                        || lexeur.motCle("UNIQUE") || lexeur.motCle("CONSTRAINT") || lexeur.motCle("FOREIGN")) {
+                    // Les index et les contraintes ne sont pas vérifiés.
+                    while (!lexeur.estSymbole(",") && !lexeur.estSymbole(")")) {
+                        lexeur.passer();
+                    }
+                    continue;
+                }
+                colonnes.add(colonne(lexeur));
+            } while (lexeur.symbole(","));
+            lexeur.attendreSymbole(")");
+            lexeur.ignorerJusquA(";");
+            return new Table(base, nom, colonnes);
+        }
+
+        private static Colonne colonne(Lexeur lexeur) throws SQLException {
+            String nom = lexeur.identifiant();
+            String type = lexeur.identifiant().toUpperCase(Locale.ROOT);
+            int precision = -1;
+            int echelle = 0;
+            if (lexeur.symbole("(")) {
+                precision = lexeur.entier();
+                if (lexeur.symbole(",")) {
+                    echelle = lexeur.entier();
+                }
+                lexeur.attendreSymbole(")");
+            }
+            boolean nullable = true;
+            boolean autoIncrement = false;
+            Object defaut = null;
+            while (!lexeur.termine() && !lexeur.estSymbole(",") && !lexeur.estSymbole(")")) {
+                if (lexeur.motCle("NOT")) {
+                    lexeur.attendreMotCle("NULL");
+                    nullable = false;
+                } else if (lexeur.motCle("AUTO_INCREMENT")) {
+                    autoIncrement = true;
+                } else if (lexeur.motCle("PRIMARY")) {
+                    lexeur.attendreMotCle("KEY");
+                    nullable = false;
+                } else if (lexeur.motCle("DEFAULT")) {
+                    defaut = lexeur.litteral();
+                } else {
+                    // UNSIGNED, NULL, COMMENT, CHARACTER SET... : sans effet sur les requêtes de l'agent.
+                    lexeur.passer();
+                }
+            }
+            return new Colonne(nom, type, precision, echelle, nullable, autoIncrement, defaut);
+        }
+
+        private static void inserer(Lexeur lexeur, Table table) throws SQLException {
+            int[] positions;
+            if (lexeur.symbole("(")) {
+                List<Integer> liste = new ArrayList<>();
+                do {
+                    liste.add(table.position(lexeur.identifiant(), true));
+                } while (lexeur.symbole(","));
+                lexeur.attendreSymbole(")");
+                positions = liste.stream().mapToInt(Integer::intValue).toArray();
+            } else {
+                positions = new int[table.colonnes.size()];
+                for (int i = 0; i < positions.length; i++) {
+                    positions[i] = i;
+                }
+            }
+            if (!lexeur.motCle("VALUES")) {
+                lexeur.attendreMotCle("VALUE");
+            }
+            do {
+                lexeur.attendreSymbole("(");
+                Object[] valeurs = new Object[positions.length];
+                for (int i = 0; i < valeurs.length; i++) {
+                    if (i > 0) {
+                        lexeur.attendreSymbole(",");
+                    }
+                    valeurs[i] = lexeur.litteral();
+                }
+                lexeur.attendreSymbole(")");
+                table.inserer(positions, valeurs);
+            } while (lexeur.symbole(","));
+        }
+    }
+
+    /**
+     * Une table, dont les tuples sont rangés dans l'ordre de leur insertion.
+     */
+    private static final class Table {
+        private final String base;
+        private final String nom;
+        private final List<Colonne> colonnes;
+        private final ArrayList<Object[]> tuples = new ArrayList<>();
+        private long prochainId = 1;
+
+        Table(String base, String nom, List<Colonne> colonnes) {
+            this.base = base;
+            this.nom = nom;
+            this.colonnes = colonnes;
+        }
+
+        String cle() {
+            return nom.toLowerCase(Locale.ROOT);
+        }
+
+        /**
+         * Retourne la position d'une colonne, à partir de 0, ou -1 si la table n'a pas cette colonne et que
+         * obligatoire vaut false.
+         */
+        int position(String colonne, boolean obligatoire) throws SQLException {
+            for (int i = 0; i < colonnes.size(); i++) {
+                if (colonnes.get(i).nom.equalsIgnoreCase(colonne)) {
+                    return i;
+                }
+            }
+            if (obligatoire) {
+                throw new SQLSyntaxErrorException("Colonne inconnue : " + nom + "." + colonne, "42S22");
+            }
+            return -1;
+        }
+
+        /**
+         * Ajoute un tuple, dont les colonnes absentes prennent leur valeur par défaut ou, pour une colonne
+         * AUTO_INCREMENT, l'identifiant suivant.
+         */
+        void inserer(int[] positions, Object[] valeurs) throws SQLException {
+            Object[] tuple = new Object[colonnes.size()];
+            boolean[] donnees = new boolean[tuple.length];
+            for (int i = 0; i < positions.length; i++) {
+                tuple[positions[i]] = valeurs[i];
+                donnees[positions[i]] = true;
+            }
+            for (int i = 0; i < tuple.length; i++) {
+                Colonne colonne = colonnes.get(i);
+                if (!donnees[i]) {
+                    tuple[i] = colonne.defaut;
+                }
+                if (colonne.autoIncrement && tuple[i] == null) {
+                    tuple[i] = prochainId;
+                }
+                tuple[i] = colonne.convertir(tuple[i]);
+                if (colonne.autoIncrement) {
+                    prochainId = Math.max(prochainId, nombre(tuple[i]).longValue() + 1);
+                }
+            }
+            tuples.add(tuple);
+        }
+
+        void vider() {
+            tuples.clear();
+            tuples.trimToSize();
+            prochainId = 1;
+        }
+    }
+
+    /**
+     * Une colonne d'une table, avec son type JDBC. Les entiers sont rangés en Long, les décimaux en BigDecimal à
+     * l'échelle de la colonne, les réels en Double et les chaînes en String.
+     */
+    private static final class Colonne {
+        private final String nom;
+        private final String nomType;
+        private final int type;
+        private final int precision;
+        private final int echelle;
+        private final boolean nullable;
+        private final boolean autoIncrement;
+        private final Object defaut;
+
+        Colonne(String nom, String nomType, int precision, int echelle, boolean nullable, boolean autoIncrement,
+                Object defaut) throws SQLException {
+            this.nom = nom;
+            this.nomType = nomType;
+            switch (nomType) {
+                case "TINYINT":
+                case "SMALLINT":
+                case "MEDIUMINT":
+                case "INT":
+                case "INTEGER":
+                    this.type = Types.INTEGER;
+                    this.precision = 11;
+                    break;
+                case "BIGINT":
+                    this.type = Types.BIGINT;
+                    this.precision = 20;
+                    break;
+                case "DECIMAL":
+                case "NUMERIC":
+                    this.type = Types.DECIMAL;
+                    this.precision = precision < 0 ? 10 : precision;
+                    break;
+                case "FLOAT":
+                case "DOUBLE":
+                case "REAL":
+                    this.type = Types.DOUBLE;
+                    this.precision = 22;
+                    break;
+                case "CHAR":
+                case "VARCHAR":
+                    this.type = Types.VARCHAR;
+                    this.precision = precision < 0 ? 255 : precision;
+                    break;
+                case "TEXT":
+                    this.type = Types.VARCHAR;
+                    this.precision = 65535;
+                    break;
+                default:
+                    throw new SQLFeatureNotSupportedException("Le type " + nomType + " de la colonne " + nom
+                            + " n'est pas pris en charge par la base embarquée");
+            }
+            this.echelle = type == Types.DECIMAL ? echelle : 0;
+            this.nullable = nullable;
+            this.autoIncrement = autoIncrement;
+            this.defaut = defaut;
+        }
+
+        /**
+         * Convertit une valeur insérée dans la colonne au type de la colonne.
+         */
+        Object convertir(Object valeur) throws SQLException {
+            if (valeur == null) {
+                if (!nullable) {
+                    throw new SQLException("La colonne " + nom + " ne peut pas être NULL", "23000");
+                }
+                return null;
+            }
+            if (type == Types.VARCHAR) {
+                String texte = texte(valeur);
+                if (texte.length() > precision) {
+                    throw new SQLException("Valeur trop longue pour la colonne " + nom, "22001");
+                }
+                return texte;
+            }
+            BigDecimal nombre;
+            try {
+                nombre = valeur instanceof String ? new BigDecimal(((String) valeur).trim()) : nombre(valeur);
+            } catch (NumberFormatException e) {
+                throw new SQLException("Valeur numérique invalide pour la colonne " + nom + " : " + valeur, "22007", e);
+            }
+            try {
+                switch (type) {
+                    case Types.INTEGER:
+                    case Types.BIGINT:
+                        return nombre.setScale(0, RoundingMode.HALF_UP).longValueExact();
+                    case Types.DECIMAL:
+                        BigDecimal decimal = nombre.setScale(echelle, RoundingMode.HALF_UP);
+                        if (decimal.precision() > precision) {
+                            throw new ArithmeticException();
+                        }
+                        return decimal;
+                    default:
+                        return nombre.doubleValue();
+                }
+            } catch (ArithmeticException e) {
+                throw new SQLException("Valeur hors limites pour la colonne " + nom + " : " + valeur, "22003", e);
+            }
+        }
+
+        /**
+         * Retourne une valeur rangée dans la colonne sous le type Java que lui donne MySQL.
+         */
+        Object objet(Object valeur) {
+            return type == Types.INTEGER && valeur != null ? (Object) ((Long) valeur).intValue() : valeur;
+        }
+
+        String classe() {
+            switch (type) {
+                case Types.INTEGER:
+                    return Integer.class.getName();
+                case Types.BIGINT:
+                    return Long.class.getName();
+                case Types.DECIMAL:
+                    return BigDecimal.class.getName();
+                case Types.DOUBLE:
+                    return Double.class.getName();
+                default:
+                    return String.class.getName();
+            }
+        }
+    }
+
+    /**
+     * Un élément lexical : un mot (identifiant ou mot-clé, cité ou non entre accents graves), un nombre, une chaîne
+     * entre apostrophes ou un symbole.
+     */
+    private static final class Jeton {
+        private static final int MOT = 0;
+        private static final int NOMBRE = 1;
+        private static final int CHAINE = 2;
+        private static final int SYMBOLE = 3;
+
+        private final int sorte;
+        private final String texte;
+        private final boolean cite;
+
+        Jeton(int sorte, String texte, boolean cite) {
+            this.sorte = sorte;
+            this.texte = texte;
+            this.cite = cite;
+        }
+    }
+
+    /**
+     * Découpe un texte SQL en éléments lexicaux, sans ses commentaires, et les lit un à un.
+     */
+    private static final class Lexeur {
+        private final List<Jeton> jetons = new ArrayList<>();
+        private int position;
+
+        Lexeur(String texte) throws SQLException {
+            int i = 0;
+            int n = texte.length();
+            while (i < n) {
+                char c = texte.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '#' || (c == '-' && texte.startsWith("--", i))) {
+                    int fin = texte.indexOf('\n', i);
+                    i = fin < 0 ? n : fin + 1;
+                } else if (c == '/' && texte.startsWith("/*", i)) {
+                    int fin = texte.indexOf("*/", i + 2);
+                    if (fin < 0) {
+                        throw new SQLSyntaxErrorException("Commentaire non terminé", "42000");
+                    }
+                    i = fin + 2;
+                } else if (c == '`' || c == '\'' || c == '"') {
+                    StringBuilder contenu = new StringBuilder();
+                    i++;
+                    while (true) {
+                        if (i >= n) {
+                            throw new SQLSyntaxErrorException((c == '`' ? "Identifiant" : "Chaîne")
+                                    + " non terminé(e) : " + c + contenu, "42000");
+                        }
+                        char d = texte.charAt(i++);
+                        if (d == c) {
+                            if (i < n && texte.charAt(i) == c) {
+                                contenu.append(c);
+                                i++;
+                                continue;
+                            }
+                            break;
+                        }
+                        if (d == '\\' && c != '`' && i < n) {
+                            d = texte.charAt(i++);
+                            d = d == 'n' ? '\n' : d == 't' ? '\t' : d == 'r' ? '\r' : d == '0' ? '\0' : d;
+                        }
+                        contenu.append(d);
+                    }
+                    jetons.add(new Jeton(c == '`' ? Jeton.MOT : Jeton.CHAINE, contenu.toString(), c == '`'));
+                } else if (Character.isDigit(c) || (c == '.' && i + 1 < n && Character.isDigit(texte.charAt(i + 1)))) {
+                    int debut = i;
+                    while (i < n && (Character.isDigit(texte.charAt(i)) || texte.charAt(i) == '.')) {
+                        i++;
+                    }
+                    if (i < n && (texte.charAt(i) == 'e' || texte.charAt(i) == 'E')) {
+                        int exposant = i + 1;
+                        if (exposant < n && (texte.charAt(exposant) == '+' || texte.charAt(exposant) == '-')) {
+                            exposant++;
+                        }
+                        if (exposant < n && Character.isDigit(texte.charAt(exposant))) {
+                            i = exposant;
+                            while (i < n && Character.isDigit(texte.charAt(i))) {
+                                i++;
+                            }
+                        }
+                    }
+                    jetons.add(new Jeton(Jeton.NOMBRE, texte.substring(debut, i), false));
+                } else if (Character.isLetter(c) || c == '_' || c == '$') {
+                    int debut = i;
+                    while (i < n && (Character.isLetterOrDigit(texte.charAt(i)) || texte.charAt(i) == '_'
+                            || texte.charAt(i) == '$')) {
+                        i++;
+                    }
+                    jetons.add(new Jeton(Jeton.MOT, texte.substring(debut, i), false));
+                } else if (texte.startsWith("<=", i) || texte.startsWith(">=", i) || texte.startsWith("<>", i)
+                        || texte.startsWith("!=", i)) {
+                    jetons.add(new Jeton(Jeton.SYMBOLE, texte.substring(i, i + 2), false));
+                    i += 2;
+                } else if ("(),.*?=<>;+-".indexOf(c) >= 0) {
+                    jetons.add(new Jeton(Jeton.SYMBOLE, String.valueOf(c), false));
+                    i++;
+                } else {
+                    throw new SQLSyntaxErrorException("Caractère inattendu : " + c, "42000");
+                }
+            }
+        }
+
+        boolean termine() {
+            return position == jetons.size();
+        }
+
+        private Jeton courant() {
+            return position < jetons.size() ? jetons.get(position) : null;
+        }
+
+        boolean motCle(String mot) {
+            Jeton jeton = courant();
+            if (jeton != null && jeton.sorte == Jeton.MOT && !jeton.cite && jeton.texte.equalsIgnoreCase(mot)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        void attendreMotCle(String mot) throws SQLException {
+            if (!motCle(mot)) {
+                throw erreur(mot + " attendu");
+            }
+        }
+
+        boolean estSymbole(String symbole) {
+            Jeton jeton = courant();
+            return jeton != null && jeton.sorte == Jeton.SYMBOLE && jeton.texte.equals(symbole);
+        }
+
+        boolean symbole(String symbole) {
+            if (estSymbole(symbole)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        void attendreSymbole(String symbole) throws SQLException {
+            if (!symbole(symbole)) {
+                throw erreur(symbole + " attendu");
+            }
+        }
+
+        /**
+         * Lit l'un des opérateurs de comparaison =, &lt;&gt; (ou !=), &lt;, &lt;=, &gt; et &gt;=.
+         */
+        String operateur() throws SQLException {
+            for (String operateur : new String[]{"=", "<>", "!=", "<", "<=", ">", ">="}) {
+                if (symbole(operateur)) {
+                    return operateur.equals("!=") ? "<>" : operateur;
+                }
+            }
+            throw erreur("opérateur de comparaison attendu");
+        }
+
+        String identifiant() throws SQLException {
+            Jeton jeton = courant();
+            if (jeton == null || jeton.sorte != Jeton.MOT) {
+                throw erreur("identifiant attendu");
+            }
+            position++;
+            return jeton.texte;
+        }
+
+        int entier() throws SQLException {
+            Jeton jeton = courant();
+            if (jeton == null || jeton.sorte != Jeton.NOMBRE) {
+                throw erreur("nombre attendu");
+            }
+            position++;
+            try {
+                return Integer.parseInt(jeton.texte);
+            } catch (NumberFormatException e) {
+                throw erreur("nombre entier attendu");
+            }
+        }
+
+        /**
+         * @return true si l'élément courant commence une valeur littérale
+         */
+        boolean estLitteral() {
+            Jeton jeton = courant();
+            if (jeton == null) {
+                return false;
+            }
+            switch (jeton.sorte) {
+                case Jeton.NOMBRE:
+                case Jeton.CHAINE:
+                    return true;
+                case Jeton.SYMBOLE:
+                    return jeton.texte.equals("-") || jeton.texte.equals("+");
+                default:
+                    return !jeton.cite && (jeton.texte.equalsIgnoreCase("NULL")
+                            || jeton.texte.equalsIgnoreCase("TRUE") || jeton.texte.equalsIgnoreCase("FALSE"));
+            }
+        }
+
+        /**
+         * Lit une valeur littérale : un nombre (Long ou BigDecimal), éventuellement signé, une chaîne, NULL, TRUE ou
+         * FALSE.
+         */
+        Object litteral() throws SQLException {
+            if (motCle("NULL")) {
+                return null;
+            }
+            if (motCle("TRUE")) {
+                return Boolean.TRUE;
+            }
+            if (motCle("FALSE")) {
+                return Boolean.FALSE;
+            }
+            boolean negatif = symbole("-");
+            if (!negatif) {
+                symbole("+");
+            }
+            Jeton jeton = courant();
+            if (jeton != null && jeton.sorte == Jeton.CHAINE && !negatif) {
+                position++;
+                return jeton.texte;
+            }
+            if (jeton == null || jeton.sorte != Jeton.NOMBRE) {
+                throw erreur("valeur attendue");
+            }
+            position++;
+            BigDecimal nombre = new BigDecimal(jeton.texte);
+            if (negatif) {
+                nombre = nombre.negate();
+            }
+            if (nombre.scale() <= 0 && nombre.compareTo(BigDecimal.valueOf(Long.MAX_VALUE)) <= 0
+                    && nombre.compareTo(BigDecimal.valueOf(Long.MIN_VALUE)) >= 0) {
+                return nombre.longValueExact();
+            }
+            return nombre;
+        }
+
+        /**
+         * Passe l'élément courant, ou tout un groupe entre parenthèses.
+         */
+        void passer() throws SQLException {
+            if (!symbole("(")) {
+                position++;
+                return;
+            }
+            int profondeur = 1;
+            while (profondeur > 0) {
+                if (termine()) {
+                    throw erreur(") attendu");
+                }
+                if (symbole("(")) {
+                    profondeur++;
+                } else if (symbole(")")) {
+                    profondeur--;
+                } else {
+                    position++;
+                }
+            }
+        }
+
+        /**
+         * Passe les éléments jusqu'au symbole donné (exclu) ou jusqu'à la fin du texte.
+         */
+        void ignorerJusquA(String symbole) throws SQLException {
+            while (!termine() && !estSymbole(symbole)) {
+                passer();
+            }
+        }
+
+        SQLException erreur(String message) {
+            Jeton jeton = courant();
+            String pres = jeton == null ? "la fin du texte" : "« " + jeton.texte + " »";
+            return new SQLSyntaxErrorException("Erreur de syntaxe, " + message + " près de " + pres, "42000");
+        }
+    }
+
+    /**
+     * Une requête SELECT analysée, dont les tables et les colonnes ont été trouvées dans une base.
+     */
+    private static final class Selection {
+        private final List<Table> tables = new ArrayList<>();
+        /**
+         * Pour chaque colonne du résultat, la position de sa table dans la requête et sa position dans la table.
+         */
+        private final List<int[]> sorties = new ArrayList<>();
+        private Condition condition;
+        private Operande limite;
+        private Operande decalage;
+        private int parametres;
+
+        Selection(String sql, Donnees donnees, String base) throws SQLException {
+            Lexeur lexeur = new Lexeur(sql);
+            lexeur.attendreMotCle("SELECT");
+            // Les champs ne sont résolus qu'une fois les tables lues.
+            List<String[]> champs = new ArrayList<>();
+            do {
+                if (lexeur.symbole("*")) {
+                    champs.add(new String[]{null, "*"});
+                    continue;
+                }
+                String nom = lexeur.identifiant();
+                if (lexeur.symbole(".")) {
+                    champs.add(new String[]{nom, lexeur.symbole("*") ? "*" : lexeur.identifiant()});
+                } else {
+                    champs.add(new String[]{null, nom});
+                }
+            } while (lexeur.symbole(","));
+            lexeur.attendreMotCle("FROM");
+            do {
+                String nom = lexeur.identifiant();
+                tables.add(lexeur.symbole(".") ? donnees.table(nom, lexeur.identifiant()) : donnees.table(base, nom));
+            } while (lexeur.symbole(","));
+            for (String[] champ : champs) {
+                if (!champ[1].equals("*")) {
+                    sorties.add(colonne(champ[0], champ[1]));
+                    continue;
+                }
+                boolean trouvee = false;
+                for (int t = 0; t < tables.size(); t++) {
+                    if (champ[0] == null || tables.get(t).nom.equalsIgnoreCase(champ[0])) {
+                        trouvee = true;
+                        for (int c = 0; c < tables.get(t).colonnes.size(); c++) {
+                            sorties.add(new int[]{t, c});
+                        }
+                    }
+                }
+                if (!trouvee) {
+                    throw new SQLSyntaxErrorException("Table inconnue : " + champ[0], "42S02");
+                }
+            }
+            if (lexeur.motCle("WHERE")) {
+                condition = ou(lexeur);
+            }
+            if (lexeur.motCle("LIMIT")) {
+                limite = entier(lexeur);
+                if (lexeur.symbole(",")) {
+                    decalage = limite;
+                    limite = entier(lexeur);
+                } else if (lexeur.motCle("OFFSET")) {
+                    decalage = entier(lexeur);
+                }
+            }
+            lexeur.symbole(";");
+            if (!lexeur.termine()) {
+                throw lexeur.erreur("fin de la requête attendue");
+            }
+        }
+
+        /**
+         * Trouve une colonne, éventuellement qualifiée par sa table, parmi les tables de la requête.
+         *
+         * @return la position de sa table dans la requête et sa position dans la table
+         */
+        private int[] colonne(String table, String nom) throws SQLException {
+            int[] trouvee = null;
+            for (int t = 0; t < tables.size(); t++) {
+                if (table != null && !tables.get(t).nom.equalsIgnoreCase(table)) {
+                    continue;
+                }
+                int c = tables.get(t).position(nom, false);
+                if (c >= 0) {
+                    if (trouvee != null) {
+                        throw new SQLSyntaxErrorException("La colonne " + nom + " est ambiguë", "23000");
+                    }
+                    trouvee = new int[]{t, c};
+                }
+            }
+            if (trouvee == null) {
+                throw new SQLSyntaxErrorException("Colonne inconnue : " + (table == null ? nom : table + "." + nom),
+                        "42S22");
+            }
+            return trouvee;
+        }
+
+        private Condition ou(Lexeur lexeur) throws SQLException {
+            Condition condition = et(lexeur);
+            while (lexeur.motCle("OR")) {
+                Condition gauche = condition;
+                Condition droite = et(lexeur);
+                condition = (tuples, parametres) -> {
+                    Boolean valeur = gauche.evaluer(tuples, parametres);
+                    return Boolean.TRUE.equals(valeur) ? valeur
+                            : BaseEmbarquee.ou(valeur, droite.evaluer(tuples, parametres));
+                };
+            }
+            return condition;
+        }
+
+        private Condition et(Lexeur lexeur) throws SQLException {
+            Condition condition = non(lexeur);
+            while (lexeur.motCle("AND")) {
+                Condition gauche = condition;
+                Condition droite = non(lexeur);
+                condition = (tuples, parametres) -> {
+                    Boolean valeur = gauche.evaluer(tuples, parametres);
+                    return Boolean.FALSE.equals(valeur) ? valeur
+                            : BaseEmbarquee.et(valeur, droite.evaluer(tuples, parametres));
+                };
+            }
+            return condition;
+        }
+
+        private Condition non(Lexeur lexeur) throws SQLException {
+            if (lexeur.motCle("NOT")) {
+                return nier(non(lexeur));
+            }
+            if (lexeur.symbole("(")) {
+                Condition condition = ou(lexeur);
+                lexeur.attendreSymbole(")");
+                return condition;
+            }
+            return predicat(lexeur);
+        }
+
+        private Condition predicat(Lexeur lexeur) throws SQLException {
+            Operande gauche = operande(lexeur);
+            if (lexeur.motCle("IS")) {
+                boolean negation = lexeur.motCle("NOT");
+                lexeur.attendreMotCle("NULL");
+                return (tuples, parametres) -> (gauche.valeur(tuples, parametres) == null) != negation;
+            }
+            boolean negation = lexeur.motCle("NOT");
+            Condition condition;
+            if (lexeur.motCle("BETWEEN")) {
+                Operande minimum = operande(lexeur);
+                lexeur.attendreMotCle("AND");
+                Operande maximum = operande(lexeur);
+                condition = (tuples, parametres) -> {
+                    Object valeur = gauche.valeur(tuples, parametres);
+                    Integer bas = comparer(valeur, minimum.valeur(tuples, parametres));
+                    Integer haut = comparer(valeur, maximum.valeur(tuples, parametres));
+                    return BaseEmbarquee.et(bas == null ? null : bas >= 0, haut == null ? null : haut <= 0);
+                };
+            } else if (lexeur.motCle("IN")) {
+                lexeur.attendreSymbole("(");
+                List<Operande> liste = new ArrayList<>();
+                do {
+                    liste.add(operande(lexeur));
+                } while (lexeur.symbole(","));
+                lexeur.attendreSymbole(")");
+                condition = (tuples, parametres) -> {
+                    Object valeur = gauche.valeur(tuples, parametres);
+                    if (valeur == null) {
+                        return null;
+                    }
+                    boolean inconnue = false;
+                    for (Operande element : liste) {
+                        Integer resultat = comparer(valeur, element.valeur(tuples, parametres));
+                        if (resultat == null) {
+                            inconnue = true;
+                        } else if (resultat == 0) {
+                            return Boolean.TRUE;
+                        }
+                    }
+                    return inconnue ? null : Boolean.FALSE;
+                };
+            } else if (lexeur.motCle("LIKE")) {
+                condition = new Like(gauche, operande(lexeur));
+            } else if (negation) {
+                throw lexeur.erreur("LIKE, IN ou BETWEEN attendu");
+            } else {
+                condition = comparaison(gauche, lexeur.operateur(), operande(lexeur));
+            }
+            return negation ? nier(condition) : condition;
+        }
+
+        private static Condition comparaison(Operande gauche, String operateur, Operande droite) {
+            IntPredicate test;
+            switch (operateur) {
+                case "=":
+                    test = c -> c == 0;
+                    break;
+                case "<>":
+                    test = c -> c != 0;
+                    break;
+                case "<":
+                    test = c -> c < 0;
+                    break;
+                case "<=":
+                    test = c -> c <= 0;
+                    break;
+                case ">":
+                    test = c -> c > 0;
+                    break;
+                default:
+                    test = c -> c >= 0;
+            }
+            return (tuples, parametres) -> {
+                Integer resultat = comparer(gauche.valeur(tuples, parametres), droite.valeur(tuples, parametres));
+                return resultat == null ? null : test.test(resultat);
+            };
+        }
+
+        private Operande operande(Lexeur lexeur) throws SQLException {
+            if (lexeur.symbole("?")) {
+                int parametre = parametres++;
+                return (tuples, valeurs) -> valeurs[parametre];
+            }
+            if (lexeur.estLitteral()) {
+                Object valeur = lexeur.litteral();
+                return (tuples, valeurs) -> valeur;
+            }
+            String nom = lexeur.identifiant();
+            int[] colonne = lexeur.symbole(".") ? colonne(nom, lexeur.identifiant()) : colonne(null, nom);
+            int table = colonne[0];
+            int position = colonne[1];
+            return (tuples, valeurs) -> tuples[table][position];
+        }
+
+        /**
+         * Lit un nombre de la clause LIMIT, écrit dans la requête ou passé en paramètre.
+         */
+        private Operande entier(Lexeur lexeur) throws SQLException {
+            if (lexeur.symbole("?")) {
+                int parametre = parametres++;
+                return (tuples, valeurs) -> valeurs[parametre];
+            }
+            long valeur = lexeur.entier();
+            return (tuples, valeurs) -> valeur;
+        }
+    }
+
+    /**
+     * Traite les appels reçus par un objet JDBC ; les méthodes d'Object sont traitées ici pour toutes les classes.
+     */
+    private abstract static class Objet implements InvocationHandler {
+        private final Class<?> type;
+        private boolean ferme;
+
+        Objet(Class<?> type) {
+            this.type = type;
+        }
+
+        <T> T proxy() {
+            @SuppressWarnings("unchecked")
+            T proxy = (T) Proxy.newProxyInstance(BaseEmbarquee.class.getClassLoader(), new Class<?>[]{type}, this);
+            return proxy;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+                case "close":
+                    ferme = true;
+                    return null;
+                case "isClosed":
+                    return ferme;
+                case "isWrapperFor":
+                    return ((Class<?>) args[0]).isInstance(proxy);
+                case "unwrap":
+                    return ((Class<?>) args[0]).cast(proxy);
+                default:
+                    return traiter(proxy, method, args);
+            }
+        }
+
+        abstract Object traiter(Object proxy, Method method, Object[] args) throws Exception;
+
+        static Object nonPrisEnCharge(Method method) throws SQLFeatureNotSupportedException {
+            if (method.getReturnType() == void.class) {
+                return null;
+            }
+            throw new SQLFeatureNotSupportedException(method.getName()
+                    + " n'est pas pris en charge par la base embarquée");
+        }
+    }
+
+    private static final class Connexion extends Objet {
+        private final Donnees donnees;
+        private Connection jdbc;
+        private String catalogue;
+        private boolean autoCommit = true;
+
+        Connexion(Donnees donnees) {
+            super(Connection.class);
+            this.donnees = donnees;
+        }
+
+        @Override
+        Object traiter(Object proxy, Method method, Object[] args) throws Exception {
+            switch (method.getName()) {
+                case "isValid":
+                    return true;
+                case "getCatalog":
+                    return catalogue;
+                case "setCatalog":
+                    donnees.base((String) args[0]);
+                    catalogue = (String) args[0];
+                    return null;
+                case "getAutoCommit":
+                    return autoCommit;
+                case "setAutoCommit":
+                    autoCommit = (Boolean) args[0];
+                    return null;
+                case "isReadOnly":
+                    return true;
+                case "createStatement":
+                    return new Instruction(Statement.class, this, null).proxy();
+                case "prepareStatement":
+                    return new Instruction(PreparedStatement.class, this,
+                            new Selection((String) args[0], donnees, catalogue)).proxy();
+                case "getWarnings":
+                    return null;
+                default:
+                    return nonPrisEnCharge(method);
+            }
+        }
+    }
+
+    private static final class Instruction extends Objet {
+        private final Connexion connexion;
+        private final Selection selection;
+        private final Map<Integer, Object> parametres = new HashMap<>();
+        private int maxLignes;
+        private int timeoutSecondes;
+
+        Instruction(Class<? extends Statement> type, Connexion connexion, Selection selection) {
+            super(type);
+            this.connexion = connexion;
+            this.selection = selection;
+        }
+
+        @Override
+        Object traiter(Object proxy, Method method, Object[] args) throws Exception {
+            String nom = method.getName();
+            if (nom.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                // setObject, setLong, setString, setNull... : le premier argument est la position du paramètre.
+                parametres.put((Integer) args[0], nom.equals("setNull") ? null : args[1]);
+                return null;
+            }
+            switch (nom) {
+                case "executeQuery":
+                    return executer(args == null ? selection
+                            : new Selection((String) args[0], connexion.donnees, connexion.catalogue));
+                case "execute":
+                case "executeUpdate":
+                case "executeLargeUpdate":
+                case "addBatch":
+                case "executeBatch":
+                    throw new SQLFeatureNotSupportedException("La base embarquée est en lecture seule");
+                case "clearParameters":
+                    parametres.clear();
+                    return null;
+                case "setQueryTimeout":
+                    timeoutSecondes = (Integer) args[0];
+                    return null;
+                case "getQueryTimeout":
+                    return timeoutSecondes;
+                case "setMaxRows":
+                    maxLignes = (Integer) args[0];
+                    return null;
+                case "getMaxRows":
+                    return maxLignes;
+                case "getFetchSize":
+                    return 0;
+                case "getConnection":
+                    return connexion.jdbc;
+                case "getUpdateCount":
+                    return -1;
+                case "getWarnings":
+                    return null;
+                default:
+                    return nonPrisEnCharge(method);
+            }
+        }
+
+        private ResultSet executer(Selection requete) throws SQLException {
+            Object[] valeurs = new Object[requete.parametres];
+            for (int i = 0; i < valeurs.length; i++) {
+                if (!parametres.containsKey(i + 1)) {
+                    throw new SQLException("Le paramètre " + (i + 1) + " n'est pas lié", "07001");
+                }
+                valeurs[i] = parametres.get(i + 1);
+            }
+            long limite = requete.limite == null ? Long.MAX_VALUE : entier(requete.limite, valeurs);
+            long decalage = requete.decalage == null ? 0 : entier(requete.decalage, valeurs);
+            if (maxLignes > 0) {
+                limite = Math.min(limite, maxLignes);
+            }
+            long echeance = timeoutSecondes > 0 ? System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSecondes) : 0;
+            return new Resultat(requete, valeurs, limite, decalage, echeance, timeoutSecondes).proxy();
+        }
+
+        private static long entier(Operande operande, Object[] valeurs) throws SQLException {
+            Object valeur = operande.valeur(null, valeurs);
+            if (!(valeur instanceof Number) || ((Number) valeur).longValue() < 0) {
+                throw new SQLException("LIMIT et OFFSET attendent un entier positif : " + valeur, "HY000");
+            }
+            return ((Number) valeur).longValue();
+        }
+    }
+
+    /**
+     * Le résultat d'une requête, calculé au fil de sa lecture : chaque appel à next parcourt les combinaisons de tuples
+     * des tables jusqu'à la prochaine qui vérifie la condition.
+     */
+    private static final class Resultat extends Objet {
+        private final Selection selection;
+        private final Object[] parametres;
+        private final long limite;
+        private final long echeance;
+        private final int timeoutSecondes;
+        private final int[] positions;
+        private final Object[][] tuples;
+        private long aSauter;
+        private long rendus;
+        private long examines;
+        private boolean commence;
+        private boolean surTuple;
+        private boolean termine;
+        private boolean nul;
+
+        Resultat(Selection selection, Object[] parametres, long limite, long decalage, long echeance,
+                 int timeoutSecondes) {
+            super(ResultSet.class);
+            this.selection = selection;
+            this.parametres = parametres;
+            this.limite = limite;
+            this.aSauter = decalage;
+            this.echeance = echeance;
+            this.timeoutSecondes = timeoutSecondes;
+            this.positions = new int[selection.tables.size()];
+            this.tuples = new Object[positions.length][];
+        }
+
+        @Override
+        Object traiter(Object proxy, Method method, Object[] args) throws Exception {
+            String nom = method.getName();
+            switch (nom) {
+                case "next":
+                    return suivant();
+                case "wasNull":
+                    return nul;
+                case "getMetaData":
+                    return new MetaDonnees(selection).proxy();
+                case "findColumn":
+                    return position((String) args[0]);
+                case "getRow":
+                    return surTuple ? (int) rendus : 0;
+                case "getFetchSize":
+                    return 0;
+                case "getType":
+                    return ResultSet.TYPE_FORWARD_ONLY;
+                case "getConcurrency":
+                    return ResultSet.CONCUR_READ_ONLY;
+                case "getWarnings":
+                    return null;
+                default:
+                    if (nom.startsWith("get") && args != null && args.length >= 1) {
+                        int position = args[0] instanceof Integer ? (Integer) args[0] : position((String) args[0]);
+                        return lire(method, args, position);
+                    }
+                    return nonPrisEnCharge(method);
+            }
+        }
+
+        private boolean suivant() throws SQLException {
+            surTuple = false;
+            if (termine || rendus >= limite) {
+                termine = true;
+                return false;
+            }
+            while (avancer()) {
+                if (echeance != 0 && ++examines % VERIFICATION_DELAI == 0 && System.nanoTime() - echeance > 0) {
+                    termine = true;
+                    throw new SQLTimeoutException("L'exécution a dépassé le délai de " + timeoutSecondes + " s");
+                }
+                Condition condition = selection.condition;
+                if (condition != null && !Boolean.TRUE.equals(condition.evaluer(tuples, parametres))) {
+                    continue;
+                }
+                if (aSauter > 0) {
+                    aSauter--;
+                    continue;
+                }
+                rendus++;
+                surTuple = true;
+                return true;
+            }
+            termine = true;
+            return false;
+        }
+
+        /**
+         * Passe à la combinaison de tuples suivante, la dernière table variant le plus vite.
+         *
+         * @return false s'il n'y en a plus
+         */
+        private boolean avancer() {
+            List<Table> tables = selection.tables;
+            if (!commence) {
+                commence = true;
+                for (int t = 0; t < tables.size(); t++) {
+                    if (tables.get(t).tuples.isEmpty()) {
+                        return false;
+                    }
+                    tuples[t] = tables.get(t).tuples.get(0);
+                }
+                return true;
+            }
+            for (int t = tables.size() - 1; t >= 0; t--) {
+                List<Object[]> lignes = tables.get(t).tuples;
+                if (++positions[t] < lignes.size()) {
+                    tuples[t] = lignes.get(positions[t]);
+                    return true;
+                }
+                positions[t] = 0;
+                tuples[t] = lignes.get(0);
+            }
+            return false;
+        }
+
+        private int position(String label) throws SQLException {
+            for (int i = 0; i < selection.sorties.size(); i++) {
+                if (colonne(i + 1).nom.equalsIgnoreCase(label)) {
+                    return i + 1;
+                }
+            }
+            throw new SQLException("Colonne inconnue : " + label, "S0022");
+        }
+
+        private Colonne colonne(int position) {
+            int[] sortie = selection.sorties.get(position - 1);
+            return selection.tables.get(sortie[0]).colonnes.get(sortie[1]);
+        }
+
+        private Object lire(Method method, Object[] args, int position) throws SQLException {
+            if (!surTuple) {
+                throw new SQLException("Aucun tuple courant", "S1000");
+            }
+            if (position < 1 || position > selection.sorties.size()) {
+                throw new SQLException("Colonne invalide : " + position, "S1009");
+            }
+            int[] sortie = selection.sorties.get(position - 1);
+            Object valeur = tuples[sortie[0]][sortie[1]];
+            nul = valeur == null;
+            Class<?> type = method.getReturnType();
+            if (method.getName().equals("getObject") && args.length == 2 && args[1] instanceof Class) {
+                type = (Class<?>) args[1];
+                if (valeur == null || type.isInstance(valeur)) {
+                    return valeur;
+                }
+            }
+            if (type == Object.class) {
+                return colonne(position).objet(valeur);
+            }
+            if (type == String.class) {
+                return valeur == null ? null : texte(valeur);
+            }
+            if (type == BigDecimal.class) {
+                return valeur == null ? null : nombre(valeur);
+            }
+            if (valeur == null) {
+                return type == boolean.class ? false : type.isPrimitive() ? (Object) 0 : null;
+            }
+            Number nombre = valeur instanceof Number ? (Number) valeur : nombre(valeur);
+            if (type == int.class || type == Integer.class) {
+                return nombre.intValue();
+            } else if (type == long.class || type == Long.class) {
+                return nombre.longValue();
+            } else if (type == double.class || type == Double.class) {
+                return nombre.doubleValue();
+            } else if (type == float.class || type == Float.class) {
+                return nombre.floatValue();
+            } else if (type == short.class || type == Short.class) {
+                return nombre.shortValue();
+            } else if (type == byte.class || type == Byte.class) {
+                return nombre.byteValue();
+            } else if (type == boolean.class || type == Boolean.class) {
+                return nombre.intValue() != 0;
+            }
+            throw new SQLFeatureNotSupportedException(method.getName()
+                    + " n'est pas pris en charge par la base embarquée");
+        }
+    }
+
+    private static final class MetaDonnees extends Objet {
+        private final Selection selection;
+
+        MetaDonnees(Selection selection) {
+            super(ResultSetMetaData.class);
+            this.selection = selection;
+        }
+
+        @Override
+        Object traiter(Object proxy, Method method, Object[] args) throws Exception {
+            if (method.getName().equals("getColumnCount")) {
+                return selection.sorties.size();
+            }
+            int[] sortie = selection.sorties.get((Integer) args[0] - 1);
+            Table table = selection.tables.get(sortie[0]);
+            Colonne colonne = table.colonnes.get(sortie[1]);
+            switch (method.getName()) {
+                case "getColumnLabel":
+                case "getColumnName":
+                    return colonne.nom;
+                case "getColumnType":
+                    return colonne.type;
+                case "getColumnTypeName":
+                    return colonne.nomType;
+                case "getTableName":
+                    return table.nom;
+                case "getCatalogName":
+                    return table.base;
+                case "getSchemaName":
+                    return "";
+                case "getPrecision":
+                case "getColumnDisplaySize":
+                    return colonne.precision;
+                case "getScale":
+                    return colonne.echelle;
+                case "isSigned":
+                    return colonne.type != Types.VARCHAR;
+                case "isNullable":
+                    return colonne.nullable ? ResultSetMetaData.columnNullable : ResultSetMetaData.columnNoNulls;
+                case "isAutoIncrement":
+                    return colonne.autoIncrement;
+                case "isCaseSensitive":
+                case "isCurrency":
+                case "isWritable":
+                case "isDefinitelyWritable":
+                    return false;
+                case "isSearchable":
+                case "isReadOnly":
+                    return true;
+                case "getColumnClassName":
+                    return colonne.classe();
+                default:
+                    return nonPrisEnCharge(method);
+            }
+        }
+    }
+}
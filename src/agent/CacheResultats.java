@@ -0,0 +1,266 @@
+package agent;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Cette classe représente un cache des résultats déjà signés par un agent destinataire. Une entrée est identifiée par
+ * la base de données et la requête SQL normalisée, et contient les octets du document de résultat signé : une requête
+ * trouvée dans le cache ne coûte donc ni accès à la base de données ni signature.
+ * <p>
+ * Le cache est borné en nombre d'entrées et en taille totale, les entrées les moins récemment utilisées étant évincées
+ * en premier, et chaque entrée expire après une durée de vie donnée. Les entrées qui dépendent d'une table peuvent être
+ * invalidées explicitement.
+ * <p>
+ * Paramètres lus dans config.ini : cacheActif (true par défaut), cacheEntrees (1000 par défaut), cacheOctets
+ * (67108864 par défaut) et cacheTtlSecondes (60 par défaut).
+ */
+public final class CacheResultats {
+    private final int entreesMax;
+    private final long octetsMax;
+    private final long ttlNanos;
+
+    /**
+     * Les entrées du cache, dans l'ordre de leur dernier accès (la plus ancienne en premier).
+     */
+    private final LinkedHashMap<String, Entree> entrees = new LinkedHashMap<>(16, 0.75f, true);
+    private long octets = 0;
+
+    private final LongAdder succes = new LongAdder();
+    private final LongAdder echecs = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    /**
+     * Constructeur de la classe CacheResultats.
+     *
+     * @param entreesMax    le nombre maximal d'entrées
+     * @param octetsMax     la taille totale maximale des résultats conservés, en octets
+     * @param ttlSecondes   la durée de vie d'une entrée, en secondes
+     */
+    public CacheResultats(int entreesMax, long octetsMax, long ttlSecondes) {
+        this.entreesMax = entreesMax;
+        this.octetsMax = octetsMax;
+        this.ttlNanos = ttlSecondes * 1_000_000_000L;
+    }
+
+    /**
+     * Retourne le cache décrit dans config.ini, ou null si le cache est désactivé.
+     *
+     * @return le cache configuré, ou null
+     */
+    public static CacheResultats depuisConfiguration() {
+        Configuration config = Configuration.get();
+        if (!config.getBooleen("cacheActif", true)) {
+            return null;
+        }
+        return new CacheResultats(config.getEntier("cacheEntrees", 1000),
+                Long.parseLong(config.getPropriete("cacheOctets", "67108864").trim()),
+                config.getEntier("cacheTtlSecondes", 60));
+    }
+
+    /**
+     * Construit la clé d'une requête : la base de données suivie de la requête SQL dont les blancs successifs hors des
+     * chaînes littérales sont réduits à une seule espace.
+     *
+     * @param database la base de données interrogée
+     * @param sql      la requête SQL
+     * @return la clé de cache de la requête
+     */
+    public static String cle(String database, String sql) {
+        StringBuilder cle = new StringBuilder(database.length() + sql.length() + 1).append(database).append('\n');
+        char quote = 0;
+        boolean blanc = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote == 0 && Character.isWhitespace(c)) {
+                blanc = true;
+                continue;
+            }
+            if (blanc && cle.charAt(cle.length() - 1) != '\n') {
+                cle.append(' ');
+            }
+            blanc = false;
+            if (quote == 0 && (c == '\'' || c == '"' || c == '`')) {
+                quote = c;
+            } else if (c == quote) {
+                quote = 0;
+            }
+            cle.append(c);
+        }
+        return cle.toString();
+    }
+
+    /**
+     * Retourne le résultat signé associé à une clé, s'il est présent et n'a pas expiré.
+     *
+     * @param cle la clé de la requête
+     * @return les octets du résultat signé, ou null
+     */
+    public byte[] lire(String cle) {
+        synchronized (this) {
+            Entree entree = entrees.get(cle);
+            if (entree != null) {
+                if (System.nanoTime() - entree.creation < ttlNanos) {
+                    succes.increment();
+                    return entree.resultatSigne;
+                }
+                retirer(cle, entree);
+                expirations.increment();
+            }
+        }
+        echecs.increment();
+        return null;
+    }
+
+    /**
+     * Ajoute ou remplace le résultat signé associé à une clé, en évinçant au besoin les entrées les moins récemment
+     * utilisées. Un résultat plus grand que la taille totale du cache n'est pas conservé.
+     *
+     * @param cle           la clé de la requête
+     * @param tables        les tables lues par la requête
+     * @param resultatSigne les octets du résultat signé
+     */
+    public void ecrire(String cle, Collection<String> tables, byte[] resultatSigne) {
+        if (resultatSigne.length > octetsMax) {
+            return;
+        }
+        Set<String> nomsTables = tables.stream().map(t -> t.trim().toLowerCase(Locale.ROOT)).collect(Collectors.toSet());
+        synchronized (this) {
+            Entree ancienne = entrees.remove(cle);
+            if (ancienne != null) {
+                octets -= ancienne.resultatSigne.length;
+            }
+            entrees.put(cle, new Entree(resultatSigne, nomsTables, System.nanoTime()));
+            octets += resultatSigne.length;
+            Iterator<Map.Entry<String, Entree>> it = entrees.entrySet().iterator();
+            while ((entrees.size() > entreesMax || octets > octetsMax) && it.hasNext()) {
+                Map.Entry<String, Entree> plusAncienne = it.next();
+                it.remove();
+                octets -= plusAncienne.getValue().resultatSigne.length;
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Supprime du cache toutes les entrées dont la requête lit la table donnée, par exemple après une modification de
+     * cette table.
+     *
+     * @param table le nom de la table
+     * @return le nombre d'entrées supprimées
+     */
+    public synchronized int invaliderTable(String table) {
+        String nom = table.trim().toLowerCase(Locale.ROOT);
+        int supprimees = 0;
+        Iterator<Entree> it = entrees.values().iterator();
+        while (it.hasNext()) {
+            Entree entree = it.next();
+            if (entree.tables.contains(nom)) {
+                it.remove();
+                octets -= entree.resultatSigne.length;
+                supprimees++;
+            }
+        }
+        invalidations.add(supprimees);
+        return supprimees;
+    }
+
+    /**
+     * Supprime toutes les entrées du cache.
+     */
+    public synchronized void vider() {
+        invalidations.add(entrees.size());
+        entrees.clear();
+        octets = 0;
+    }
+
+    private void retirer(String cle, Entree entree) {
+        entrees.remove(cle);
+        octets -= entree.resultatSigne.length;
+    }
+
+    /**
+     * @return le nombre de requêtes trouvées dans le cache
+     */
+    public long getSucces() {
+        return succes.sum();
+    }
+
+    /**
+     * @return le nombre de requêtes absentes du cache ou expirées
+     */
+    public long getEchecs() {
+        return echecs.sum();
+    }
+
+    /**
+     * @return le nombre d'entrées évincées pour respecter les bornes du cache
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return le nombre d'entrées supprimées à l'expiration de leur durée de vie
+     */
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    /**
+     * @return le nombre d'entrées supprimées par invalidation explicite
+     */
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    /**
+     * @return le nombre d'entrées actuellement dans le cache
+     */
+    public synchronized int getTaille() {
+        return entrees.size();
+    }
+
+    /**
+     * @return la taille totale des résultats actuellement dans le cache, en octets
+     */
+    public synchronized long getOctets() {
+        return octets;
+    }
+
+    /**
+     * Retourne une description lisible de l'utilisation du cache.
+     *
+     * @return les statistiques du cache
+     */
+    public String getStatistiques() {
+        return "Cache : " + getTaille() + "/" + entreesMax + " entrées, " + getOctets() + "/" + octetsMax + " octets, "
+                + getSucces() + " succès, " + getEchecs() + " échecs, " + getEvictions() + " évictions, "
+                + getExpirations() + " expirations, " + getInvalidations() + " invalidations";
+    }
+
+    @Override
+    public String toString() {
+        return getStatistiques();
+    }
+
+    private static final class Entree {
+        private final byte[] resultatSigne;
+        private final Set<String> tables;
+        private final long creation;
+
+        private Entree(byte[] resultatSigne, Set<String> tables, long creation) {
+            this.resultatSigne = resultatSigne;
+            this.tables = tables;
+            this.creation = creation;
+        }
+    }
+}
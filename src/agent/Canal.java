@@ -0,0 +1,35 @@
+package agent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Cette interface représente le moyen par lequel un agent émetteur transmet un document de requête signé à un agent
+ * destinataire et reçoit le document de résultat signé correspondant : directement au {@link MoteurRecepteur} du même
+ * processus, ou à travers le réseau avec un {@link ClientNIO}.
+ */
+public interface Canal {
+    /**
+     * Envoie un document de requête signé au destinataire.
+     *
+     * @param documentSigne les octets du document XML signé
+     * @param nom           le nom du document, utilisé pour les messages et l'archivage
+     * @return un futur complété avec les octets du document de résultat signé, ou en erreur si la requête a échoué
+     */
+    CompletableFuture<byte[]> envoyer(byte[] documentSigne, String nom);
+
+    /**
+     * Envoie un document de requête signé au destinataire, en acceptant un résultat en tranches : si la requête en
+     * demande un, chaque tranche puis le document final signé sont transmis dans l'ordre à tranches, au fil de leur
+     * arrivée ; sinon, seul le document de résultat signé lui est transmis. Par défaut, le résultat n'est jamais
+     * découpé.
+     *
+     * @param documentSigne les octets du document XML signé
+     * @param nom           le nom du document, utilisé pour les messages et l'archivage
+     * @param tranches      le destinataire des documents reçus, appelé depuis un seul thread à la fois
+     * @return un futur complété une fois le dernier document transmis, ou en erreur si la requête a échoué
+     */
+    default CompletableFuture<Void> envoyerEnTranches(byte[] documentSigne, String nom, Consumer<byte[]> tranches) {
+        return envoyer(documentSigne, nom).thenAccept(tranches);
+    }
+}
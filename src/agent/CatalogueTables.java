@@ -0,0 +1,53 @@
+package agent;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Cette classe représente le catalogue qui indique dans quelle base de données se trouve chaque table.
+ * Par défaut, la table personnes est dans db_relationnelle_1 et la table produits dans db_relationnelle_2 ; d'autres
+ * tables peuvent être déclarées dans config.ini par des propriétés catalogue.&lt;table&gt;=&lt;base&gt;.
+ */
+public final class CatalogueTables {
+    private static final String PREFIXE = "catalogue.";
+
+    private final Map<String, String> bases = new HashMap<>();
+
+    /**
+     * Constructeur de la classe CatalogueTables.
+     *
+     * @param bases la base de données de chaque table
+     */
+    public CatalogueTables(Map<String, String> bases) {
+        bases.forEach((table, base) -> this.bases.put(table.toLowerCase(Locale.ROOT), base));
+    }
+
+    /**
+     * Retourne le catalogue décrit dans config.ini.
+     *
+     * @return le catalogue configuré
+     */
+    public static CatalogueTables depuisConfiguration() {
+        Configuration config = Configuration.get();
+        Map<String, String> bases = new HashMap<>();
+        bases.put("personnes", "db_relationnelle_1");
+        bases.put("produits", "db_relationnelle_2");
+        for (String cle : config.getNoms()) {
+            if (cle.startsWith(PREFIXE)) {
+                bases.put(cle.substring(PREFIXE.length()), config.getPropriete(cle).trim());
+            }
+        }
+        return new CatalogueTables(bases);
+    }
+
+    /**
+     * Retourne la base de données qui contient une table.
+     *
+     * @param table le nom de la table
+     * @return la base de données de la table, ou null si elle n'est pas dans le catalogue
+     */
+    public String base(String table) {
+        return bases.get(table.toLowerCase(Locale.ROOT));
+    }
+}
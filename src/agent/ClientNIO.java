@@ -0,0 +1,216 @@
+package agent;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Cette classe représente le côté client du transport TCP entre agents : un {@link Canal} qui envoie les documents
+ * signés à un {@link ServeurNIO} sur une seule connexion. Chaque requête reçoit un identifiant, ce qui permet d'en
+ * avoir plusieurs en cours à la fois et d'associer chaque réponse à sa requête quel que soit l'ordre d'arrivée.
+ * <p>
+ * Le nombre de requêtes en cours est borné (transportEnVolMax dans config.ini, 256 par défaut) : au-delà,
+ * {@link #envoyer(byte[], String)} attend qu'une réponse arrive.
+ * <p>
+ * Le thread du client ne fait que lire et écrire les trames : les futurs des réponses sont complétés, et les tranches
+ * transmises, sur un exécuteur de réception (transportThreads dans config.ini, le nombre de processeurs par défaut).
+ * L'analyse, la vérification et la mise en forme d'un résultat n'empêchent donc pas la lecture des autres réponses.
+ */
+public class ClientNIO implements Canal, AutoCloseable {
+    private final Selector selecteur;
+    private final ConnexionTrames connexion;
+    private final int trameMax;
+    private final Semaphore permis;
+    private final AtomicLong prochainId = new AtomicLong();
+    private final Map<Long, CompletableFuture<byte[]>> enAttente = new ConcurrentHashMap<>();
+    private final Map<Long, Livraison> tranches = new ConcurrentHashMap<>();
+    private final ExecutorService reception;
+    private final Thread thread;
+    private volatile boolean actif = true;
+
+    /**
+     * Constructeur de la classe ClientNIO. La connexion est établie dès la construction.
+     *
+     * @param adresse l'adresse du serveur
+     * @throws IOException si la connexion échoue
+     */
+    public ClientNIO(InetSocketAddress adresse) throws IOException {
+        Configuration config = Configuration.get();
+        this.trameMax = config.getEntier("transportTrameMax", 64 * 1024 * 1024);
+        this.permis = new Semaphore(config.getEntier("transportEnVolMax", 256));
+        SocketChannel canal = SocketChannel.open(adresse);
+        canal.configureBlocking(false);
+        canal.socket().setTcpNoDelay(true);
+        this.selecteur = Selector.open();
+        this.connexion = new ConnexionTrames(canal, canal.register(selecteur, SelectionKey.OP_READ));
+        AtomicInteger numero = new AtomicInteger();
+        this.reception = Executors.newFixedThreadPool(
+                config.getEntier("transportThreads", Runtime.getRuntime().availableProcessors()), r -> {
+                    Thread recepteur = new Thread(r, "client-nio-reception-" + numero.incrementAndGet());
+                    recepteur.setDaemon(true);
+                    return recepteur;
+                });
+        this.thread = new Thread(this::boucler, "client-nio");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public CompletableFuture<byte[]> envoyer(byte[] documentSigne, String nom) {
+        return envoyer(documentSigne, nom, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * Les tranches puis le document final sont transmis sur l'exécuteur de réception, dans l'ordre de leur arrivée, et
+     * jamais deux à la fois pour une même requête.
+     */
+    @Override
+    public CompletableFuture<Void> envoyerEnTranches(byte[] documentSigne, String nom, Consumer<byte[]> tranches) {
+        Livraison livraison = new Livraison(tranches);
+        return envoyer(documentSigne, nom, livraison).thenCompose(livraison::transmettre);
+    }
+
+    private CompletableFuture<byte[]> envoyer(byte[] documentSigne, String nom, Livraison destinataire) {
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        long id = prochainId.incrementAndGet();
+        Trame trame;
+        try {
+            trame = new Trame(destinataire != null ? Trame.REQUETE_EN_TRANCHES : Trame.REQUETE, id, nom, documentSigne);
+        } catch (IllegalArgumentException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        try {
+            permis.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return future;
+        }
+        enAttente.put(id, future);
+        if (destinataire != null) {
+            tranches.put(id, destinataire);
+        }
+        if (!actif) {
+            terminer(id).completeExceptionally(new ClosedChannelException());
+            return future;
+        }
+        connexion.envoyer(trame);
+        selecteur.wakeup();
+        return future;
+    }
+
+    /**
+     * @return le nombre de requêtes envoyées dont la réponse n'est pas encore arrivée
+     */
+    public int getEnAttente() {
+        return enAttente.size();
+    }
+
+    private void boucler() {
+        try {
+            while (actif) {
+                connexion.cle.interestOps(SelectionKey.OP_READ | (connexion.aEcrire() ? SelectionKey.OP_WRITE : 0));
+                selecteur.select();
+                selecteur.selectedKeys().clear();
+                if (connexion.cle.isReadable() && !connexion.lire(trameMax, this::recevoir)) {
+                    throw new ClosedChannelException();
+                }
+                connexion.ecrire();
+            }
+        } catch (IOException e) {
+            if (actif) {
+                System.err.println("Connexion au serveur perdue : " + e);
+            }
+        } finally {
+            actif = false;
+            connexion.fermer();
+            for (Long id : enAttente.keySet()) {
+                terminer(id).completeExceptionally(new ClosedChannelException());
+            }
+        }
+    }
+
+    private void recevoir(Trame trame) {
+        if (trame.type == Trame.TRANCHE) {
+            Livraison destinataire = tranches.get(trame.id);
+            if (destinataire != null) {
+                destinataire.transmettre(trame.contenu);
+            }
+            return;
+        }
+        CompletableFuture<byte[]> future = terminer(trame.id);
+        if (future == null) {
+            return;
+        }
+        if (trame.type == Trame.REPONSE) {
+            reception.execute(() -> future.complete(trame.contenu));
+        } else {
+            IOException erreur = new IOException(new String(trame.contenu, StandardCharsets.UTF_8));
+            reception.execute(() -> future.completeExceptionally(erreur));
+        }
+    }
+
+    /**
+     * Retire une requête de celles en attente et libère sa place parmi les requêtes en cours.
+     */
+    private CompletableFuture<byte[]> terminer(long id) {
+        CompletableFuture<byte[]> future = enAttente.remove(id);
+        tranches.remove(id);
+        if (future != null) {
+            permis.release();
+        }
+        return future;
+    }
+
+    /**
+     * Ferme la connexion. Les requêtes encore en attente sont complétées en erreur.
+     */
+    @Override
+    public void close() {
+        actif = false;
+        selecteur.wakeup();
+        try {
+            thread.join();
+            selecteur.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // Le client est fermé de toute façon.
+        }
+        reception.shutdown();
+    }
+
+    /**
+     * Les documents reçus pour une requête en tranches, transmis à leur destinataire sur l'exécuteur de réception, un
+     * par un et dans l'ordre : chacun n'est transmis qu'une fois le précédent traité. Si le destinataire échoue, les
+     * documents suivants ne lui sont pas transmis et le futur de la requête est complété en erreur.
+     */
+    private final class Livraison {
+        private final Consumer<byte[]> destinataire;
+        private CompletableFuture<Void> suite = CompletableFuture.completedFuture(null);
+
+        Livraison(Consumer<byte[]> destinataire) {
+            this.destinataire = destinataire;
+        }
+
+        synchronized CompletableFuture<Void> transmettre(byte[] document) {
+            suite = suite.thenRunAsync(() -> destinataire.accept(document), reception);
+            return suite;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package agent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Cette énumération représente la compression appliquée aux données d'un résultat au codage compact.
+ */
+public enum Compression {
+    /**
+     * Les données ne sont pas compressées.
+     */
+    AUCUNE,
+    /**
+     * Les données sont compressées au format zlib (deflate).
+     */
+    DEFLATE,
+    /**
+     * Les données sont compressées au format gzip.
+     */
+    GZIP;
+
+    /**
+     * Retourne un flux qui compresse les octets écrits avant de les transmettre au flux donné.
+     *
+     * @param out le flux de destination
+     * @return le flux compressant
+     * @throws IOException si l'en-tête de compression ne peut pas être écrit
+     */
+    public OutputStream compresser(OutputStream out) throws IOException {
+        switch (this) {
+            case DEFLATE:
+                return new DeflaterOutputStream(out, true);
+            case GZIP:
+                return new GZIPOutputStream(out, true);
+            default:
+                return out;
+        }
+    }
+
+    /**
+     * Retourne un flux qui décompresse les octets lus depuis le flux donné.
+     *
+     * @param in le flux compressé
+     * @return le flux décompressant
+     * @throws IOException si l'en-tête de compression ne peut pas être lu
+     */
+    public InputStream decompresser(InputStream in) throws IOException {
+        switch (this) {
+            case DEFLATE:
+                return new InflaterInputStream(in);
+            case GZIP:
+                return new GZIPInputStream(in);
+            default:
+                return in;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package agent;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Cette classe donne accès à la configuration de l'application, lue une seule fois depuis le fichier src/config.ini
+ * (ou le fichier donné par la propriété système agent.configuration) puis conservée en mémoire pour toute la durée de
+ * vie du processus.
+ */
+public final class Configuration {
+    /**
+     * Le chemin d'accès au fichier de configuration.
+     */
+    public static final String FICHIER = "src/config.ini";
+    /**
+     * La propriété système qui permet de lire la configuration depuis un autre fichier.
+     */
+    public static final String PROPRIETE_FICHIER = "agent.configuration";
+
+    private static volatile Configuration instance;
+
+    private final Properties props;
+
+    private Configuration(Properties props) {
+        this.props = props;
+    }
+
+    /**
+     * Retourne la configuration de l'application, en la chargeant depuis le fichier lors du premier appel.
+     *
+     * @return la configuration partagée
+     * @throws UncheckedIOException si le fichier de configuration ne peut pas être lu
+     */
+    public static Configuration get() {
+        Configuration config = instance;
+        if (config == null) {
+            synchronized (Configuration.class) {
+                config = instance;
+                if (config == null) {
+                    try (FileReader reader = new FileReader(System.getProperty(PROPRIETE_FICHIER, FICHIER))) {
+                        Properties props = new Properties();
+                        props.load(reader);
+                        config = new Configuration(props);
+                        instance = config;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }
+        }
+        return config;
+    }
+
+    /**
+     * Retourne la valeur d'une propriété.
+     *
+     * @param cle le nom de la propriété
+     * @return la valeur de la propriété, ou null si elle n'est pas définie
+     */
+    public String getPropriete(String cle) {
+        return props.getProperty(cle);
+    }
+
+    /**
+     * Retourne la valeur d'une propriété, ou une valeur par défaut si elle n'est pas définie.
+     *
+     * @param cle    le nom de la propriété
+     * @param defaut la valeur par défaut
+     * @return la valeur de la propriété
+     */
+    public String getPropriete(String cle, String defaut) {
+        return props.getProperty(cle, defaut);
+    }
+
+    /**
+     * Retourne les noms de toutes les propriétés définies.
+     *
+     * @return les noms des propriétés
+     */
+    public Set<String> getNoms() {
+        return props.stringPropertyNames();
+    }
+
+    /**
+     * Retourne la valeur entière d'une propriété, ou une valeur par défaut si elle n'est pas définie.
+     *
+     * @param cle    le nom de la propriété
+     * @param defaut la valeur par défaut
+     * @return la valeur de la propriété
+     */
+    public int getEntier(String cle, int defaut) {
+        String valeur = props.getProperty(cle);
+        return valeur == null ? defaut : Integer.parseInt(valeur.trim());
+    }
+
+    /**
+     * Retourne la valeur booléenne d'une propriété, ou une valeur par défaut si elle n'est pas définie.
+     *
+     * @param cle    le nom de la propriété
+     * @param defaut la valeur par défaut
+     * @return la valeur de la propriété
+     */
+    public boolean getBooleen(String cle, boolean defaut) {
+        String valeur = props.getProperty(cle);
+        return valeur == null ? defaut : Boolean.parseBoolean(valeur.trim());
+    }
+}
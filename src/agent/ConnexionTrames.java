@@ -0,0 +1,153 @@
+package agent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Cette classe représente une connexion TCP non bloquante sur laquelle circulent des {@link Trame}s. Elle accumule
+ * les octets reçus jusqu'à obtenir des trames complètes, et conserve la file des trames à écrire, qui peuvent être
+ * ajoutées depuis n'importe quel thread. Les lectures et écritures sur le canal sont faites par le thread du
+ * sélecteur. Un thread qui produit beaucoup de trames peut attendre que la file se vide avec
+ * {@link #attendreEcriture(long)}.
+ */
+final class ConnexionTrames {
+    private static final int TAMPON_INITIAL = 64 * 1024;
+
+    final SocketChannel canal;
+    final SelectionKey cle;
+    /**
+     * Le nombre de requêtes reçues sur cette connexion et dont la réponse n'a pas encore été mise en file.
+     */
+    final AtomicInteger enVol = new AtomicInteger();
+
+    private ByteBuffer lecture = ByteBuffer.allocate(TAMPON_INITIAL);
+    private final Queue<ByteBuffer> aEcrire = new ConcurrentLinkedQueue<>();
+    private final AtomicLong octetsAEcrire = new AtomicLong();
+    /**
+     * Le moniteur sur lequel attendent les producteurs de trames, notifié après chaque écriture et à la fermeture.
+     */
+    private final Object ecriture = new Object();
+    private volatile boolean fermee = false;
+
+    ConnexionTrames(SocketChannel canal, SelectionKey cle) {
+        this.canal = canal;
+        this.cle = cle;
+    }
+
+    /**
+     * Met une trame dans la file d'écriture. Le sélecteur doit ensuite être réveillé pour qu'elle soit écrite.
+     *
+     * @param trame la trame à écrire
+     */
+    void envoyer(Trame trame) {
+        ByteBuffer tampon = trame.encoder();
+        octetsAEcrire.addAndGet(tampon.remaining());
+        aEcrire.add(tampon);
+    }
+
+    /**
+     * Attend que le nombre d'octets en attente d'écriture ne dépasse plus max, pour qu'un producteur plus rapide que
+     * la connexion n'accumule pas ses trames en mémoire.
+     *
+     * @param max le nombre d'octets en attente au-delà duquel attendre
+     * @return false si la connexion a été fermée entre-temps
+     * @throws InterruptedException si le thread est interrompu pendant l'attente
+     */
+    boolean attendreEcriture(long max) throws InterruptedException {
+        synchronized (ecriture) {
+            while (!fermee && octetsAEcrire.get() > max) {
+                ecriture.wait();
+            }
+        }
+        return !fermee;
+    }
+
+    /**
+     * Lit les octets disponibles sur le canal et transmet chaque trame complète reçue au traitement donné.
+     *
+     * @param tailleMax  la taille maximale acceptée pour une trame
+     * @param traitement le traitement appliqué à chaque trame reçue
+     * @return false si l'autre extrémité a fermé la connexion
+     * @throws IOException si la lecture échoue ou si une trame invalide est reçue
+     */
+    boolean lire(int tailleMax, Consumer<Trame> traitement) throws IOException {
+        int lus = canal.read(lecture);
+        if (lus < 0) {
+            return false;
+        }
+        lecture.flip();
+        Trame trame;
+        while ((trame = Trame.decoder(lecture, tailleMax)) != null) {
+            traitement.accept(trame);
+        }
+        int attendu = Trame.tailleAnnoncee(lecture);
+        lecture.compact();
+        if (attendu > 0) {
+            lecture = Trame.agrandir(lecture, attendu - lecture.position());
+        } else if (lecture.position() == 0 && lecture.capacity() > TAMPON_INITIAL) {
+            // Rendre la mémoire d'une grande trame une fois celle-ci traitée.
+            lecture = ByteBuffer.allocate(TAMPON_INITIAL);
+        }
+        return true;
+    }
+
+    /**
+     * Écrit autant de trames en attente que le canal en accepte sans bloquer.
+     *
+     * @throws IOException si l'écriture échoue
+     */
+    void ecrire() throws IOException {
+        try {
+            ByteBuffer tampon;
+            while ((tampon = aEcrire.peek()) != null) {
+                int ecrits = canal.write(tampon);
+                octetsAEcrire.addAndGet(-ecrits);
+                if (tampon.hasRemaining()) {
+                    return;
+                }
+                aEcrire.poll();
+            }
+        } finally {
+            synchronized (ecriture) {
+                ecriture.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return true si des trames attendent d'être écrites
+     */
+    boolean aEcrire() {
+        return !aEcrire.isEmpty();
+    }
+
+    /**
+     * @return le nombre d'octets en attente d'écriture
+     */
+    long getOctetsAEcrire() {
+        return octetsAEcrire.get();
+    }
+
+    /**
+     * Ferme la connexion.
+     */
+    void fermer() {
+        synchronized (ecriture) {
+            fermee = true;
+            ecriture.notifyAll();
+        }
+        cle.cancel();
+        try {
+            canal.close();
+        } catch (IOException e) {
+            // La connexion est abandonnée de toute façon.
+        }
+    }
+}
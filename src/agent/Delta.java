@@ -0,0 +1,341 @@
+package agent;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Cette classe regroupe les règles des requêtes incrémentales. Une requête SELECT qui porte l'attribut DELTA="colonne"
+ * ne demande que les tuples ajoutés ou modifiés depuis sa dernière exécution par le même émetteur : la colonne est une
+ * colonne entière qui croît à chaque insertion (un identifiant AUTO_INCREMENT) ou à chaque modification (un numéro de
+ * version), et l'attribut CLE="colonne" (la colonne DELTA par défaut) identifie un tuple modifié.
+ * <p>
+ * L'émetteur garde une copie locale du résultat et renvoie dans l'attribut ACQUITTE la valeur de la colonne jusqu'à
+ * laquelle sa copie est à jour. Le destinataire retient, par émetteur et par requête, la dernière valeur acquittée et
+ * la dernière envoyée, et répond par un document DELTA signé :
+ * <pre>
+ * &lt;DELTA COLONNE="id" CLE="id" DEPUIS="d" JUSQUA="j" COMPLET="false"&gt;
+ *     &lt;RESULTAT&gt;...&lt;/RESULTAT&gt;&lt;Signature .../&gt;
+ * &lt;/DELTA&gt;
+ * </pre>
+ * Le résultat contient les tuples dont la colonne dépasse DEPUIS, avec la colonne DELTA puis la colonne CLE (si elle
+ * est différente) ajoutées après les champs demandés. Un acquittement que le destinataire n'a pas envoyé (première
+ * exécution, copie perdue, destinataire redémarré) lui fait renvoyer le résultat entier, avec COMPLET="true" : la copie
+ * locale est alors remplacée plutôt que complétée. Les tuples supprimés ne sont pas signalés.
+ * <p>
+ * Paramètre lu dans config.ini : deltaSuivisMax (10000 par défaut), le nombre de couples émetteur et requête suivis par
+ * le destinataire, les moins récemment utilisés étant oubliés en premier.
+ */
+final class Delta {
+    /**
+     * L'attribut de l'élément SELECT qui demande un résultat incrémental, et l'élément racine de la réponse.
+     */
+    static final String DELTA = "DELTA";
+    /**
+     * L'attribut de l'élément SELECT qui porte la valeur acquittée par l'émetteur.
+     */
+    static final String ACQUITTE = "ACQUITTE";
+
+    private static final String CLE = "CLE";
+    private static final String COLONNE = "COLONNE";
+    private static final String DEPUIS = "DEPUIS";
+    private static final String JUSQUA = "JUSQUA";
+    private static final String COMPLET = "COMPLET";
+
+    private Delta() {
+    }
+
+    /**
+     * @param select un élément SELECT
+     * @return true si la requête demande un résultat incrémental
+     */
+    static boolean estDelta(Element select) {
+        return select.hasAttributeNS(null, DELTA);
+    }
+
+    /**
+     * Retourne le nombre de colonnes ajoutées à la fin des tuples d'un résultat incrémental : la colonne DELTA, puis
+     * la colonne CLE si elle est différente.
+     */
+    private static int ajoutees(String colonne, String cle) {
+        return colonne.equalsIgnoreCase(cle) ? 1 : 2;
+    }
+
+    private static String cle(Element select, String colonne) {
+        String cle = select.getAttributeNS(null, CLE);
+        return cle.isEmpty() ? colonne : Identifiants.valider(cle, true);
+    }
+
+    /**
+     * Côté destinataire : construit la requête qui lit les tuples postérieurs à une valeur de la colonne DELTA, avec
+     * les colonnes DELTA et CLE ajoutées après les champs demandés.
+     *
+     * @param select  l'élément SELECT reçu
+     * @param requete la requête analysée
+     * @param depuis  la valeur à partir de laquelle lire les tuples, exclue, ou null pour lire le résultat entier
+     * @return la requête à exécuter
+     * @throws IllegalArgumentException si la requête demande aussi un résultat en tranches ou paginé
+     */
+    static RequeteSelect requete(Element select, RequeteSelect requete, Long depuis) {
+        if (requete.getTranche() > 0 || requete.getLimite() > 0) {
+            throw new IllegalArgumentException("Une requête DELTA ne peut pas demander de tranches ni de LIMITE");
+        }
+        String colonne = Identifiants.valider(select.getAttributeNS(null, DELTA), true);
+        String cle = cle(select, colonne);
+        List<String> champs = new ArrayList<>(requete.getChamps());
+        champs.add(colonne);
+        if (ajoutees(colonne, cle) == 2) {
+            champs.add(cle);
+        }
+        Predicat condition = requete.getCondition();
+        if (depuis != null) {
+            Predicat apres = new Predicat.Comparaison(colonne, ">", depuis, null);
+            condition = condition == null ? apres : new Predicat.Combinaison(true, List.of(condition, apres));
+        }
+        return new RequeteSelect(champs, requete.getTables(), condition, requete.getJointures(),
+                requete.getCompression());
+    }
+
+    /**
+     * @param select l'élément SELECT reçu
+     * @return la valeur acquittée par l'émetteur, ou null s'il n'en a pas
+     * @throws IllegalArgumentException si la valeur n'est pas un entier
+     */
+    static Long acquitte(Element select) {
+        String acquitte = select.getAttributeNS(null, ACQUITTE);
+        if (acquitte.isEmpty()) {
+            return null;
+        }
+        try {
+            return Long.parseLong(acquitte);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Valeur ACQUITTE invalide : " + acquitte);
+        }
+    }
+
+    /**
+     * Côté destinataire : construit le document DELTA, à signer, autour du résultat d'une requête construite par
+     * {@link #requete(Element, RequeteSelect, Long)}.
+     *
+     * @param select   l'élément SELECT reçu
+     * @param document le document vide de la réponse, auquel appartient le résultat
+     * @param resultat l'élément RESULTAT
+     * @param depuis   la valeur à partir de laquelle les tuples ont été lus, ou null pour un résultat entier
+     * @return la valeur de la colonne DELTA jusqu'à laquelle le résultat est à jour, ou null s'il est vide et entier
+     * @throws IllegalArgumentException si la colonne DELTA d'un tuple est NULL ou n'est pas un entier ; le document
+     *                                  n'est alors pas modifié
+     */
+    static Long repondre(Element select, Document document, Element resultat, Long depuis) {
+        String colonne = Identifiants.valider(select.getAttributeNS(null, DELTA), true);
+        String cle = cle(select, colonne);
+        int ajoutees = ajoutees(colonne, cle);
+        Long[] jusqua = {depuis};
+        lignes(resultat, ligne -> {
+            String valeur = ligne[ligne.length - ajoutees];
+            if (valeur == null) {
+                throw new IllegalArgumentException("La colonne DELTA " + colonne + " ne doit pas être NULL");
+            }
+            long version;
+            try {
+                version = Long.parseLong(valeur);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("La colonne DELTA " + colonne + " doit être entière : " + valeur);
+            }
+            if (jusqua[0] == null || version > jusqua[0]) {
+                jusqua[0] = version;
+            }
+        });
+        Element delta = document.createElement(DELTA);
+        delta.setAttributeNS(null, COLONNE, colonne);
+        delta.setAttributeNS(null, CLE, cle);
+        if (depuis != null) {
+            delta.setAttributeNS(null, DEPUIS, Long.toString(depuis));
+        }
+        if (jusqua[0] != null) {
+            delta.setAttributeNS(null, JUSQUA, Long.toString(jusqua[0]));
+        }
+        delta.setAttributeNS(null, COMPLET, Boolean.toString(depuis == null));
+        delta.appendChild(resultat);
+        document.appendChild(delta);
+        return jusqua[0];
+    }
+
+    /**
+     * Transmet les tuples d'un élément RESULTAT, au codage XML habituel ou au codage compact, en texte (null pour une
+     * valeur NULL).
+     */
+    private static void lignes(Element resultat, Consumer<String[]> lecteur) {
+        if (EncodageCompact.estCompact(resultat)) {
+            EncodageCompact.decoder(resultat, valeurs -> {
+                String[] ligne = new String[valeurs.length];
+                for (int i = 0; i < valeurs.length; i++) {
+                    ligne[i] = valeurs[i] == null ? null : valeurs[i].toString();
+                }
+                lecteur.accept(ligne);
+            });
+            return;
+        }
+        for (Element tuple : RequeteSelect.enfants(RequeteSelect.enfant(resultat, "TUPLES"), "TUPLE")) {
+            List<Element> champs = RequeteSelect.enfants(tuple, "CHAMP");
+            String[] ligne = new String[champs.size()];
+            for (int i = 0; i < ligne.length; i++) {
+                Element champ = champs.get(i);
+                ligne[i] = champ.hasAttribute("NULL") ? null : champ.getTextContent();
+            }
+            lecteur.accept(ligne);
+        }
+    }
+
+    /**
+     * Côté destinataire : les valeurs acquittées et envoyées à chaque émetteur, pour chaque requête incrémentale.
+     */
+    static final class Suivi {
+        private final LinkedHashMap<String, Etat> etats;
+
+        /**
+         * @param suivisMax le nombre maximal de couples émetteur et requête suivis
+         */
+        Suivi(int suivisMax) {
+            this.etats = new LinkedHashMap<>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Etat> eldest) {
+                    return size() > suivisMax;
+                }
+            };
+        }
+
+        /**
+         * @return le suivi décrit dans config.ini
+         */
+        static Suivi depuisConfiguration() {
+            return new Suivi(Math.max(1, Configuration.get().getEntier("deltaSuivisMax", 10000)));
+        }
+
+        /**
+         * Retourne la valeur à partir de laquelle répondre à une requête : la valeur acquittée par l'émetteur si c'est
+         * la dernière que le destinataire lui a envoyée (le résultat précédent a été appliqué) ou celle à partir de
+         * laquelle il l'a envoyée (le résultat précédent a été perdu), sinon null pour renvoyer le résultat entier.
+         *
+         * @param emetteur l'identifiant de l'émetteur
+         * @param requete  le texte de la requête
+         * @param acquitte la valeur acquittée par l'émetteur, ou null
+         * @return la valeur à partir de laquelle lire les tuples, ou null
+         */
+        synchronized Long depuis(String emetteur, String requete, Long acquitte) {
+            Etat etat = etats.get(emetteur + '\n' + requete);
+            if (acquitte == null || etat == null) {
+                return null;
+            }
+            return acquitte.equals(etat.envoye) || acquitte.equals(etat.depuis) ? acquitte : null;
+        }
+
+        /**
+         * Retient la valeur envoyée à un émetteur pour une requête.
+         *
+         * @param emetteur l'identifiant de l'émetteur
+         * @param requete  le texte de la requête
+         * @param depuis   la valeur à partir de laquelle les tuples ont été lus, ou null pour un résultat entier
+         * @param jusqua   la valeur envoyée, ou null si le résultat entier était vide
+         */
+        synchronized void envoye(String emetteur, String requete, Long depuis, Long jusqua) {
+            String cle = emetteur + '\n' + requete;
+            if (jusqua == null) {
+                etats.remove(cle);
+            } else {
+                etats.put(cle, new Etat(depuis, jusqua));
+            }
+        }
+
+        private static final class Etat {
+            private final Long depuis;
+            private final Long envoye;
+
+            Etat(Long depuis, Long envoye) {
+                this.depuis = depuis;
+                this.envoye = envoye;
+            }
+        }
+    }
+
+    /**
+     * Côté émetteur : la copie locale du résultat d'une requête incrémentale, indexée par la colonne CLE, et la valeur
+     * de la colonne DELTA jusqu'à laquelle elle est à jour.
+     */
+    static final class Copie {
+        private final Map<String, String[]> tuples = new LinkedHashMap<>();
+        private Long acquitte;
+
+        /**
+         * Renseigne la valeur acquittée dans l'élément SELECT à envoyer, si la copie en a une.
+         *
+         * @param select l'élément SELECT
+         */
+        synchronized void acquitter(Element select) {
+            if (acquitte != null) {
+                select.setAttributeNS(null, ACQUITTE, Long.toString(acquitte));
+            } else {
+                select.removeAttributeNS(null, ACQUITTE);
+            }
+        }
+
+        /**
+         * Applique un document DELTA, dont la signature a déjà été vérifiée, à la copie, et la met en forme.
+         *
+         * @param delta l'élément racine DELTA
+         * @return la copie mise en forme, sans les colonnes ajoutées
+         * @throws SignatureException si le document ne répond pas à la dernière valeur acquittée
+         */
+        synchronized String appliquer(Element delta) throws SignatureException {
+            boolean complet = Boolean.parseBoolean(delta.getAttributeNS(null, COMPLET));
+            String depuis = delta.getAttributeNS(null, DEPUIS);
+            if (!complet && (acquitte == null || !depuis.equals(Long.toString(acquitte)))) {
+                throw new SignatureException("Le delta reçu part de " + depuis + " et non de la valeur acquittée "
+                        + acquitte);
+            }
+            Element resultat = RequeteSelect.enfant(delta, "RESULTAT");
+            if (resultat == null) {
+                throw new IllegalArgumentException("Le document DELTA ne contient pas de RESULTAT");
+            }
+            int ajoutees = ajoutees(delta.getAttributeNS(null, COLONNE), delta.getAttributeNS(null, CLE));
+            if (complet) {
+                tuples.clear();
+            }
+            // La colonne CLE est la dernière du tuple, qu'elle soit ou non la colonne DELTA.
+            lignes(resultat, ligne -> tuples.put(ligne[ligne.length - 1],
+                    Arrays.copyOf(ligne, ligne.length - ajoutees)));
+            String jusqua = delta.getAttributeNS(null, JUSQUA);
+            acquitte = jusqua.isEmpty() ? null : Long.valueOf(jusqua);
+            return afficher();
+        }
+
+        private String afficher() {
+            StringBuilder res = new StringBuilder(1024);
+            long numero = 0;
+            for (String[] ligne : tuples.values()) {
+                res.append("Tuple ").append(++numero).append(": ");
+                for (String valeur : ligne) {
+                    res.append(valeur == null ? "NULL" : valeur).append(" ");
+                }
+                res.append("\n");
+            }
+            return res.toString();
+        }
+    }
+
+    /**
+     * @param racine l'élément racine d'un document reçu
+     * @return true si le document est une réponse à une requête incrémentale
+     */
+    static boolean estReponse(Element racine) {
+        return DELTA.equals(racine.getNodeName());
+    }
+}
@@ -0,0 +1,457 @@
+package agent;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.JDBCType;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Cette classe lit et écrit les résultats au codage compact, demandé par l'attribut ENCODAGE="COMPACT" d'une requête
+ * SELECT. Au lieu d'un élément CHAMP par valeur, l'élément RESULTAT contient un en-tête COLONNES, qui donne le nom,
+ * le type JDBC et le codage de chaque colonne, puis un élément DONNEES contenant les tuples en binaire, éventuellement
+ * compressés (attribut COMPRESSION), puis encodés en base64. Les données restent ainsi couvertes par la signature du
+ * document.
+ * <p>
+ * Chaque tuple est précédé d'un octet 1 et suivi de ses valeurs non NULL, après un masque d'un bit par colonne
+ * indiquant les valeurs NULL ; un octet 0 termine les données. Les entiers sont écrits en varint zigzag, les réels en
+ * IEEE 754, les décimaux par leur échelle et leur valeur non mise à l'échelle, les dates par leur numéro de jour et
+ * le reste en texte UTF-8 précédé de sa longueur.
+ */
+public final class EncodageCompact {
+    /**
+     * Le nom de l'attribut qui demande ou indique le codage d'un résultat.
+     */
+    public static final String ENCODAGE = "ENCODAGE";
+    /**
+     * La valeur de l'attribut ENCODAGE pour le codage compact.
+     */
+    public static final String COMPACT = "COMPACT";
+    /**
+     * Le nom de l'attribut qui demande ou indique la compression des données.
+     */
+    public static final String COMPRESSION = "COMPRESSION";
+
+    private EncodageCompact() {
+    }
+
+    /**
+     * Le codage binaire d'une colonne, choisi d'après son type JDBC.
+     */
+    public enum Codage {
+        BOOLEEN, ENTIER, FLOTTANT, REEL, DECIMAL, DATE, TEXTE;
+
+        static Codage pour(ResultSetMetaData metaData, int colonne) throws SQLException {
+            switch (metaData.getColumnType(colonne)) {
+                case Types.BOOLEAN:
+                    return BOOLEEN;
+                case Types.BIT:
+                    return metaData.getPrecision(colonne) <= 1 ? BOOLEEN : TEXTE;
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                    return ENTIER;
+                case Types.BIGINT:
+                    // Un BIGINT UNSIGNED peut dépasser la capacité d'un long.
+                    return metaData.isSigned(colonne) ? ENTIER : DECIMAL;
+                case Types.REAL:
+                    return FLOTTANT;
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                    return REEL;
+                case Types.DECIMAL:
+                case Types.NUMERIC:
+                    return DECIMAL;
+                case Types.DATE:
+                    return DATE;
+                default:
+                    return TEXTE;
+            }
+        }
+    }
+
+    /**
+     * Une colonne d'un résultat au codage compact.
+     */
+    public static final class Colonne {
+        private final String nom;
+        private final String type;
+        private final Codage codage;
+
+        /**
+         * @param nom    le nom de la colonne
+         * @param type   le nom du type JDBC de la colonne
+         * @param codage le codage binaire des valeurs de la colonne
+         */
+        public Colonne(String nom, String type, Codage codage) {
+            this.nom = nom;
+            this.type = type;
+            this.codage = codage;
+        }
+
+        /**
+         * Retourne les colonnes décrites par les métadonnées d'un ResultSet.
+         *
+         * @param metaData les métadonnées
+         * @param qualifier true pour nommer les colonnes table.colonne lorsque leur table est connue
+         * @return les colonnes
+         * @throws SQLException si les métadonnées ne peuvent pas être lues
+         */
+        public static List<Colonne> depuis(ResultSetMetaData metaData, boolean qualifier) throws SQLException {
+            int columnCount = metaData.getColumnCount();
+            List<Colonne> colonnes = new ArrayList<>(columnCount);
+            for (int i = 1; i <= columnCount; i++) {
+                String nom = metaData.getColumnLabel(i);
+                String table = qualifier ? metaData.getTableName(i) : null;
+                if (table != null && !table.isEmpty()) {
+                    nom = table + "." + nom;
+                }
+                String type;
+                try {
+                    type = JDBCType.valueOf(metaData.getColumnType(i)).getName();
+                } catch (IllegalArgumentException e) {
+                    type = metaData.getColumnTypeName(i);
+                }
+                colonnes.add(new Colonne(nom, type, Codage.pour(metaData, i)));
+            }
+            return colonnes;
+        }
+
+        /**
+         * @return le nom de la colonne
+         */
+        public String getNom() {
+            return nom;
+        }
+
+        /**
+         * @return le nom du type JDBC de la colonne
+         */
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * @return le codage binaire des valeurs de la colonne
+         */
+        public Codage getCodage() {
+            return codage;
+        }
+    }
+
+    /**
+     * Lit les tuples d'un ResultSet et construit l'élément RESULTAT correspondant au codage compact. Les valeurs sont
+     * lues avec les accesseurs typés de JDBC dans un {@link LotColonnes}, puis écrites depuis ses colonnes, sans passer
+     * par des objets ni par leur représentation textuelle.
+     *
+     * @param resultSet   le ResultSet à lire
+     * @param document    le document auquel appartiendra l'élément
+     * @param compression la compression des données
+     * @return l'élément RESULTAT
+     * @throws SQLException si une erreur SQL survient
+     */
+    public static Element encoder(ResultSet resultSet, Document document, Compression compression) throws SQLException {
+        return encoder(resultSet, document, compression, Long.MAX_VALUE);
+    }
+
+    /**
+     * Comme {@link #encoder(ResultSet, Document, Compression)}, en refusant un résultat de plus de tuplesMax tuples.
+     *
+     * @throws SQLException si le résultat dépasse tuplesMax tuples (voir {@link Limites})
+     */
+    static Element encoder(ResultSet resultSet, Document document, Compression compression, long tuplesMax)
+            throws SQLException {
+        List<Colonne> colonnes = Colonne.depuis(resultSet.getMetaData(), false);
+        LotColonnes lot = new LotColonnes(colonnes, LotColonnes.CAPACITE);
+        Ecrivain ecrivain = new Ecrivain(colonnes, compression);
+        long nombre = 0;
+        while (lot.remplir(resultSet)) {
+            nombre += lot.getTaille();
+            Limites.verifier(nombre, tuplesMax);
+            ecrivain.ecrire(lot);
+        }
+        Metriques.compter(Metriques.Compteur.TUPLES, nombre);
+        return ecrivain.terminer(document);
+    }
+
+    /**
+     * Construit l'élément RESULTAT au codage compact contenant les tuples d'un lot.
+     *
+     * @param lot         les tuples
+     * @param document    le document auquel appartiendra l'élément
+     * @param compression la compression des données
+     * @return l'élément RESULTAT
+     */
+    static Element encoder(LotColonnes lot, Document document, Compression compression) {
+        Ecrivain ecrivain = new Ecrivain(lot.getColonnes(), compression);
+        ecrivain.ecrire(lot);
+        return ecrivain.terminer(document);
+    }
+
+    /**
+     * Construit l'élément RESULTAT au codage compact contenant les tuples de plusieurs lots, dans leur ordre.
+     *
+     * @param colonnes    les colonnes des tuples, dont les codages sont ceux de chaque lot
+     * @param lots        les lots de tuples
+     * @param document    le document auquel appartiendra l'élément
+     * @param compression la compression des données
+     * @return l'élément RESULTAT
+     */
+    static Element encoder(List<Colonne> colonnes, Iterable<LotColonnes> lots, Document document,
+                           Compression compression) {
+        Ecrivain ecrivain = new Ecrivain(colonnes, compression);
+        for (LotColonnes lot : lots) {
+            ecrivain.ecrire(lot);
+        }
+        return ecrivain.terminer(document);
+    }
+
+    /**
+     * Indique si un élément RESULTAT est au codage compact.
+     *
+     * @param resultat l'élément RESULTAT
+     * @return true si le résultat est au codage compact
+     */
+    public static boolean estCompact(Element resultat) {
+        return COMPACT.equals(resultat.getAttributeNS(null, ENCODAGE));
+    }
+
+    /**
+     * Retourne les colonnes d'un résultat au codage compact, lues dans son en-tête.
+     *
+     * @param resultat l'élément RESULTAT
+     * @return les colonnes
+     * @throws IllegalArgumentException si l'en-tête est absent ou invalide
+     */
+    public static List<Colonne> colonnes(Element resultat) {
+        Element entete = RequeteSelect.enfant(resultat, "COLONNES");
+        if (entete == null) {
+            throw new IllegalArgumentException("Le résultat compact n'a pas d'en-tête COLONNES");
+        }
+        List<Colonne> colonnes = new ArrayList<>();
+        for (Element colonne : RequeteSelect.enfants(entete, "COLONNE")) {
+            colonnes.add(new Colonne(colonne.getAttributeNS(null, "NOM"), colonne.getAttributeNS(null, "TYPE"),
+                    Codage.valueOf(colonne.getAttributeNS(null, "CODAGE"))));
+        }
+        return colonnes;
+    }
+
+    /**
+     * Décode les tuples d'un résultat au codage compact et les transmet un par un, au fil du décodage. Les valeurs
+     * sont des Boolean, Long, Float, Double, BigDecimal, LocalDate ou String selon le codage de leur colonne, et null
+     * pour une valeur SQL NULL. Le tableau transmis est réutilisé d'un tuple à l'autre.
+     *
+     * @param resultat l'élément RESULTAT
+     * @param lecteur  le destinataire des tuples
+     * @throws IllegalArgumentException si les données sont invalides
+     */
+    public static void decoder(Element resultat, Consumer<Object[]> lecteur) {
+        List<Colonne> colonnes = colonnes(resultat);
+        Element donnees = RequeteSelect.enfant(resultat, "DONNEES");
+        String texte = donnees == null ? "" : donnees.getTextContent().trim();
+        Compression compression = Compression.valueOf(resultat.getAttributeNS(null, COMPRESSION));
+        int columnCount = colonnes.size();
+        byte[] masque = new byte[(columnCount + 7) / 8];
+        Object[] ligne = new Object[columnCount];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(compression.decompresser(
+                Base64.getDecoder().wrap(new ByteArrayInputStream(texte.getBytes(StandardCharsets.US_ASCII))))))) {
+            while (in.readByte() == 1) {
+                in.readFully(masque);
+                for (int i = 0; i < columnCount; i++) {
+                    ligne[i] = (masque[i >> 3] & (1 << (i & 7))) != 0 ? null : lireValeur(in, colonnes.get(i).getCodage());
+                }
+                lecteur.accept(ligne);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Les données du résultat compact sont invalides", e);
+        }
+    }
+
+    private static Object lireValeur(DataInputStream in, Codage codage) throws IOException {
+        switch (codage) {
+            case BOOLEEN:
+                return in.readBoolean();
+            case ENTIER:
+                return lireVarLong(in);
+            case FLOTTANT:
+                return in.readFloat();
+            case REEL:
+                return in.readDouble();
+            case DECIMAL:
+                int echelle = (int) lireVarLong(in);
+                return new BigDecimal(new BigInteger(lireOctets(in)), echelle);
+            case DATE:
+                return LocalDate.ofEpochDay(lireVarLong(in));
+            default:
+                return new String(lireOctets(in), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static long lireVarLong(DataInputStream in) throws IOException {
+        long brut = 0;
+        for (int decalage = 0; decalage < 64; decalage += 7) {
+            int octet = in.readUnsignedByte();
+            brut |= (long) (octet & 0x7F) << decalage;
+            if ((octet & 0x80) == 0) {
+                return (brut >>> 1) ^ -(brut & 1);
+            }
+        }
+        throw new IOException("Varint trop long");
+    }
+
+    private static byte[] lireOctets(DataInputStream in) throws IOException {
+        long longueur = lireVarLong(in);
+        if (longueur < 0 || longueur > Integer.MAX_VALUE - 8) {
+            throw new IOException("Longueur invalide : " + longueur);
+        }
+        byte[] octets = new byte[(int) longueur];
+        in.readFully(octets);
+        return octets;
+    }
+
+    /**
+     * Écrit les tuples d'un résultat compact dans un tampon, au travers de la compression puis de l'encodage base64.
+     */
+    private static final class Ecrivain {
+        private final List<Colonne> colonnes;
+        private final Compression compression;
+        private final ByteArrayOutputStream tampon = new ByteArrayOutputStream(4096);
+        private final DataOutputStream out;
+        private final byte[] masque;
+
+        private Ecrivain(List<Colonne> colonnes, Compression compression) {
+            this.colonnes = colonnes;
+            this.compression = compression;
+            this.masque = new byte[(colonnes.size() + 7) / 8];
+            try {
+                this.out = new DataOutputStream(new BufferedOutputStream(
+                        compression.compresser(Base64.getEncoder().wrap(tampon)), 8192));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Écrit les tuples d'un lot, en lisant directement ses colonnes.
+         */
+        private void ecrire(LotColonnes lot) {
+            int columnCount = colonnes.size();
+            try {
+                for (int ligne = 0; ligne < lot.getTaille(); ligne++) {
+                    out.writeByte(1);
+                    Arrays.fill(masque, (byte) 0);
+                    for (int i = 0; i < columnCount; i++) {
+                        if (lot.estNul(ligne, i)) {
+                            masque[i >> 3] |= (byte) (1 << (i & 7));
+                        }
+                    }
+                    out.write(masque);
+                    for (int i = 0; i < columnCount; i++) {
+                        if (!lot.estNul(ligne, i)) {
+                            ecrireValeur(lot, ligne, i);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void ecrireValeur(LotColonnes lot, int ligne, int colonne) throws IOException {
+            switch (colonnes.get(colonne).getCodage()) {
+                case BOOLEEN:
+                    out.writeBoolean(lot.getEntier(ligne, colonne) != 0);
+                    break;
+                case ENTIER:
+                case DATE:
+                    ecrireVarLong(lot.getEntier(ligne, colonne));
+                    break;
+                case FLOTTANT:
+                    out.writeFloat((float) lot.getReel(ligne, colonne));
+                    break;
+                case REEL:
+                    out.writeDouble(lot.getReel(ligne, colonne));
+                    break;
+                case DECIMAL:
+                    BigDecimal grand = lot.getGrandDecimal(ligne, colonne);
+                    if (grand != null) {
+                        ecrireVarLong(grand.scale());
+                        ecrireOctets(grand.unscaledValue().toByteArray());
+                    } else {
+                        ecrireVarLong(lot.getEchelle(ligne, colonne));
+                        ecrireNonEchelonne(lot.getEntier(ligne, colonne));
+                    }
+                    break;
+                default:
+                    int longueur = lot.getLongueur(ligne, colonne);
+                    ecrireVarLong(longueur);
+                    out.write(lot.getOctets(), lot.getDebut(ligne, colonne), longueur);
+            }
+        }
+
+        /**
+         * Écrit une valeur non mise à l'échelle comme BigInteger.toByteArray : en complément à deux, sur le plus petit
+         * nombre d'octets, précédé de ce nombre.
+         */
+        private void ecrireNonEchelonne(long valeur) throws IOException {
+            int bits = 64 - Long.numberOfLeadingZeros(valeur < 0 ? ~valeur : valeur);
+            int nombre = bits / 8 + 1;
+            ecrireVarLong(nombre);
+            for (int i = nombre - 1; i >= 0; i--) {
+                out.writeByte((int) (valeur >> (i * 8)));
+            }
+        }
+
+        private void ecrireVarLong(long valeur) throws IOException {
+            long brut = (valeur << 1) ^ (valeur >> 63);
+            while ((brut & ~0x7FL) != 0) {
+                out.writeByte((int) ((brut & 0x7F) | 0x80));
+                brut >>>= 7;
+            }
+            out.writeByte((int) brut);
+        }
+
+        private void ecrireOctets(byte[] octets) throws IOException {
+            ecrireVarLong(octets.length);
+            out.write(octets);
+        }
+
+        private Element terminer(Document document) {
+            try {
+                out.writeByte(0);
+                out.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            Element resultat = document.createElement("RESULTAT");
+            resultat.setAttributeNS(null, ENCODAGE, COMPACT);
+            resultat.setAttributeNS(null, COMPRESSION, compression.name());
+            Element entete = document.createElement("COLONNES");
+            for (Colonne colonne : colonnes) {
+                Element element = document.createElement("COLONNE");
+                element.setAttributeNS(null, "NOM", colonne.getNom());
+                element.setAttributeNS(null, "TYPE", colonne.getType());
+                element.setAttributeNS(null, "CODAGE", colonne.getCodage().name());
+                entete.appendChild(element);
+            }
+            resultat.appendChild(entete);
+            Element donnees = document.createElement("DONNEES");
+            donnees.setTextContent(new String(tampon.toByteArray(), StandardCharsets.US_ASCII));
+            resultat.appendChild(donnees);
+            return resultat;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package agent;
+
+import org.w3c.dom.Document;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Cette classe envoie une suite de documents de requête à un agent destinataire sans attendre la réponse de chacun
+ * avant d'envoyer le suivant. Les documents sont analysés et signés en parallèle, au plus fenetre requêtes sont en
+ * cours à la fois (de la signature à la vérification du résultat), et chaque résultat est vérifié et mis en forme dès
+ * son arrivée, dans n'importe quel ordre ; le {@link Canal} associe chaque résultat à sa requête par son identifiant.
+ * Le débit est alors limité par la capacité du destinataire plutôt que par le temps d'aller-retour.
+ * <p>
+ * Paramètres lus dans config.ini : pipelineFenetre (32 par défaut), le nombre maximal de requêtes en cours, et
+ * pipelineThreads (le nombre de processeurs par défaut), le nombre de threads qui signent les requêtes et vérifient
+ * les résultats.
+ */
+public class EnvoiPipeline implements AutoCloseable {
+    private final Agent emetteur;
+    private final Canal destinataire;
+    private final int fenetre;
+    private final Semaphore enCours;
+    private final ExecutorService travailleurs;
+
+    private final LongAdder reussies = new LongAdder();
+    private final LongAdder erreurs = new LongAdder();
+
+    /**
+     * Constructeur de la classe EnvoiPipeline.
+     *
+     * @param emetteur     l'agent émetteur, qui signe les requêtes et vérifie les résultats
+     * @param destinataire le canal vers l'agent destinataire
+     * @param fenetre      le nombre maximal de requêtes en cours à la fois
+     * @param threads      le nombre de threads qui signent les requêtes et vérifient les résultats
+     */
+    public EnvoiPipeline(Agent emetteur, Canal destinataire, int fenetre, int threads) {
+        if (fenetre <= 0 || threads <= 0) {
+            throw new IllegalArgumentException("La fenêtre et le nombre de threads doivent être positifs");
+        }
+        this.emetteur = emetteur;
+        this.destinataire = destinataire;
+        this.fenetre = fenetre;
+        this.enCours = new Semaphore(fenetre);
+        AtomicInteger numero = new AtomicInteger();
+        this.travailleurs = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "pipeline-" + numero.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Crée un envoi en pipeline avec les paramètres de config.ini.
+     *
+     * @param emetteur     l'agent émetteur
+     * @param destinataire le canal vers l'agent destinataire
+     * @return l'envoi en pipeline
+     */
+    public static EnvoiPipeline depuisConfiguration(Agent emetteur, Canal destinataire) {
+        Configuration config = Configuration.get();
+        return new EnvoiPipeline(emetteur, destinataire, config.getEntier("pipelineFenetre", 32),
+                config.getEntier("pipelineThreads", Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Retourne les documents XML d'un dossier, triés par nom, ou, si source vaut "-", les chemins lus un par ligne sur
+     * l'entrée standard au fur et à mesure de l'envoi.
+     *
+     * @param source le chemin d'un dossier, ou "-"
+     * @return les chemins des documents à envoyer
+     * @throws IOException si le dossier ne peut pas être lu
+     */
+    public static Iterator<Path> documents(String source) throws IOException {
+        if (!"-".equals(source)) {
+            List<Path> fichiers;
+            try (Stream<Path> contenu = Files.list(Paths.get(source))) {
+                fichiers = contenu.filter(f -> Files.isRegularFile(f) && f.getFileName().toString().endsWith(".xml"))
+                        .sorted().collect(Collectors.toList());
+            }
+            return fichiers.iterator();
+        }
+        BufferedReader entree = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        return new Iterator<Path>() {
+            private String ligne;
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    while (ligne == null || ligne.isBlank()) {
+                        ligne = entree.readLine();
+                        if (ligne == null) {
+                            return false;
+                        }
+                    }
+                    return true;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public Path next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Path chemin = Paths.get(ligne.trim());
+                ligne = null;
+                return chemin;
+            }
+        };
+    }
+
+    /**
+     * Envoie les documents donnés, et attend que tous leurs résultats aient été reçus et vérifiés.
+     *
+     * @param documents les chemins des documents de requête
+     * @param affichage reçoit le nom de chaque document et ses résultats mis en forme, ou "Erreur : " suivi du
+     *                  message d'erreur, dans l'ordre d'arrivée des résultats ; appelé depuis un seul thread à la fois
+     * @return le rapport de l'envoi
+     * @throws InterruptedException si le thread est interrompu pendant l'envoi
+     */
+    public String envoyer(Iterator<Path> documents, BiConsumer<String, String> affichage) throws InterruptedException {
+        long debut = System.nanoTime();
+        long nombre = 0;
+        while (documents.hasNext()) {
+            Path fichier = documents.next();
+            enCours.acquire();
+            nombre++;
+            travailleurs.execute(() -> envoyer(fichier, affichage));
+        }
+        enCours.acquire(fenetre);
+        enCours.release(fenetre);
+        double secondes = (System.nanoTime() - debut) / 1e9;
+        return String.format(Locale.ROOT, "Pipeline : %d documents en %.2f s (%.1f/s), fenêtre %d : %d réussis, %d erreurs",
+                nombre, secondes, nombre / secondes, fenetre, reussies.sum(), erreurs.sum());
+    }
+
+    private void envoyer(Path fichier, BiConsumer<String, String> affichage) {
+        String nom = fichier.getFileName().toString();
+        try {
+            long debut = Metriques.debut();
+            Document document = OutilsXML.analyser(fichier);
+            Metriques.fin(Etape.ANALYSE, debut);
+            emetteur.envoyerEtVerifier(document, nom, destinataire, travailleurs).whenComplete((resultats, erreur) -> {
+                if (erreur == null) {
+                    terminer(nom, resultats, null, affichage);
+                } else {
+                    terminer(nom, null, erreur instanceof CompletionException ? erreur.getCause() : erreur, affichage);
+                }
+            });
+        } catch (Exception e) {
+            terminer(nom, null, e, affichage);
+        }
+    }
+
+    private void terminer(String nom, String resultats, Throwable erreur, BiConsumer<String, String> affichage) {
+        try {
+            synchronized (affichage) {
+                if (erreur == null) {
+                    reussies.increment();
+                    affichage.accept(nom, resultats);
+                } else {
+                    erreurs.increment();
+                    affichage.accept(nom, "Erreur : " + (erreur.getMessage() != null ? erreur.getMessage() : erreur.toString()));
+                }
+            }
+        } finally {
+            enCours.release();
+        }
+    }
+
+    @Override
+    public void close() {
+        travailleurs.shutdown();
+    }
+}
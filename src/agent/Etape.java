@@ -0,0 +1,41 @@
+package agent;
+
+/**
+ * Cette énumération représente les étapes du traitement d'une requête dont la durée est mesurée par
+ * {@link Metriques}.
+ */
+public enum Etape {
+    /**
+     * L'analyse d'un document XML reçu (requête ou résultat).
+     */
+    ANALYSE,
+    /**
+     * La vérification de la signature d'un document.
+     */
+    VERIFICATION,
+    /**
+     * L'extraction de la requête SQL d'un document SELECT, jusqu'à son plan d'exécution.
+     */
+    EXTRACTION,
+    /**
+     * L'emprunt d'une connexion au pool, attente et validation comprises.
+     */
+    CONNEXION,
+    /**
+     * L'exécution d'une requête SQL et la lecture de ses tuples dans l'élément RESULTAT, tant que le ResultSet est
+     * ouvert.
+     */
+    EXECUTION,
+    /**
+     * La sérialisation en octets d'un document à envoyer.
+     */
+    SERIALISATION,
+    /**
+     * La signature d'un document.
+     */
+    SIGNATURE,
+    /**
+     * L'affichage des résultats par l'agent émetteur.
+     */
+    AFFICHAGE
+}
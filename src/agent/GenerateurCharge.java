@@ -0,0 +1,258 @@
+package agent;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+import javax.xml.transform.TransformerException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Cette classe rejoue des documents de requête contre un agent destinataire, avec plusieurs émetteurs en parallèle,
+ * pendant une durée donnée, et mesure la latence de bout en bout de chaque requête (signature, envoi, traitement,
+ * vérification et mise en forme du résultat).
+ * <p>
+ * Sans débit visé, chaque émetteur envoie sa requête suivante dès que la précédente est terminée. Avec un débit visé,
+ * les requêtes sont planifiées à intervalles réguliers et leur latence est mesurée depuis leur heure prévue : un
+ * destinataire qui prend du retard fait donc monter les centiles, au lieu de simplement ralentir les émetteurs.
+ * Les requêtes de la période de chauffe ne sont pas mesurées, et les {@link Metriques} sont remises à zéro à sa fin.
+ * Avec une URL db jdbc:embarquee:, les requêtes sont exécutées par la {@link BaseEmbarquee}, sans serveur MySQL.
+ * <p>
+ * Paramètres lus dans config.ini : chargeConcurrence (8 par défaut), le nombre d'émetteurs, chargeDebit (0 par défaut,
+ * sans limite), le nombre de requêtes par seconde visé, chargeDureeSecondes (30 par défaut), chargeChauffeSecondes
+ * (5 par défaut) et chargeVariantes (0 par défaut), le nombre de variantes synthétiques de chaque document.
+ */
+public class GenerateurCharge {
+    private static final Pattern NOMBRE = Pattern.compile("(?<![\\w.])\\d+(?![\\w.])");
+
+    private final Agent emetteur;
+    private final Canal destinataire;
+    private final List<String> noms;
+    private final List<byte[]> documents;
+    private final int concurrence;
+    private final double debit;
+    private final long duree;
+    private final long chauffe;
+
+    private final Histogramme latences = new Histogramme();
+    private final LongAdder reussies = new LongAdder();
+    private final LongAdder erreurs = new LongAdder();
+    private final LongAdder signaturesIncorrectes = new LongAdder();
+    private final Map<String, LongAdder> causes = new ConcurrentHashMap<>();
+
+    /**
+     * Constructeur de la classe GenerateurCharge.
+     *
+     * @param emetteur     l'agent émetteur, qui signe les requêtes et vérifie les résultats
+     * @param destinataire le canal vers l'agent destinataire
+     * @param noms         le nom de chaque document
+     * @param documents    les documents de requête, envoyés tour à tour ; chaque envoi en analyse une copie
+     * @param concurrence  le nombre d'émetteurs en parallèle
+     * @param debit        le nombre de requêtes par seconde visé, ou 0 pour envoyer aussi vite que possible
+     * @param duree        la durée de la mesure, en secondes
+     * @param chauffe      la durée de la période de chauffe, en secondes
+     */
+    public GenerateurCharge(Agent emetteur, Canal destinataire, List<String> noms, List<Document> documents,
+                            int concurrence, double debit, long duree, long chauffe) throws TransformerException {
+        if (documents.isEmpty() || noms.size() != documents.size()) {
+            throw new IllegalArgumentException("Il faut au moins un document de requête, et un nom par document");
+        }
+        if (concurrence <= 0 || debit < 0 || duree <= 0 || chauffe < 0) {
+            throw new IllegalArgumentException("Paramètres de charge invalides");
+        }
+        this.emetteur = emetteur;
+        this.destinataire = destinataire;
+        this.noms = new ArrayList<>(noms);
+        this.documents = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            this.documents.add(OutilsXML.serialiser(document));
+        }
+        this.concurrence = concurrence;
+        this.debit = debit;
+        this.duree = TimeUnit.SECONDS.toNanos(duree);
+        this.chauffe = TimeUnit.SECONDS.toNanos(chauffe);
+    }
+
+    /**
+     * Crée un générateur de charge qui rejoue les documents du dossier ./requests/ (et leurs variantes), avec les
+     * paramètres de config.ini.
+     *
+     * @param emetteur     l'agent émetteur
+     * @param destinataire le canal vers l'agent destinataire
+     * @return le générateur de charge
+     * @throws IOException          si le dossier ne peut pas être lu
+     * @throws SAXException         si un document n'est pas un document XML bien formé
+     * @throws TransformerException si une variante ne peut pas être sérialisée
+     */
+    public static GenerateurCharge depuisConfiguration(Agent emetteur, Canal destinataire)
+            throws IOException, SAXException, TransformerException {
+        Configuration config = Configuration.get();
+        int variantes = config.getEntier("chargeVariantes", 0);
+        List<String> noms = new ArrayList<>();
+        List<Document> documents = new ArrayList<>();
+        List<Path> fichiers;
+        try (Stream<Path> contenu = Files.list(Paths.get("./requests/"))) {
+            fichiers = contenu.filter(f -> Files.isRegularFile(f) && f.getFileName().toString().endsWith(".xml"))
+                    .sorted().collect(Collectors.toList());
+        }
+        for (Path fichier : fichiers) {
+            String nom = fichier.getFileName().toString();
+            Document document = OutilsXML.analyser(fichier);
+            noms.add(nom);
+            documents.add(document);
+            for (int i = 1; i <= variantes; i++) {
+                noms.add("v" + i + "-" + nom);
+                documents.add(varier(document, i));
+            }
+        }
+        return new GenerateurCharge(emetteur, destinataire, noms, documents,
+                config.getEntier("chargeConcurrence", 8),
+                Double.parseDouble(config.getPropriete("chargeDebit", "0")),
+                config.getEntier("chargeDureeSecondes", 30),
+                config.getEntier("chargeChauffeSecondes", 5));
+    }
+
+    /**
+     * Retourne une copie d'un document de requête dont chaque nombre de la condition, hors des chaînes entre
+     * apostrophes, est augmenté de decalage : la variante a la même forme, mais d'autres valeurs et d'autres
+     * résultats, et n'est donc pas servie par le cache du destinataire.
+     */
+    static Document varier(Document document, int decalage) {
+        Document variante = (Document) document.cloneNode(true);
+        Element condition = RequeteSelect.enfant(variante.getDocumentElement(), "CONDITION");
+        if (condition == null) {
+            return variante;
+        }
+        String[] morceaux = condition.getTextContent().split("'", -1);
+        for (int i = 0; i < morceaux.length; i += 2) {
+            Matcher nombre = NOMBRE.matcher(morceaux[i]);
+            StringBuilder texte = new StringBuilder();
+            while (nombre.find()) {
+                nombre.appendReplacement(texte, Long.toString(Long.parseLong(nombre.group()) + decalage));
+            }
+            nombre.appendTail(texte);
+            morceaux[i] = texte.toString();
+        }
+        condition.setTextContent(String.join("'", morceaux));
+        return variante;
+    }
+
+    /**
+     * Envoie les requêtes pendant la période de chauffe puis la durée de la mesure, et attend leurs réponses.
+     *
+     * @return le rapport de la mesure
+     * @throws InterruptedException si le thread est interrompu pendant la mesure
+     */
+    public String executer() throws InterruptedException {
+        long demarrage = System.nanoTime();
+        long debutMesure = demarrage + chauffe;
+        long fin = debutMesure + duree;
+        long periode = debit > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / debit) : 0;
+        AtomicLong prochaine = new AtomicLong();
+        List<Thread> threads = new ArrayList<>(concurrence);
+        for (int t = 0; t < concurrence; t++) {
+            Thread thread = new Thread(() -> emettre(prochaine, demarrage, periode, debutMesure, fin), "charge-" + (t + 1));
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+        if (chauffe > 0) {
+            TimeUnit.NANOSECONDS.sleep(chauffe);
+            if (Metriques.actives()) {
+                Metriques.get().reinitialiser();
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return rapport((System.nanoTime() - debutMesure) / 1e9);
+    }
+
+    private void emettre(AtomicLong prochaine, long demarrage, long periode, long debutMesure, long fin) {
+        while (true) {
+            long numero = prochaine.getAndIncrement();
+            long depart;
+            if (periode > 0) {
+                depart = demarrage + numero * periode;
+                if (depart >= fin) {
+                    return;
+                }
+                long attente;
+                while ((attente = depart - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(attente);
+                }
+            } else {
+                depart = System.nanoTime();
+                if (depart >= fin) {
+                    return;
+                }
+            }
+            int i = (int) (numero % documents.size());
+            Throwable erreur = null;
+            try {
+                Document document = OutilsXML.analyser(documents.get(i));
+                emetteur.envoyerRequete(document, noms.get(i), destinataire, affichage -> {
+                }).get();
+            } catch (ExecutionException e) {
+                erreur = e.getCause();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                erreur = e;
+            }
+            if (depart < debutMesure) {
+                continue;
+            }
+            latences.enregistrer(System.nanoTime() - depart);
+            if (erreur == null) {
+                reussies.increment();
+                continue;
+            }
+            (erreur instanceof SignatureException ? signaturesIncorrectes : erreurs).increment();
+            String cause = erreur.getMessage() != null ? erreur.getMessage() : erreur.toString();
+            causes.computeIfAbsent(cause, c -> new LongAdder()).increment();
+        }
+    }
+
+    private String rapport(double secondes) {
+        long total = latences.nombre();
+        StringBuilder rapport = new StringBuilder(1024);
+        rapport.append(String.format(Locale.ROOT, "Charge : %d documents, %d émetteurs, débit visé %s%n"
+                        + "%d requêtes en %.1f s (%.1f/s) : %d réussies, %d erreurs, %d signatures incorrectes%n"
+                        + "Latence : %s%n",
+                documents.size(), concurrence, debit > 0 ? debit + "/s" : "illimité",
+                total, secondes, total / secondes, reussies.sum(), erreurs.sum(), signaturesIncorrectes.sum(),
+                latences.getStatistiques()));
+        causes.entrySet().stream()
+                .sorted((a, b) -> Long.compare(b.getValue().sum(), a.getValue().sum()))
+                .limit(5)
+                .forEach(e -> rapport.append("  ").append(e.getValue().sum()).append(" fois : ").append(e.getKey()).append('\n'));
+        return rapport.toString();
+    }
+
+    /**
+     * @return l'histogramme des latences mesurées, en nanosecondes
+     */
+    public Histogramme getLatences() {
+        return latences;
+    }
+}
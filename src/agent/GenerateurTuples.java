@@ -0,0 +1,91 @@
+package agent;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Cette classe génère de façon déterministe les tuples des tables personnes et produits de db.sql : le tuple
+ * d'identifiant i ne dépend que de la graine et de i. Elle est partagée par DBInitializer, qui charge ces tuples dans
+ * MySQL, et par la {@link BaseEmbarquee}, qui les garde en mémoire : avec la même graine, les deux bases contiennent
+ * les mêmes tables.
+ */
+public final class GenerateurTuples {
+    private static final String[] NOMS = {"Doe", "Smith", "Martin", "Bernard", "Dubois", "Durand", "Lefebvre",
+            "Moreau", "Laurent", "Simon", "Michel", "Garcia"};
+    private static final String[] PRENOMS = {"John", "Jane", "Bob", "Alice", "Marie", "Pierre", "Sophie", "Luc",
+            "Emma", "Louis", "Chloé", "Hugo"};
+    private static final String[] CATEGORIES = {"Ordinateur portable", "Smartphone", "Tablette", "Écran", "Clavier",
+            "Souris", "Imprimante", "Casque"};
+    private static final String[] GAMMES = {"d'entrée de gamme", "de milieu de gamme", "haut de gamme",
+            "reconditionné"};
+
+    private GenerateurTuples() {
+    }
+
+    /**
+     * Les tables remplies par le générateur, avec la base de données de chacune (voir db.sql) et la génération d'un
+     * tuple à partir de son identifiant.
+     */
+    public enum Table {
+        PERSONNES("db_relationnelle_1", "personnes", "id", "nom", "prenom", "age") {
+            @Override
+            Object[] valeurs(long id, SplittableRandom random) {
+                return new Object[]{id, NOMS[random.nextInt(NOMS.length)], PRENOMS[random.nextInt(PRENOMS.length)],
+                        18 + random.nextInt(73)};
+            }
+        },
+        PRODUITS("db_relationnelle_2", "produits", "id", "nom", "description", "prix") {
+            @Override
+            Object[] valeurs(long id, SplittableRandom random) {
+                String categorie = CATEGORIES[random.nextInt(CATEGORIES.length)];
+                return new Object[]{id, categorie + " " + id, categorie + " " + GAMMES[random.nextInt(GAMMES.length)],
+                        BigDecimal.valueOf(100 + random.nextInt(500000), 2)};
+            }
+        };
+
+        private final String base;
+        private final String nom;
+        private final List<String> colonnes;
+
+        Table(String base, String nom, String... colonnes) {
+            this.base = base;
+            this.nom = nom;
+            this.colonnes = List.of(colonnes);
+        }
+
+        /**
+         * @return la base de données de la table
+         */
+        public String getBase() {
+            return base;
+        }
+
+        /**
+         * @return le nom de la table
+         */
+        public String getNom() {
+            return nom;
+        }
+
+        /**
+         * @return les colonnes remplies par le générateur, dans l'ordre des valeurs de {@link #tuple(long, long)}
+         */
+        public List<String> getColonnes() {
+            return colonnes;
+        }
+
+        /**
+         * Génère le tuple d'identifiant donné.
+         *
+         * @param id     l'identifiant du tuple
+         * @param graine la graine du générateur
+         * @return les valeurs du tuple, une par colonne de {@link #getColonnes()}
+         */
+        public Object[] tuple(long id, long graine) {
+            return valeurs(id, new SplittableRandom(graine * 0x9E3779B97F4A7C15L + id));
+        }
+
+        abstract Object[] valeurs(long id, SplittableRandom random);
+    }
+}
@@ -0,0 +1,176 @@
+package agent;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cette classe est un histogramme de durées à précision relative fixe, sur le modèle de HdrHistogram : les valeurs
+ * de 0 à 127 ont chacune leur seau, puis chaque puissance de deux est divisée en 64 seaux, ce qui borne l'erreur
+ * relative d'un centile à 1/64 sur toute l'étendue d'un long. L'enregistrement d'une valeur ne prend aucun verrou et
+ * n'alloue rien ; la lecture des centiles parcourt les seaux, et peut donc être légèrement décalée par rapport aux
+ * enregistrements concurrents.
+ */
+public final class Histogramme implements HistogrammeMBean {
+    private static final int BITS = 6;
+    private static final int DEMI = 1 << BITS;
+    private static final int SEAUX = (64 - BITS) * DEMI;
+
+    private final AtomicLongArray comptes = new AtomicLongArray(SEAUX);
+    private final LongAdder nombre = new LongAdder();
+    private final LongAdder somme = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Enregistre une valeur.
+     *
+     * @param valeur la valeur, en nanosecondes pour une durée ; une valeur négative compte pour zéro
+     */
+    public void enregistrer(long valeur) {
+        long v = Math.max(valeur, 0);
+        comptes.incrementAndGet(seau(v));
+        nombre.increment();
+        somme.add(v);
+        if (v > max.get()) {
+            max.accumulateAndGet(v, Math::max);
+        }
+    }
+
+    private static int seau(long v) {
+        if (v < 2 * DEMI) {
+            return (int) v;
+        }
+        int exposant = 63 - Long.numberOfLeadingZeros(v) - BITS;
+        return (exposant + 1) * DEMI + (int) ((v >>> exposant) - DEMI);
+    }
+
+    /**
+     * Retourne la plus grande valeur que contient un seau.
+     */
+    private static long borneHaute(int seau) {
+        if (seau < 2 * DEMI) {
+            return seau;
+        }
+        int exposant = seau / DEMI - 1;
+        long base = seau % DEMI + DEMI;
+        return ((base + 1) << exposant) - 1;
+    }
+
+    /**
+     * @return le nombre de valeurs enregistrées
+     */
+    public long nombre() {
+        return nombre.sum();
+    }
+
+    /**
+     * @return la moyenne des valeurs enregistrées, ou 0 s'il n'y en a aucune
+     */
+    public double moyenne() {
+        long n = nombre.sum();
+        return n == 0 ? 0 : (double) somme.sum() / n;
+    }
+
+    /**
+     * @return la plus grande valeur enregistrée
+     */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     * Retourne la valeur en dessous de laquelle se trouve une proportion donnée des valeurs enregistrées.
+     *
+     * @param quantile la proportion, entre 0 et 1 (0,99 pour le 99e centile)
+     * @return la borne haute du seau qui contient ce centile, au plus la valeur maximale, ou 0 sans valeur
+     */
+    public long centile(double quantile) {
+        long total = 0;
+        long[] copie = new long[SEAUX];
+        for (int i = 0; i < SEAUX; i++) {
+            copie[i] = comptes.get(i);
+            total += copie[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rang = Math.max(1, (long) Math.ceil(quantile * total));
+        long cumul = 0;
+        for (int i = 0; i < SEAUX; i++) {
+            cumul += copie[i];
+            if (cumul >= rang) {
+                return Math.min(borneHaute(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Ajoute à cet histogramme toutes les valeurs d'un autre.
+     *
+     * @param autre l'histogramme à ajouter
+     */
+    public void ajouter(Histogramme autre) {
+        for (int i = 0; i < SEAUX; i++) {
+            long compte = autre.comptes.get(i);
+            if (compte != 0) {
+                comptes.addAndGet(i, compte);
+            }
+        }
+        nombre.add(autre.nombre.sum());
+        somme.add(autre.somme.sum());
+        max.accumulateAndGet(autre.max.get(), Math::max);
+    }
+
+    @Override
+    public void reinitialiser() {
+        for (int i = 0; i < SEAUX; i++) {
+            comptes.set(i, 0);
+        }
+        nombre.reset();
+        somme.reset();
+        max.set(0);
+    }
+
+    @Override
+    public long getNombre() {
+        return nombre();
+    }
+
+    @Override
+    public double getMoyenneMicros() {
+        return moyenne() / 1000.0;
+    }
+
+    @Override
+    public double getP50Micros() {
+        return centile(0.5) / 1000.0;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return centile(0.99) / 1000.0;
+    }
+
+    @Override
+    public double getP999Micros() {
+        return centile(0.999) / 1000.0;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return max() / 1000.0;
+    }
+
+    /**
+     * Retourne un résumé des durées enregistrées, en microsecondes.
+     *
+     * @return le résumé
+     */
+    public String getStatistiques() {
+        return String.format(Locale.ROOT, "%d mesures, moyenne %.1f µs, p50 %.1f µs, p99 %.1f µs, "
+                        + "p99.9 %.1f µs, max %.1f µs", nombre(), getMoyenneMicros(), getP50Micros(), getP99Micros(),
+                getP999Micros(), getMaxMicros());
+    }
+}
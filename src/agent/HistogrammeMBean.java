@@ -0,0 +1,41 @@
+package agent;
+
+/**
+ * L'interface JMX d'un {@link Histogramme} : nombre de mesures et durées en microsecondes.
+ */
+public interface HistogrammeMBean {
+    /**
+     * @return le nombre de mesures
+     */
+    long getNombre();
+
+    /**
+     * @return la durée moyenne, en microsecondes
+     */
+    double getMoyenneMicros();
+
+    /**
+     * @return la médiane, en microsecondes
+     */
+    double getP50Micros();
+
+    /**
+     * @return le 99e centile, en microsecondes
+     */
+    double getP99Micros();
+
+    /**
+     * @return le 99,9e centile, en microsecondes
+     */
+    double getP999Micros();
+
+    /**
+     * @return la durée maximale, en microsecondes
+     */
+    double getMaxMicros();
+
+    /**
+     * Remet l'histogramme à zéro.
+     */
+    void reinitialiser();
+}
@@ -0,0 +1,75 @@
+package agent;
+
+import java.util.regex.Pattern;
+
+/**
+ * Cette classe regroupe la validation et la citation des identifiants SQL (tables et colonnes) lus dans les requêtes
+ * XML. Seuls les identifiants simples, éventuellement qualifiés par une table (table.colonne), sont acceptés.
+ */
+final class Identifiants {
+    private static final Pattern IDENTIFIANT = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    private Identifiants() {
+    }
+
+    /**
+     * Vérifie qu'un nom de colonne, de table ou de colonne qualifiée est un identifiant valide.
+     *
+     * @param nom        le nom à vérifier
+     * @param qualifiable true si le nom peut être qualifié par une table
+     * @return le nom, sans les blancs qui l'entourent
+     * @throws IllegalArgumentException si le nom n'est pas un identifiant valide
+     */
+    static String valider(String nom, boolean qualifiable) {
+        String valeur = nom.trim();
+        String[] parties = valeur.split("\\.", -1);
+        if (parties.length > (qualifiable ? 2 : 1)) {
+            throw new IllegalArgumentException("Identifiant invalide : " + valeur);
+        }
+        for (String partie : parties) {
+            if (!IDENTIFIANT.matcher(partie).matches()) {
+                throw new IllegalArgumentException("Identifiant invalide : " + valeur);
+            }
+        }
+        return valeur;
+    }
+
+    /**
+     * Cite un identifiant, éventuellement qualifié, pour MySQL : personnes.nom devient `personnes`.`nom`.
+     * Le joker * (éventuellement qualifié) n'est pas cité.
+     *
+     * @param nom l'identifiant validé
+     * @return l'identifiant cité
+     */
+    static String citer(String nom) {
+        StringBuilder cite = new StringBuilder(nom.length() + 4);
+        for (String partie : nom.split("\\.")) {
+            if (cite.length() > 0) {
+                cite.append('.');
+            }
+            cite.append(partie.equals("*") ? "*" : "`" + partie + "`");
+        }
+        return cite.toString();
+    }
+
+    /**
+     * Retourne la table d'un identifiant qualifié, ou null s'il ne l'est pas.
+     *
+     * @param nom l'identifiant
+     * @return la table, ou null
+     */
+    static String table(String nom) {
+        int point = nom.indexOf('.');
+        return point < 0 ? null : nom.substring(0, point);
+    }
+
+    /**
+     * Retourne le nom d'un identifiant sans la table qui le qualifie.
+     *
+     * @param nom l'identifiant
+     * @return le nom de la colonne
+     */
+    static String colonne(String nom) {
+        return nom.substring(nom.indexOf('.') + 1);
+    }
+}
@@ -0,0 +1,55 @@
+package agent;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Cette classe regroupe la limite du nombre de tuples d'un résultat, qui protège l'agent destinataire d'une requête
+ * qui lirait une table entière. L'instruction est limitée à un tuple de plus que la limite, pour que la base de données
+ * n'en envoie pas davantage et que le dépassement soit détecté ; un résultat qui dépasse la limite est refusé plutôt
+ * que tronqué.
+ * <p>
+ * Paramètre lu dans config.ini : resultatTuplesMax (100000 par défaut, 0 pour ne pas limiter). Les résultats en
+ * tranches, qui ne sont jamais gardés entiers en mémoire, ne sont pas limités.
+ */
+final class Limites {
+    /**
+     * L'état SQL d'un dépassement de limite (« program limit exceeded »).
+     */
+    static final String ETAT_LIMITE = "54000";
+
+    private Limites() {
+    }
+
+    /**
+     * @return le nombre maximal de tuples d'un résultat, ou Long.MAX_VALUE s'il n'est pas limité
+     */
+    static long tuplesMax() {
+        int max = Configuration.get().getEntier("resultatTuplesMax", 100000);
+        return max > 0 ? max : Long.MAX_VALUE;
+    }
+
+    /**
+     * Limite le nombre de tuples lus par une instruction, qui peut être réutilisée ensuite avec une autre limite.
+     *
+     * @param instruction l'instruction
+     * @param tuplesMax   le nombre maximal de tuples du résultat, ou Long.MAX_VALUE
+     * @throws SQLException si la limite ne peut pas être fixée
+     */
+    static void limiter(Statement instruction, long tuplesMax) throws SQLException {
+        instruction.setMaxRows(tuplesMax < Integer.MAX_VALUE ? (int) tuplesMax + 1 : 0);
+    }
+
+    /**
+     * Vérifie que le nombre de tuples lus jusque-là ne dépasse pas la limite.
+     *
+     * @param nombre    le nombre de tuples lus
+     * @param tuplesMax le nombre maximal de tuples du résultat
+     * @throws SQLException si la limite est dépassée
+     */
+    static void verifier(long nombre, long tuplesMax) throws SQLException {
+        if (nombre > tuplesMax) {
+            throw new SQLException("Le résultat dépasse la limite de " + tuplesMax + " tuples", ETAT_LIMITE);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package agent;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.crypto.dsig.XMLSignature;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Cette classe regroupe les règles des documents de lot. Un lot de requêtes (élément racine LOT) contient plusieurs
+ * éléments SELECT, et un lot de résultats (élément racine RESULTATS) contient un élément RESULTAT par requête.
+ * Chaque élément du lot porte un attribut ID, qui associe un résultat à sa requête, et une seule signature
+ * enveloppée couvre le document entier : elle n'a qu'une Reference quel que soit le nombre d'éléments, ce qui évite la
+ * limite de 30 références par signature de la validation sécurisée du JDK, et n'est valide que si aucun élément n'a
+ * été ajouté, retiré ou modifié.
+ */
+final class Lot {
+    /**
+     * Le nom de l'élément racine d'un lot de requêtes.
+     */
+    static final String LOT = "LOT";
+    /**
+     * Le nom de l'élément racine d'un lot de résultats.
+     */
+    static final String RESULTATS = "RESULTATS";
+    /**
+     * Le nom de l'attribut identifiant un élément du lot.
+     */
+    static final String ID = "ID";
+
+    private Lot() {
+    }
+
+    /**
+     * Indique si un document est un lot de requêtes ou de résultats.
+     *
+     * @param document le document XML
+     * @return true si l'élément racine est LOT ou RESULTATS
+     */
+    static boolean estLot(Document document) {
+        String racine = document.getDocumentElement().getNodeName();
+        return LOT.equals(racine) || RESULTATS.equals(racine);
+    }
+
+    /**
+     * Retourne les éléments d'un lot, c'est-à-dire les éléments enfants de la racine autres que la signature.
+     *
+     * @param racine l'élément racine du lot
+     * @return les éléments du lot, dans l'ordre du document
+     */
+    static List<Element> elements(Element racine) {
+        List<Element> elements = new ArrayList<>();
+        for (Node n = racine.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n.getNodeType() == Node.ELEMENT_NODE && !XMLSignature.XMLNS.equals(n.getNamespaceURI())) {
+                elements.add((Element) n);
+            }
+        }
+        return elements;
+    }
+
+    /**
+     * Attribue un identifiant aux éléments du lot qui n'en ont pas.
+     *
+     * @param elements les éléments du lot
+     * @return les identifiants des éléments, dans le même ordre
+     * @throws IllegalArgumentException si deux éléments portent le même identifiant
+     */
+    static List<String> identifier(List<Element> elements) {
+        List<String> ids = new ArrayList<>(elements.size());
+        Set<String> vus = new HashSet<>();
+        int numero = 0;
+        for (Element element : elements) {
+            numero++;
+            if (!element.hasAttributeNS(null, ID)) {
+                element.setAttributeNS(null, ID, "r" + numero);
+            }
+            String id = element.getAttributeNS(null, ID);
+            if (!vus.add(id)) {
+                throw new IllegalArgumentException("L'identifiant " + id + " apparaît plusieurs fois dans le lot");
+            }
+            ids.add(id);
+        }
+        return ids;
+    }
+}
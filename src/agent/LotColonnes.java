@@ -0,0 +1,476 @@
+package agent;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cette classe garde un lot de tuples d'un résultat en colonnes de types primitifs, pour que les sérialiseurs (codage
+ * XML et codage compact) et la jointure entre bases de données lisent les valeurs sans les convertir en objets : les
+ * entiers, booléens et dates (numéro de jour) sont rangés dans des long[], les réels dans des double[], les décimaux
+ * par leur valeur non mise à l'échelle (long[]) et leur échelle (int[]), et les textes en UTF-8 dans un seul tableau
+ * d'octets, repérés par leur début et leur longueur, que le codage compact copie tels quels. Seul un décimal qui ne
+ * tient pas dans un long est gardé en BigDecimal, et les chaînes lues sont aussi gardées telles quelles pour le codage
+ * XML, qui en a besoin.
+ * <p>
+ * Le lot est rempli par les accesseurs typés de JDBC, selon le {@link EncodageCompact.Codage} de chaque colonne, puis
+ * vidé et réutilisé pour les tuples suivants : ses tableaux ne sont alloués qu'une fois par résultat. La
+ * représentation textuelle d'une valeur est celle de l'objet retourné par getObject, pour que l'affichage soit le même
+ * qu'avant.
+ */
+final class LotColonnes {
+    /**
+     * Le nombre de tuples d'un lot, par défaut.
+     */
+    static final int CAPACITE = 256;
+
+    private final List<EncodageCompact.Colonne> colonnes;
+    private final EncodageCompact.Codage[] codages;
+    private final boolean[] chaines;
+    private final int capacite;
+    private final boolean[][] nuls;
+    private final long[][] entiers;
+    private final double[][] reels;
+    private final int[][] echelles;
+    private final BigDecimal[][] grandsDecimaux;
+    private final int[][] debuts;
+    private final int[][] longueurs;
+    private final String[][] textes;
+    private byte[] octets = new byte[4096];
+    private int fin;
+    private int taille;
+    private boolean termine;
+    private final char[] caracteres = new char[64];
+
+    /**
+     * Constructeur de la classe LotColonnes.
+     *
+     * @param colonnes les colonnes des tuples
+     * @param capacite le nombre maximal de tuples du lot
+     */
+    LotColonnes(List<EncodageCompact.Colonne> colonnes, int capacite) {
+        int columnCount = colonnes.size();
+        this.colonnes = colonnes;
+        this.codages = new EncodageCompact.Codage[columnCount];
+        this.chaines = new boolean[columnCount];
+        this.capacite = capacite;
+        this.nuls = new boolean[columnCount][capacite];
+        this.entiers = new long[columnCount][];
+        this.reels = new double[columnCount][];
+        this.echelles = new int[columnCount][];
+        this.grandsDecimaux = new BigDecimal[columnCount][];
+        this.debuts = new int[columnCount][];
+        this.longueurs = new int[columnCount][];
+        this.textes = new String[columnCount][];
+        for (int i = 0; i < columnCount; i++) {
+            EncodageCompact.Codage codage = colonnes.get(i).getCodage();
+            codages[i] = codage;
+            switch (codage) {
+                case FLOTTANT:
+                case REEL:
+                    reels[i] = new double[capacite];
+                    break;
+                case DECIMAL:
+                    entiers[i] = new long[capacite];
+                    echelles[i] = new int[capacite];
+                    grandsDecimaux[i] = new BigDecimal[capacite];
+                    break;
+                case TEXTE:
+                    debuts[i] = new int[capacite];
+                    longueurs[i] = new int[capacite];
+                    textes[i] = new String[capacite];
+                    chaines[i] = estChaine(colonnes.get(i).getType());
+                    break;
+                default:
+                    entiers[i] = new long[capacite];
+            }
+        }
+    }
+
+    private static boolean estChaine(String type) {
+        switch (type) {
+            case "CHAR":
+            case "VARCHAR":
+            case "LONGVARCHAR":
+            case "NCHAR":
+            case "NVARCHAR":
+            case "LONGNVARCHAR":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Vide le lot, puis y lit les tuples suivants du ResultSet, jusqu'à ce qu'il soit plein ou que le ResultSet soit
+     * terminé.
+     *
+     * @param resultSet le ResultSet, dont les colonnes sont celles du lot
+     * @return true si au moins un tuple a été lu
+     * @throws SQLException si une valeur ne peut pas être lue
+     */
+    boolean remplir(ResultSet resultSet) throws SQLException {
+        vider();
+        while (!termine && taille < capacite) {
+            if (!resultSet.next()) {
+                termine = true;
+            } else {
+                lire(resultSet);
+            }
+        }
+        return taille > 0;
+    }
+
+    /**
+     * Ajoute le tuple courant du ResultSet au lot, qui ne doit pas être plein.
+     */
+    private void lire(ResultSet resultSet) throws SQLException {
+        int ligne = taille;
+        for (int i = 0; i < codages.length; i++) {
+            int position = i + 1;
+            boolean nul;
+            switch (codages[i]) {
+                case BOOLEEN:
+                    entiers[i][ligne] = resultSet.getBoolean(position) ? 1 : 0;
+                    nul = resultSet.wasNull();
+                    break;
+                case ENTIER:
+                    entiers[i][ligne] = resultSet.getLong(position);
+                    nul = resultSet.wasNull();
+                    break;
+                case FLOTTANT:
+                    reels[i][ligne] = resultSet.getFloat(position);
+                    nul = resultSet.wasNull();
+                    break;
+                case REEL:
+                    reels[i][ligne] = resultSet.getDouble(position);
+                    nul = resultSet.wasNull();
+                    break;
+                case DECIMAL:
+                    BigDecimal decimal = resultSet.getBigDecimal(position);
+                    nul = decimal == null;
+                    if (!nul) {
+                        ranger(i, ligne, decimal);
+                    }
+                    break;
+                case DATE:
+                    java.sql.Date date = resultSet.getDate(position);
+                    nul = date == null;
+                    if (!nul) {
+                        entiers[i][ligne] = date.toLocalDate().toEpochDay();
+                    }
+                    break;
+                default:
+                    String texte;
+                    if (chaines[i]) {
+                        texte = resultSet.getString(position);
+                    } else {
+                        Object objet = resultSet.getObject(position);
+                        texte = objet == null ? null : objet.toString();
+                    }
+                    nul = texte == null;
+                    if (!nul) {
+                        ranger(i, ligne, texte);
+                    }
+            }
+            nuls[i][ligne] = nul;
+        }
+        taille++;
+    }
+
+    /**
+     * Copie des valeurs d'un tuple d'un autre lot dans le tuple en cours du lot, qui ne doit pas être plein : la
+     * colonne positions[k] du lot source est copiée dans la colonne premiere + k, qui doit avoir le même codage. Le
+     * tuple en cours n'est ajouté au lot que par {@link #terminerTuple()}, ce qui permet de le composer de plusieurs
+     * lots, comme dans une jointure.
+     *
+     * @param source    le lot source
+     * @param ligne     le rang du tuple dans le lot source
+     * @param positions les rangs des colonnes copiées dans le lot source
+     * @param premiere  le rang, dans le lot, de la première colonne copiée
+     */
+    void copier(LotColonnes source, int ligne, int[] positions, int premiere) {
+        int rang = taille;
+        for (int k = 0; k < positions.length; k++) {
+            int i = premiere + k;
+            int colonne = positions[k];
+            boolean nul = source.nuls[colonne][ligne];
+            nuls[i][rang] = nul;
+            if (nul) {
+                continue;
+            }
+            switch (codages[i]) {
+                case FLOTTANT:
+                case REEL:
+                    reels[i][rang] = source.reels[colonne][ligne];
+                    break;
+                case DECIMAL:
+                    entiers[i][rang] = source.entiers[colonne][ligne];
+                    echelles[i][rang] = source.echelles[colonne][ligne];
+                    grandsDecimaux[i][rang] = source.grandsDecimaux[colonne][ligne];
+                    break;
+                case TEXTE:
+                    int longueur = source.longueurs[colonne][ligne];
+                    if (octets.length - fin < longueur) {
+                        octets = Arrays.copyOf(octets, Math.max(octets.length * 2, fin + longueur));
+                    }
+                    System.arraycopy(source.octets, source.debuts[colonne][ligne], octets, fin, longueur);
+                    textes[i][rang] = source.textes[colonne][ligne];
+                    debuts[i][rang] = fin;
+                    longueurs[i][rang] = longueur;
+                    fin += longueur;
+                    break;
+                default:
+                    entiers[i][rang] = source.entiers[colonne][ligne];
+            }
+        }
+    }
+
+    /**
+     * Ajoute au lot le tuple en cours, composé par {@link #copier(LotColonnes, int, int[], int)}.
+     */
+    void terminerTuple() {
+        taille++;
+    }
+
+    /**
+     * Vide le lot, dont les tableaux sont réutilisés.
+     */
+    void vider() {
+        for (int i = 0; i < codages.length; i++) {
+            if (grandsDecimaux[i] != null) {
+                Arrays.fill(grandsDecimaux[i], 0, taille, null);
+            }
+            if (textes[i] != null) {
+                Arrays.fill(textes[i], 0, taille, null);
+            }
+        }
+        taille = 0;
+        fin = 0;
+    }
+
+    private void ranger(int colonne, int ligne, BigDecimal decimal) {
+        if (decimal.scale() >= 0 && decimal.precision() <= 18) {
+            entiers[colonne][ligne] = decimal.scaleByPowerOfTen(decimal.scale()).longValue();
+            echelles[colonne][ligne] = decimal.scale();
+            grandsDecimaux[colonne][ligne] = null;
+        } else {
+            grandsDecimaux[colonne][ligne] = decimal;
+        }
+    }
+
+    /**
+     * Range un texte en UTF-8 à la suite des octets du lot. Un demi-caractère (surrogate) isolé devient '?', comme
+     * avec String.getBytes.
+     */
+    private void ranger(int colonne, int ligne, String texte) {
+        int longueur = texte.length();
+        if (octets.length - fin < longueur * 3) {
+            octets = Arrays.copyOf(octets, Math.max(octets.length * 2, fin + longueur * 3));
+        }
+        int position = fin;
+        for (int i = 0; i < longueur; i++) {
+            char c = texte.charAt(i);
+            if (c < 0x80) {
+                octets[position++] = (byte) c;
+            } else if (c < 0x800) {
+                octets[position++] = (byte) (0xC0 | c >> 6);
+                octets[position++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < longueur && Character.isLowSurrogate(texte.charAt(i + 1))) {
+                int point = Character.toCodePoint(c, texte.charAt(++i));
+                octets[position++] = (byte) (0xF0 | point >> 18);
+                octets[position++] = (byte) (0x80 | point >> 12 & 0x3F);
+                octets[position++] = (byte) (0x80 | point >> 6 & 0x3F);
+                octets[position++] = (byte) (0x80 | point & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                octets[position++] = '?';
+            } else {
+                octets[position++] = (byte) (0xE0 | c >> 12);
+                octets[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+                octets[position++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        textes[colonne][ligne] = texte;
+        debuts[colonne][ligne] = fin;
+        longueurs[colonne][ligne] = position - fin;
+        fin = position;
+    }
+
+    /**
+     * @return les colonnes des tuples
+     */
+    List<EncodageCompact.Colonne> getColonnes() {
+        return colonnes;
+    }
+
+    /**
+     * @return le nombre de tuples du lot
+     */
+    int getTaille() {
+        return taille;
+    }
+
+    /**
+     * @return true si le lot ne peut plus recevoir de tuple
+     */
+    boolean estPlein() {
+        return taille == capacite;
+    }
+
+    boolean estNul(int ligne, int colonne) {
+        return nuls[colonne][ligne];
+    }
+
+    /**
+     * @return la valeur d'une colonne ENTIER, 1 ou 0 pour BOOLEEN, le numéro de jour pour DATE, ou la valeur non mise
+     * à l'échelle pour DECIMAL
+     */
+    long getEntier(int ligne, int colonne) {
+        return entiers[colonne][ligne];
+    }
+
+    /**
+     * @return la valeur d'une colonne FLOTTANT ou REEL
+     */
+    double getReel(int ligne, int colonne) {
+        return reels[colonne][ligne];
+    }
+
+    /**
+     * @return l'échelle d'une valeur DECIMAL
+     */
+    int getEchelle(int ligne, int colonne) {
+        return echelles[colonne][ligne];
+    }
+
+    /**
+     * @return la valeur DECIMAL si elle ne tient pas dans un long (voir {@link #getEntier(int, int)}), sinon null
+     */
+    BigDecimal getGrandDecimal(int ligne, int colonne) {
+        return grandsDecimaux[colonne][ligne];
+    }
+
+    /**
+     * @return le tableau qui contient les octets UTF-8 des textes du lot
+     */
+    byte[] getOctets() {
+        return octets;
+    }
+
+    int getDebut(int ligne, int colonne) {
+        return debuts[colonne][ligne];
+    }
+
+    int getLongueur(int ligne, int colonne) {
+        return longueurs[colonne][ligne];
+    }
+
+    /**
+     * Retourne la représentation textuelle d'une valeur non NULL, pour un nœud texte DOM.
+     *
+     * @param ligne   le rang du tuple dans le lot
+     * @param colonne le rang de la colonne
+     * @return la valeur en texte
+     */
+    String texte(int ligne, int colonne) {
+        switch (codages[colonne]) {
+            case TEXTE:
+                return textes[colonne][ligne];
+            case FLOTTANT:
+            case REEL:
+            case DATE:
+                return autreTexte(ligne, colonne);
+            default:
+                int longueur = formater(ligne, colonne);
+                return longueur < 0 ? autreTexte(ligne, colonne) : new String(caracteres, 0, longueur);
+        }
+    }
+
+    private String autreTexte(int ligne, int colonne) {
+        switch (codages[colonne]) {
+            case FLOTTANT:
+                return Float.toString((float) reels[colonne][ligne]);
+            case REEL:
+                return Double.toString(reels[colonne][ligne]);
+            case DATE:
+                return LocalDate.ofEpochDay(entiers[colonne][ligne]).toString();
+            case DECIMAL:
+                BigDecimal grand = grandsDecimaux[colonne][ligne];
+                return grand != null ? grand.toString()
+                        : new BigDecimal(BigInteger.valueOf(entiers[colonne][ligne]), echelles[colonne][ligne]).toString();
+            default:
+                return Long.toString(entiers[colonne][ligne]);
+        }
+    }
+
+    /**
+     * Écrit dans le tableau de caractères la représentation d'une valeur BOOLEEN, ENTIER ou DECIMAL, et retourne sa
+     * longueur, ou -1 pour un décimal que BigDecimal.toString écrirait en notation scientifique (ou trop grand).
+     */
+    private int formater(int ligne, int colonne) {
+        long valeur = entiers[colonne][ligne];
+        switch (codages[colonne]) {
+            case BOOLEEN:
+                return copier(valeur != 0 ? "true" : "false");
+            case DECIMAL:
+                int echelle = echelles[colonne][ligne];
+                if (grandsDecimaux[colonne][ligne] != null || valeur == Long.MIN_VALUE) {
+                    return -1;
+                }
+                int chiffres = chiffres(Math.abs(valeur));
+                if (chiffres - 1 - echelle < -6) {
+                    return -1;
+                }
+                int longueur = (valeur < 0 ? 1 : 0) + Math.max(chiffres, echelle + 1) + (echelle > 0 ? 1 : 0);
+                int position = longueur;
+                long reste = Math.abs(valeur);
+                for (int i = 0; i < echelle; i++) {
+                    caracteres[--position] = (char) ('0' + reste % 10);
+                    reste /= 10;
+                }
+                if (echelle > 0) {
+                    caracteres[--position] = '.';
+                }
+                do {
+                    caracteres[--position] = (char) ('0' + reste % 10);
+                    reste /= 10;
+                } while (reste != 0);
+                if (valeur < 0) {
+                    caracteres[--position] = '-';
+                }
+                return longueur;
+            default:
+                if (valeur == Long.MIN_VALUE) {
+                    return copier(Long.toString(valeur));
+                }
+                int nombre = (valeur < 0 ? 1 : 0) + chiffres(Math.abs(valeur));
+                int suivant = nombre;
+                long absolu = Math.abs(valeur);
+                do {
+                    caracteres[--suivant] = (char) ('0' + absolu % 10);
+                    absolu /= 10;
+                } while (absolu != 0);
+                if (valeur < 0) {
+                    caracteres[0] = '-';
+                }
+                return nombre;
+        }
+    }
+
+    private int copier(String texte) {
+        texte.getChars(0, texte.length(), caracteres, 0);
+        return texte.length();
+    }
+
+    private static int chiffres(long positif) {
+        int chiffres = 1;
+        for (long seuil = 10; chiffres < 19 && positif >= seuil; seuil *= 10) {
+            chiffres++;
+        }
+        return chiffres;
+    }
+}
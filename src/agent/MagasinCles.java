@@ -0,0 +1,190 @@
+package agent;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cette classe représente le magasin de clés local des agents. Chaque agent possède un fichier PKCS#12
+ * &lt;dossier&gt;/&lt;identifiant&gt;.p12 contenant sa paire de clés et son certificat auto-signé, et le fichier
+ * &lt;dossier&gt;/confiance.p12 contient les certificats des agents de confiance, indexés par identifiant d'agent.
+ * <p>
+ * Les clés sont générées une seule fois avec l'outil keytool du JDK lorsque le fichier de l'agent n'existe pas encore,
+ * puis simplement relues aux démarrages suivants. Le mot de passe est transmis à keytool par une variable
+ * d'environnement, et non sur sa ligne de commande, visible des autres utilisateurs de la machine. Le magasin de
+ * confiance n'est jamais rempli automatiquement : chaque certificat y est ajouté explicitement, par
+ * {@link #faireConfiance(String, Certificate)} ou avec keytool -importcert.
+ * <p>
+ * Paramètres lus dans config.ini : magasinCles (keys par défaut) et motDePasseMagasin (obligatoire).
+ */
+public final class MagasinCles {
+    private static final String FICHIER_CONFIANCE = "confiance.p12";
+    /**
+     * La variable d'environnement qui transmet le mot de passe à keytool.
+     */
+    private static final String VARIABLE_MOT_DE_PASSE = "MAGASIN_CLES_MOT_DE_PASSE";
+
+    private final Path dossier;
+    private final char[] motDePasse;
+    private final Map<String, PublicKey> confiance = new ConcurrentHashMap<>();
+
+    /**
+     * Constructeur de la classe MagasinCles.
+     *
+     * @param dossier    le dossier contenant les fichiers PKCS#12
+     * @param motDePasse le mot de passe des fichiers PKCS#12 et des clés privées
+     */
+    public MagasinCles(Path dossier, char[] motDePasse) {
+        this.dossier = dossier;
+        this.motDePasse = motDePasse.clone();
+    }
+
+    /**
+     * Retourne le magasin de clés décrit dans config.ini.
+     *
+     * @return le magasin de clés configuré
+     * @throws IllegalStateException si le paramètre motDePasseMagasin n'est pas défini
+     */
+    public static MagasinCles depuisConfiguration() {
+        Configuration config = Configuration.get();
+        String motDePasse = config.getPropriete("motDePasseMagasin");
+        if (motDePasse == null || motDePasse.isEmpty()) {
+            throw new IllegalStateException("Le paramètre motDePasseMagasin doit être défini dans config.ini");
+        }
+        return new MagasinCles(Paths.get(config.getPropriete("magasinCles", "keys")), motDePasse.toCharArray());
+    }
+
+    /**
+     * Charge la paire de clés d'un agent depuis son fichier PKCS#12, en la générant au préalable si le fichier
+     * n'existe pas.
+     *
+     * @param identifiant l'identifiant de l'agent
+     * @param algorithme  l'algorithme de signature que l'agent utilisera avec cette paire de clés
+     * @return la paire de clés de l'agent
+     * @throws GeneralSecurityException si le fichier ne contient pas de clé compatible avec l'algorithme
+     * @throws IOException              si le fichier ne peut pas être lu ou créé
+     */
+    public synchronized KeyPair chargerOuCreer(String identifiant, AlgorithmeSignature algorithme) throws GeneralSecurityException, IOException {
+        Path fichier = dossier.resolve(identifiant + ".p12");
+        if (!Files.exists(fichier)) {
+            generer(identifiant, algorithme, fichier);
+        }
+        KeyStore magasin = charger(fichier);
+        PrivateKey clePrivee = (PrivateKey) magasin.getKey(identifiant, motDePasse);
+        Certificate certificat = magasin.getCertificate(identifiant);
+        if (clePrivee == null || certificat == null) {
+            throw new GeneralSecurityException("Le fichier " + fichier + " ne contient pas de clé pour " + identifiant);
+        }
+        if (!clePrivee.getAlgorithm().equals(algorithme.getTypeCle())) {
+            throw new GeneralSecurityException("La clé de " + identifiant + " est de type " + clePrivee.getAlgorithm()
+                    + " alors que l'algorithme " + algorithme + " attend une clé " + algorithme.getTypeCle());
+        }
+        return new KeyPair(certificat.getPublicKey(), clePrivee);
+    }
+
+    /**
+     * Génère une paire de clés et son certificat auto-signé avec keytool. Le certificat n'est pas ajouté au magasin de
+     * confiance.
+     */
+    private void generer(String identifiant, AlgorithmeSignature algorithme, Path fichier) throws GeneralSecurityException, IOException {
+        Files.createDirectories(dossier);
+        List<String> commande = new ArrayList<>(List.of(
+                Paths.get(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-noprompt",
+                "-alias", identifiant,
+                "-dname", "CN=" + identifiant,
+                "-sigalg", algorithme.getAlgorithmeCertificat(),
+                "-validity", "3650",
+                "-storetype", "PKCS12",
+                "-keystore", fichier.toString(),
+                "-storepass:env", VARIABLE_MOT_DE_PASSE,
+                "-keypass:env", VARIABLE_MOT_DE_PASSE));
+        commande.addAll(List.of(algorithme.getOptionsKeytool()));
+        ProcessBuilder constructeur = new ProcessBuilder(commande).redirectErrorStream(true);
+        constructeur.environment().put(VARIABLE_MOT_DE_PASSE, new String(motDePasse));
+        Process processus = constructeur.start();
+        String sortie;
+        try (InputStream in = processus.getInputStream()) {
+            sortie = new String(in.readAllBytes());
+        }
+        try {
+            if (!processus.waitFor(1, TimeUnit.MINUTES) || processus.exitValue() != 0) {
+                throw new GeneralSecurityException("keytool n'a pas pu générer la clé de " + identifiant + " : " + sortie);
+            }
+        } catch (InterruptedException e) {
+            processus.destroy();
+            Thread.currentThread().interrupt();
+            throw new IOException("Génération de la clé de " + identifiant + " interrompue", e);
+        }
+    }
+
+    /**
+     * Ajoute ou remplace le certificat d'un agent dans le magasin de confiance.
+     *
+     * @param identifiant l'identifiant de l'agent
+     * @param certificat  le certificat de l'agent
+     * @throws GeneralSecurityException si le magasin de confiance ne peut pas être mis à jour
+     * @throws IOException              si le magasin de confiance ne peut pas être lu ou écrit
+     */
+    public synchronized void faireConfiance(String identifiant, Certificate certificat) throws GeneralSecurityException, IOException {
+        Files.createDirectories(dossier);
+        Path fichier = dossier.resolve(FICHIER_CONFIANCE);
+        KeyStore magasin = Files.exists(fichier) ? charger(fichier) : KeyStore.getInstance("PKCS12");
+        if (!Files.exists(fichier)) {
+            magasin.load(null, motDePasse);
+        }
+        magasin.setCertificateEntry(identifiant, certificat);
+        try (OutputStream out = Files.newOutputStream(fichier)) {
+            magasin.store(out, motDePasse);
+        }
+        confiance.put(identifiant, certificat.getPublicKey());
+    }
+
+    /**
+     * Retourne la clé publique d'un agent de confiance. Le magasin de confiance est relu si l'agent n'y figurait pas
+     * encore, afin de prendre en compte les certificats ajoutés par un autre processus.
+     *
+     * @param identifiant l'identifiant de l'agent
+     * @return la clé publique de l'agent, ou null s'il n'est pas dans le magasin de confiance
+     * @throws GeneralSecurityException si le magasin de confiance est invalide
+     * @throws IOException              si le magasin de confiance ne peut pas être lu
+     */
+    public PublicKey clePublique(String identifiant) throws GeneralSecurityException, IOException {
+        PublicKey cle = confiance.get(identifiant);
+        if (cle == null) {
+            synchronized (this) {
+                Path fichier = dossier.resolve(FICHIER_CONFIANCE);
+                if (Files.exists(fichier)) {
+                    Certificate certificat = charger(fichier).getCertificate(identifiant);
+                    if (certificat != null) {
+                        cle = certificat.getPublicKey();
+                        confiance.put(identifiant, cle);
+                    }
+                }
+            }
+        }
+        return cle;
+    }
+
+    private KeyStore charger(Path fichier) throws GeneralSecurityException, IOException {
+        KeyStore magasin = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(fichier)) {
+            magasin.load(in, motDePasse);
+        }
+        return magasin;
+    }
+}
@@ -1,17 +1,34 @@
 package agent;
 
 import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 
 /**
- * Cette classe contient la méthode principale qui initialise et lance les threads {@link Agent}.
- * Une fois que les threads ont terminé leur travail, la méthode principale permet d'échanger les clés publiques
- * entre les deux agents.
+ * Cette classe contient la méthode principale qui initialise les deux {@link Agent}, leur fait échanger leurs clés
+ * publiques, puis envoie la requête donnée en argument au {@link MoteurRecepteur} de l'agent destinataire.
+ * <p>
+ * Les deux agents peuvent aussi être lancés dans des processus (ou sur des machines) distincts et communiquer par TCP :
+ * l'un en mode "serveur", l'autre en mode "client". Chacun trouve alors la clé publique de l'autre dans le magasin de
+ * confiance.
  */
 public class Main {
     /**
-     * Méthode principale qui initialise et lance les threads {@link Agent}.
+     * Méthode principale qui initialise les agents et envoie la requête.
      *
-     * @param args les arguments de ligne de commande (non utilisés ici)
+     * @param args au choix :
+     *             <ul>
+     *             <li>le numéro de l'agent émetteur ("1" ou "2") et le nom du fichier de requête dans ./requests/ ;</li>
+     *             <li>"serveur", le numéro de l'agent destinataire et le port d'écoute ;</li>
+     *             <li>"client", le numéro de l'agent émetteur, l'adresse hôte:port du serveur et le nom du fichier de
+     *             requête dans ./requests/ ;</li>
+     *             <li>"charge", le numéro de l'agent émetteur et, pour viser un serveur, son adresse hôte:port : les
+     *             documents de ./requests/ sont rejoués par un {@link GenerateurCharge} ;</li>
+     *             <li>"pipeline", le numéro de l'agent émetteur, un dossier de documents de requête (ou "-" pour lire
+     *             leurs chemins sur l'entrée standard) et, pour viser un serveur, son adresse hôte:port : les
+     *             documents sont envoyés sans attendre les réponses par un {@link EnvoiPipeline}.</li>
+     *             </ul>
      */
     public static void main(String[] args) {
         // Création des dossiers nécessaires
@@ -34,14 +51,164 @@ public class Main {
             signedResultsFolder.mkdir();
         }
 
-        SharedState sharedState = new SharedState();
-        Agent agent1 = new Agent(sharedState, (args[0].equals("1")), "db_relationnelle_2", args[1]);
-        Agent agent2 = new Agent(sharedState, (!args[0].equals("1")), "db_relationnelle_1", args[1]);
-        agent1.exchangeKeys(agent2);
-        agent2.exchangeKeys(agent1);
-        sharedState.setKeyExchanged();
-        agent1.start();
-        agent2.start();
+        switch (args[0]) {
+            case "serveur":
+                servir(args[1], Integer.parseInt(args[2]));
+                break;
+            case "client":
+                envoyer(args[1], args[2], args[3]);
+                break;
+            case "charge":
+                charger(args[1], args.length > 2 ? args[2] : null);
+                break;
+            case "pipeline":
+                envoyerEnPipeline(args[1], args[2], args.length > 3 ? args[3] : null);
+                break;
+            default:
+                executerLocalement(args[0], args[1]);
+        }
+        for (PoolConnexions pool : PoolConnexions.tous()) {
+            System.out.println(pool.getStatistiques());
+        }
+        if (Metriques.actives()) {
+            System.out.println(Metriques.get().getRapport());
+        }
+        PoolConnexions.fermerTous();
+    }
+
+    /**
+     * Crée l'agent portant le numéro donné : l'agent 1 interroge db_relationnelle_2 et l'agent 2 db_relationnelle_1.
+     */
+    private static Agent creerAgent(String numero) {
+        return numero.equals("1") ? new Agent("agent1", "db_relationnelle_2") : new Agent("agent2", "db_relationnelle_1");
+    }
+
+    /**
+     * Exécute la requête avec les deux agents dans ce processus.
+     * Si le numéro vaut "1", le destinataire est l'agent de db_relationnelle_1, sinon celui de db_relationnelle_2.
+     */
+    private static void executerLocalement(String numeroEmetteur, String fichier) {
+        Agent emetteur = creerAgent(numeroEmetteur);
+        Agent recepteur = creerAgent(numeroEmetteur.equals("1") ? "2" : "1");
+        emetteur.exchangeKeys(recepteur);
+        recepteur.exchangeKeys(emetteur);
+        System.out.println("Les agents ont échangé leurs clés publiques !\n");
+
+        try (MoteurRecepteur moteur = new MoteurRecepteur(recepteur)) {
+            afficher(emetteur, moteur, fichier);
+            if (recepteur.getCacheResultats() != null) {
+                System.out.println(recepteur.getCacheResultats().getStatistiques());
+            }
+        }
+    }
+
+    /**
+     * Lance l'agent destinataire donné derrière un serveur TCP, jusqu'à l'arrêt du processus.
+     */
+    private static void servir(String numero, int port) {
+        Agent recepteur = creerAgent(numero);
+        CountDownLatch arret = new CountDownLatch(1);
+        try (MoteurRecepteur moteur = new MoteurRecepteur(recepteur);
+             ServeurNIO serveur = new ServeurNIO(moteur, new InetSocketAddress(port))) {
+            Runtime.getRuntime().addShutdownHook(new Thread(arret::countDown));
+            System.out.println("L'agent " + recepteur.getIdentifiant() + " attend les requêtes sur le port " + serveur.getPort() + " !\n");
+            arret.await();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Envoie la requête au serveur TCP donné avec l'agent émetteur donné.
+     */
+    private static void envoyer(String numero, String adresse, String fichier) {
+        Agent emetteur = creerAgent(numero);
+        int separateur = adresse.lastIndexOf(':');
+        try (ClientNIO client = new ClientNIO(new InetSocketAddress(adresse.substring(0, separateur),
+                Integer.parseInt(adresse.substring(separateur + 1))))) {
+            emetteur.faireConfiance(numero.equals("1") ? "agent2" : "agent1");
+            System.out.println("L'envoyeur a récupéré la clé publique du récepteur !\n");
+            afficher(emetteur, client, fichier);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
     }
 
+    /**
+     * Rejoue les documents de ./requests/ avec l'agent émetteur donné, contre l'agent destinataire de ce processus, ou
+     * contre le serveur TCP donné si l'adresse n'est pas null, puis affiche le rapport de la mesure.
+     */
+    private static void charger(String numero, String adresse) {
+        Agent emetteur = creerAgent(numero);
+        if (adresse == null) {
+            Agent recepteur = creerAgent(numero.equals("1") ? "2" : "1");
+            emetteur.exchangeKeys(recepteur);
+            recepteur.exchangeKeys(emetteur);
+            try (MoteurRecepteur moteur = new MoteurRecepteur(recepteur)) {
+                System.out.println(GenerateurCharge.depuisConfiguration(emetteur, moteur).executer());
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        int separateur = adresse.lastIndexOf(':');
+        try (ClientNIO client = new ClientNIO(new InetSocketAddress(adresse.substring(0, separateur),
+                Integer.parseInt(adresse.substring(separateur + 1))))) {
+            emetteur.faireConfiance(numero.equals("1") ? "agent2" : "agent1");
+            System.out.println(GenerateurCharge.depuisConfiguration(emetteur, client).executer());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Envoie les documents de la source donnée avec l'agent émetteur donné, sans attendre chaque réponse, contre l'agent
+     * destinataire de ce processus ou contre le serveur TCP donné si l'adresse n'est pas null, puis affiche le rapport.
+     */
+    private static void envoyerEnPipeline(String numero, String source, String adresse) {
+        Agent emetteur = creerAgent(numero);
+        if (adresse == null) {
+            Agent recepteur = creerAgent(numero.equals("1") ? "2" : "1");
+            emetteur.exchangeKeys(recepteur);
+            recepteur.exchangeKeys(emetteur);
+            try (MoteurRecepteur moteur = new MoteurRecepteur(recepteur)) {
+                envoyerEnPipeline(emetteur, moteur, source);
+            }
+            return;
+        }
+        int separateur = adresse.lastIndexOf(':');
+        try (ClientNIO client = new ClientNIO(new InetSocketAddress(adresse.substring(0, separateur),
+                Integer.parseInt(adresse.substring(separateur + 1))))) {
+            emetteur.faireConfiance(numero.equals("1") ? "agent2" : "agent1");
+            envoyerEnPipeline(emetteur, client, source);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void envoyerEnPipeline(Agent emetteur, Canal destinataire, String source) {
+        try (EnvoiPipeline pipeline = EnvoiPipeline.depuisConfiguration(emetteur, destinataire)) {
+            System.out.println(pipeline.envoyer(EnvoiPipeline.documents(source),
+                    (nom, resultats) -> System.out.println("Résultats de " + nom + " :\n" + resultats)));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Envoie la requête et affiche ses résultats. Un résultat en tranches est affiché au fur et à mesure de son
+     * arrivée, et sa signature n'est donc confirmée qu'après les résultats.
+     */
+    private static void afficher(Agent emetteur, Canal destinataire, String fichier) {
+        try {
+            System.out.println("Voici les résultats :\n");
+            emetteur.envoyerRequete(fichier, destinataire, System.out::print).get();
+            System.out.println("\nLa signature de la réponse est correcte !");
+        } catch (ExecutionException e) {
+            System.out.println(e.getCause().getMessage());
+            System.out.println("FIN DU PROGRAMME !");
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
 }
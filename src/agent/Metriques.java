@@ -0,0 +1,197 @@
+package agent;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cette classe mesure la durée de chaque {@link Etape} du traitement des requêtes dans un {@link Histogramme}, et
+ * compte les requêtes, les tuples, les octets échangés et les erreurs. Les métriques sont exposées par JMX (domaine
+ * agent) et peuvent être écrites périodiquement sur la sortie standard.
+ * <p>
+ * Les mesures ne sont actives que si la propriété metriques de config.ini vaut true ; sinon, {@link #debut()} ne lit
+ * même pas l'horloge et les autres méthodes ne font rien. Une étape se mesure ainsi :
+ * <pre>
+ * long debut = Metriques.debut();
+ * ...
+ * Metriques.fin(Etape.SIGNATURE, debut);
+ * </pre>
+ */
+public final class Metriques implements MetriquesMBean {
+    /**
+     * Les compteurs tenus par les métriques.
+     */
+    public enum Compteur {
+        REQUETES, TUPLES, OCTETS_REQUETES, OCTETS_RESULTATS, ERREURS, SIGNATURES_INVALIDES
+    }
+
+    private static final boolean ACTIVES = Configuration.get().getBooleen("metriques", false);
+    private static final Metriques INSTANCE = ACTIVES ? new Metriques() : null;
+
+    private final Map<Etape, Histogramme> histogrammes = new EnumMap<>(Etape.class);
+    private final LongAdder[] compteurs = new LongAdder[Compteur.values().length];
+    private volatile long demarrage = System.nanoTime();
+
+    private Metriques() {
+        for (Etape etape : Etape.values()) {
+            histogrammes.put(etape, new Histogramme());
+        }
+        for (int i = 0; i < compteurs.length; i++) {
+            compteurs[i] = new LongAdder();
+        }
+        try {
+            MBeanServer serveur = ManagementFactory.getPlatformMBeanServer();
+            serveur.registerMBean(this, new ObjectName("agent:type=Metriques"));
+            for (Etape etape : Etape.values()) {
+                serveur.registerMBean(histogrammes.get(etape), new ObjectName("agent:type=Etape,name=" + etape));
+            }
+        } catch (JMException e) {
+            System.err.println("Les métriques ne sont pas exposées par JMX : " + e.getMessage());
+        }
+        int intervalle = Configuration.get().getEntier("metriquesIntervalleSecondes", 60);
+        if (intervalle > 0) {
+            ScheduledExecutorService rapporteur = Executors.newSingleThreadScheduledExecutor(tache -> {
+                Thread thread = new Thread(tache, "metriques");
+                thread.setDaemon(true);
+                return thread;
+            });
+            rapporteur.scheduleAtFixedRate(() -> System.out.println(getRapport()), intervalle, intervalle,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * @return true si les métriques sont actives
+     */
+    public static boolean actives() {
+        return ACTIVES;
+    }
+
+    /**
+     * @return les métriques de l'application, ou null si elles ne sont pas actives
+     */
+    public static Metriques get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Retourne l'instant de début d'une étape.
+     *
+     * @return la valeur de System.nanoTime(), ou 0 si les métriques ne sont pas actives
+     */
+    public static long debut() {
+        return ACTIVES ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Enregistre la durée d'une étape commencée à l'instant donné.
+     *
+     * @param etape l'étape mesurée
+     * @param debut l'instant retourné par {@link #debut()}
+     */
+    public static void fin(Etape etape, long debut) {
+        if (ACTIVES) {
+            INSTANCE.histogrammes.get(etape).enregistrer(System.nanoTime() - debut);
+        }
+    }
+
+    /**
+     * Ajoute une quantité à un compteur.
+     *
+     * @param compteur le compteur
+     * @param quantite la quantité à ajouter
+     */
+    public static void compter(Compteur compteur, long quantite) {
+        if (ACTIVES) {
+            INSTANCE.compteurs[compteur.ordinal()].add(quantite);
+        }
+    }
+
+    /**
+     * Retourne l'histogramme des durées d'une étape.
+     *
+     * @param etape l'étape
+     * @return l'histogramme, en nanosecondes
+     */
+    public Histogramme histogramme(Etape etape) {
+        return histogrammes.get(etape);
+    }
+
+    /**
+     * Retourne la valeur d'un compteur.
+     *
+     * @param compteur le compteur
+     * @return sa valeur cumulée
+     */
+    public long valeur(Compteur compteur) {
+        return compteurs[compteur.ordinal()].sum();
+    }
+
+    @Override
+    public long getRequetes() {
+        return valeur(Compteur.REQUETES);
+    }
+
+    @Override
+    public long getTuples() {
+        return valeur(Compteur.TUPLES);
+    }
+
+    @Override
+    public long getOctetsRequetes() {
+        return valeur(Compteur.OCTETS_REQUETES);
+    }
+
+    @Override
+    public long getOctetsResultats() {
+        return valeur(Compteur.OCTETS_RESULTATS);
+    }
+
+    @Override
+    public long getErreurs() {
+        return valeur(Compteur.ERREURS);
+    }
+
+    @Override
+    public long getSignaturesInvalides() {
+        return valeur(Compteur.SIGNATURES_INVALIDES);
+    }
+
+    /**
+     * {@inheritDoc} Le débit de requêtes est calculé depuis le démarrage ou la dernière remise à zéro.
+     */
+    @Override
+    public String getRapport() {
+        double secondes = (System.nanoTime() - demarrage) / 1e9;
+        StringBuilder rapport = new StringBuilder(1024);
+        rapport.append("Métriques : ").append(getRequetes()).append(" requêtes (")
+                .append(String.format(Locale.ROOT, "%.1f", getRequetes() / secondes)).append("/s), ")
+                .append(getTuples()).append(" tuples, ").append(getOctetsRequetes()).append(" octets reçus, ")
+                .append(getOctetsResultats()).append(" octets envoyés, ").append(getErreurs()).append(" erreurs, ")
+                .append(getSignaturesInvalides()).append(" signatures invalides\n");
+        for (Etape etape : Etape.values()) {
+            Histogramme histogramme = histogrammes.get(etape);
+            if (histogramme.nombre() > 0) {
+                rapport.append("  ").append(etape).append(" : ").append(histogramme.getStatistiques()).append('\n');
+            }
+        }
+        return rapport.toString();
+    }
+
+    @Override
+    public void reinitialiser() {
+        histogrammes.values().forEach(Histogramme::reinitialiser);
+        for (LongAdder compteur : compteurs) {
+            compteur.reset();
+        }
+        demarrage = System.nanoTime();
+    }
+}
@@ -0,0 +1,46 @@
+package agent;
+
+/**
+ * L'interface JMX de {@link Metriques} : compteurs cumulés depuis le démarrage et rapport complet.
+ */
+public interface MetriquesMBean {
+    /**
+     * @return le nombre de requêtes traitées par l'agent destinataire
+     */
+    long getRequetes();
+
+    /**
+     * @return le nombre de tuples lus dans les bases de données
+     */
+    long getTuples();
+
+    /**
+     * @return le nombre d'octets de requêtes signées reçus
+     */
+    long getOctetsRequetes();
+
+    /**
+     * @return le nombre d'octets de résultats signés envoyés
+     */
+    long getOctetsResultats();
+
+    /**
+     * @return le nombre de requêtes terminées en erreur
+     */
+    long getErreurs();
+
+    /**
+     * @return le nombre de signatures refusées
+     */
+    long getSignaturesInvalides();
+
+    /**
+     * @return le rapport de toutes les métriques, sous forme de texte
+     */
+    String getRapport();
+
+    /**
+     * Remet toutes les métriques à zéro.
+     */
+    void reinitialiser();
+}
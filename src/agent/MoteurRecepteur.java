@@ -0,0 +1,137 @@
+package agent;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Cette classe représente le moteur d'un agent destinataire. Elle reçoit les requêtes dans une file d'attente bornée
+ * et les fait traiter (vérification, extraction, exécution, signature) par un nombre borné de threads, de sorte que
+ * de nombreuses requêtes peuvent être en cours en même temps pendant toute la durée de vie du processus.
+ * Les requêtes lui parviennent directement d'un agent émetteur du même processus, ou par un {@link ServeurNIO}.
+ * <p>
+ * Paramètres lus dans config.ini : moteurThreads (deux fois le nombre de processeurs par défaut) et
+ * moteurFile (1024 par défaut), la capacité de la file d'attente.
+ */
+public class MoteurRecepteur implements Canal, AutoCloseable {
+    private final Agent agent;
+    private final ThreadPoolExecutor executeur;
+    private final AtomicLong prochainId = new AtomicLong();
+
+    /**
+     * Constructeur de la classe MoteurRecepteur.
+     *
+     * @param agent l'agent destinataire qui traite les requêtes
+     */
+    public MoteurRecepteur(Agent agent) {
+        this(agent,
+                Configuration.get().getEntier("moteurThreads", 2 * Runtime.getRuntime().availableProcessors()),
+                Configuration.get().getEntier("moteurFile", 1024));
+    }
+
+    /**
+     * Constructeur de la classe MoteurRecepteur.
+     *
+     * @param agent    l'agent destinataire qui traite les requêtes
+     * @param threads  le nombre de requêtes traitées en parallèle
+     * @param capacite la capacité de la file des requêtes en attente
+     */
+    public MoteurRecepteur(Agent agent, int threads, int capacite) {
+        this.agent = agent;
+        AtomicInteger numero = new AtomicInteger();
+        ThreadFactory fabrique = r -> {
+            Thread thread = new Thread(r, "recepteur-" + numero.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executeur = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(capacite), fabrique);
+    }
+
+    /**
+     * Soumet une requête au moteur. Si la file d'attente est pleine ou si le moteur est arrêté, le futur de la requête
+     * est immédiatement complété en erreur avec une {@link RejectedExecutionException}.
+     *
+     * @param contenu les octets du document XML signé contenant la requête
+     * @param nom     le nom du document, utilisé pour les messages et l'archivage
+     * @return la requête, dont le futur sera complété avec la réponse
+     */
+    public Requete soumettre(byte[] contenu, String nom) {
+        return soumettre(contenu, nom, null);
+    }
+
+    /**
+     * Soumet une requête au moteur, en acceptant un résultat en tranches : si la requête en demande un, chaque tranche
+     * est transmise à tranches pendant le traitement, et la réponse contient le document final signé.
+     *
+     * @param contenu  les octets du document XML signé contenant la requête
+     * @param nom      le nom du document, utilisé pour les messages et l'archivage
+     * @param tranches le destinataire des tranches, appelé sur le thread de traitement, ou null pour un résultat en un
+     *                 seul document
+     * @return la requête, dont le futur sera complété avec la réponse
+     */
+    public Requete soumettre(byte[] contenu, String nom, Consumer<byte[]> tranches) {
+        Requete requete = new Requete(prochainId.incrementAndGet(), contenu, nom, tranches);
+        try {
+            executeur.execute(() -> traiter(requete));
+        } catch (RejectedExecutionException e) {
+            Metriques.compter(Metriques.Compteur.ERREURS, 1);
+            requete.getFuture().completeExceptionally(e);
+        }
+        return requete;
+    }
+
+    @Override
+    public CompletableFuture<byte[]> envoyer(byte[] documentSigne, String nom) {
+        return soumettre(documentSigne, nom).getFuture().thenApply(ReponseRequete::getResultatSigne);
+    }
+
+    @Override
+    public CompletableFuture<Void> envoyerEnTranches(byte[] documentSigne, String nom, Consumer<byte[]> tranches) {
+        return soumettre(documentSigne, nom, tranches).getFuture()
+                .thenAccept(reponse -> tranches.accept(reponse.getResultatSigne()));
+    }
+
+    private void traiter(Requete requete) {
+        try {
+            requete.getFuture().complete(agent.traiterRequete(requete));
+        } catch (Throwable e) {
+            // Même une erreur (pile ou mémoire épuisée) doit compléter le futur, sinon l'émetteur attend sans fin.
+            Metriques.compter(Metriques.Compteur.ERREURS, 1);
+            requete.getFuture().completeExceptionally(e);
+        }
+    }
+
+    /**
+     * @return le nombre de requêtes en attente dans la file
+     */
+    public int getEnAttente() {
+        return executeur.getQueue().size();
+    }
+
+    /**
+     * @return le nombre de requêtes en cours de traitement
+     */
+    public int getEnCours() {
+        return executeur.getActiveCount();
+    }
+
+    /**
+     * Arrête le moteur après avoir traité les requêtes déjà soumises.
+     */
+    @Override
+    public void close() {
+        executeur.shutdown();
+        try {
+            executeur.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package agent;
+
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Cette classe regroupe les opérations d'analyse et de sérialisation de documents XML utilisées par les agents.
+ * Les analyseurs et les sérialiseurs sont réutilisés d'un document à l'autre au sein d'un même thread,
+ * plutôt que recréés à chaque appel.
+ */
+public final class OutilsXML {
+    private static final DocumentBuilderFactory FABRIQUE_DOCUMENTS = creerFabriqueDocuments();
+    private static final TransformerFactory FABRIQUE_TRANSFORMATEURS = TransformerFactory.newInstance();
+
+    private static final ThreadLocal<DocumentBuilder> ANALYSEURS = ThreadLocal.withInitial(() -> {
+        try {
+            synchronized (FABRIQUE_DOCUMENTS) {
+                return FABRIQUE_DOCUMENTS.newDocumentBuilder();
+            }
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+    private static final ThreadLocal<Transformer> SERIALISEURS = ThreadLocal.withInitial(() -> {
+        try {
+            synchronized (FABRIQUE_TRANSFORMATEURS) {
+                return FABRIQUE_TRANSFORMATEURS.newTransformer();
+            }
+        } catch (TransformerConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private OutilsXML() {
+    }
+
+    private static DocumentBuilderFactory creerFabriqueDocuments() {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        // Les signatures XML exigent un document analysé avec les espaces de noms.
+        factory.setNamespaceAware(true);
+        try {
+            // Les documents reçus d'un autre agent ne doivent pas pouvoir déclarer de DTD ni d'entités externes.
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+        return factory;
+    }
+
+    /**
+     * Analyse un document XML à partir d'un flux.
+     *
+     * @param in le flux contenant le document XML
+     * @return le document analysé
+     * @throws IOException  si une erreur survient lors de la lecture du flux
+     * @throws SAXException si le document XML est mal formé
+     */
+    public static Document analyser(InputStream in) throws IOException, SAXException {
+        DocumentBuilder builder = ANALYSEURS.get();
+        try {
+            return builder.parse(in);
+        } finally {
+            builder.reset();
+        }
+    }
+
+    /**
+     * Analyse un document XML contenu dans un tableau d'octets.
+     *
+     * @param contenu les octets du document XML
+     * @return le document analysé
+     * @throws IOException  si une erreur survient lors de la lecture
+     * @throws SAXException si le document XML est mal formé
+     */
+    public static Document analyser(byte[] contenu) throws IOException, SAXException {
+        return analyser(new ByteArrayInputStream(contenu));
+    }
+
+    /**
+     * Analyse un document XML contenu dans un fichier.
+     *
+     * @param fichier le chemin d'accès au fichier XML
+     * @return le document analysé
+     * @throws IOException  si une erreur survient lors de la lecture du fichier
+     * @throws SAXException si le document XML est mal formé
+     */
+    public static Document analyser(Path fichier) throws IOException, SAXException {
+        try (InputStream in = Files.newInputStream(fichier)) {
+            return analyser(in);
+        }
+    }
+
+    /**
+     * Crée un nouveau document XML vide.
+     *
+     * @return le document créé
+     */
+    public static Document nouveauDocument() {
+        DocumentBuilder builder = ANALYSEURS.get();
+        return builder.newDocument();
+    }
+
+    /**
+     * Sérialise un document XML dans un flux.
+     *
+     * @param document le document à sérialiser
+     * @param out      le flux de sortie, qui n'est pas fermé par cette méthode
+     * @throws TransformerException si une erreur survient lors de la sérialisation
+     */
+    public static void ecrire(Document document, OutputStream out) throws TransformerException {
+        Transformer transformer = SERIALISEURS.get();
+        try {
+            transformer.transform(new DOMSource(document), new StreamResult(out));
+        } finally {
+            transformer.reset();
+        }
+    }
+
+    /**
+     * Sérialise un document XML dans un tableau d'octets.
+     *
+     * @param document le document à sérialiser
+     * @return les octets du document
+     * @throws TransformerException si une erreur survient lors de la sérialisation
+     */
+    public static byte[] serialiser(Document document) throws TransformerException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        ecrire(document, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Sérialise un document XML dans un fichier.
+     *
+     * @param document le document à sérialiser
+     * @param fichier  le chemin d'accès au fichier à créer ou remplacer
+     * @throws TransformerException si une erreur survient lors de la sérialisation
+     * @throws IOException          si une erreur survient lors de l'écriture du fichier
+     */
+    public static void ecrire(Document document, Path fichier) throws TransformerException, IOException {
+        try (OutputStream out = Files.newOutputStream(fichier)) {
+            ecrire(document, out);
+        }
+    }
+}
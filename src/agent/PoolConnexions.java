@@ -0,0 +1,460 @@
+package agent;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cette classe représente un pool de connexions JDBC de taille bornée, dédié à une base de données logique
+ * (db_relationnelle_1, db_relationnelle_2...). Il existe un seul pool par base de données dans le processus.
+ * Les connexions sont validées et la base de données est sélectionnée à chaque emprunt, et le pool mesure le temps
+ * d'attente et l'utilisation des connexions.
+ * <p>
+ * Le pool sert aussi de cloison entre les bases : au plus poolTaille requêtes s'exécutent à la fois sur une base, et
+ * au plus poolFileMax emprunteurs attendent une connexion. Au-delà, l'emprunt échoue immédiatement au lieu d'attendre,
+ * pour qu'une base saturée ne retienne pas tous les threads de l'agent. Chaque instruction préparée est limitée à
+ * requeteTimeoutSecondes d'exécution.
+ * <p>
+ * Chaque connexion conserve les instructions préparées qui y ont été créées, indexées par texte SQL : une requête de
+ * forme déjà rencontrée sur la connexion réutilise son instruction, préparée une seule fois par le serveur.
+ * <p>
+ * Paramètres lus dans config.ini : poolTaille (8 par défaut), poolAttenteMs (30000 par défaut),
+ * poolValidationSecondes (2 par défaut), instructionsParConnexion (64 par défaut), le nombre d'instructions préparées
+ * conservées par connexion, preparationServeur (true par défaut), qui active la préparation des instructions par
+ * le serveur MySQL, poolFileMax (64 par défaut) et requeteTimeoutSecondes (30 par défaut, 0 pour ne pas limiter).
+ */
+public final class PoolConnexions {
+    private static final Map<String, PoolConnexions> POOLS = new ConcurrentHashMap<>();
+
+    private final String database;
+    private final String url;
+    private final Properties proprietesConnexion;
+    private final int taille;
+    private final long attenteMaxMs;
+    private final int validationSecondes;
+    private final int instructionsParConnexion;
+    private final int fileMax;
+    private final int timeoutSecondes;
+
+    /**
+     * Les connexions ouvertes et actuellement libres, la plus récemment rendue en tête.
+     */
+    private final LinkedBlockingDeque<ConnexionPoolee> libres = new LinkedBlockingDeque<>();
+    /**
+     * Un permis par connexion pouvant être empruntée : borne le nombre de connexions ouvertes.
+     */
+    private final Semaphore permis;
+    /**
+     * Le nombre d'emprunteurs qui attendent actuellement un permis.
+     */
+    private final AtomicInteger enAttente = new AtomicInteger();
+
+    private final LongAdder emprunts = new LongAdder();
+    private final LongAdder attenteTotaleNanos = new LongAdder();
+    private final AtomicLong attenteMaxNanos = new AtomicLong();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder refus = new LongAdder();
+    private final LongAdder connexionsCreees = new LongAdder();
+    private final LongAdder connexionsInvalides = new LongAdder();
+    private final LongAdder preparations = new LongAdder();
+    private final LongAdder reutilisations = new LongAdder();
+    private final AtomicInteger actives = new AtomicInteger();
+    private volatile boolean ferme = false;
+
+    private PoolConnexions(String database, Configuration config) {
+        this.database = database;
+        this.url = config.getPropriete("db");
+        if (url.startsWith(BaseEmbarquee.PREFIXE)) {
+            BaseEmbarquee.enregistrer();
+        }
+        this.proprietesConnexion = new Properties();
+        proprietesConnexion.setProperty("user", config.getPropriete("dbUser", ""));
+        proprietesConnexion.setProperty("password", config.getPropriete("dbPass", ""));
+        if (config.getBooleen("preparationServeur", true)) {
+            proprietesConnexion.setProperty("useServerPrepStmts", "true");
+        }
+        this.taille = config.getEntier("poolTaille", 8);
+        this.attenteMaxMs = config.getEntier("poolAttenteMs", 30000);
+        this.validationSecondes = config.getEntier("poolValidationSecondes", 2);
+        this.instructionsParConnexion = config.getEntier("instructionsParConnexion", 64);
+        this.fileMax = config.getEntier("poolFileMax", 64);
+        this.timeoutSecondes = config.getEntier("requeteTimeoutSecondes", 30);
+        this.permis = new Semaphore(taille, true);
+    }
+
+    /**
+     * Retourne le pool de connexions associé à une base de données, en le créant lors du premier appel.
+     *
+     * @param database le nom de la base de données
+     * @return le pool de connexions de cette base de données
+     */
+    public static PoolConnexions pour(String database) {
+        return POOLS.computeIfAbsent(database, db -> new PoolConnexions(db, Configuration.get()));
+    }
+
+    /**
+     * Retourne l'ensemble des pools créés dans ce processus.
+     *
+     * @return les pools de connexions existants
+     */
+    public static Collection<PoolConnexions> tous() {
+        return new ArrayList<>(POOLS.values());
+    }
+
+    /**
+     * Ferme tous les pools créés dans ce processus.
+     */
+    public static void fermerTous() {
+        for (PoolConnexions pool : tous()) {
+            pool.fermer();
+        }
+    }
+
+    /**
+     * Emprunte une connexion au pool, en attendant au plus poolAttenteMs qu'une connexion se libère.
+     * La connexion retournée a été validée et la base de données du pool y est sélectionnée.
+     *
+     * @return l'emprunt, à fermer pour rendre la connexion au pool
+     * @throws SQLTransientConnectionException si aucune connexion n'est libre et que poolFileMax emprunteurs attendent
+     *                                         déjà
+     * @throws SQLTimeoutException             si aucune connexion ne s'est libérée à temps
+     * @throws SQLException                    si une connexion ne peut pas être ouverte
+     */
+    public Emprunt emprunter() throws SQLException {
+        if (ferme) {
+            throw new SQLException("Le pool de connexions de " + database + " est fermé");
+        }
+        long debut = System.nanoTime();
+        long debutEtape = Metriques.debut();
+        try {
+            // Un permis libre est pris sans attendre, dans l'ordre d'arrivée puisque le sémaphore est équitable.
+            if (!permis.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+                if (enAttente.incrementAndGet() > fileMax) {
+                    enAttente.decrementAndGet();
+                    refus.increment();
+                    throw new SQLTransientConnectionException("Base " + database + " saturée : " + taille
+                            + " requêtes en cours et " + fileMax + " en attente");
+                }
+                boolean obtenu;
+                try {
+                    obtenu = permis.tryAcquire(attenteMaxMs, TimeUnit.MILLISECONDS);
+                } finally {
+                    enAttente.decrementAndGet();
+                }
+                if (!obtenu) {
+                    expirations.increment();
+                    throw new SQLTimeoutException("Aucune connexion libre vers " + database + " après " + attenteMaxMs + " ms");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Attente d'une connexion interrompue", e);
+        }
+        long attente = System.nanoTime() - debut;
+        attenteTotaleNanos.add(attente);
+        attenteMaxNanos.accumulateAndGet(attente, Math::max);
+        emprunts.increment();
+
+        try {
+            ConnexionPoolee connexion = connexionValide();
+            if (!database.equals(connexion.connexion.getCatalog())) {
+                connexion.connexion.setCatalog(database);
+            }
+            actives.incrementAndGet();
+            Metriques.fin(Etape.CONNEXION, debutEtape);
+            return new Emprunt(connexion);
+        } catch (SQLException | RuntimeException e) {
+            permis.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Retourne une connexion libre encore valide, ou en ouvre une nouvelle si aucune ne l'est.
+     */
+    private ConnexionPoolee connexionValide() throws SQLException {
+        ConnexionPoolee connexion;
+        while ((connexion = libres.pollFirst()) != null) {
+            if (connexion.connexion.isValid(validationSecondes)) {
+                return connexion;
+            }
+            connexionsInvalides.increment();
+            fermerSilencieusement(connexion);
+        }
+        connexion = new ConnexionPoolee(DriverManager.getConnection(url, proprietesConnexion));
+        connexionsCreees.increment();
+        return connexion;
+    }
+
+    private void rendre(ConnexionPoolee connexion, boolean reutilisable) {
+        actives.decrementAndGet();
+        if (reutilisable && !ferme) {
+            libres.offerFirst(connexion);
+        } else {
+            fermerSilencieusement(connexion);
+        }
+        permis.release();
+    }
+
+    /**
+     * Ferme le pool et toutes ses connexions libres. Les connexions empruntées sont fermées à leur retour.
+     */
+    public void fermer() {
+        ferme = true;
+        POOLS.remove(database, this);
+        List<ConnexionPoolee> aFermer = new ArrayList<>();
+        libres.drainTo(aFermer);
+        aFermer.forEach(PoolConnexions::fermerSilencieusement);
+    }
+
+    private static void fermerSilencieusement(ConnexionPoolee connexion) {
+        try {
+            connexion.connexion.close();
+        } catch (SQLException e) {
+            // La connexion est abandonnée de toute façon.
+        }
+    }
+
+    /**
+     * @return le nom de la base de données servie par ce pool
+     */
+    public String getDatabase() {
+        return database;
+    }
+
+    /**
+     * @return le nombre maximal de connexions ouvertes par ce pool
+     */
+    public int getTaille() {
+        return taille;
+    }
+
+    /**
+     * @return le nombre de connexions actuellement empruntées
+     */
+    public int getActives() {
+        return actives.get();
+    }
+
+    /**
+     * @return le nombre de connexions ouvertes et libres
+     */
+    public int getLibres() {
+        return libres.size();
+    }
+
+    /**
+     * @return le nombre total d'emprunts réussis
+     */
+    public long getEmprunts() {
+        return emprunts.sum();
+    }
+
+    /**
+     * @return le nombre d'emprunts abandonnés faute de connexion libre à temps
+     */
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    /**
+     * @return le nombre d'emprunts refusés sans attente car trop d'emprunteurs attendaient déjà
+     */
+    public long getRefus() {
+        return refus.sum();
+    }
+
+    /**
+     * @return le nombre d'emprunteurs qui attendent actuellement une connexion
+     */
+    public int getEnAttente() {
+        return enAttente.get();
+    }
+
+    /**
+     * @return le délai d'exécution maximal des instructions préparées par ce pool, en secondes, ou 0 sans limite
+     */
+    public int getTimeoutSecondes() {
+        return timeoutSecondes;
+    }
+
+    /**
+     * @return le nombre de connexions ouvertes depuis la création du pool
+     */
+    public long getConnexionsCreees() {
+        return connexionsCreees.sum();
+    }
+
+    /**
+     * @return le nombre de connexions libres écartées car invalides
+     */
+    public long getConnexionsInvalides() {
+        return connexionsInvalides.sum();
+    }
+
+    /**
+     * @return le nombre d'instructions préparées créées
+     */
+    public long getPreparations() {
+        return preparations.sum();
+    }
+
+    /**
+     * @return le nombre de fois où une instruction préparée déjà créée a été réutilisée
+     */
+    public long getReutilisations() {
+        return reutilisations.sum();
+    }
+
+    /**
+     * @return le temps d'attente moyen d'un emprunt, en microsecondes
+     */
+    public long getAttenteMoyenneMicros() {
+        long n = emprunts.sum();
+        return n == 0 ? 0 : attenteTotaleNanos.sum() / n / 1000;
+    }
+
+    /**
+     * @return le temps d'attente maximal observé pour un emprunt, en microsecondes
+     */
+    public long getAttenteMaxMicros() {
+        return attenteMaxNanos.get() / 1000;
+    }
+
+    /**
+     * Retourne une description lisible de l'utilisation du pool.
+     *
+     * @return les statistiques du pool
+     */
+    public String getStatistiques() {
+        return "Pool " + database + " : " + getActives() + "/" + taille + " actives, " + getLibres() + " libres, "
+                + getEnAttente() + "/" + fileMax + " en attente, "
+                + getEmprunts() + " emprunts, " + getExpirations() + " expirations, " + getRefus() + " refus, "
+                + getConnexionsCreees() + " connexions créées, " + getConnexionsInvalides() + " invalides, "
+                + getPreparations() + " instructions préparées, " + getReutilisations() + " réutilisées, "
+                + "attente moyenne " + getAttenteMoyenneMicros() + " µs, max " + getAttenteMaxMicros() + " µs";
+    }
+
+    @Override
+    public String toString() {
+        return getStatistiques();
+    }
+
+    /**
+     * Une connexion ouverte par le pool, avec les instructions préparées qui y ont été créées, de la moins récemment
+     * utilisée à la plus récemment utilisée. Elle n'est manipulée que par l'emprunteur en cours.
+     */
+    private final class ConnexionPoolee {
+        private final Connection connexion;
+        private final LinkedHashMap<String, PreparedStatement> instructions = new LinkedHashMap<>(16, 0.75f, true);
+
+        private ConnexionPoolee(Connection connexion) {
+            this.connexion = connexion;
+        }
+
+        private PreparedStatement preparer(String sql) throws SQLException {
+            PreparedStatement instruction = instructions.get(sql);
+            if (instruction != null && !instruction.isClosed()) {
+                reutilisations.increment();
+                return instruction;
+            }
+            instruction = connexion.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            instruction.setQueryTimeout(timeoutSecondes);
+            preparations.increment();
+            instructions.put(sql, instruction);
+            if (instructions.size() > instructionsParConnexion) {
+                Iterator<PreparedStatement> plusAncienne = instructions.values().iterator();
+                PreparedStatement evincee = plusAncienne.next();
+                plusAncienne.remove();
+                evincee.close();
+            }
+            return instruction;
+        }
+    }
+
+    /**
+     * Cette classe représente une connexion empruntée au pool. Sa fermeture rend la connexion au pool.
+     */
+    public final class Emprunt implements AutoCloseable {
+        private final ConnexionPoolee connexion;
+        private boolean reutilisable = true;
+        private boolean rendu = false;
+
+        private Emprunt(ConnexionPoolee connexion) {
+            this.connexion = connexion;
+        }
+
+        /**
+         * @return la connexion empruntée, qui ne doit pas être fermée directement
+         */
+        public Connection getConnexion() {
+            return connexion.connexion;
+        }
+
+        /**
+         * Retourne une instruction préparée pour le texte SQL donné, en réutilisant celle déjà créée sur cette
+         * connexion pour le même texte. L'instruction appartient à la connexion et ne doit pas être fermée ; ses
+         * paramètres doivent être liés à nouveau avant chaque exécution.
+         *
+         * @param sql le texte SQL paramétré
+         * @return l'instruction préparée
+         * @throws SQLException si l'instruction ne peut pas être préparée
+         */
+        public PreparedStatement preparer(String sql) throws SQLException {
+            return connexion.preparer(sql);
+        }
+
+        /**
+         * Indique que la connexion ne doit pas être réutilisée, par exemple après une erreur d'entrée/sortie.
+         * Elle sera fermée au lieu d'être rendue au pool.
+         */
+        public void invalider() {
+            reutilisable = false;
+        }
+
+        /**
+         * Invalide la connexion si une erreur survenue en l'utilisant indique qu'elle est rompue (état SQL de classe
+         * 08) ou qu'une requête y a dépassé son délai : ni la connexion ni ses instructions préparées ne sont alors
+         * réutilisées.
+         *
+         * @param e l'erreur survenue
+         * @return la même erreur, à lever par l'appelant
+         */
+        public SQLException echec(SQLException e) {
+            String etat = e.getSQLState();
+            if (e instanceof SQLTimeoutException || (etat != null && etat.startsWith("08"))) {
+                invalider();
+            }
+            return e;
+        }
+
+        /**
+         * Rend la connexion au pool.
+         */
+        @Override
+        public void close() {
+            if (!rendu) {
+                rendu = true;
+                rendre(connexion, reutilisable);
+            }
+        }
+    }
+}
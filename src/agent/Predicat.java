@@ -0,0 +1,243 @@
+package agent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Cette interface représente une condition typée d'une {@link RequeteSelect}, obtenue par l'analyse de l'élément
+ * CONDITION. Les valeurs littérales ne sont jamais recopiées dans le texte SQL : elles deviennent des paramètres
+ * liés d'une instruction préparée.
+ */
+public interface Predicat {
+    /**
+     * Ajoute la forme SQL paramétrée de la condition à une requête en cours de compilation.
+     *
+     * @param sql        le texte SQL en cours de construction
+     * @param parametres les valeurs des paramètres, dans l'ordre des "?" du texte SQL
+     */
+    void compiler(StringBuilder sql, List<Object> parametres);
+
+    /**
+     * Ajoute à un ensemble les noms des colonnes référencées par la condition, tels qu'écrits dans la requête.
+     *
+     * @param colonnes l'ensemble à compléter
+     */
+    void colonnes(Set<String> colonnes);
+
+    /**
+     * Une comparaison entre une colonne et une valeur littérale ou une autre colonne, avec l'un des opérateurs
+     * =, &lt;&gt;, &lt;, &lt;=, &gt;, &gt;=, LIKE ou NOT LIKE.
+     */
+    final class Comparaison implements Predicat {
+        private final String colonne;
+        private final String operateur;
+        private final Object valeur;
+        private final String colonneDroite;
+
+        /**
+         * @param colonne       la colonne comparée
+         * @param operateur     l'opérateur de comparaison
+         * @param valeur        la valeur littérale, si la comparaison ne porte pas sur une autre colonne
+         * @param colonneDroite l'autre colonne comparée, ou null
+         */
+        Comparaison(String colonne, String operateur, Object valeur, String colonneDroite) {
+            this.colonne = colonne;
+            this.operateur = operateur;
+            this.valeur = valeur;
+            this.colonneDroite = colonneDroite;
+        }
+
+        /**
+         * @return la colonne comparée
+         */
+        public String getColonne() {
+            return colonne;
+        }
+
+        /**
+         * @return l'opérateur de comparaison
+         */
+        public String getOperateur() {
+            return operateur;
+        }
+
+        /**
+         * @return l'autre colonne comparée, ou null si la comparaison porte sur une valeur littérale
+         */
+        public String getColonneDroite() {
+            return colonneDroite;
+        }
+
+        @Override
+        public void compiler(StringBuilder sql, List<Object> parametres) {
+            sql.append(Identifiants.citer(colonne)).append(' ').append(operateur).append(' ');
+            if (colonneDroite != null) {
+                sql.append(Identifiants.citer(colonneDroite));
+            } else {
+                sql.append('?');
+                parametres.add(valeur);
+            }
+        }
+
+        @Override
+        public void colonnes(Set<String> colonnes) {
+            colonnes.add(colonne);
+            if (colonneDroite != null) {
+                colonnes.add(colonneDroite);
+            }
+        }
+    }
+
+    /**
+     * Une condition colonne [NOT] BETWEEN minimum AND maximum.
+     */
+    final class Entre implements Predicat {
+        private final String colonne;
+        private final boolean negation;
+        private final Object minimum;
+        private final Object maximum;
+
+        Entre(String colonne, boolean negation, Object minimum, Object maximum) {
+            this.colonne = colonne;
+            this.negation = negation;
+            this.minimum = minimum;
+            this.maximum = maximum;
+        }
+
+        @Override
+        public void compiler(StringBuilder sql, List<Object> parametres) {
+            sql.append(Identifiants.citer(colonne)).append(negation ? " NOT BETWEEN ? AND ?" : " BETWEEN ? AND ?");
+            parametres.add(minimum);
+            parametres.add(maximum);
+        }
+
+        @Override
+        public void colonnes(Set<String> colonnes) {
+            colonnes.add(colonne);
+        }
+    }
+
+    /**
+     * Une condition colonne [NOT] IN (valeur, ...).
+     */
+    final class Dans implements Predicat {
+        private final String colonne;
+        private final boolean negation;
+        private final List<Object> valeurs;
+
+        Dans(String colonne, boolean negation, List<Object> valeurs) {
+            this.colonne = colonne;
+            this.negation = negation;
+            this.valeurs = Collections.unmodifiableList(new ArrayList<>(valeurs));
+        }
+
+        @Override
+        public void compiler(StringBuilder sql, List<Object> parametres) {
+            sql.append(Identifiants.citer(colonne)).append(negation ? " NOT IN (" : " IN (");
+            for (int i = 0; i < valeurs.size(); i++) {
+                sql.append(i == 0 ? "?" : ", ?");
+            }
+            sql.append(')');
+            parametres.addAll(valeurs);
+        }
+
+        @Override
+        public void colonnes(Set<String> colonnes) {
+            colonnes.add(colonne);
+        }
+    }
+
+    /**
+     * Une condition colonne IS [NOT] NULL.
+     */
+    final class EstNul implements Predicat {
+        private final String colonne;
+        private final boolean negation;
+
+        EstNul(String colonne, boolean negation) {
+            this.colonne = colonne;
+            this.negation = negation;
+        }
+
+        @Override
+        public void compiler(StringBuilder sql, List<Object> parametres) {
+            sql.append(Identifiants.citer(colonne)).append(negation ? " IS NOT NULL" : " IS NULL");
+        }
+
+        @Override
+        public void colonnes(Set<String> colonnes) {
+            colonnes.add(colonne);
+        }
+    }
+
+    /**
+     * Une conjonction (AND) ou une disjonction (OR) de plusieurs conditions.
+     */
+    final class Combinaison implements Predicat {
+        private final boolean conjonction;
+        private final List<Predicat> termes;
+
+        Combinaison(boolean conjonction, List<Predicat> termes) {
+            this.conjonction = conjonction;
+            this.termes = Collections.unmodifiableList(new ArrayList<>(termes));
+        }
+
+        /**
+         * @return true s'il s'agit d'une conjonction (AND), false pour une disjonction (OR)
+         */
+        public boolean estConjonction() {
+            return conjonction;
+        }
+
+        /**
+         * @return les conditions combinées
+         */
+        public List<Predicat> getTermes() {
+            return termes;
+        }
+
+        @Override
+        public void compiler(StringBuilder sql, List<Object> parametres) {
+            sql.append('(');
+            for (int i = 0; i < termes.size(); i++) {
+                if (i > 0) {
+                    sql.append(conjonction ? " AND " : " OR ");
+                }
+                termes.get(i).compiler(sql, parametres);
+            }
+            sql.append(')');
+        }
+
+        @Override
+        public void colonnes(Set<String> colonnes) {
+            for (Predicat terme : termes) {
+                terme.colonnes(colonnes);
+            }
+        }
+    }
+
+    /**
+     * La négation (NOT) d'une condition.
+     */
+    final class Negation implements Predicat {
+        private final Predicat terme;
+
+        Negation(Predicat terme) {
+            this.terme = terme;
+        }
+
+        @Override
+        public void compiler(StringBuilder sql, List<Object> parametres) {
+            sql.append("NOT (");
+            terme.compiler(sql, parametres);
+            sql.append(')');
+        }
+
+        @Override
+        public void colonnes(Set<String> colonnes) {
+            terme.colonnes(colonnes);
+        }
+    }
+}
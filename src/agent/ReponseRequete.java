@@ -0,0 +1,34 @@
+package agent;
+
+/**
+ * Cette classe représente la réponse à une {@link Requete} traitée par un {@link MoteurRecepteur}.
+ */
+public final class ReponseRequete {
+    private final long id;
+    private final byte[] resultatSigne;
+
+    /**
+     * Constructeur de la classe ReponseRequete.
+     *
+     * @param id            l'identifiant de corrélation de la requête à laquelle elle répond
+     * @param resultatSigne les octets du document XML de résultat signé
+     */
+    ReponseRequete(long id, byte[] resultatSigne) {
+        this.id = id;
+        this.resultatSigne = resultatSigne;
+    }
+
+    /**
+     * @return l'identifiant de corrélation de la requête à laquelle elle répond
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return les octets du document XML de résultat signé
+     */
+    public byte[] getResultatSigne() {
+        return resultatSigne;
+    }
+}
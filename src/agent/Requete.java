@@ -0,0 +1,77 @@
+package agent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Cette classe représente une requête soumise à un {@link MoteurRecepteur}. Elle porte un identifiant de corrélation
+ * unique dans le moteur et un futur qui est complété avec la réponse une fois la requête traitée.
+ */
+public final class Requete {
+    private final long id;
+    private final byte[] contenu;
+    private final String nom;
+    private final Consumer<byte[]> tranches;
+    private final CompletableFuture<ReponseRequete> future = new CompletableFuture<>();
+
+    /**
+     * Constructeur de la classe Requete.
+     *
+     * @param id      l'identifiant de corrélation de la requête
+     * @param contenu les octets du document XML signé contenant la requête
+     * @param nom     le nom du document, utilisé pour les messages et l'archivage
+     */
+    Requete(long id, byte[] contenu, String nom) {
+        this(id, contenu, nom, null);
+    }
+
+    /**
+     * Constructeur de la classe Requete.
+     *
+     * @param id       l'identifiant de corrélation de la requête
+     * @param contenu  les octets du document XML signé contenant la requête
+     * @param nom      le nom du document, utilisé pour les messages et l'archivage
+     * @param tranches le destinataire des tranches du résultat, ou null si l'émetteur ne les accepte pas
+     */
+    Requete(long id, byte[] contenu, String nom, Consumer<byte[]> tranches) {
+        this.id = id;
+        this.contenu = contenu;
+        this.nom = nom;
+        this.tranches = tranches;
+    }
+
+    /**
+     * @return l'identifiant de corrélation de la requête
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return les octets du document XML signé contenant la requête
+     */
+    public byte[] getContenu() {
+        return contenu;
+    }
+
+    /**
+     * @return le nom du document, utilisé pour les messages et l'archivage
+     */
+    public String getNom() {
+        return nom;
+    }
+
+    /**
+     * @return le destinataire des tranches du résultat, ou null si l'émetteur ne les accepte pas
+     */
+    public Consumer<byte[]> getTranches() {
+        return tranches;
+    }
+
+    /**
+     * @return le futur complété avec la réponse, ou en erreur si le traitement a échoué
+     */
+    public CompletableFuture<ReponseRequete> getFuture() {
+        return future;
+    }
+}
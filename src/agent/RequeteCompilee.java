@@ -0,0 +1,82 @@
+package agent;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Cette classe représente une {@link RequeteSelect} compilée : un texte SQL paramétré, identique pour toutes les
+ * requêtes de même forme, et les valeurs de ses paramètres. Le texte SQL sert de clé au cache d'instructions préparées
+ * de chaque connexion.
+ */
+public final class RequeteCompilee {
+    private final String sql;
+    private final List<Object> parametres;
+
+    RequeteCompilee(String sql, List<Object> parametres) {
+        this.sql = sql;
+        this.parametres = Collections.unmodifiableList(new ArrayList<>(parametres));
+    }
+
+    /**
+     * @return le texte SQL paramétré
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return les valeurs des paramètres, dans l'ordre des "?" du texte SQL
+     */
+    public List<Object> getParametres() {
+        return parametres;
+    }
+
+    /**
+     * Lie les valeurs des paramètres à une instruction préparée à partir du texte SQL de cette requête.
+     *
+     * @param instruction l'instruction préparée
+     * @throws SQLException si une valeur ne peut pas être liée
+     */
+    public void lier(PreparedStatement instruction) throws SQLException {
+        instruction.clearParameters();
+        for (int i = 0; i < parametres.size(); i++) {
+            instruction.setObject(i + 1, parametres.get(i));
+        }
+    }
+
+    /**
+     * Retourne le texte SQL dans lequel chaque paramètre est remplacé par sa valeur littérale échappée. Ce texte est
+     * destiné à l'affichage et sert de forme canonique de la requête.
+     *
+     * @return le texte SQL avec les valeurs des paramètres
+     */
+    public String enTexte() {
+        StringBuilder texte = new StringBuilder(sql.length() + 16 * parametres.size());
+        int parametre = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '?') {
+                Object valeur = parametres.get(parametre++);
+                if (valeur instanceof String) {
+                    texte.append('\'').append(((String) valeur).replace("\\", "\\\\").replace("'", "''")).append('\'');
+                } else if (valeur instanceof BigDecimal) {
+                    texte.append(((BigDecimal) valeur).toPlainString());
+                } else {
+                    texte.append(valeur);
+                }
+            } else {
+                texte.append(c);
+            }
+        }
+        return texte.toString();
+    }
+
+    @Override
+    public String toString() {
+        return enTexte();
+    }
+}
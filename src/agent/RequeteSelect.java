@@ -0,0 +1,364 @@
+package agent;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Cette classe représente une requête SELECT sous forme d'arbre typé : les champs et les tables lus, la condition
+ * éventuelle, les jointures déclarées par des éléments JOINTURE (GAUCHE="table.colonne" DROITE="table.colonne"), le
+ * codage demandé pour le résultat et son éventuel découpage en tranches, et la pagination demandée par les éléments
+ * LIMITE (nombre maximal de tuples) et DECALAGE (nombre de tuples sautés, avec LIMITE seulement). Elle est obtenue à
+ * partir d'un élément XML SELECT, dont les noms de champs et de tables sont validés et dont la condition est analysée
+ * par {@link AnalyseurCondition}, puis compilée en une {@link RequeteCompilee} paramétrée. Deux requêtes qui ne
+ * diffèrent que par leurs valeurs littérales ont donc le même texte SQL.
+ */
+public final class RequeteSelect {
+    /**
+     * L'attribut de l'élément SELECT qui demande un résultat en tranches, et donne le nombre de tuples par tranche.
+     */
+    public static final String TRANCHES = "TRANCHES";
+
+    private final List<String> champs;
+    private final List<String> tables;
+    private final Predicat condition;
+    private final List<Jointure> jointures;
+    private final Compression compression;
+    private final int tranche;
+    private final long limite;
+    private final long decalage;
+
+    /**
+     * Constructeur de la classe RequeteSelect.
+     *
+     * @param champs    les champs lus (noms de colonnes, éventuellement qualifiés, ou *)
+     * @param tables    les tables lues
+     * @param condition la condition, ou null
+     */
+    public RequeteSelect(List<String> champs, List<String> tables, Predicat condition) {
+        this(champs, tables, condition, Collections.emptyList());
+    }
+
+    /**
+     * Constructeur de la classe RequeteSelect.
+     *
+     * @param champs    les champs lus (noms de colonnes, éventuellement qualifiés, ou *)
+     * @param tables    les tables lues
+     * @param condition la condition, ou null
+     * @param jointures les jointures entre les tables
+     */
+    public RequeteSelect(List<String> champs, List<String> tables, Predicat condition, List<Jointure> jointures) {
+        this(champs, tables, condition, jointures, null);
+    }
+
+    /**
+     * Constructeur de la classe RequeteSelect.
+     *
+     * @param champs      les champs lus (noms de colonnes, éventuellement qualifiés, ou *)
+     * @param tables      les tables lues
+     * @param condition   la condition, ou null
+     * @param jointures   les jointures entre les tables
+     * @param compression la compression du résultat au codage compact, ou null pour le codage XML habituel
+     */
+    public RequeteSelect(List<String> champs, List<String> tables, Predicat condition, List<Jointure> jointures,
+                         Compression compression) {
+        this(champs, tables, condition, jointures, compression, 0);
+    }
+
+    /**
+     * Constructeur de la classe RequeteSelect.
+     *
+     * @param champs      les champs lus (noms de colonnes, éventuellement qualifiés, ou *)
+     * @param tables      les tables lues
+     * @param condition   la condition, ou null
+     * @param jointures   les jointures entre les tables
+     * @param compression la compression du résultat au codage compact, ou null pour le codage XML habituel
+     * @param tranche     le nombre de tuples par tranche du résultat, ou 0 pour un résultat en un seul document
+     */
+    public RequeteSelect(List<String> champs, List<String> tables, Predicat condition, List<Jointure> jointures,
+                         Compression compression, int tranche) {
+        this(champs, tables, condition, jointures, compression, tranche, 0, 0);
+    }
+
+    /**
+     * Constructeur de la classe RequeteSelect.
+     *
+     * @param champs      les champs lus (noms de colonnes, éventuellement qualifiés, ou *)
+     * @param tables      les tables lues
+     * @param condition   la condition, ou null
+     * @param jointures   les jointures entre les tables
+     * @param compression la compression du résultat au codage compact, ou null pour le codage XML habituel
+     * @param tranche     le nombre de tuples par tranche du résultat, ou 0 pour un résultat en un seul document
+     * @param limite      le nombre maximal de tuples du résultat, ou 0 pour ne pas le limiter
+     * @param decalage    le nombre de tuples sautés au début du résultat, qui demande une limite s'il n'est pas nul
+     */
+    public RequeteSelect(List<String> champs, List<String> tables, Predicat condition, List<Jointure> jointures,
+                         Compression compression, int tranche, long limite, long decalage) {
+        if (limite < 0 || decalage < 0 || (decalage > 0 && limite == 0)) {
+            throw new IllegalArgumentException("Pagination invalide : LIMITE " + limite + ", DECALAGE " + decalage);
+        }
+        if (tranche < 0) {
+            throw new IllegalArgumentException("Le nombre de tuples par tranche doit être positif : " + tranche);
+        }
+        if (champs.isEmpty() || tables.isEmpty()) {
+            throw new IllegalArgumentException("Une requête doit lire au moins un champ d'au moins une table");
+        }
+        this.champs = Collections.unmodifiableList(new ArrayList<>(champs));
+        this.tables = Collections.unmodifiableList(new ArrayList<>(tables));
+        this.condition = condition;
+        this.jointures = Collections.unmodifiableList(new ArrayList<>(jointures));
+        this.compression = compression;
+        this.tranche = tranche;
+        this.limite = limite;
+        this.decalage = decalage;
+    }
+
+    /**
+     * Analyse un élément XML SELECT.
+     *
+     * @param select l'élément SELECT
+     * @return la requête typée
+     * @throws IllegalArgumentException si l'élément ne décrit pas une requête acceptée
+     */
+    public static RequeteSelect analyser(Element select) {
+        List<String> champs = new ArrayList<>();
+        for (Element champ : enfants(enfant(select, "CHAMPS"), "CHAMP")) {
+            champs.add(validerChamp(champ.getTextContent()));
+        }
+        List<String> tables = new ArrayList<>();
+        for (Element table : enfants(enfant(select, "TABLES"), "TABLE")) {
+            tables.add(Identifiants.valider(table.getTextContent(), false));
+        }
+        Element conditionElement = enfant(select, "CONDITION");
+        Predicat condition = null;
+        if (conditionElement != null) {
+            if (!enfants(conditionElement, null).isEmpty()) {
+                throw new IllegalArgumentException("La condition ne peut contenir que du texte, pas d'élément XML");
+            }
+            String texte = conditionElement.getTextContent();
+            if (!texte.isBlank()) {
+                condition = AnalyseurCondition.analyser(texte);
+            }
+        }
+        List<Jointure> jointures = new ArrayList<>();
+        for (Element jointure : enfants(select, "JOINTURE")) {
+            jointures.add(new Jointure(jointure.getAttribute("GAUCHE"), jointure.getAttribute("DROITE")));
+        }
+        Compression compression = null;
+        String encodage = select.getAttributeNS(null, EncodageCompact.ENCODAGE);
+        if (EncodageCompact.COMPACT.equals(encodage)) {
+            String nom = select.getAttributeNS(null, EncodageCompact.COMPRESSION);
+            try {
+                compression = nom.isEmpty() ? Compression.DEFLATE : Compression.valueOf(nom);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Compression inconnue : " + nom);
+            }
+        } else if (!encodage.isEmpty() && !"XML".equals(encodage)) {
+            throw new IllegalArgumentException("Codage de résultat inconnu : " + encodage);
+        }
+        int tranche = 0;
+        String tranches = select.getAttributeNS(null, TRANCHES);
+        if (!tranches.isEmpty()) {
+            try {
+                tranche = Integer.parseInt(tranches);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Nombre de tuples par tranche invalide : " + tranches);
+            }
+            if (tranche <= 0) {
+                throw new IllegalArgumentException("Nombre de tuples par tranche invalide : " + tranches);
+            }
+        }
+        long limite = entier(select, "LIMITE");
+        long decalage = entier(select, "DECALAGE");
+        if (limite == 0 && enfant(select, "LIMITE") != null) {
+            throw new IllegalArgumentException("La limite doit être un entier strictement positif");
+        }
+        return new RequeteSelect(champs, tables, condition, jointures, compression, tranche, limite, decalage);
+    }
+
+    /**
+     * Retourne la valeur de l'élément enfant donné, un entier positif ou nul, ou 0 s'il est absent.
+     */
+    private static long entier(Element select, String nom) {
+        Element element = enfant(select, nom);
+        if (element == null) {
+            return 0;
+        }
+        try {
+            long valeur = Long.parseLong(element.getTextContent().trim());
+            if (valeur >= 0) {
+                return valeur;
+            }
+        } catch (NumberFormatException e) {
+            // Signalé ci-dessous.
+        }
+        throw new IllegalArgumentException("Valeur de " + nom + " invalide : " + element.getTextContent());
+    }
+
+    private static String validerChamp(String champ) {
+        String valeur = champ.trim();
+        if (valeur.equals("*")) {
+            return valeur;
+        }
+        if (valeur.endsWith(".*")) {
+            return Identifiants.valider(valeur.substring(0, valeur.length() - 2), false) + ".*";
+        }
+        return Identifiants.valider(valeur, true);
+    }
+
+    /**
+     * Retourne le premier élément enfant direct portant le nom donné, ou null.
+     */
+    static Element enfant(Element parent, String nom) {
+        List<Element> elements = enfants(parent, nom);
+        return elements.isEmpty() ? null : elements.get(0);
+    }
+
+    /**
+     * Retourne les éléments enfants directs portant le nom donné (tous les éléments enfants si le nom est null).
+     */
+    static List<Element> enfants(Element parent, String nom) {
+        List<Element> elements = new ArrayList<>();
+        if (parent == null) {
+            return elements;
+        }
+        for (Node n = parent.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n.getNodeType() == Node.ELEMENT_NODE && (nom == null || nom.equals(n.getNodeName()))) {
+                elements.add((Element) n);
+            }
+        }
+        return elements;
+    }
+
+    /**
+     * Compile la requête en un texte SQL paramétré et la liste des valeurs de ses paramètres.
+     *
+     * @return la requête compilée
+     */
+    public RequeteCompilee compiler() {
+        StringBuilder sql = new StringBuilder(64).append("SELECT ");
+        for (int i = 0; i < champs.size(); i++) {
+            sql.append(i == 0 ? "" : ", ").append(Identifiants.citer(champs.get(i)));
+        }
+        sql.append(" FROM ");
+        for (int i = 0; i < tables.size(); i++) {
+            sql.append(i == 0 ? "" : ", ").append(Identifiants.citer(tables.get(i)));
+        }
+        List<Object> parametres = new ArrayList<>();
+        // Dans une même base, une jointure est simplement une égalité ajoutée à la condition.
+        List<Predicat> termes = new ArrayList<>();
+        for (Jointure jointure : jointures) {
+            termes.add(new Predicat.Comparaison(jointure.getGauche(), "=", null, jointure.getDroite()));
+        }
+        if (condition != null) {
+            termes.add(condition);
+        }
+        if (!termes.isEmpty()) {
+            sql.append(" WHERE ");
+            (termes.size() == 1 ? termes.get(0) : new Predicat.Combinaison(true, termes)).compiler(sql, parametres);
+        }
+        if (limite > 0) {
+            sql.append(" LIMIT ?");
+            parametres.add(limite);
+            if (decalage > 0) {
+                sql.append(" OFFSET ?");
+                parametres.add(decalage);
+            }
+        }
+        return new RequeteCompilee(sql.toString(), parametres);
+    }
+
+    /**
+     * @return les champs lus
+     */
+    public List<String> getChamps() {
+        return champs;
+    }
+
+    /**
+     * @return les tables lues
+     */
+    public List<String> getTables() {
+        return tables;
+    }
+
+    /**
+     * @return la condition, ou null
+     */
+    public Predicat getCondition() {
+        return condition;
+    }
+
+    /**
+     * @return les jointures entre les tables
+     */
+    public List<Jointure> getJointures() {
+        return jointures;
+    }
+
+    /**
+     * @return la compression du résultat au codage compact, ou null si le résultat est demandé au codage XML habituel
+     */
+    public Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * @return le nombre de tuples par tranche du résultat, ou 0 si le résultat est demandé en un seul document
+     */
+    public int getTranche() {
+        return tranche;
+    }
+
+    /**
+     * @return le nombre maximal de tuples du résultat, ou 0 s'il n'est pas limité
+     */
+    public long getLimite() {
+        return limite;
+    }
+
+    /**
+     * @return le nombre de tuples sautés au début du résultat
+     */
+    public long getDecalage() {
+        return decalage;
+    }
+
+    /**
+     * Une jointure par égalité entre deux colonnes qualifiées de deux tables différentes.
+     */
+    public static final class Jointure {
+        private final String gauche;
+        private final String droite;
+
+        /**
+         * @param gauche la colonne de gauche, sous la forme table.colonne
+         * @param droite la colonne de droite, sous la forme table.colonne
+         * @throws IllegalArgumentException si une colonne n'est pas un identifiant qualifié valide
+         */
+        public Jointure(String gauche, String droite) {
+            this.gauche = Identifiants.valider(gauche, true);
+            this.droite = Identifiants.valider(droite, true);
+            if (Identifiants.table(this.gauche) == null || Identifiants.table(this.droite) == null) {
+                throw new IllegalArgumentException("Les colonnes d'une jointure doivent être qualifiées par leur table");
+            }
+        }
+
+        /**
+         * @return la colonne de gauche, sous la forme table.colonne
+         */
+        public String getGauche() {
+            return gauche;
+        }
+
+        /**
+         * @return la colonne de droite, sous la forme table.colonne
+         */
+        public String getDroite() {
+            return droite;
+        }
+    }
+}
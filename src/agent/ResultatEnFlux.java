@@ -0,0 +1,299 @@
+package agent;
+
+import javax.crypto.Mac;
+import javax.xml.crypto.dsig.CanonicalizationMethod;
+import javax.xml.crypto.dsig.DigestMethod;
+import javax.xml.crypto.dsig.SignatureMethod;
+import javax.xml.crypto.dsig.Transform;
+import javax.xml.crypto.dsig.XMLSignature;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Cette classe écrit un document RESULTAT signé au fil de la lecture des tuples, sans construire d'arbre DOM. Le
+ * document est écrit directement sous sa forme canonique (XML canonique inclusif 1.0, sans déclaration XML), qui est
+ * aussi celle que hachent les vérificateurs : le condensé SHA-256 de la référence enveloppée est donc calculé sur les
+ * octets au fur et à mesure de leur écriture, et l'élément Signature est ajouté à la fin, avant la balise fermante de
+ * l'élément racine.
+ * <p>
+ * Seuls les octets du document sont gardés en mémoire, par blocs de taille fixe recopiés une seule fois dans le tableau
+ * retourné, chaque bloc étant libéré dès sa copie : la mémoire utilisée reste proportionnelle à la taille du résultat,
+ * d'où sa limite de resultatTuplesMax tuples. Un résultat plus grand doit être demandé en tranches (voir
+ * {@link Tranches}), dont chacune est signée et envoyée avant la lecture des suivantes.
+ * <p>
+ * La signature a la même forme que celles de {@link Agent#signerDocument(org.w3c.dom.Document)} : une seule référence
+ * au document entier, avec la seule transformation enveloped-signature, et un KeyInfo qui nomme l'agent (ou la session,
+ * dont l'identifiant et le numéro de séquence sont portés par l'élément racine). Elle est vérifiée par
+ * {@link VerificateurFlux} comme par le validateur DOM.
+ */
+final class ResultatEnFlux implements RouteurRequetes.RecepteurTranches {
+    private static final String RACINE = "RESULTAT";
+
+    private final Blocs octets = new Blocs();
+    private final MessageDigest condense;
+    private final Writer sortie;
+    private final String methodeSignature;
+    private final String nomCle;
+    private final PrivateKey cle;
+    private final AlgorithmeSignature algorithme;
+    private final Session session;
+
+    private ResultatEnFlux(String methodeSignature, String nomCle, PrivateKey cle, AlgorithmeSignature algorithme,
+                           Session session) {
+        try {
+            this.condense = MessageDigest.getInstance("SHA-256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        this.sortie = new BufferedWriter(new OutputStreamWriter(new DigestOutputStream(octets, condense),
+                StandardCharsets.UTF_8), 16 * 1024);
+        this.methodeSignature = methodeSignature;
+        this.nomCle = nomCle;
+        this.cle = cle;
+        this.algorithme = algorithme;
+        this.session = session;
+        try {
+            sortie.write('<');
+            sortie.write(RACINE);
+            if (session != null) {
+                // Les attributs sont écrits dans l'ordre de la forme canonique.
+                attribut(Session.SEQUENCE, Long.toString(session.prochaineSequence()));
+                attribut(Session.SESSION, session.getId());
+            }
+            sortie.write("><TUPLES>");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Commence un résultat signé avec la paire de clés d'un agent.
+     *
+     * @param identifiant l'identifiant de l'agent, nommé par le KeyInfo de la signature
+     * @param algorithme  l'algorithme de signature de l'agent
+     * @param cle         la clé privée de l'agent
+     * @return le résultat, prêt à recevoir les tuples
+     */
+    static ResultatEnFlux avecPaireDeCles(String identifiant, AlgorithmeSignature algorithme, PrivateKey cle) {
+        return new ResultatEnFlux(algorithme.getUri(), identifiant, cle, algorithme, null);
+    }
+
+    /**
+     * Commence un résultat signé en HMAC-SHA256 avec la clé d'envoi d'une session ; l'élément racine reçoit
+     * l'identifiant de la session et le prochain numéro de séquence.
+     *
+     * @param session la session
+     * @return le résultat, prêt à recevoir les tuples
+     */
+    static ResultatEnFlux dansSession(Session session) {
+        return new ResultatEnFlux(SignatureMethod.HMAC_SHA256, Session.PREFIXE + session.getId(), null, null, session);
+    }
+
+    /**
+     * Écrit les tuples d'un lot, un élément TUPLE/CHAMP par tuple, comme {@link Agent#ajouterTuples}.
+     *
+     * @param lot les tuples
+     */
+    @Override
+    public void recevoir(LotColonnes lot) {
+        long debut = Metriques.debut();
+        try {
+            int colonnes = lot.getColonnes().size();
+            for (int ligne = 0; ligne < lot.getTaille(); ligne++) {
+                sortie.write("<TUPLE>");
+                for (int i = 0; i < colonnes; i++) {
+                    if (lot.estNul(ligne, i)) {
+                        sortie.write("<CHAMP NULL=\"true\"></CHAMP>");
+                    } else {
+                        sortie.write("<CHAMP>");
+                        texte(lot.texte(ligne, i));
+                        sortie.write("</CHAMP>");
+                    }
+                }
+                sortie.write("</TUPLE>");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Metriques.fin(Etape.SERIALISATION, debut);
+    }
+
+    /**
+     * Termine le document et le signe.
+     *
+     * @return les octets du document signé
+     * @throws GeneralSecurityException si la signature échoue
+     */
+    byte[] signer() throws GeneralSecurityException {
+        long debut = Metriques.debut();
+        byte[] fin = ("</" + RACINE + ">").getBytes(StandardCharsets.UTF_8);
+        try {
+            sortie.write("</TUPLES>");
+            sortie.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // La transformation enveloped-signature retire l'élément Signature : le document haché se termine donc par
+        // la balise fermante de la racine, qui n'est écrite qu'après la signature.
+        condense.update(fin);
+        String contenuSignedInfo = "<CanonicalizationMethod Algorithm=\"" + CanonicalizationMethod.INCLUSIVE + "\">"
+                + "</CanonicalizationMethod><SignatureMethod Algorithm=\"" + methodeSignature + "\"></SignatureMethod>"
+                + "<Reference URI=\"\"><Transforms><Transform Algorithm=\"" + Transform.ENVELOPED + "\"></Transform>"
+                + "</Transforms><DigestMethod Algorithm=\"" + DigestMethod.SHA256 + "\"></DigestMethod>"
+                + "<DigestValue>" + Base64.getEncoder().encodeToString(condense.digest()) + "</DigestValue>"
+                + "</Reference></SignedInfo>";
+        // Le SignedInfo canonique porte la déclaration d'espace de noms qu'il hérite de l'élément Signature.
+        byte[] signedInfo = ("<SignedInfo xmlns=\"" + XMLSignature.XMLNS + "\">" + contenuSignedInfo)
+                .getBytes(StandardCharsets.UTF_8);
+        byte[] valeur;
+        if (session != null) {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(session.getCleEnvoi());
+            valeur = mac.doFinal(signedInfo);
+        } else {
+            Signature signature = Signature.getInstance(algorithme.getAlgorithmeValeur());
+            signature.initSign(cle);
+            signature.update(signedInfo);
+            valeur = signature.sign();
+        }
+        try {
+            sortie.write("<Signature xmlns=\"" + XMLSignature.XMLNS + "\"><SignedInfo>");
+            sortie.write(contenuSignedInfo);
+            sortie.write("<SignatureValue>" + Base64.getEncoder().encodeToString(valeur) + "</SignatureValue>");
+            sortie.write("<KeyInfo><KeyName>");
+            texte(nomCle);
+            sortie.write("</KeyName></KeyInfo></Signature>");
+            sortie.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        octets.write(fin, 0, fin.length);
+        Metriques.fin(Etape.SIGNATURE, debut);
+        return octets.rassembler();
+    }
+
+    private void attribut(String nom, String valeur) throws IOException {
+        sortie.write(' ');
+        sortie.write(nom);
+        sortie.write("=\"");
+        for (int i = 0; i < valeur.length(); i++) {
+            char c = valeur.charAt(i);
+            switch (c) {
+                case '&':
+                    sortie.write("&amp;");
+                    break;
+                case '<':
+                    sortie.write("&lt;");
+                    break;
+                case '"':
+                    sortie.write("&quot;");
+                    break;
+                case '\t':
+                    sortie.write("&#x9;");
+                    break;
+                case '\n':
+                    sortie.write("&#xA;");
+                    break;
+                case '\r':
+                    sortie.write("&#xD;");
+                    break;
+                default:
+                    sortie.write(c);
+            }
+        }
+        sortie.write('"');
+    }
+
+    private void texte(String texte) throws IOException {
+        for (int i = 0; i < texte.length(); i++) {
+            char c = texte.charAt(i);
+            switch (c) {
+                case '&':
+                    sortie.write("&amp;");
+                    break;
+                case '<':
+                    sortie.write("&lt;");
+                    break;
+                case '>':
+                    sortie.write("&gt;");
+                    break;
+                case '\r':
+                    sortie.write("&#xD;");
+                    break;
+                default:
+                    sortie.write(c);
+            }
+        }
+    }
+
+    /**
+     * Les octets du document, écrits dans des blocs de taille fixe : l'écriture ne recopie jamais les octets déjà
+     * écrits, et le document n'est rassemblé qu'une fois, à la fin.
+     */
+    private static final class Blocs extends OutputStream {
+        private static final int TAILLE = 64 * 1024;
+
+        private final List<byte[]> pleins = new ArrayList<>();
+        private byte[] courant = new byte[TAILLE];
+        private int position;
+
+        @Override
+        public void write(int b) {
+            if (position == courant.length) {
+                suivant();
+            }
+            courant[position++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int debut, int longueur) {
+            while (longueur > 0) {
+                if (position == courant.length) {
+                    suivant();
+                }
+                int n = Math.min(longueur, courant.length - position);
+                System.arraycopy(b, debut, courant, position, n);
+                position += n;
+                debut += n;
+                longueur -= n;
+            }
+        }
+
+        private void suivant() {
+            pleins.add(courant);
+            courant = new byte[TAILLE];
+            position = 0;
+        }
+
+        /**
+         * Rassemble les blocs dans un tableau de la taille exacte du document, en libérant chaque bloc dès qu'il est
+         * copié : la mémoire utilisée ne dépasse pas celle du document plus un bloc.
+         */
+        byte[] rassembler() {
+            byte[] document = new byte[Math.addExact(Math.multiplyExact(pleins.size(), TAILLE), position)];
+            int n = 0;
+            for (int i = 0; i < pleins.size(); i++) {
+                System.arraycopy(pleins.get(i), 0, document, n, TAILLE);
+                pleins.set(i, null);
+                n += TAILLE;
+            }
+            System.arraycopy(courant, 0, document, n, position);
+            pleins.clear();
+            courant = null;
+            return document;
+        }
+    }
+}
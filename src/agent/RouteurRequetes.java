@@ -0,0 +1,847 @@
+package agent;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cette classe route une requête SELECT vers les bases de données qui contiennent ses tables, d'après le catalogue.
+ * Une requête dont toutes les tables sont dans la même base y est exécutée telle quelle. Sinon, elle est découpée en
+ * une sous-requête par base, contenant les champs et les termes de la condition (conjonction) qui ne portent que sur
+ * cette base ; les sous-requêtes sont exécutées en parallèle, puis leurs résultats sont réunis par une jointure par
+ * hachage sur les éléments JOINTURE qui relient deux bases, ou mis bout à bout s'il n'y en a aucune ; la pagination
+ * (LIMITE, DECALAGE) est alors appliquée au résultat réuni plutôt qu'aux sous-requêtes. Le résultat est
+ * construit au codage demandé par la requête : un élément CHAMP par valeur, ou le codage compact
+ * d'{@link EncodageCompact}.
+ */
+public final class RouteurRequetes {
+    private static final AtomicInteger NUMERO_THREAD = new AtomicInteger();
+    private static final ExecutorService EXECUTEUR = Executors.newFixedThreadPool(
+            Configuration.get().getEntier("routeurThreads", 8), tache -> {
+                Thread thread = new Thread(tache, "routeur-" + NUMERO_THREAD.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private final CatalogueTables catalogue;
+    private final String baseParDefaut;
+
+    /**
+     * Constructeur de la classe RouteurRequetes.
+     *
+     * @param catalogue     le catalogue des tables
+     * @param baseParDefaut la base de données des tables absentes du catalogue
+     */
+    public RouteurRequetes(CatalogueTables catalogue, String baseParDefaut) {
+        this.catalogue = catalogue;
+        this.baseParDefaut = baseParDefaut;
+    }
+
+    /**
+     * Découpe une requête en sous-requêtes, une par base de données.
+     *
+     * @param requete la requête à router
+     * @return le plan d'exécution de la requête
+     * @throws IllegalArgumentException si la requête porte sur plusieurs bases et qu'un champ n'est pas qualifié, qu'un
+     *                                  terme de la condition porte sur plusieurs bases, ou qu'une base n'est reliée aux
+     *                                  autres par aucune jointure alors que d'autres le sont
+     */
+    public Plan planifier(RequeteSelect requete) {
+        Map<String, String> baseDeTable = new HashMap<>();
+        Map<String, List<String>> tablesParBase = new LinkedHashMap<>();
+        for (String table : requete.getTables()) {
+            String base = catalogue.base(table);
+            if (base == null) {
+                base = baseParDefaut;
+            }
+            baseDeTable.put(table.toLowerCase(Locale.ROOT), base);
+            tablesParBase.computeIfAbsent(base, b -> new ArrayList<>()).add(table);
+        }
+        if (tablesParBase.size() == 1) {
+            String base = tablesParBase.keySet().iterator().next();
+            return new Plan(Collections.singletonList(new Fragment(base, requete)), requete.getChamps(),
+                    Collections.emptyList(), requete.getCompression(), requete.getTranche(), 0, 0);
+        }
+
+        boolean tout = requete.getChamps().contains("*");
+        Map<String, Set<String>> champsParBase = new LinkedHashMap<>();
+        Map<String, List<Predicat>> termesParBase = new HashMap<>();
+        Map<String, List<RequeteSelect.Jointure>> jointuresParBase = new HashMap<>();
+        for (String base : tablesParBase.keySet()) {
+            champsParBase.put(base, new LinkedHashSet<>());
+            termesParBase.put(base, new ArrayList<>());
+            jointuresParBase.put(base, new ArrayList<>());
+        }
+        if (!tout) {
+            for (String champ : requete.getChamps()) {
+                champsParBase.get(baseDe(champ, baseDeTable)).add(champ);
+            }
+        }
+        Predicat condition = requete.getCondition();
+        if (condition != null) {
+            List<Predicat> termes = condition instanceof Predicat.Combinaison
+                    && ((Predicat.Combinaison) condition).estConjonction()
+                    ? ((Predicat.Combinaison) condition).getTermes() : Collections.singletonList(condition);
+            for (Predicat terme : termes) {
+                Set<String> colonnes = new HashSet<>();
+                terme.colonnes(colonnes);
+                Set<String> bases = new HashSet<>();
+                for (String colonne : colonnes) {
+                    bases.add(baseDe(colonne, baseDeTable));
+                }
+                if (bases.size() != 1) {
+                    throw new IllegalArgumentException("Chaque terme de la condition doit porter sur une seule base de "
+                            + "données : " + colonnes);
+                }
+                termesParBase.get(bases.iterator().next()).add(terme);
+            }
+        }
+        List<RequeteSelect.Jointure> croisees = new ArrayList<>();
+        for (RequeteSelect.Jointure jointure : requete.getJointures()) {
+            String gauche = baseDe(jointure.getGauche(), baseDeTable);
+            String droite = baseDe(jointure.getDroite(), baseDeTable);
+            if (gauche.equals(droite)) {
+                jointuresParBase.get(gauche).add(jointure);
+            } else {
+                croisees.add(jointure);
+                if (!tout) {
+                    champsParBase.get(gauche).add(jointure.getGauche());
+                    champsParBase.get(droite).add(jointure.getDroite());
+                }
+            }
+        }
+
+        List<Fragment> fragments = new ArrayList<>();
+        for (Map.Entry<String, List<String>> entree : tablesParBase.entrySet()) {
+            String base = entree.getKey();
+            List<String> champs = tout ? Collections.singletonList("*") : new ArrayList<>(champsParBase.get(base));
+            if (champs.isEmpty()) {
+                throw new IllegalArgumentException("Aucun champ n'est demandé à la base " + base);
+            }
+            List<Predicat> termes = termesParBase.get(base);
+            Predicat sousCondition = termes.isEmpty() ? null
+                    : termes.size() == 1 ? termes.get(0) : new Predicat.Combinaison(true, termes);
+            fragments.add(new Fragment(base,
+                    new RequeteSelect(champs, entree.getValue(), sousCondition, jointuresParBase.get(base))));
+        }
+        return new Plan(fragments, requete.getChamps(), croisees, requete.getCompression(), requete.getTranche(),
+                requete.getLimite(), requete.getDecalage());
+    }
+
+    private static String baseDe(String colonne, Map<String, String> baseDeTable) {
+        String table = Identifiants.table(colonne);
+        if (table == null) {
+            throw new IllegalArgumentException("La colonne " + colonne + " doit être qualifiée par sa table dans une "
+                    + "requête sur plusieurs bases de données");
+        }
+        String base = baseDeTable.get(table.toLowerCase(Locale.ROOT));
+        if (base == null) {
+            throw new IllegalArgumentException("La table " + table + " n'est pas dans la liste des tables");
+        }
+        return base;
+    }
+
+    /**
+     * Exécute un plan et construit l'élément RESULTAT correspondant. Les sous-requêtes d'un plan sur plusieurs bases
+     * sont exécutées en parallèle. Le résultat, et le résultat de chaque sous-requête, est limité à resultatTuplesMax
+     * tuples (voir {@link Limites}).
+     *
+     * @param plan     le plan à exécuter
+     * @param document le document auquel appartiendra l'élément
+     * @return l'élément RESULTAT
+     * @throws SQLException si une sous-requête échoue ou si le résultat dépasse la limite de tuples
+     */
+    public Element executer(Plan plan, Document document) throws SQLException {
+        List<Fragment> fragments = plan.getFragments();
+        if (fragments.size() == 1) {
+            Fragment fragment = fragments.get(0);
+            return executer(fragment.getBase(), fragment.getCompilee(), document, plan.getCompression());
+        }
+        List<Table> parties = rassembler(plan);
+        long nombre = 0;
+        for (Table partie : parties) {
+            nombre += partie.taille();
+        }
+        Limites.verifier(nombre, Limites.tuplesMax());
+        if (plan.getCompression() != null) {
+            List<LotColonnes> lots = new ArrayList<>();
+            for (Table partie : parties) {
+                if (!codages(partie).equals(codages(parties.get(0)))) {
+                    throw new IllegalArgumentException("Les sous-requêtes d'une union au codage compact doivent retourner "
+                            + "des colonnes de mêmes types");
+                }
+                lots.addAll(partie.lots);
+            }
+            return EncodageCompact.encoder(parties.get(0).colonnes, lots, document, plan.getCompression());
+        }
+        Element resultat = document.createElement("RESULTAT");
+        Element tuples = document.createElement("TUPLES");
+        resultat.appendChild(tuples);
+        for (Table partie : parties) {
+            for (LotColonnes lot : partie.lots) {
+                Agent.ajouterTuples(tuples, lot);
+            }
+        }
+        return resultat;
+    }
+
+    /**
+     * Exécute un plan et transmet son résultat par tranches d'au plus taille tuples, dans l'ordre. Le résultat d'un
+     * plan sur une seule base est lu au fil de l'eau (en mode "streaming", ligne par ligne depuis le serveur) : seule
+     * la tranche en cours est gardée en mémoire, et le nombre de tuples n'est limité que par tuplesMax. Celui d'un plan
+     * sur plusieurs bases est d'abord réuni en mémoire, dans la limite de resultatTuplesMax tuples par sous-requête et
+     * par jointure (et pour une union entière), puis découpé.
+     * Un résultat vide ne produit aucune tranche.
+     *
+     * @param plan      le plan à exécuter
+     * @param taille    le nombre maximal de tuples par tranche
+     * @param tuplesMax le nombre maximal de tuples du résultat, ou Long.MAX_VALUE pour ne pas le limiter
+     * @param recepteur le récepteur des tranches, appelé sur le thread appelant
+     * @throws SQLException si une sous-requête échoue ou si le résultat dépasse tuplesMax tuples
+     */
+    void executerEnTranches(Plan plan, int taille, long tuplesMax, RecepteurTranches recepteur) throws SQLException {
+        List<Fragment> fragments = plan.getFragments();
+        if (fragments.size() > 1) {
+            List<Table> parties = rassembler(plan);
+            long total = 0;
+            for (Table partie : parties) {
+                total += partie.taille();
+            }
+            Limites.verifier(total, tuplesMax);
+            for (Table partie : parties) {
+                LotColonnes lot = new LotColonnes(partie.colonnes, taille);
+                int[] toutes = partie.toutes();
+                for (LotColonnes source : partie.lots) {
+                    for (int ligne = 0; ligne < source.getTaille(); ligne++) {
+                        lot.copier(source, ligne, toutes, 0);
+                        lot.terminerTuple();
+                        if (lot.estPlein()) {
+                            recepteur.recevoir(lot);
+                            lot.vider();
+                        }
+                    }
+                }
+                if (lot.getTaille() > 0) {
+                    recepteur.recevoir(lot);
+                }
+            }
+            return;
+        }
+        Fragment fragment = fragments.get(0);
+        try (PoolConnexions.Emprunt emprunt = PoolConnexions.pour(fragment.getBase()).emprunter()) {
+            try {
+                PreparedStatement instruction = emprunt.preparer(fragment.getCompilee().getSql());
+                fragment.getCompilee().lier(instruction);
+                Limites.limiter(instruction, tuplesMax);
+                boolean streaming = lireAuFilDeLEau(instruction);
+                long nombre = 0;
+                try (ResultSet rs = instruction.executeQuery()) {
+                    // Le même lot sert à toutes les tranches : le récepteur doit l'avoir sérialisé avant de rendre la
+                    // main.
+                    LotColonnes lot = new LotColonnes(EncodageCompact.Colonne.depuis(rs.getMetaData(), false), taille);
+                    long debut = Metriques.debut();
+                    while (lot.remplir(rs)) {
+                        Metriques.fin(Etape.EXECUTION, debut);
+                        nombre += lot.getTaille();
+                        Limites.verifier(nombre, tuplesMax);
+                        recepteur.recevoir(lot);
+                        debut = Metriques.debut();
+                    }
+                    Metriques.fin(Etape.EXECUTION, debut);
+                } finally {
+                    Metriques.compter(Metriques.Compteur.TUPLES, nombre);
+                    if (streaming) {
+                        instruction.setFetchSize(0);
+                    }
+                }
+            } catch (SQLException e) {
+                throw emprunt.echec(e);
+            }
+        }
+    }
+
+    /**
+     * Passe une instruction en lecture au fil de l'eau si le paramètre streaming (true par défaut) le demande : avec
+     * Connector/J, un fetchSize de Integer.MIN_VALUE fait lire les lignes une à une depuis le serveur au lieu de
+     * charger tout le résultat dans le pilote. L'instruction restant dans le cache de la connexion, l'appelant doit
+     * remettre son fetchSize à 0 après la lecture.
+     *
+     * @return true si l'instruction a été passée en lecture au fil de l'eau
+     */
+    private static boolean lireAuFilDeLEau(PreparedStatement instruction) throws SQLException {
+        if (!Configuration.get().getBooleen("streaming", true)) {
+            return false;
+        }
+        instruction.setFetchSize(Integer.MIN_VALUE);
+        return true;
+    }
+
+    /**
+     * Construit un élément RESULTAT à partir d'un lot de tuples, au codage XML habituel ou au codage compact.
+     *
+     * @param lot         les tuples
+     * @param document    le document auquel appartiendra l'élément
+     * @param compression la compression du résultat au codage compact, ou null pour le codage XML habituel
+     * @return l'élément RESULTAT, qui n'est pas inséré dans le document
+     */
+    static Element resultat(LotColonnes lot, Document document, Compression compression) {
+        if (compression != null) {
+            return EncodageCompact.encoder(lot, document, compression);
+        }
+        Element resultat = document.createElement("RESULTAT");
+        Element tuples = document.createElement("TUPLES");
+        resultat.appendChild(tuples);
+        Agent.ajouterTuples(tuples, lot);
+        return resultat;
+    }
+
+    /**
+     * Exécute en parallèle les sous-requêtes d'un plan sur plusieurs bases, et retourne les parties du résultat
+     * projetées sur les champs demandés : une seule s'il y a des jointures, une par sous-requête sinon.
+     */
+    private static List<Table> rassembler(Plan plan) throws SQLException {
+        List<Fragment> fragments = plan.getFragments();
+        List<CompletableFuture<Table>> lectures = new ArrayList<>();
+        for (Fragment fragment : fragments) {
+            lectures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return lire(fragment.getBase(), fragment.getCompilee());
+                } catch (SQLException e) {
+                    throw new CompletionException(e);
+                }
+            }, EXECUTEUR));
+        }
+        long tuplesMax = Limites.tuplesMax();
+        boolean union = plan.getJointures().isEmpty() && plan.getLimite() <= 0;
+        List<Table> tables = new ArrayList<>();
+        try {
+            long nombre = 0;
+            for (CompletableFuture<Table> lecture : lectures) {
+                Table table = lecture.join();
+                tables.add(table);
+                if (union) {
+                    // Une union non paginée est rendue en entier : inutile d'attendre les autres bases pour la refuser.
+                    nombre += table.taille();
+                    Limites.verifier(nombre, tuplesMax);
+                }
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw e;
+        }
+
+        boolean tout = plan.getChamps().contains("*");
+        List<Table> parties = new ArrayList<>();
+        if (plan.getJointures().isEmpty()) {
+            for (int i = 0; i < tables.size(); i++) {
+                parties.add(projeter(tables.get(i), tout ? null : fragments.get(i).getRequete().getChamps()));
+            }
+        } else {
+            long arret = plan.getLimite() > 0 && plan.getDecalage() <= Long.MAX_VALUE - plan.getLimite()
+                    ? plan.getDecalage() + plan.getLimite() : Long.MAX_VALUE;
+            parties.add(projeter(joindre(fragments, tables, plan.getJointures(), arret, tuplesMax),
+                    tout ? null : plan.getChamps()));
+        }
+        return plan.getLimite() > 0 ? paginer(parties, plan.getDecalage(), plan.getLimite()) : parties;
+    }
+
+    /**
+     * Retourne les parties d'un résultat privées de leurs decalage premiers tuples, puis réduites à limite tuples au
+     * plus, dans l'ordre des parties.
+     */
+    private static List<Table> paginer(List<Table> parties, long decalage, long limite) {
+        List<Table> paginees = new ArrayList<>(parties.size());
+        long aSauter = decalage;
+        long restants = limite;
+        for (Table partie : parties) {
+            Table paginee = new Table(partie.colonnes);
+            int[] toutes = partie.toutes();
+            for (LotColonnes lot : partie.lots) {
+                int debut = (int) Math.min(aSauter, lot.getTaille());
+                int fin = (int) Math.min(lot.getTaille(), debut + restants);
+                aSauter -= debut;
+                restants -= fin - debut;
+                for (int ligne = debut; ligne < fin; ligne++) {
+                    paginee.copier(lot, ligne, toutes);
+                }
+            }
+            paginees.add(paginee);
+        }
+        return paginees;
+    }
+
+    /**
+     * Exécute une requête compilée sur une base de données et construit l'élément RESULTAT au fil de la lecture.
+     * Les lignes sont lues une à une depuis le serveur (voir {@link #lireAuFilDeLEau(PreparedStatement)}), mais
+     * l'élément est construit en mémoire pour être signé : le résultat est donc limité à resultatTuplesMax tuples, et
+     * un résultat plus grand doit être demandé en tranches (voir {@link Tranches}).
+     *
+     * @param base     la base de données
+     * @param requete     la requête compilée
+     * @param document    le document auquel appartiendra l'élément
+     * @param compression la compression du résultat au codage compact, ou null pour le codage XML habituel
+     * @return l'élément RESULTAT
+     * @throws SQLException si la requête échoue
+     */
+    public static Element executer(String base, RequeteCompilee requete, Document document, Compression compression)
+            throws SQLException {
+        long tuplesMax = Limites.tuplesMax();
+        try (PoolConnexions.Emprunt emprunt = PoolConnexions.pour(base).emprunter()) {
+            try {
+                PreparedStatement instruction = emprunt.preparer(requete.getSql());
+                requete.lier(instruction);
+                Limites.limiter(instruction, tuplesMax);
+                boolean streaming = lireAuFilDeLEau(instruction);
+                long debut = Metriques.debut();
+                try (ResultSet rs = instruction.executeQuery()) {
+                    return compression == null ? Agent.resultSetToElement(rs, document, tuplesMax)
+                            : EncodageCompact.encoder(rs, document, compression, tuplesMax);
+                } finally {
+                    Metriques.fin(Etape.EXECUTION, debut);
+                    if (streaming) {
+                        instruction.setFetchSize(0);
+                    }
+                }
+            } catch (SQLException e) {
+                throw emprunt.echec(e);
+            }
+        }
+    }
+
+    /**
+     * Lit le résultat d'une sous-requête dans des lots remplis par les accesseurs typés de JDBC (voir
+     * {@link LotColonnes#remplir(ResultSet)}), dans la limite de resultatTuplesMax tuples.
+     */
+    private static Table lire(String base, RequeteCompilee requete) throws SQLException {
+        long tuplesMax = Limites.tuplesMax();
+        try (PoolConnexions.Emprunt emprunt = PoolConnexions.pour(base).emprunter()) {
+            try {
+                PreparedStatement instruction = emprunt.preparer(requete.getSql());
+                requete.lier(instruction);
+                Limites.limiter(instruction, tuplesMax);
+                boolean streaming = lireAuFilDeLEau(instruction);
+                long nombre = 0;
+                long debut = Metriques.debut();
+                try (ResultSet rs = instruction.executeQuery()) {
+                    Table table = new Table(EncodageCompact.Colonne.depuis(rs.getMetaData(), true));
+                    LotColonnes lot = new LotColonnes(table.colonnes, LotColonnes.CAPACITE);
+                    while (lot.remplir(rs)) {
+                        nombre += lot.getTaille();
+                        Limites.verifier(nombre, tuplesMax);
+                        table.lots.add(lot);
+                        if (!lot.estPlein()) {
+                            break;
+                        }
+                        lot = new LotColonnes(table.colonnes, LotColonnes.CAPACITE);
+                    }
+                    return table;
+                } finally {
+                    Metriques.fin(Etape.EXECUTION, debut);
+                    Metriques.compter(Metriques.Compteur.TUPLES, nombre);
+                    if (streaming) {
+                        instruction.setFetchSize(0);
+                    }
+                }
+            } catch (SQLException e) {
+                throw emprunt.echec(e);
+            }
+        }
+    }
+
+    /**
+     * Réunit les résultats des sous-requêtes par des jointures par hachage successives : la table construite jusque-là
+     * est sondée dans une table de hachage des lignes de la base suivante qui lui est reliée. Chaque table construite
+     * est limitée à tuplesMax tuples, vérifiés au fil de la jointure, et la dernière s'arrête après arret tuples, les
+     * seuls dont une requête paginée a besoin.
+     *
+     * @throws SQLException si une table construite dépasse tuplesMax tuples
+     */
+    private static Table joindre(List<Fragment> fragments, List<Table> tables, List<RequeteSelect.Jointure> jointures,
+                                 long arret, long tuplesMax) throws SQLException {
+        Set<String> jointes = new HashSet<>();
+        jointes.add(fragments.get(0).getBase());
+        Table courante = tables.get(0);
+        List<RequeteSelect.Jointure> restantes = new ArrayList<>(jointures);
+        while (jointes.size() < fragments.size()) {
+            int suivante = -1;
+            for (int i = 0; i < fragments.size() && suivante < 0; i++) {
+                if (!jointes.contains(fragments.get(i).getBase()) && relie(restantes, courante, tables.get(i))) {
+                    suivante = i;
+                }
+            }
+            if (suivante < 0) {
+                throw new IllegalArgumentException("Toutes les bases de données de la requête doivent être reliées par "
+                        + "des éléments JOINTURE");
+            }
+            Table droite = tables.get(suivante);
+            List<int[]> cles = new ArrayList<>();
+            for (Iterator<RequeteSelect.Jointure> it = restantes.iterator(); it.hasNext(); ) {
+                RequeteSelect.Jointure jointure = it.next();
+                int[] cle = apparier(jointure, courante, droite);
+                if (cle != null) {
+                    cles.add(cle);
+                    it.remove();
+                }
+            }
+            // L'index donne, pour chaque clé, le rang du lot et celui du tuple dans le lot de chaque ligne de droite.
+            Map<List<String>, List<int[]>> index = new HashMap<>();
+            for (int l = 0; l < droite.lots.size(); l++) {
+                LotColonnes lot = droite.lots.get(l);
+                for (int ligne = 0; ligne < lot.getTaille(); ligne++) {
+                    List<String> cle = cle(lot, ligne, cles, 1);
+                    if (cle != null) {
+                        index.computeIfAbsent(cle, c -> new ArrayList<>()).add(new int[]{l, ligne});
+                    }
+                }
+            }
+            List<EncodageCompact.Colonne> colonnes = new ArrayList<>(courante.colonnes);
+            colonnes.addAll(droite.colonnes);
+            Table jointe = new Table(colonnes);
+            int[] gauches = courante.toutes();
+            int[] droites = droite.toutes();
+            long maximum = jointes.size() + 1 == fragments.size() ? arret : Long.MAX_VALUE;
+            long nombre = 0;
+            sonde:
+            for (LotColonnes lot : courante.lots) {
+                for (int ligne = 0; ligne < lot.getTaille(); ligne++) {
+                    List<String> cle = cle(lot, ligne, cles, 0);
+                    for (int[] rang : cle == null ? Collections.<int[]>emptyList()
+                            : index.getOrDefault(cle, Collections.emptyList())) {
+                        if (nombre == maximum) {
+                            break sonde;
+                        }
+                        Limites.verifier(++nombre, tuplesMax);
+                        LotColonnes cible = jointe.suivant();
+                        cible.copier(lot, ligne, gauches, 0);
+                        cible.copier(droite.lots.get(rang[0]), rang[1], droites, gauches.length);
+                        cible.terminerTuple();
+                    }
+                }
+            }
+            courante = jointe;
+            jointes.add(fragments.get(suivante).getBase());
+        }
+        return courante;
+    }
+
+    private static boolean relie(List<RequeteSelect.Jointure> jointures, Table gauche, Table droite) {
+        for (RequeteSelect.Jointure jointure : jointures) {
+            if (apparier(jointure, gauche, droite) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Retourne les positions des deux colonnes d'une jointure dans la table de gauche et dans celle de droite, dans
+     * cet ordre, ou null si la jointure ne relie pas ces deux tables.
+     */
+    private static int[] apparier(RequeteSelect.Jointure jointure, Table gauche, Table droite) {
+        int g = gauche.position(jointure.getGauche());
+        int d = droite.position(jointure.getDroite());
+        if (g >= 0 && d >= 0) {
+            return new int[]{g, d};
+        }
+        g = gauche.position(jointure.getDroite());
+        d = droite.position(jointure.getGauche());
+        return g >= 0 && d >= 0 ? new int[]{g, d} : null;
+    }
+
+    /**
+     * Retourne la clé de jointure d'une ligne, ou null si l'une de ses valeurs est NULL (elle ne peut alors être égale
+     * à aucune autre). Les nombres sont normalisés pour qu'un INT et un BIGINT de même valeur se correspondent.
+     */
+    private static List<String> cle(LotColonnes lot, int ligne, List<int[]> cles, int cote) {
+        List<String> cle = new ArrayList<>(cles.size());
+        for (int[] positions : cles) {
+            int colonne = positions[cote];
+            if (lot.estNul(ligne, colonne)) {
+                return null;
+            }
+            String texte = lot.texte(ligne, colonne);
+            switch (lot.getColonnes().get(colonne).getCodage()) {
+                case ENTIER:
+                case FLOTTANT:
+                case REEL:
+                case DECIMAL:
+                    cle.add(new BigDecimal(texte).stripTrailingZeros().toPlainString());
+                    break;
+                default:
+                    cle.add(texte);
+            }
+        }
+        return cle;
+    }
+
+    /**
+     * Retourne la table réduite aux champs demandés, dans leur ordre, ou la table entière si champs est null.
+     */
+    private static Table projeter(Table table, List<String> champs) {
+        if (champs == null) {
+            return table;
+        }
+        int[] positions = new int[champs.size()];
+        List<EncodageCompact.Colonne> colonnes = new ArrayList<>(positions.length);
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = table.position(champs.get(i));
+            if (positions[i] < 0) {
+                throw new IllegalArgumentException("La colonne " + champs.get(i) + " est absente du résultat");
+            }
+            colonnes.add(table.colonnes.get(positions[i]));
+        }
+        Table projetee = new Table(colonnes);
+        for (LotColonnes lot : table.lots) {
+            for (int ligne = 0; ligne < lot.getTaille(); ligne++) {
+                projetee.copier(lot, ligne, positions);
+            }
+        }
+        return projetee;
+    }
+
+    private static List<EncodageCompact.Codage> codages(Table table) {
+        List<EncodageCompact.Codage> codages = new ArrayList<>(table.colonnes.size());
+        table.colonnes.forEach(colonne -> codages.add(colonne.getCodage()));
+        return codages;
+    }
+
+    /**
+     * Le plan d'exécution d'une requête : ses sous-requêtes, une par base de données, les champs demandés et les
+     * jointures à effectuer entre les résultats des sous-requêtes.
+     */
+    public static final class Plan {
+        private final List<Fragment> fragments;
+        private final List<String> champs;
+        private final List<RequeteSelect.Jointure> jointures;
+        private final Compression compression;
+        private final int tranche;
+        private final long limite;
+        private final long decalage;
+
+        private Plan(List<Fragment> fragments, List<String> champs, List<RequeteSelect.Jointure> jointures,
+                     Compression compression, int tranche, long limite, long decalage) {
+            this.fragments = Collections.unmodifiableList(fragments);
+            this.champs = champs;
+            this.jointures = Collections.unmodifiableList(jointures);
+            this.compression = compression;
+            this.tranche = tranche;
+            this.limite = limite;
+            this.decalage = decalage;
+        }
+
+        /**
+         * @return les sous-requêtes, une par base de données
+         */
+        public List<Fragment> getFragments() {
+            return fragments;
+        }
+
+        /**
+         * @return les champs demandés par la requête d'origine
+         */
+        public List<String> getChamps() {
+            return champs;
+        }
+
+        /**
+         * @return les jointures entre bases de données
+         */
+        public List<RequeteSelect.Jointure> getJointures() {
+            return jointures;
+        }
+
+        /**
+         * @return la compression du résultat au codage compact, ou null pour le codage XML habituel
+         */
+        public Compression getCompression() {
+            return compression;
+        }
+
+        /**
+         * @return le nombre de tuples par tranche du résultat, ou 0 si le résultat est demandé en un seul document
+         */
+        public int getTranche() {
+            return tranche;
+        }
+
+        /**
+         * @return le nombre maximal de tuples du résultat réuni, ou 0 si la pagination est faite par l'unique
+         * sous-requête ou n'est pas demandée
+         */
+        public long getLimite() {
+            return limite;
+        }
+
+        /**
+         * @return le nombre de tuples sautés au début du résultat réuni
+         */
+        public long getDecalage() {
+            return decalage;
+        }
+
+        /**
+         * @return le nom des bases de données interrogées, séparés par des +
+         */
+        public String getBase() {
+            StringJoiner bases = new StringJoiner("+");
+            fragments.forEach(fragment -> bases.add(fragment.getBase()));
+            return bases.toString();
+        }
+
+        /**
+         * @return une forme textuelle canonique du plan, qui identifie ses résultats
+         */
+        public String enTexte() {
+            String encodage = compression == null ? "" : " | " + EncodageCompact.COMPACT + " " + compression;
+            if (fragments.size() == 1) {
+                return fragments.get(0).getCompilee().enTexte() + encodage;
+            }
+            StringJoiner texte = new StringJoiner(" | ", "", encodage);
+            fragments.forEach(fragment -> texte.add(fragment.getBase() + ": " + fragment.getCompilee().enTexte()));
+            jointures.forEach(jointure -> texte.add("JOINTURE " + jointure.getGauche() + " = " + jointure.getDroite()));
+            texte.add("CHAMPS " + String.join(", ", champs));
+            if (limite > 0) {
+                texte.add("LIMITE " + limite + " DECALAGE " + decalage);
+            }
+            return texte.toString();
+        }
+    }
+
+    /**
+     * Le récepteur des tranches d'un résultat exécuté par {@link #executerEnTranches(Plan, int, long, RecepteurTranches)}.
+     */
+    @FunctionalInterface
+    interface RecepteurTranches {
+        /**
+         * Reçoit une tranche du résultat.
+         *
+         * @param lot les tuples de la tranche, dont les colonnes sont identiques d'une tranche à l'autre sauf dans une
+         *            union ; le lot est réutilisé pour la tranche suivante une fois cette méthode retournée
+         */
+        void recevoir(LotColonnes lot);
+    }
+
+    /**
+     * Une sous-requête d'un plan, exécutée sur une seule base de données.
+     */
+    public static final class Fragment {
+        private final String base;
+        private final RequeteSelect requete;
+        private final RequeteCompilee compilee;
+
+        private Fragment(String base, RequeteSelect requete) {
+            this.base = base;
+            this.requete = requete;
+            this.compilee = requete.compiler();
+        }
+
+        /**
+         * @return la base de données interrogée
+         */
+        public String getBase() {
+            return base;
+        }
+
+        /**
+         * @return la sous-requête
+         */
+        public RequeteSelect getRequete() {
+            return requete;
+        }
+
+        /**
+         * @return la sous-requête compilée
+         */
+        public RequeteCompilee getCompilee() {
+            return compilee;
+        }
+    }
+
+    /**
+     * Le résultat d'une sous-requête, conservé en mémoire pour la jointure dans des lots de
+     * {@link LotColonnes#CAPACITE} tuples. Les colonnes sont nommées table.colonne.
+     */
+    private static final class Table {
+        private final List<EncodageCompact.Colonne> colonnes;
+        private final List<LotColonnes> lots = new ArrayList<>();
+
+        private Table(List<EncodageCompact.Colonne> colonnes) {
+            this.colonnes = colonnes;
+        }
+
+        private long taille() {
+            long taille = 0;
+            for (LotColonnes lot : lots) {
+                taille += lot.getTaille();
+            }
+            return taille;
+        }
+
+        /**
+         * Retourne le dernier lot de la table s'il n'est pas plein, sinon un nouveau lot ajouté à la table.
+         */
+        private LotColonnes suivant() {
+            LotColonnes dernier = lots.isEmpty() ? null : lots.get(lots.size() - 1);
+            if (dernier == null || dernier.estPlein()) {
+                dernier = new LotColonnes(colonnes, LotColonnes.CAPACITE);
+                lots.add(dernier);
+            }
+            return dernier;
+        }
+
+        /**
+         * Ajoute à la table les colonnes données d'un tuple d'un lot, dans l'ordre des colonnes de la table.
+         */
+        private void copier(LotColonnes source, int ligne, int[] positions) {
+            LotColonnes lot = suivant();
+            lot.copier(source, ligne, positions, 0);
+            lot.terminerTuple();
+        }
+
+        /**
+         * @return les rangs de toutes les colonnes de la table
+         */
+        private int[] toutes() {
+            int[] toutes = new int[colonnes.size()];
+            for (int i = 0; i < toutes.length; i++) {
+                toutes[i] = i;
+            }
+            return toutes;
+        }
+
+        /**
+         * Retourne la position d'une colonne, cherchée d'abord sous sa forme qualifiée puis par son seul nom s'il n'est
+         * pas ambigu, ou -1 si elle est absente.
+         */
+        private int position(String nom) {
+            for (int i = 0; i < colonnes.size(); i++) {
+                if (colonnes.get(i).getNom().equalsIgnoreCase(nom)) {
+                    return i;
+                }
+            }
+            String colonne = Identifiants.colonne(nom);
+            int position = -1;
+            for (int i = 0; i < colonnes.size(); i++) {
+                if (Identifiants.colonne(colonnes.get(i).getNom()).equalsIgnoreCase(colonne)) {
+                    if (position >= 0) {
+                        return -1;
+                    }
+                    position = i;
+                }
+            }
+            return position;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package agent;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Cette classe représente le côté serveur du transport TCP entre agents. Un seul thread gère, avec un sélecteur NIO,
+ * toutes les connexions des agents émetteurs ; chaque trame de requête reçue est soumise au {@link MoteurRecepteur},
+ * et la réponse est renvoyée sur la même connexion avec l'identifiant de la requête, dans l'ordre où les traitements
+ * se terminent. Plusieurs requêtes peuvent donc être en cours sur une même connexion. Le résultat d'une requête en
+ * tranches est renvoyé en une trame par tranche, suivies de la trame de réponse.
+ * <p>
+ * Pour ne pas être submergé, le serveur cesse de lire une connexion tant qu'elle a trop de requêtes en cours ou trop
+ * de réponses en attente d'écriture : l'émetteur est alors ralenti par le contrôle de flux de TCP. De même, la
+ * production des tranches d'un résultat est suspendue tant que la connexion a trop de réponses en attente.
+ * <p>
+ * Paramètres lus dans config.ini : transportTrameMax (67108864 par défaut), transportEnVolMax (256 par défaut), le
+ * nombre de requêtes en cours par connexion, et transportAttenteMax (16777216 par défaut), le nombre d'octets de
+ * réponses en attente d'écriture par connexion.
+ */
+public class ServeurNIO implements AutoCloseable {
+    private final MoteurRecepteur moteur;
+    private final Selector selecteur;
+    private final ServerSocketChannel serveur;
+    private final int trameMax;
+    private final int enVolMax;
+    private final long attenteMax;
+    /**
+     * Les connexions dont les opérations attendues doivent être recalculées par le thread du sélecteur.
+     */
+    private final Queue<ConnexionTrames> aRafraichir = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean actif = true;
+
+    /**
+     * Constructeur de la classe ServeurNIO. Le serveur écoute dès sa construction.
+     *
+     * @param moteur  le moteur qui traite les requêtes reçues
+     * @param adresse l'adresse d'écoute (port 0 pour un port libre quelconque)
+     * @throws IOException si le serveur ne peut pas écouter sur cette adresse
+     */
+    public ServeurNIO(MoteurRecepteur moteur, InetSocketAddress adresse) throws IOException {
+        Configuration config = Configuration.get();
+        this.moteur = moteur;
+        this.trameMax = config.getEntier("transportTrameMax", 64 * 1024 * 1024);
+        this.enVolMax = config.getEntier("transportEnVolMax", 256);
+        this.attenteMax = config.getEntier("transportAttenteMax", 16 * 1024 * 1024);
+        this.selecteur = Selector.open();
+        this.serveur = ServerSocketChannel.open();
+        serveur.bind(adresse);
+        serveur.configureBlocking(false);
+        serveur.register(selecteur, SelectionKey.OP_ACCEPT);
+        this.thread = new Thread(this::boucler, "serveur-nio");
+        thread.start();
+    }
+
+    /**
+     * @return le port sur lequel le serveur écoute
+     */
+    public int getPort() {
+        return serveur.socket().getLocalPort();
+    }
+
+    private void boucler() {
+        while (actif) {
+            try {
+                selecteur.select();
+                ConnexionTrames connexion;
+                while ((connexion = aRafraichir.poll()) != null) {
+                    rafraichir(connexion);
+                }
+                Iterator<SelectionKey> cles = selecteur.selectedKeys().iterator();
+                while (cles.hasNext()) {
+                    SelectionKey cle = cles.next();
+                    cles.remove();
+                    if (!cle.isValid()) {
+                        continue;
+                    }
+                    if (cle.isAcceptable()) {
+                        accepter();
+                    } else {
+                        traiter((ConnexionTrames) cle.attachment());
+                    }
+                }
+            } catch (IOException e) {
+                if (actif) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private void accepter() throws IOException {
+        SocketChannel canal = serveur.accept();
+        if (canal == null) {
+            return;
+        }
+        canal.configureBlocking(false);
+        canal.socket().setTcpNoDelay(true);
+        SelectionKey cle = canal.register(selecteur, SelectionKey.OP_READ);
+        cle.attach(new ConnexionTrames(canal, cle));
+    }
+
+    private void traiter(ConnexionTrames connexion) {
+        try {
+            if (connexion.cle.isReadable() && !connexion.lire(trameMax, trame -> recevoir(connexion, trame))) {
+                connexion.fermer();
+                return;
+            }
+            if (connexion.cle.isValid() && connexion.cle.isWritable()) {
+                connexion.ecrire();
+            }
+            rafraichir(connexion);
+        } catch (IOException e) {
+            System.err.println("Connexion " + connexion.canal + " fermée : " + e.getMessage());
+            connexion.fermer();
+        }
+    }
+
+    private void recevoir(ConnexionTrames connexion, Trame trame) {
+        if (trame.type != Trame.REQUETE && trame.type != Trame.REQUETE_EN_TRANCHES) {
+            connexion.envoyer(new Trame(Trame.ERREUR, trame.id, trame.nom,
+                    "Seules les trames de requête sont acceptées".getBytes(StandardCharsets.UTF_8)));
+            return;
+        }
+        connexion.enVol.incrementAndGet();
+        Consumer<byte[]> tranches = trame.type != Trame.REQUETE_EN_TRANCHES ? null : tranche -> {
+            connexion.envoyer(new Trame(Trame.TRANCHE, trame.id, trame.nom, tranche));
+            aRafraichir.add(connexion);
+            selecteur.wakeup();
+            attendreEcriture(connexion);
+        };
+        moteur.soumettre(trame.contenu, trame.nom, tranches).getFuture().whenComplete((reponse, erreur) -> {
+            if (erreur == null) {
+                connexion.envoyer(new Trame(Trame.REPONSE, trame.id, trame.nom, reponse.getResultatSigne()));
+            } else {
+                Throwable cause = erreur instanceof CompletionException && erreur.getCause() != null ? erreur.getCause() : erreur;
+                String message = cause.getMessage() != null ? cause.getMessage() : cause.toString();
+                connexion.envoyer(new Trame(Trame.ERREUR, trame.id, trame.nom, message.getBytes(StandardCharsets.UTF_8)));
+            }
+            connexion.enVol.decrementAndGet();
+            aRafraichir.add(connexion);
+            selecteur.wakeup();
+        });
+    }
+
+    /**
+     * Bloque le thread qui produit les tranches d'un résultat tant que la connexion a trop de réponses en attente
+     * d'écriture : un lien plus lent que la requête ralentit alors la lecture des tuples au lieu de remplir la file.
+     */
+    private void attendreEcriture(ConnexionTrames connexion) {
+        try {
+            if (!connexion.attendreEcriture(attenteMax)) {
+                throw new UncheckedIOException(new ClosedChannelException());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Envoi des tranches interrompu", e);
+        }
+    }
+
+    /**
+     * Recalcule les opérations attendues sur une connexion : la lecture est suspendue tant que la connexion a trop de
+     * requêtes en cours ou de réponses en attente, et l'écriture n'est attendue que s'il reste des trames à écrire.
+     */
+    private void rafraichir(ConnexionTrames connexion) {
+        if (!connexion.cle.isValid()) {
+            return;
+        }
+        boolean lire = connexion.enVol.get() < enVolMax && connexion.getOctetsAEcrire() < attenteMax;
+        connexion.cle.interestOps((lire ? SelectionKey.OP_READ : 0) | (connexion.aEcrire() ? SelectionKey.OP_WRITE : 0));
+    }
+
+    /**
+     * Arrête le serveur et ferme toutes les connexions.
+     */
+    @Override
+    public void close() {
+        actif = false;
+        selecteur.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (SelectionKey cle : selecteur.keys()) {
+            if (cle.attachment() instanceof ConnexionTrames) {
+                ((ConnexionTrames) cle.attachment()).fermer();
+            }
+        }
+        try {
+            serveur.close();
+            selecteur.close();
+        } catch (IOException e) {
+            // Le serveur est arrêté de toute façon.
+        }
+    }
+}
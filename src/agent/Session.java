@@ -0,0 +1,339 @@
+package agent;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.SignatureException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cette classe représente une session entre un agent émetteur et un agent destinataire, qui authentifie leurs
+ * documents par une signature XML HMAC-SHA256 au lieu d'une signature à clé publique.
+ * <p>
+ * La session est ouverte par un échange de deux documents SESSION signés avec les clés de long terme des agents :
+ * chacun porte une clé publique X25519 éphémère et un nonce aléatoire. Le secret Diffie-Hellman est dérivé par HKDF-SHA256
+ * (sel : les deux nonces, information : l'identifiant de la session) en deux clés HMAC, une par sens, de sorte qu'un
+ * document ne peut pas être renvoyé à son auteur comme s'il venait de l'autre agent.
+ * <p>
+ * Chaque document signé dans la session porte sur son élément racine, couverts par la signature, l'identifiant de la
+ * session (attribut SESSION) et un numéro de séquence propre au sens d'envoi (attribut SEQUENCE). Le destinataire
+ * refuse un numéro déjà vu ou plus ancien que sa fenêtre de rejeu, et tout document d'une session expirée.
+ * <p>
+ * Le destinataire retient le nonce de chaque demande d'ouverture acceptée pendant la durée de vie d'une session (voir
+ * {@link Demandes}) : une demande rejouée n'ouvre pas de nouvelle session.
+ */
+final class Session {
+    /**
+     * L'élément racine des documents d'ouverture de session, et l'attribut qui désigne la session d'un document.
+     */
+    static final String SESSION = "SESSION";
+    /**
+     * L'attribut qui porte le numéro de séquence d'un document signé dans une session.
+     */
+    static final String SEQUENCE = "SEQUENCE";
+    /**
+     * Le préfixe du KeyName d'une signature de session, suivi de l'identifiant de la session.
+     */
+    static final String PREFIXE = "session:";
+
+    private static final String NONCE = "NONCE";
+    private static final String NONCE_DESTINATAIRE = "NONCE_DESTINATAIRE";
+    private static final String CLE = "CLE";
+    private static final String CLE_EMETTEUR = "CLE_EMETTEUR";
+    private static final String ID = "ID";
+    private static final String DUREE = "DUREE";
+    private static final SecureRandom ALEATOIRE = new SecureRandom();
+
+    private final String id;
+    private final String pair;
+    private final SecretKey cleEnvoi;
+    private final SecretKey cleReception;
+    private final long creation = System.nanoTime();
+    private final long duree;
+    private final long messagesMax;
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final int fenetre;
+    private final BitSet vus;
+    private long plusGrande;
+
+    private Session(String id, String pair, byte[] cles, boolean emetteur, long dureeSecondes) {
+        Configuration config = Configuration.get();
+        this.id = id;
+        this.pair = pair;
+        SecretKey versDestinataire = new SecretKeySpec(cles, 0, 32, "HmacSHA256");
+        SecretKey versEmetteur = new SecretKeySpec(cles, 32, 32, "HmacSHA256");
+        this.cleEnvoi = emetteur ? versDestinataire : versEmetteur;
+        this.cleReception = emetteur ? versEmetteur : versDestinataire;
+        this.duree = TimeUnit.SECONDS.toNanos(dureeSecondes);
+        this.messagesMax = config.getEntier("sessionMessagesMax", 1_000_000);
+        this.fenetre = Math.max(1, config.getEntier("sessionFenetre", 1024));
+        this.vus = new BitSet(fenetre);
+    }
+
+    /**
+     * Côté émetteur : construit le document de demande d'ouverture de session, à signer avec la clé de long terme.
+     *
+     * @param nonce     le nonce de l'émetteur
+     * @param ephemere  la paire de clés éphémère de l'émetteur
+     * @return le document SESSION
+     */
+    static Document demande(byte[] nonce, KeyPair ephemere) {
+        Document document = OutilsXML.nouveauDocument();
+        Element session = document.createElement(SESSION);
+        session.setAttributeNS(null, NONCE, Base64.getEncoder().encodeToString(nonce));
+        session.setAttributeNS(null, CLE, Base64.getEncoder().encodeToString(ephemere.getPublic().getEncoded()));
+        document.appendChild(session);
+        return document;
+    }
+
+    /**
+     * @param document un document reçu
+     * @return true si le document est une demande d'ouverture de session
+     */
+    static boolean estDemande(Document document) {
+        Element racine = document.getDocumentElement();
+        return SESSION.equals(racine.getNodeName()) && !racine.hasAttributeNS(null, ID);
+    }
+
+    /**
+     * Côté destinataire : accepte une demande d'ouverture de session, dont la signature a déjà été vérifiée, et
+     * complète le document de réponse à signer avec la clé de long terme.
+     *
+     * @param demande le document de demande
+     * @param reponse le document de réponse, vide
+     * @param pair    l'identifiant de l'agent émetteur qui a signé la demande
+     * @return la session ouverte
+     * @throws GeneralSecurityException si la clé éphémère de l'émetteur est invalide
+     */
+    static Session accepter(Document demande, Document reponse, String pair) throws GeneralSecurityException {
+        Element racine = demande.getDocumentElement();
+        byte[] nonceEmetteur = decoder(racine, NONCE);
+        byte[] cleEmetteur = decoder(racine, CLE);
+        byte[] nonce = aleatoire(32);
+        KeyPair ephemere = genererEphemere();
+        String id = Base64.getUrlEncoder().withoutPadding().encodeToString(aleatoire(16));
+        long duree = Configuration.get().getEntier("sessionDureeSecondes", 3600);
+
+        Element session = reponse.createElement(SESSION);
+        session.setAttributeNS(null, ID, id);
+        session.setAttributeNS(null, DUREE, Long.toString(duree));
+        session.setAttributeNS(null, NONCE, racine.getAttributeNS(null, NONCE));
+        session.setAttributeNS(null, CLE_EMETTEUR, racine.getAttributeNS(null, CLE));
+        session.setAttributeNS(null, NONCE_DESTINATAIRE, Base64.getEncoder().encodeToString(nonce));
+        session.setAttributeNS(null, CLE, Base64.getEncoder().encodeToString(ephemere.getPublic().getEncoded()));
+        reponse.appendChild(session);
+        return new Session(id, pair, deriver(ephemere, cleEmetteur, nonceEmetteur, nonce, id), false, duree);
+    }
+
+    /**
+     * Côté émetteur : ouvre la session décrite par la réponse du destinataire, dont la signature a déjà été vérifiée.
+     *
+     * @param reponse  le document de réponse
+     * @param nonce    le nonce envoyé dans la demande
+     * @param ephemere la paire de clés éphémère envoyée dans la demande
+     * @return la session ouverte
+     * @throws SignatureException       si la réponse ne correspond pas à la demande
+     * @throws GeneralSecurityException si la clé éphémère du destinataire est invalide
+     */
+    static Session ouvrir(Document reponse, byte[] nonce, KeyPair ephemere) throws GeneralSecurityException {
+        Element racine = reponse.getDocumentElement();
+        if (!SESSION.equals(racine.getNodeName()) || !racine.hasAttributeNS(null, ID)
+                || !MessageDigest.isEqual(nonce, decoder(racine, NONCE))
+                || !MessageDigest.isEqual(ephemere.getPublic().getEncoded(), decoder(racine, CLE_EMETTEUR))) {
+            throw new SignatureException("La réponse d'ouverture de session ne correspond pas à la demande");
+        }
+        String id = racine.getAttributeNS(null, ID);
+        long duree;
+        try {
+            duree = Long.parseLong(racine.getAttributeNS(null, DUREE));
+        } catch (NumberFormatException e) {
+            throw new SignatureException("Durée de session invalide : " + racine.getAttributeNS(null, DUREE));
+        }
+        byte[] cles = deriver(ephemere, decoder(racine, CLE), nonce, decoder(racine, NONCE_DESTINATAIRE), id);
+        return new Session(id, null, cles, true, duree);
+    }
+
+    static KeyPair genererEphemere() throws GeneralSecurityException {
+        return KeyPairGenerator.getInstance("X25519").generateKeyPair();
+    }
+
+    static byte[] aleatoire(int taille) {
+        byte[] octets = new byte[taille];
+        ALEATOIRE.nextBytes(octets);
+        return octets;
+    }
+
+    private static byte[] decoder(Element racine, String attribut) throws SignatureException {
+        try {
+            return Base64.getDecoder().decode(racine.getAttributeNS(null, attribut));
+        } catch (IllegalArgumentException e) {
+            throw new SignatureException("Attribut " + attribut + " invalide dans l'ouverture de session");
+        }
+    }
+
+    /**
+     * Calcule le secret X25519 partagé, puis en dérive 64 octets par HKDF-SHA256 (RFC 5869) : la clé HMAC du sens
+     * émetteur vers destinataire, puis celle du sens inverse.
+     */
+    private static byte[] deriver(KeyPair ephemere, byte[] clePair, byte[] nonceEmetteur, byte[] nonceDestinataire,
+                                  String id) throws GeneralSecurityException {
+        PublicKey pair = KeyFactory.getInstance("X25519").generatePublic(new X509EncodedKeySpec(clePair));
+        KeyAgreement accord = KeyAgreement.getInstance("X25519");
+        accord.init(ephemere.getPrivate());
+        accord.doPhase(pair, true);
+        byte[] secret = accord.generateSecret();
+
+        byte[] sel = Arrays.copyOf(nonceEmetteur, nonceEmetteur.length + nonceDestinataire.length);
+        System.arraycopy(nonceDestinataire, 0, sel, nonceEmetteur.length, nonceDestinataire.length);
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(sel, "HmacSHA256"));
+        byte[] pseudoAleatoire = mac.doFinal(secret);
+        Arrays.fill(secret, (byte) 0);
+
+        mac.init(new SecretKeySpec(pseudoAleatoire, "HmacSHA256"));
+        byte[] information = ("DistributedXMLDB session " + id).getBytes(StandardCharsets.UTF_8);
+        byte[] cles = new byte[64];
+        byte[] bloc = new byte[0];
+        for (int i = 0, n = 1; i < cles.length; i += bloc.length, n++) {
+            mac.update(bloc);
+            mac.update(information);
+            mac.update((byte) n);
+            bloc = mac.doFinal();
+            System.arraycopy(bloc, 0, cles, i, Math.min(bloc.length, cles.length - i));
+        }
+        return cles;
+    }
+
+    /**
+     * @return l'identifiant de la session
+     */
+    String getId() {
+        return id;
+    }
+
+    /**
+     * @return côté destinataire, l'identifiant de l'agent émetteur qui a ouvert la session ; côté émetteur, null
+     */
+    String getPair() {
+        return pair;
+    }
+
+    /**
+     * @return la clé HMAC des documents envoyés par cet agent
+     */
+    SecretKey getCleEnvoi() {
+        return cleEnvoi;
+    }
+
+    /**
+     * @return la clé HMAC des documents reçus par cet agent
+     */
+    SecretKey getCleReception() {
+        return cleReception;
+    }
+
+    /**
+     * @return le numéro de séquence du prochain document envoyé, à partir de 1
+     */
+    long prochaineSequence() {
+        return sequence.incrementAndGet();
+    }
+
+    /**
+     * @return l'instant de création de la session, en nanosecondes (voir {@link System#nanoTime()})
+     */
+    long getCreation() {
+        return creation;
+    }
+
+    /**
+     * @return true si la durée de vie de la session est écoulée
+     */
+    boolean estExpiree() {
+        return System.nanoTime() - creation >= duree;
+    }
+
+    /**
+     * Indique à l'émetteur qu'il doit ouvrir une nouvelle session : la session a servi pour le nombre maximal de
+     * documents, ou il lui reste moins d'un dixième de sa durée de vie, ce qui laisse aux documents en cours le temps
+     * d'être traités avant son expiration.
+     *
+     * @return true si la session doit être renouvelée
+     */
+    boolean doitEtreRenouvelee() {
+        return sequence.get() >= messagesMax || System.nanoTime() - creation >= duree - duree / 10;
+    }
+
+    /**
+     * Enregistre le numéro de séquence d'un document reçu, s'il n'a pas déjà été vu. Les documents peuvent arriver
+     * dans le désordre tant que leur numéro reste dans la fenêtre des derniers numéros reçus.
+     *
+     * @param numero le numéro de séquence du document
+     * @return true si le document est accepté, false s'il est rejoué ou trop ancien
+     */
+    synchronized boolean accepter(long numero) {
+        if (numero <= 0 || numero <= plusGrande - fenetre) {
+            return false;
+        }
+        if (numero > plusGrande) {
+            if (numero - plusGrande >= fenetre) {
+                vus.clear();
+            } else {
+                for (long n = plusGrande + 1; n < numero; n++) {
+                    vus.clear((int) (n % fenetre));
+                }
+            }
+            plusGrande = numero;
+        } else if (vus.get((int) (numero % fenetre))) {
+            return false;
+        }
+        vus.set((int) (numero % fenetre));
+        return true;
+    }
+
+    /**
+     * Côté destinataire : les demandes d'ouverture de session déjà acceptées, par émetteur et par nonce. Une demande
+     * est retenue pendant sessionDureeSecondes, la durée de vie de la session qu'elle a ouverte, et les demandes
+     * périmées sont oubliées à chaque nouvelle demande.
+     */
+    static final class Demandes {
+        private final Map<String, Long> vues = new ConcurrentHashMap<>();
+
+        /**
+         * Retient une demande d'ouverture de session dont la signature a déjà été vérifiée.
+         *
+         * @param demande le document de demande
+         * @param pair    l'identifiant de l'agent émetteur qui a signé la demande
+         * @throws SignatureException si la même demande a déjà été acceptée, ou si son nonce est invalide
+         */
+        void retenir(Document demande, String pair) throws SignatureException {
+            long maintenant = System.nanoTime();
+            vues.values().removeIf(expiration -> maintenant - expiration >= 0);
+            String nonce = Base64.getEncoder().encodeToString(decoder(demande.getDocumentElement(), NONCE));
+            long duree = TimeUnit.SECONDS.toNanos(Configuration.get().getEntier("sessionDureeSecondes", 3600));
+            if (vues.putIfAbsent(pair + " " + nonce, maintenant + duree) != null) {
+                throw new SignatureException("Demande d'ouverture de session rejouée par " + pair);
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package agent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Cette classe représente une trame échangée entre agents par le transport TCP. Une trame est préfixée par sa
+ * longueur et porte un type, l'identifiant de la requête à laquelle elle se rapporte (ce qui permet de multiplexer
+ * plusieurs requêtes sur une même connexion), le nom du document et son contenu :
+ * <pre>
+ * int longueur | byte type | long identifiant | short longueur du nom | nom (UTF-8) | contenu
+ * </pre>
+ * La longueur compte tous les octets qui la suivent.
+ */
+final class Trame {
+    /**
+     * Une trame de requête, qui contient un document signé.
+     */
+    static final byte REQUETE = 1;
+    /**
+     * Une trame de réponse, qui contient le document de résultat signé.
+     */
+    static final byte REPONSE = 2;
+    /**
+     * Une trame d'erreur, dont le contenu est le message d'erreur en UTF-8.
+     */
+    static final byte ERREUR = 3;
+    /**
+     * Une trame de requête, qui contient un document signé, dont l'émetteur accepte un résultat en tranches.
+     */
+    static final byte REQUETE_EN_TRANCHES = 4;
+    /**
+     * Une trame contenant une tranche d'un résultat ; les tranches d'une requête précèdent sa trame de réponse.
+     */
+    static final byte TRANCHE = 5;
+
+    private static final int ENTETE = 1 + 8 + 2;
+    private static final int NOM_MAX = 0xFFFF;
+
+    final byte type;
+    final long id;
+    final String nom;
+    final byte[] contenu;
+    private final byte[] octetsNom;
+
+    /**
+     * Crée une trame.
+     *
+     * @throws IllegalArgumentException si le nom dépasse 65535 octets en UTF-8, la taille que peut annoncer l'entête
+     */
+    Trame(byte type, long id, String nom, byte[] contenu) {
+        this.octetsNom = nom.getBytes(StandardCharsets.UTF_8);
+        if (octetsNom.length > NOM_MAX) {
+            throw new IllegalArgumentException("Nom de document de " + octetsNom.length + " octets refusé (au plus "
+                    + NOM_MAX + ")");
+        }
+        this.type = type;
+        this.id = id;
+        this.nom = nom;
+        this.contenu = contenu;
+    }
+
+    /**
+     * Encode la trame, longueur comprise, dans un tampon prêt à être écrit.
+     *
+     * @return le tampon contenant la trame
+     */
+    ByteBuffer encoder() {
+        ByteBuffer tampon = ByteBuffer.allocate(4 + ENTETE + octetsNom.length + contenu.length);
+        tampon.putInt(ENTETE + octetsNom.length + contenu.length)
+                .put(type)
+                .putLong(id)
+                .putShort((short) octetsNom.length)
+                .put(octetsNom)
+                .put(contenu)
+                .flip();
+        return tampon;
+    }
+
+    /**
+     * Extrait la prochaine trame complète d'un tampon de lecture. Le tampon est en mode lecture ; si aucune trame
+     * complète n'est disponible, sa position est laissée inchangée.
+     *
+     * @param tampon       le tampon contenant les octets reçus
+     * @param tailleMax    la taille maximale acceptée pour une trame
+     * @return la trame extraite, ou null si le tampon ne contient pas encore une trame complète
+     * @throws IOException si la trame annoncée est invalide ou dépasse la taille maximale
+     */
+    static Trame decoder(ByteBuffer tampon, int tailleMax) throws IOException {
+        if (tampon.remaining() < 4) {
+            return null;
+        }
+        int longueur = tampon.getInt(tampon.position());
+        if (longueur < ENTETE || longueur > tailleMax) {
+            throw new IOException("Trame de " + longueur + " octets refusée");
+        }
+        if (tampon.remaining() < 4 + longueur) {
+            return null;
+        }
+        tampon.getInt();
+        byte type = tampon.get();
+        long id = tampon.getLong();
+        int longueurNom = tampon.getShort() & 0xFFFF;
+        if (longueurNom > longueur - ENTETE) {
+            throw new IOException("Nom de document invalide dans la trame " + id);
+        }
+        byte[] octetsNom = new byte[longueurNom];
+        tampon.get(octetsNom);
+        byte[] contenu = new byte[longueur - ENTETE - longueurNom];
+        tampon.get(contenu);
+        return new Trame(type, id, new String(octetsNom, StandardCharsets.UTF_8), contenu);
+    }
+
+    /**
+     * Retourne un tampon de lecture pouvant recevoir au moins le nombre d'octets donné en plus de ceux qu'il contient
+     * déjà, en l'agrandissant si nécessaire. Le tampon est en mode écriture.
+     *
+     * @param tampon    le tampon de lecture
+     * @param necessaire le nombre d'octets à pouvoir recevoir
+     * @return le même tampon, ou un tampon plus grand contenant les mêmes octets
+     */
+    static ByteBuffer agrandir(ByteBuffer tampon, int necessaire) {
+        if (tampon.remaining() >= necessaire) {
+            return tampon;
+        }
+        ByteBuffer plusGrand = ByteBuffer.allocate(Math.max(tampon.capacity() * 2, tampon.position() + necessaire));
+        tampon.flip();
+        plusGrand.put(tampon);
+        return plusGrand;
+    }
+
+    /**
+     * Retourne la taille de la trame annoncée au début du tampon de lecture, ou 0 si elle n'est pas encore connue.
+     * Le tampon est en mode lecture.
+     */
+    static int tailleAnnoncee(ByteBuffer tampon) {
+        return tampon.remaining() < 4 ? 0 : 4 + tampon.getInt(tampon.position());
+    }
+}
@@ -0,0 +1,233 @@
+package agent;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.transform.TransformerException;
+import java.io.ByteArrayInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SignatureException;
+import java.util.Base64;
+import java.util.function.Consumer;
+
+/**
+ * Cette classe regroupe l'émission et la lecture d'un résultat en tranches, demandé par l'attribut TRANCHES="n" d'une
+ * requête SELECT. Le destinataire envoie le résultat en documents TRANCHE d'au plus n tuples, non signés et numérotés à
+ * partir de 1, puis un document FIN signé :
+ * <pre>
+ * &lt;TRANCHE NUMERO="1"&gt;&lt;RESULTAT&gt;...&lt;/RESULTAT&gt;&lt;/TRANCHE&gt;
+ * ...
+ * &lt;FIN TRANCHES="k" TUPLES="t"&gt;&lt;EMPREINTE&gt;...&lt;/EMPREINTE&gt;&lt;Signature .../&gt;&lt;/FIN&gt;
+ * </pre>
+ * Les tranches sont chaînées par une empreinte SHA-256 : e0 = SHA-256(requête signée), puis
+ * ei = SHA-256(e(i-1) || octets de la tranche i), et l'empreinte finale ek est signée dans le document FIN. Une seule
+ * signature couvre donc toutes les tranches, leur ordre, et la requête à laquelle elles répondent.
+ */
+final class Tranches {
+    /**
+     * L'élément racine d'un document de tranche.
+     */
+    static final String TRANCHE = "TRANCHE";
+    /**
+     * L'élément racine du document final signé.
+     */
+    static final String FIN = "FIN";
+
+    private static final String NUMERO = "NUMERO";
+    private static final String EMPREINTE = "EMPREINTE";
+    private static final String TUPLES = "TUPLES";
+
+    private Tranches() {
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] chainer(MessageDigest empreinte, byte[] precedente, byte[] tranche) {
+        empreinte.update(precedente);
+        return empreinte.digest(tranche);
+    }
+
+    /**
+     * Côté destinataire : construit et transmet les documents TRANCHE à partir des tuples reçus du
+     * {@link RouteurRequetes}, puis le document FIN à signer.
+     */
+    static final class Emetteur implements RouteurRequetes.RecepteurTranches {
+        private final MessageDigest empreinte = sha256();
+        private final Compression compression;
+        private final Consumer<byte[]> sortie;
+        private byte[] chaine;
+        private int nombre;
+        private long tuples;
+
+        /**
+         * Constructeur de la classe Emetteur.
+         *
+         * @param requete     les octets de la requête signée, qui initialisent l'empreinte
+         * @param compression la compression des tranches au codage compact, ou null pour le codage XML habituel
+         * @param sortie      le destinataire des octets de chaque tranche
+         */
+        Emetteur(byte[] requete, Compression compression, Consumer<byte[]> sortie) {
+            this.compression = compression;
+            this.sortie = sortie;
+            this.chaine = empreinte.digest(requete);
+        }
+
+        @Override
+        public void recevoir(LotColonnes lot) {
+            Document document = OutilsXML.nouveauDocument();
+            Element tranche = document.createElement(TRANCHE);
+            tranche.setAttributeNS(null, NUMERO, Integer.toString(nombre + 1));
+            document.appendChild(tranche);
+            tranche.appendChild(RouteurRequetes.resultat(lot, document, compression));
+            long debut = Metriques.debut();
+            byte[] octets;
+            try {
+                octets = OutilsXML.serialiser(document);
+            } catch (TransformerException e) {
+                throw new RuntimeException(e);
+            }
+            Metriques.fin(Etape.SERIALISATION, debut);
+            chaine = chainer(empreinte, chaine, octets);
+            nombre++;
+            tuples += lot.getTaille();
+            Metriques.compter(Metriques.Compteur.OCTETS_RESULTATS, octets.length);
+            sortie.accept(octets);
+        }
+
+        /**
+         * @return le document FIN, qui porte le nombre de tranches et de tuples émis et l'empreinte finale, à signer
+         */
+        Document fin() {
+            Document document = OutilsXML.nouveauDocument();
+            Element fin = document.createElement(FIN);
+            fin.setAttributeNS(null, RequeteSelect.TRANCHES, Integer.toString(nombre));
+            fin.setAttributeNS(null, TUPLES, Long.toString(tuples));
+            document.appendChild(fin);
+            Element empreinteFinale = document.createElement(EMPREINTE);
+            empreinteFinale.setTextContent(Base64.getEncoder().encodeToString(chaine));
+            fin.appendChild(empreinteFinale);
+            return document;
+        }
+    }
+
+    /**
+     * Côté émetteur : lit les documents reçus en réponse à une requête, met en forme chaque tranche dès son arrivée, et
+     * vérifie le document FIN. Une réponse en un seul document (requête sans TRANCHES, lot, requête incrémentale) est
+     * lue comme d'habitude par {@link Agent#lireReponse(byte[], Delta.Copie)}.
+     * <p>
+     * Les tranches sont mises en forme avant que leur empreinte ne soit vérifiée : l'affichage n'est garanti qu'une fois
+     * {@link #terminer()} retourné sans erreur. Après une erreur, les documents suivants sont ignorés. Si le
+     * destinataire rencontre une erreur pendant l'exécution, il envoie un résultat d'erreur signé à la place du
+     * document FIN.
+     */
+    static final class Lecteur implements Consumer<byte[]> {
+        private final Agent agent;
+        private final Consumer<String> affichage;
+        private final Delta.Copie copie;
+        private final MessageDigest empreinte = sha256();
+        private byte[] chaine;
+        private int nombre;
+        private long tuples;
+        private boolean termine;
+        private Exception erreur;
+
+        /**
+         * Constructeur de la classe Lecteur.
+         *
+         * @param agent     l'agent émetteur, qui vérifie les signatures
+         * @param requete   les octets de la requête signée envoyée
+         * @param affichage le destinataire des résultats mis en forme, tranche par tranche
+         * @param copie     la copie locale à laquelle appliquer une réponse incrémentale, ou null
+         */
+        Lecteur(Agent agent, byte[] requete, Consumer<String> affichage, Delta.Copie copie) {
+            this.agent = agent;
+            this.affichage = affichage;
+            this.copie = copie;
+            this.chaine = empreinte.digest(requete);
+        }
+
+        @Override
+        public synchronized void accept(byte[] octets) {
+            if (erreur != null) {
+                return;
+            }
+            try {
+                if (termine) {
+                    throw new SignatureException("Document reçu après la fin de la réponse");
+                }
+                lire(octets);
+            } catch (Exception e) {
+                erreur = e;
+            }
+        }
+
+        private void lire(byte[] octets) throws Exception {
+            // Seule une tranche est analysée avant toute vérification : elle n'est pas signée, mais chaînée.
+            String nomRacine = VerificateurFlux.racine(new ByteArrayInputStream(octets));
+            if (TRANCHE.equals(nomRacine)) {
+                long debut = Metriques.debut();
+                Element racine = OutilsXML.analyser(octets).getDocumentElement();
+                Metriques.fin(Etape.ANALYSE, debut);
+                if (!Integer.toString(nombre + 1).equals(racine.getAttributeNS(null, NUMERO))) {
+                    throw new SignatureException("Tranche " + racine.getAttributeNS(null, NUMERO)
+                            + " reçue au lieu de la tranche " + (nombre + 1));
+                }
+                Element resultat = RequeteSelect.enfant(racine, "RESULTAT");
+                if (resultat == null) {
+                    throw new IllegalArgumentException("La tranche " + (nombre + 1) + " ne contient pas de RESULTAT");
+                }
+                chaine = chainer(empreinte, chaine, octets);
+                nombre++;
+                debut = Metriques.debut();
+                StringBuilder res = new StringBuilder(1024);
+                tuples += Agent.afficherResultats(resultat, tuples, res);
+                Metriques.fin(Etape.AFFICHAGE, debut);
+                affichage.accept(res.toString());
+            } else if (FIN.equals(nomRacine)) {
+                if (agent.verifierSignataire(octets) == null) {
+                    throw new SignatureException("La signature de la réponse est incorrecte !");
+                }
+                Element racine = OutilsXML.analyser(octets).getDocumentElement();
+                Element empreinteFinale = RequeteSelect.enfant(racine, EMPREINTE);
+                if (!Integer.toString(nombre).equals(racine.getAttributeNS(null, RequeteSelect.TRANCHES))
+                        || !Long.toString(tuples).equals(racine.getAttributeNS(null, TUPLES))
+                        || empreinteFinale == null
+                        || !MessageDigest.isEqual(chaine, Base64.getDecoder().decode(empreinteFinale.getTextContent().trim()))) {
+                    throw new SignatureException("Les tranches reçues ne correspondent pas à la réponse signée !");
+                }
+                termine = true;
+            } else {
+                // Un résultat d'erreur signé peut interrompre les tranches : lireReponse lève alors l'erreur reçue
+                String resultats = agent.lireReponse(octets, copie);
+                if (nombre > 0) {
+                    throw new SignatureException("La réponse en tranches ne se termine pas par un document FIN");
+                }
+                affichage.accept(resultats);
+                termine = true;
+            }
+        }
+
+        /**
+         * Vérifie que la réponse est complète et correcte, une fois le dernier document reçu.
+         *
+         * @throws SignatureException si une tranche manque, est en trop ou a été modifiée, ou si une signature est
+         *                            incorrecte
+         * @throws Exception          si un document reçu ne peut pas être analysé
+         */
+        synchronized void terminer() throws Exception {
+            if (erreur != null) {
+                throw erreur;
+            }
+            if (!termine) {
+                throw new SignatureException("La réponse ne contient pas de document final signé");
+            }
+        }
+    }
+}
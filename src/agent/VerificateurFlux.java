@@ -0,0 +1,548 @@
+package agent;
+
+import javax.crypto.Mac;
+import javax.xml.XMLConstants;
+import javax.xml.crypto.dsig.CanonicalizationMethod;
+import javax.xml.crypto.dsig.DigestMethod;
+import javax.xml.crypto.dsig.SignatureMethod;
+import javax.xml.crypto.dsig.Transform;
+import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Cette classe vérifie la signature enveloppée d'un document XML en un seul passage sur le flux, sans construire
+ * d'arbre DOM : le document est canonisé (XML canonique inclusif 1.0, sans commentaires) au fil de la lecture StAX,
+ * en omettant l'élément Signature, et haché en SHA-256 au fur et à mesure ; seul l'élément SignedInfo est gardé en
+ * mémoire pour la vérification de la valeur de signature. La mémoire utilisée ne dépend donc pas de la taille du
+ * document.
+ * <p>
+ * Seules les signatures produites par {@link Agent#signerDocument(org.w3c.dom.Document)}, lots et signatures de
+ * session compris, sont vérifiées ainsi : une seule référence au document entier (URI ""), avec la seule transformation
+ * enveloped-signature et le condensé SHA-256, et une valeur de signature d'un {@link AlgorithmeSignature} ou
+ * HMAC-SHA256. Pour toute autre forme de signature, le verdict est {@link Verdict#NON_PRIS_EN_CHARGE} et le document
+ * doit être vérifié par le validateur DOM.
+ */
+final class VerificateurFlux {
+    private static final XMLInputFactory FABRIQUE = creerFabrique();
+
+    /**
+     * Le résultat d'une vérification.
+     */
+    enum Verdict {
+        VALIDE, INVALIDE, NON_PRIS_EN_CHARGE
+    }
+
+    /**
+     * Choisit la clé de vérification d'une signature, comme le KeySelector du validateur DOM.
+     */
+    @FunctionalInterface
+    interface Cles {
+        /**
+         * @param nom  le contenu du KeyName de la signature, ou null s'il n'y en a pas
+         * @param hmac true pour une signature HMAC-SHA256, qui se vérifie avec une clé secrète
+         * @return la clé de vérification, ou null s'il n'y en a aucune
+         * @throws GeneralSecurityException si la signature ne peut pas être vérifiée avec une clé de confiance
+         * @throws IOException              si le magasin de confiance ne peut pas être lu
+         */
+        Key cle(String nom, boolean hmac) throws GeneralSecurityException, IOException;
+    }
+
+    private VerificateurFlux() {
+    }
+
+    private static XMLInputFactory creerFabrique() {
+        XMLInputFactory fabrique = XMLInputFactory.newFactory();
+        fabrique.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        fabrique.setProperty(XMLInputFactory.IS_COALESCING, false);
+        // Comme pour le validateur DOM, un document reçu ne doit pas pouvoir déclarer de DTD ni d'entités externes.
+        fabrique.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        fabrique.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return fabrique;
+    }
+
+    /**
+     * Retourne le nom de l'élément racine d'un document, lu sans analyser la suite du document, par exemple pour
+     * choisir comment le vérifier avant de le charger.
+     *
+     * @param in le flux du document, qui n'est pas fermé par cette méthode
+     * @return le nom local de l'élément racine
+     * @throws XMLStreamException si le début du document n'est pas du XML bien formé
+     */
+    static String racine(InputStream in) throws XMLStreamException {
+        XMLStreamReader lecteur = FABRIQUE.createXMLStreamReader(in);
+        try {
+            return lecteur.nextTag() == XMLStreamConstants.START_ELEMENT ? lecteur.getLocalName() : null;
+        } finally {
+            lecteur.close();
+        }
+    }
+
+    /**
+     * Vérifie la signature enveloppée d'un document lu depuis un flux.
+     *
+     * @param in   le flux du document, qui n'est pas fermé par cette méthode
+     * @param cles le sélecteur de la clé de vérification
+     * @return le verdict
+     * @throws XMLStreamException       si le document n'est pas un document XML bien formé
+     * @throws GeneralSecurityException si la clé de vérification ne peut pas être choisie ou utilisée
+     * @throws IOException              si le flux ne peut pas être lu
+     */
+    static Verdict verifier(InputStream in, Cles cles) throws XMLStreamException, GeneralSecurityException, IOException {
+        return verifier(in, cles, null);
+    }
+
+    /**
+     * Vérifie la signature enveloppée d'un document lu depuis un flux, en relevant au passage les attributs sans espace
+     * de noms de son élément racine, par exemple ceux qui désignent la session d'un document.
+     *
+     * @param in     le flux du document, qui n'est pas fermé par cette méthode
+     * @param cles   le sélecteur de la clé de vérification
+     * @param racine la table complétée avec les attributs de l'élément racine, ou null
+     * @return le verdict
+     * @throws XMLStreamException       si le document n'est pas un document XML bien formé
+     * @throws GeneralSecurityException si la clé de vérification ne peut pas être choisie ou utilisée
+     * @throws IOException              si le flux ne peut pas être lu
+     */
+    static Verdict verifier(InputStream in, Cles cles, Map<String, String> racine)
+            throws XMLStreamException, GeneralSecurityException, IOException {
+        MessageDigest condense = MessageDigest.getInstance("SHA-256");
+        Canonicaliseur document = new Canonicaliseur(new DigestOutputStream(OutputStream.nullOutputStream(), condense));
+        ByteArrayOutputStream octetsSignedInfo = new ByteArrayOutputStream(1024);
+        Canonicaliseur signedInfo = null;
+        LectureSignature signature = null;
+        int profondeurSignature = -1;
+        boolean signatureLue = false;
+
+        Deque<Map<String, String>> portees = new ArrayDeque<>();
+        Deque<Map<String, String>> attributsXml = new ArrayDeque<>();
+        portees.push(new HashMap<>());
+        attributsXml.push(new TreeMap<>());
+        int profondeur = 0;
+        boolean apresRacine = false;
+
+        XMLStreamReader lecteur = FABRIQUE.createXMLStreamReader(in);
+        try {
+            while (lecteur.hasNext()) {
+                switch (lecteur.next()) {
+                    case XMLStreamConstants.START_ELEMENT: {
+                        Map<String, String> parent = portees.peek();
+                        Map<String, String> portee = parent;
+                        if (lecteur.getNamespaceCount() > 0) {
+                            portee = new HashMap<>(parent);
+                            for (int i = 0; i < lecteur.getNamespaceCount(); i++) {
+                                String prefixe = lecteur.getNamespacePrefix(i);
+                                String uri = lecteur.getNamespaceURI(i);
+                                portee.put(prefixe == null ? "" : prefixe, uri == null ? "" : uri);
+                            }
+                        }
+                        Map<String, String> xmlParent = attributsXml.peek();
+                        Map<String, String> xml = xmlParent;
+                        for (int i = 0; i < lecteur.getAttributeCount(); i++) {
+                            if (XMLConstants.XML_NS_URI.equals(lecteur.getAttributeNamespace(i))) {
+                                if (xml == xmlParent) {
+                                    xml = new TreeMap<>(xmlParent);
+                                }
+                                xml.put(lecteur.getAttributeLocalName(i), lecteur.getAttributeValue(i));
+                            }
+                        }
+                        profondeur++;
+                        if (profondeur == 1 && racine != null) {
+                            for (int i = 0; i < lecteur.getAttributeCount(); i++) {
+                                String espace = lecteur.getAttributeNamespace(i);
+                                if (espace == null || espace.isEmpty()) {
+                                    racine.put(lecteur.getAttributeLocalName(i), lecteur.getAttributeValue(i));
+                                }
+                            }
+                        }
+                        boolean estSignature = XMLSignature.XMLNS.equals(lecteur.getNamespaceURI())
+                                && "Signature".equals(lecteur.getLocalName());
+                        if (profondeur == 1 && estSignature) {
+                            return Verdict.NON_PRIS_EN_CHARGE;
+                        }
+                        if (estSignature && profondeurSignature < 0 && !signatureLue) {
+                            profondeurSignature = profondeur;
+                            signature = new LectureSignature();
+                        }
+                        if (profondeurSignature < 0) {
+                            document.debutElement(lecteur, portee, parent, null);
+                        } else {
+                            signature.debutElement(lecteur);
+                            if (signedInfo == null && profondeur == profondeurSignature + 1
+                                    && "SignedInfo".equals(signature.chemin.peek())) {
+                                signedInfo = new Canonicaliseur(octetsSignedInfo);
+                                // Le SignedInfo est canonisé seul : il porte toutes les déclarations d'espaces de
+                                // noms et tous les attributs xml:* dont il hérite.
+                                signedInfo.debutElement(lecteur, portee, new HashMap<>(), xmlParent);
+                                signature.signedInfo = profondeur;
+                            } else if (signature.signedInfo > 0) {
+                                signedInfo.debutElement(lecteur, portee, parent, null);
+                            }
+                        }
+                        portees.push(portee);
+                        attributsXml.push(xml);
+                        break;
+                    }
+                    case XMLStreamConstants.END_ELEMENT:
+                        if (profondeurSignature < 0) {
+                            document.finElement(lecteur);
+                        } else {
+                            signature.finElement();
+                            if (signature.signedInfo > 0) {
+                                signedInfo.finElement(lecteur);
+                                if (signature.signedInfo == profondeur) {
+                                    signedInfo.terminer();
+                                    signature.signedInfo = -1;
+                                }
+                            }
+                            if (profondeur == profondeurSignature) {
+                                profondeurSignature = -1;
+                                signatureLue = true;
+                            }
+                        }
+                        portees.pop();
+                        attributsXml.pop();
+                        profondeur--;
+                        apresRacine = profondeur == 0;
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        if (profondeur == 0) {
+                            break;
+                        }
+                        if (profondeurSignature < 0) {
+                            document.texte(lecteur.getTextCharacters(), lecteur.getTextStart(), lecteur.getTextLength());
+                        } else {
+                            signature.texte(lecteur.getTextCharacters(), lecteur.getTextStart(), lecteur.getTextLength());
+                            if (signature.signedInfo > 0) {
+                                signedInfo.texte(lecteur.getTextCharacters(), lecteur.getTextStart(), lecteur.getTextLength());
+                            }
+                        }
+                        break;
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                        if (profondeurSignature < 0) {
+                            document.instruction(lecteur.getPITarget(), lecteur.getPIData(), profondeur, apresRacine);
+                        } else if (signature.signedInfo > 0) {
+                            signedInfo.instruction(lecteur.getPITarget(), lecteur.getPIData(), 1, false);
+                        }
+                        break;
+                    case XMLStreamConstants.DTD:
+                    case XMLStreamConstants.ENTITY_REFERENCE:
+                        return Verdict.NON_PRIS_EN_CHARGE;
+                    default:
+                        // Commentaires (exclus de la forme canonique), début et fin du document.
+                        break;
+                }
+            }
+        } finally {
+            lecteur.close();
+        }
+        document.terminer();
+
+        if (signature == null) {
+            // Un document sans signature est refusé comme un document dont la signature est incorrecte.
+            return Verdict.INVALIDE;
+        }
+        if (!signature.prisEnCharge()) {
+            return Verdict.NON_PRIS_EN_CHARGE;
+        }
+        boolean hmac = SignatureMethod.HMAC_SHA256.equals(signature.methodeSignature);
+        Key cle = cles.cle(signature.nomCle, hmac);
+        if (cle == null) {
+            throw new GeneralSecurityException("Aucune clé de confiance pour vérifier cette signature");
+        }
+        byte[] valeur = Base64.getMimeDecoder().decode(signature.valeurSignature.toString());
+        boolean signatureValide;
+        if (hmac) {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(cle);
+            signatureValide = MessageDigest.isEqual(mac.doFinal(octetsSignedInfo.toByteArray()), valeur);
+        } else {
+            if (!(cle instanceof PublicKey)) {
+                throw new GeneralSecurityException("Une signature hors session se vérifie avec une clé publique");
+            }
+            AlgorithmeSignature algorithme = AlgorithmeSignature.depuisUri(signature.methodeSignature);
+            Signature verificateur = Signature.getInstance(algorithme.getAlgorithmeValeur());
+            verificateur.initVerify((PublicKey) cle);
+            verificateur.update(octetsSignedInfo.toByteArray());
+            try {
+                signatureValide = verificateur.verify(valeur);
+            } catch (SignatureException e) {
+                signatureValide = false;
+            }
+        }
+        byte[] attendu = Base64.getMimeDecoder().decode(signature.valeurCondense.toString());
+        return signatureValide && MessageDigest.isEqual(condense.digest(), attendu) ? Verdict.VALIDE : Verdict.INVALIDE;
+    }
+
+    /**
+     * Relève, pendant la lecture de l'élément Signature, les seules informations nécessaires à la vérification.
+     */
+    private static final class LectureSignature {
+        private final Deque<String> chemin = new ArrayDeque<>();
+        /**
+         * La profondeur de l'élément SignedInfo pendant sa lecture, 0 avant et -1 après.
+         */
+        private int signedInfo;
+        private String methodeCanonisation;
+        private String methodeSignature;
+        private String methodeCondense;
+        private final List<String> references = new ArrayList<>();
+        private final List<String> transformations = new ArrayList<>();
+        private final StringBuilder valeurCondense = new StringBuilder();
+        private final StringBuilder valeurSignature = new StringBuilder();
+        private StringBuilder nom;
+        private String nomCle;
+        private boolean autreElement;
+
+        private void debutElement(XMLStreamReader lecteur) {
+            String element = XMLSignature.XMLNS.equals(lecteur.getNamespaceURI()) ? lecteur.getLocalName() : "?";
+            String parent = chemin.isEmpty() ? "" : chemin.peek();
+            chemin.push(element);
+            String algorithme = lecteur.getAttributeValue(null, "Algorithm");
+            switch (parent + "/" + element) {
+                case "/Signature":
+                case "Signature/SignedInfo":
+                case "Signature/SignatureValue":
+                case "Signature/KeyInfo":
+                case "KeyInfo/KeyValue":
+                case "Reference/Transforms":
+                case "Reference/DigestValue":
+                    break;
+                case "SignedInfo/CanonicalizationMethod":
+                    methodeCanonisation = algorithme;
+                    break;
+                case "SignedInfo/SignatureMethod":
+                    methodeSignature = algorithme;
+                    break;
+                case "SignedInfo/Reference":
+                    references.add(lecteur.getAttributeValue(null, "URI"));
+                    break;
+                case "Transforms/Transform":
+                    transformations.add(algorithme);
+                    break;
+                case "Reference/DigestMethod":
+                    methodeCondense = algorithme;
+                    break;
+                case "KeyInfo/KeyName":
+                    nom = new StringBuilder();
+                    break;
+                default:
+                    // Contenu de KeyValue, ou élément que le validateur de flux ne sait pas interpréter.
+                    if (!chemin.contains("KeyValue")) {
+                        autreElement = true;
+                    }
+            }
+        }
+
+        private void finElement() {
+            String element = chemin.pop();
+            if ("KeyName".equals(element) && nom != null && nomCle == null) {
+                nomCle = nom.toString().trim();
+                nom = null;
+            }
+        }
+
+        private void texte(char[] caracteres, int debut, int longueur) {
+            String element = chemin.peek();
+            if ("DigestValue".equals(element)) {
+                valeurCondense.append(caracteres, debut, longueur);
+            } else if ("SignatureValue".equals(element)) {
+                valeurSignature.append(caracteres, debut, longueur);
+            } else if ("KeyName".equals(element) && nom != null) {
+                nom.append(caracteres, debut, longueur);
+            }
+        }
+
+        /**
+         * @return true si la signature a exactement la forme de celles produites pour un document simple
+         */
+        private boolean prisEnCharge() {
+            return !autreElement
+                    && CanonicalizationMethod.INCLUSIVE.equals(methodeCanonisation)
+                    && (AlgorithmeSignature.depuisUri(methodeSignature) != null
+                    || SignatureMethod.HMAC_SHA256.equals(methodeSignature))
+                    && references.size() == 1 && "".equals(references.get(0))
+                    && transformations.size() == 1 && Transform.ENVELOPED.equals(transformations.get(0))
+                    && DigestMethod.SHA256.equals(methodeCondense);
+        }
+    }
+
+    /**
+     * Écrit la forme canonique (XML canonique inclusif 1.0, sans commentaires) des événements StAX qu'on lui transmet.
+     */
+    private static final class Canonicaliseur {
+        private final Writer sortie;
+
+        private Canonicaliseur(OutputStream out) {
+            this.sortie = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 16 * 1024);
+        }
+
+        /**
+         * Écrit la balise ouvrante de l'élément courant du lecteur.
+         *
+         * @param portee       les espaces de noms déclarés pour l'élément (préfixe vide pour l'espace par défaut)
+         * @param porteeParent les espaces de noms déjà déclarés par l'élément parent dans la sortie
+         * @param xmlHerites   les attributs xml:* hérités des ancêtres, à écrire sur un élément isolé, ou null
+         */
+        private void debutElement(XMLStreamReader lecteur, Map<String, String> portee,
+                                  Map<String, String> porteeParent, Map<String, String> xmlHerites) throws IOException {
+            sortie.write('<');
+            ecrireNom(lecteur.getPrefix(), lecteur.getLocalName());
+            if (portee != porteeParent) {
+                TreeMap<String, String> declarations = new TreeMap<>();
+                for (Map.Entry<String, String> espace : portee.entrySet()) {
+                    String parent = porteeParent.getOrDefault(espace.getKey(), "");
+                    if (!espace.getValue().equals(parent) && (!espace.getValue().isEmpty() || espace.getKey().isEmpty())) {
+                        declarations.put(espace.getKey(), espace.getValue());
+                    }
+                }
+                for (Map.Entry<String, String> declaration : declarations.entrySet()) {
+                    sortie.write(declaration.getKey().isEmpty() ? " xmlns" : " xmlns:" + declaration.getKey());
+                    sortie.write("=\"");
+                    ecrireAttribut(declaration.getValue());
+                    sortie.write('"');
+                }
+            }
+            TreeMap<String, String[]> attributs = new TreeMap<>();
+            for (int i = 0; i < lecteur.getAttributeCount(); i++) {
+                String espace = lecteur.getAttributeNamespace(i);
+                String prefixe = lecteur.getAttributePrefix(i);
+                attributs.put((espace == null ? "" : espace) + ' ' + lecteur.getAttributeLocalName(i),
+                        new String[]{prefixe, lecteur.getAttributeLocalName(i), lecteur.getAttributeValue(i)});
+            }
+            if (xmlHerites != null) {
+                for (Map.Entry<String, String> herite : xmlHerites.entrySet()) {
+                    attributs.putIfAbsent(XMLConstants.XML_NS_URI + ' ' + herite.getKey(),
+                            new String[]{XMLConstants.XML_NS_PREFIX, herite.getKey(), herite.getValue()});
+                }
+            }
+            for (String[] attribut : attributs.values()) {
+                sortie.write(' ');
+                ecrireNom(attribut[0], attribut[1]);
+                sortie.write("=\"");
+                ecrireAttribut(attribut[2]);
+                sortie.write('"');
+            }
+            sortie.write('>');
+        }
+
+        private void finElement(XMLStreamReader lecteur) throws IOException {
+            sortie.write("</");
+            ecrireNom(lecteur.getPrefix(), lecteur.getLocalName());
+            sortie.write('>');
+        }
+
+        private void texte(char[] caracteres, int debut, int longueur) throws IOException {
+            int depuis = debut;
+            for (int i = debut; i < debut + longueur; i++) {
+                String remplacement;
+                switch (caracteres[i]) {
+                    case '&':
+                        remplacement = "&amp;";
+                        break;
+                    case '<':
+                        remplacement = "&lt;";
+                        break;
+                    case '>':
+                        remplacement = "&gt;";
+                        break;
+                    case '\r':
+                        remplacement = "&#xD;";
+                        break;
+                    default:
+                        continue;
+                }
+                sortie.write(caracteres, depuis, i - depuis);
+                sortie.write(remplacement);
+                depuis = i + 1;
+            }
+            sortie.write(caracteres, depuis, debut + longueur - depuis);
+        }
+
+        /**
+         * Écrit une instruction de traitement ; hors de l'élément racine, elle est séparée de lui par un saut de ligne.
+         */
+        private void instruction(String cible, String donnees, int profondeur, boolean apresRacine) throws IOException {
+            if (profondeur == 0 && apresRacine) {
+                sortie.write('\n');
+            }
+            sortie.write("<?");
+            sortie.write(cible);
+            if (donnees != null && !donnees.isEmpty()) {
+                sortie.write(' ');
+                sortie.write(donnees);
+            }
+            sortie.write("?>");
+            if (profondeur == 0 && !apresRacine) {
+                sortie.write('\n');
+            }
+        }
+
+        private void ecrireNom(String prefixe, String nom) throws IOException {
+            if (prefixe != null && !prefixe.isEmpty()) {
+                sortie.write(prefixe);
+                sortie.write(':');
+            }
+            sortie.write(nom);
+        }
+
+        private void ecrireAttribut(String valeur) throws IOException {
+            for (int i = 0; i < valeur.length(); i++) {
+                char c = valeur.charAt(i);
+                switch (c) {
+                    case '&':
+                        sortie.write("&amp;");
+                        break;
+                    case '<':
+                        sortie.write("&lt;");
+                        break;
+                    case '"':
+                        sortie.write("&quot;");
+                        break;
+                    case '\t':
+                        sortie.write("&#x9;");
+                        break;
+                    case '\n':
+                        sortie.write("&#xA;");
+                        break;
+                    case '\r':
+                        sortie.write("&#xD;");
+                        break;
+                    default:
+                        sortie.write(c);
+                }
+            }
+        }
+
+        private void terminer() throws IOException {
+            sortie.flush();
+        }
+    }
+}